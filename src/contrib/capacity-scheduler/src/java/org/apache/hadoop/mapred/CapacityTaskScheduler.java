@@ -794,6 +794,12 @@ class CapacityTaskScheduler extends TaskScheduler {
       ClusterStatus clusterStatus = 
         scheduler.taskTrackerManager.getClusterStatus();
       int numTaskTrackers = clusterStatus.getTaskTrackers();
+      // the maps of a pipelined job wait until its reduces run, while
+      // they still fit in the free reduce slots
+      if (job.waitsForReduces(clusterStatus.getMaxReduceTasks() - 
+                              clusterStatus.getReduceTasks())) {
+        return null;
+      }
       return job.obtainNewMapTask(taskTracker, numTaskTrackers, 
           scheduler.taskTrackerManager.getNumberOfUniqueHosts());
     }
@@ -20,6 +20,7 @@ package org.apache.hadoop.contrib.utils.join;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Set;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
@@ -41,6 +42,9 @@ import org.apache.hadoop.mapred.Reporter;
  * amounts to choosing the join key. This class provides the appropriate plugin
  * points for the user defined subclasses to implement the appropriate logic.
  * 
+ * The group keys that {@link SkewedKeySampler} found too frequent for one
+ * reducer are split across several.
+ * 
  */
 public abstract class DataJoinMapperBase extends JobBase {
 
@@ -52,11 +56,22 @@ public abstract class DataJoinMapperBase extends JobBase {
 
   protected Reporter reporter = null;
 
+  private Set<String> skewedKeys = null;
+
+  private String skewTag = null;
+
+  private int skewSplits = 1;
+
+  private int nextSplit = 0;
+
   public void configure(JobConf job) {
     super.configure(job);
     this.job = job;
     this.inputFile = job.get("map.input.file");
     this.inputTag = generateInputTag(this.inputFile);
+    this.skewedKeys = SkewedKeySampler.getSkewedKeys(job);
+    this.skewTag = job.get(SkewedKeySampler.SKEW_TAG);
+    this.skewSplits = SkewedKeySampler.getSkewSplits(job);
   }
 
   /**
@@ -103,10 +118,35 @@ public abstract class DataJoinMapperBase extends JobBase {
       addLongValue("nullGroupKeyCount", 1);
       return;
     }
+    if (skewSplits > 1 && skewedKeys.contains(groupKey.toString())) {
+      collectSkewed(groupKey, aRecord, output);
+      return;
+    }
     output.collect(groupKey, aRecord);
     addLongValue("collectedCount", 1);
   }
 
+  /**
+   * Send a record of the skewed source to the next of the reducers its key
+   * is split across, and a record of any other source to all of them.
+   */
+  private void collectSkewed(Text groupKey, TaggedMapOutput aRecord,
+                             OutputCollector output) throws IOException {
+    String prefix = groupKey.toString() + SkewedKeySampler.SEPARATOR;
+    if (skewTag.equals(aRecord.getTag().toString())) {
+      output.collect(new Text(prefix + nextSplit), aRecord);
+      nextSplit = (nextSplit + 1) % skewSplits;
+      addLongValue("skewSplitCount", 1);
+      addLongValue("collectedCount", 1);
+      return;
+    }
+    for (int i = 0; i < skewSplits; i++) {
+      output.collect(new Text(prefix + i), aRecord);
+    }
+    addLongValue("skewReplicatedCount", skewSplits);
+    addLongValue("collectedCount", 1);
+  }
+
   public void close() throws IOException {
     if (this.reporter != null) {
       this.reporter.setStatus(super.getReport());
@@ -43,6 +43,10 @@ import org.apache.hadoop.mapred.Reporter;
  * It can return null if it decides to the records do not meet certain
  * conditions.
  * 
+ * The values of a group are kept serialized, and spilled to disk when they
+ * take more than <tt>mapred.join.group.memory.mb</tt>. The parts of a group
+ * key split across reducers by the mapper are joined under the group key.
+ * 
  */
 public abstract class DataJoinReducerBase extends JobBase {
 
@@ -58,6 +62,8 @@ public abstract class DataJoinReducerBase extends JobBase {
 
   protected JobConf job;
 
+  private boolean skewed = false;
+
   public void close() throws IOException {
     if (this.reporter != null) {
       this.reporter.setStatus(super.getReport());
@@ -68,18 +74,19 @@ public abstract class DataJoinReducerBase extends JobBase {
     super.configure(job);
     this.job = job;
     this.maxNumOfValuesPerGroup = job.getLong("datajoin.maxNumOfValuesPerGroup", 100);
+    this.skewed = !SkewedKeySampler.getSkewedKeys(job).isEmpty();
   }
 
   /**
    * The subclass can provide a different implementation on ResetableIterator.
    * This is necessary if the number of values in a reduce call is very high.
    * 
-   * The default provided here uses ArrayListBackedIterator
+   * The default provided here uses SpillableResetableIterator
    * 
    * @return an Object of ResetableIterator.
    */
   protected ResetableIterator createResetableIterator() {
-    return new ArrayListBackedIterator();
+    return new SpillableResetableIterator(job);
   }
 
   /**
@@ -125,6 +132,13 @@ public abstract class DataJoinReducerBase extends JobBase {
     if (this.reporter == null) {
       this.reporter = reporter;
     }
+    if (skewed) {
+      String groupKey = key.toString();
+      int split = groupKey.lastIndexOf(SkewedKeySampler.SEPARATOR);
+      if (split >= 0) {
+        key = new Text(groupKey.substring(0, split));
+      }
+    }
 
     SortedMap<Object, ResetableIterator> groups = regroup(key, values, reporter);
     Object[] tags = groups.keySet().toArray();
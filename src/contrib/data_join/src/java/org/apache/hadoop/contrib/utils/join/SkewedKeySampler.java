@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.contrib.utils.join;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * This class finds the group keys of a data join job that are too frequent
+ * for one reducer, by running the mapper of the job over the first records
+ * of each of its splits.
+ * 
+ * The keys found are stored in <tt>datajoin.skew.keys</tt>. For each of
+ * them, the mapper sends the records of the source tagged
+ * <tt>datajoin.skew.tag</tt> round robin to <tt>datajoin.skew.splits</tt>
+ * reducers, by default as many as the job has, and the records of every
+ * other source to all of those reducers. Each reducer thus joins a part of
+ * the skewed source with all of the others, which is only the same as
+ * joining them in one reducer for an inner join.
+ * 
+ */
+public class SkewedKeySampler {
+
+  public static final String SKEW_KEYS = "datajoin.skew.keys";
+
+  public static final String SKEW_TAG = "datajoin.skew.tag";
+
+  public static final String SKEW_SPLITS = "datajoin.skew.splits";
+
+  /** Separates a skewed group key from the reducer it is sent to. */
+  static final char SEPARATOR = '\u0000';
+
+  /**
+   * Sample the input of a job for skewed group keys.
+   * 
+   * @param job
+   *          the job, whose mapper extends DataJoinMapperBase
+   * @param recordsPerSplit
+   *          the records read from the start of each split
+   * @param minFraction
+   *          the fraction of the records sampled above which a key is skewed
+   * @return the skewed keys, the most frequent first
+   * @throws IOException
+   */
+  public static String[] sample(JobConf job, int recordsPerSplit,
+                                float minFraction) throws IOException {
+    String tag = job.get(SKEW_TAG);
+    Map<String, Long> counts = new HashMap<String, Long>();
+    long total = 0;
+    InputSplit[] splits =
+      job.getInputFormat().getSplits(job, job.getNumMapTasks());
+    for (InputSplit split : splits) {
+      JobConf conf = new JobConf(job);
+      if (split instanceof FileSplit) {
+        conf.set("map.input.file", ((FileSplit) split).getPath().toString());
+      }
+      DataJoinMapperBase mapper = (DataJoinMapperBase)
+        ReflectionUtils.newInstance(job.getMapperClass(), conf);
+      RecordReader reader =
+        job.getInputFormat().getRecordReader(split, conf, Reporter.NULL);
+      try {
+        Object key = reader.createKey();
+        Object value = reader.createValue();
+        for (int i = 0; i < recordsPerSplit && reader.next(key, value); i++) {
+          TaggedMapOutput aRecord = mapper.generateTaggedMapOutput(value);
+          if (aRecord == null ||
+              (tag != null && !tag.equals(aRecord.getTag().toString()))) {
+            continue;
+          }
+          Text groupKey = mapper.generateGroupKey(aRecord);
+          if (groupKey == null) {
+            continue;
+          }
+          Long count = counts.get(groupKey.toString());
+          counts.put(groupKey.toString(), count == null ? 1 : count + 1);
+          total++;
+        }
+      } finally {
+        reader.close();
+        mapper.close();
+      }
+    }
+    List<Map.Entry<String, Long>> skewed =
+      new ArrayList<Map.Entry<String, Long>>();
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      if (entry.getValue() >= minFraction * total) {
+        skewed.add(entry);
+      }
+    }
+    Collections.sort(skewed,
+        new Comparator<Map.Entry<String, Long>>() {
+          public int compare(Map.Entry<String, Long> a,
+                             Map.Entry<String, Long> b) {
+            return b.getValue().compareTo(a.getValue());
+          }
+        });
+    String[] keys = new String[skewed.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = skewed.get(i).getKey();
+    }
+    return keys;
+  }
+
+  /**
+   * Sample the input of a job for skewed group keys, and split those keys
+   * across the reducers of the job.
+   * 
+   * @return the skewed keys
+   * @throws IOException
+   */
+  public static String[] setSkewedKeys(JobConf job, int recordsPerSplit,
+                                       float minFraction) throws IOException {
+    String[] keys = sample(job, recordsPerSplit, minFraction);
+    setSkewedKeys(job, keys);
+    return keys;
+  }
+
+  /**
+   * Split the given group keys across the reducers of a job.
+   */
+  public static void setSkewedKeys(JobConf job, String[] keys) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) {
+        sb.append(StringUtils.COMMA);
+      }
+      sb.append(StringUtils.escapeString(keys[i]));
+    }
+    job.set(SKEW_KEYS, sb.toString());
+  }
+
+  /**
+   * The group keys split across reducers, none if the job does not name the
+   * source to split.
+   */
+  static Set<String> getSkewedKeys(JobConf job) {
+    Set<String> keys = new HashSet<String>();
+    String value = job.get(SKEW_KEYS);
+    if (job.get(SKEW_TAG) != null && value != null && value.length() > 0) {
+      for (String key : StringUtils.split(value)) {
+        keys.add(StringUtils.unEscapeString(key));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * The number of reducers a skewed group key is split across.
+   */
+  static int getSkewSplits(JobConf job) {
+    return job.getInt(SKEW_SPLITS, job.getNumReduceTasks());
+  }
+}
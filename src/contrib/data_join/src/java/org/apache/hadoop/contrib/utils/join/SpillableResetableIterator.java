@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.contrib.utils.join;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.join.SpillableIterator;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * This class provides an implementation of ResetableIterator that keeps the
+ * values serialized instead of as objects, and spills them to a local file
+ * once they take more than <tt>mapred.join.group.memory.mb</tt>. Each value
+ * returned is a new instance of the class of the first value added.
+ */
+public class SpillableResetableIterator implements ResetableIterator {
+
+  private final JobConf job;
+
+  private SpillableIterator<Writable> data;
+
+  private Class<? extends Writable> valueClass = null;
+
+  public SpillableResetableIterator(JobConf job) {
+    this.job = job;
+    this.data = new SpillableIterator<Writable>(job);
+  }
+
+  public void add(Object item) {
+    if (valueClass == null) {
+      valueClass = ((Writable) item).getClass();
+    }
+    try {
+      data.add((Writable) item);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public boolean hasNext() {
+    return data.hasNext();
+  }
+
+  public Object next() {
+    if (!data.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Writable value = ReflectionUtils.newInstance(valueClass, job);
+    try {
+      data.next(value);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return value;
+  }
+
+  public void remove() {
+
+  }
+
+  public void reset() {
+    data.reset();
+  }
+
+  public void close() throws IOException {
+    data.close();
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.contrib.utils.join;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+public class TestSkewedJoin extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "skewedjoin");
+
+  private JobConf job;
+
+  @Override
+  protected void setUp() throws IOException {
+    job = new JobConf();
+    FileSystem.getLocal(job).delete(TEST_DIR, true);
+    job.set("mapred.local.dir", new Path(TEST_DIR, "local").toString());
+    job.setNumReduceTasks(3);
+    job.setLong("datajoin.maxNumOfValuesPerGroup", Long.MAX_VALUE);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    FileSystem.getLocal(job).delete(TEST_DIR, true);
+  }
+
+  /* Collects the map output by key, and the reduce output as strings. */
+  private class Collector implements OutputCollector {
+    Map<String, List<Writable>> groups = new TreeMap<String, List<Writable>>();
+    List<String> output = new ArrayList<String>();
+
+    public void collect(Object key, Object value) {
+      if (value instanceof TaggedMapOutput) {
+        List<Writable> group = groups.get(key.toString());
+        if (group == null) {
+          group = new ArrayList<Writable>();
+          groups.put(key.toString(), group);
+        }
+        group.add(WritableUtils.clone((Writable) value, job));
+      } else {
+        output.add(key + "\t" + value);
+      }
+    }
+  }
+
+  private void map(Collector collector, String file, String[] lines)
+    throws IOException {
+    JobConf conf = new JobConf(job);
+    conf.set("map.input.file", file);
+    SampleDataJoinMapper mapper = new SampleDataJoinMapper();
+    mapper.configure(conf);
+    for (String line : lines) {
+      mapper.map(null, new Text(line), collector, Reporter.NULL);
+    }
+    mapper.close();
+  }
+
+  private List<String> join() throws IOException {
+    Collector mapOutput = new Collector();
+    map(mapOutput, "big", new String[] {
+        "hot\tb0", "cold\tb1", "hot\tb2", "hot\tb3", "hot\tb4", "hot\tb5" });
+    map(mapOutput, "small", new String[] { "hot\ts0", "cold\ts1" });
+
+    Collector reduceOutput = new Collector();
+    SampleDataJoinReducer reducer = new SampleDataJoinReducer();
+    reducer.configure(job);
+    for (Map.Entry<String, List<Writable>> group :
+         mapOutput.groups.entrySet()) {
+      reducer.reduce(new Text(group.getKey()), group.getValue().iterator(),
+                     reduceOutput, Reporter.NULL);
+    }
+    reducer.close();
+    Collections.sort(reduceOutput.output);
+    return reduceOutput.output;
+  }
+
+  public void testSkewedJoin() throws IOException {
+    List<String> expected = join();
+    assertEquals(6, expected.size());
+
+    job.set(SkewedKeySampler.SKEW_TAG, "big");
+    SkewedKeySampler.setSkewedKeys(job, new String[] { "hot", "a,b" });
+    assertEquals(2, SkewedKeySampler.getSkewedKeys(job).size());
+    assertTrue(SkewedKeySampler.getSkewedKeys(job).contains("a,b"));
+
+    Collector mapOutput = new Collector();
+    map(mapOutput, "big", new String[] { "hot\tb0", "hot\tb1", "hot\tb2",
+                                         "hot\tb3", "cold\tb4" });
+    map(mapOutput, "small", new String[] { "hot\ts0" });
+    // the hot key is split three ways, with the small source in each part
+    assertEquals(4, mapOutput.groups.size());
+    assertEquals(3, mapOutput.groups.get("hot\u00000").size());
+    assertEquals(2, mapOutput.groups.get("hot\u00002").size());
+
+    assertEquals(expected, join());
+  }
+
+  public void testSpilledGroups() throws IOException {
+    List<String> expected = join();
+    job.setInt("mapred.join.group.memory.mb", 0);
+    assertEquals(expected, join());
+  }
+}
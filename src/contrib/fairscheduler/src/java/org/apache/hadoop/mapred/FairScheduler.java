@@ -238,9 +238,26 @@ public class FairScheduler extends TaskScheduler {
     int totalMapSlots = getTotalSlots(TaskType.MAP);
     int totalReduceSlots = getTotalSlots(TaskType.REDUCE);
     
+    // The maps of a pipelined job wait until its reduces run (see
+    // JobInProgress.waitsForReduces), so look for reduces first while
+    // such a job is waiting. A job stops waiting once the free reduce
+    // slots can no longer hold its remaining reduces.
+    int freeReduceSlots = totalReduceSlots - 
+        taskTrackerManager.getClusterStatus().getReduceTasks();
+    Set<JobInProgress> waitingJobs = new HashSet<JobInProgress>();
+    for (JobInProgress job: infos.keySet()) {
+      if (job.getStatus().getRunState() == JobStatus.RUNNING &&
+          job.waitsForReduces(freeReduceSlots)) {
+        waitingJobs.add(job);
+      }
+    }
+    boolean reducesFirst = !waitingJobs.isEmpty();
+
     // Scan to see whether any job needs to run a map, then a reduce
     ArrayList<Task> tasks = new ArrayList<Task>();
-    TaskType[] types = new TaskType[] {TaskType.MAP, TaskType.REDUCE};
+    TaskType[] types = reducesFirst ?
+        new TaskType[] {TaskType.REDUCE, TaskType.MAP} :
+        new TaskType[] {TaskType.MAP, TaskType.REDUCE};
     for (TaskType taskType: types) {
       boolean canAssign = (taskType == TaskType.MAP) ? 
           loadMgr.canAssignMap(tracker, runnableMaps, totalMapSlots) :
@@ -250,7 +267,8 @@ public class FairScheduler extends TaskScheduler {
         List<JobInProgress> candidates = new ArrayList<JobInProgress>();
         for (JobInProgress job: infos.keySet()) {
           if (job.getStatus().getRunState() == JobStatus.RUNNING && 
-              neededTasks(job, taskType) > 0) {
+              neededTasks(job, taskType) > 0 &&
+              !(taskType == TaskType.MAP && waitingJobs.contains(job))) {
             candidates.add(job);
           }
         }
@@ -1059,6 +1059,29 @@ public class TestFairScheduler extends TestCase {
                scheduler.infos.get(job2).reduceFairShare);
   }
   
+  /**
+   * This test submits two jobs that pipeline their map output and need 3 of
+   * the 4 reduce slots each. Job 1 launches two reduces and job 2, whose
+   * deficit then grows past job 1's, takes the other two slots. Neither job
+   * can launch all of its reduces, so their maps must no longer wait for
+   * them.
+   */
+  public void testPipelinedJobsSharingReduceSlots() throws IOException {
+    conf.setBoolean("mapred.map.pipeline", true);
+    submitJob(JobStatus.RUNNING, 10, 3);
+    advanceTime(100);
+    submitJob(JobStatus.RUNNING, 10, 3);
+
+    checkAssignment("tt1", "attempt_test_0001_r_000001_0 on tt1");
+    checkAssignment("tt1", "attempt_test_0001_r_000002_0 on tt1");
+    advanceTime(1000);
+    checkAssignment("tt2", "attempt_test_0002_r_000003_0 on tt2");
+    checkAssignment("tt2", "attempt_test_0002_r_000004_0 on tt2");
+    // all reduce slots are taken, so the maps run
+    checkAssignment("tt1", "attempt_test_0001_m_000005_0 on tt1");
+    checkAssignment("tt2", "attempt_test_0001_m_000006_0 on tt2");
+  }
+  
   private void advanceTime(long time) {
     clock.advance(time);
     scheduler.update();
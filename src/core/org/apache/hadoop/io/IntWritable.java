@@ -66,7 +66,8 @@ public class IntWritable implements WritableComparable {
   }
 
   /** A Comparator optimized for IntWritable. */ 
-  public static class Comparator extends WritableComparator {
+  public static class Comparator extends WritableComparator
+    implements NormalizedKeyComparator {
     public Comparator() {
       super(IntWritable.class);
     }
@@ -77,6 +78,15 @@ public class IntWritable implements WritableComparable {
       int thatValue = readInt(b2, s2);
       return (thisValue<thatValue ? -1 : (thisValue==thatValue ? 0 : 1));
     }
+
+    /** The value itself. */
+    public int normalizedKey(byte[] b, int s, int l) {
+      return readInt(b, s);
+    }
+
+    public boolean isNormalizedKeyExact() {
+      return true;
+    }
   }
 
   static {                                        // register this comparator
@@ -66,7 +66,8 @@ public class LongWritable implements WritableComparable {
   }
 
   /** A Comparator optimized for LongWritable. */ 
-  public static class Comparator extends WritableComparator {
+  public static class Comparator extends WritableComparator
+    implements NormalizedKeyComparator {
     public Comparator() {
       super(LongWritable.class);
     }
@@ -77,6 +78,15 @@ public class LongWritable implements WritableComparable {
       long thatValue = readLong(b2, s2);
       return (thisValue<thatValue ? -1 : (thisValue==thatValue ? 0 : 1));
     }
+
+    /** The high word of the value. */
+    public int normalizedKey(byte[] b, int s, int l) {
+      return readInt(b, s);
+    }
+
+    public boolean isNormalizedKeyExact() {
+      return false;
+    }
   }
 
   /** A decreasing Comparator optimized for LongWritable. */ 
@@ -87,6 +97,9 @@ public class LongWritable implements WritableComparable {
     public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
       return -super.compare(b1, s1, l1, b2, s2, l2);
     }
+    public int normalizedKey(byte[] b, int s, int l) {
+      return ~super.normalizedKey(b, s, l);
+    }
   }
 
   static {                                       // register default comparator
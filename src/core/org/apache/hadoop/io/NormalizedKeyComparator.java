@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.io;
+
+/**
+ * A {@link RawComparator} that can encode a prefix of a serialized key as
+ * an int whose order agrees with the comparator's: if the normalized key
+ * of one key is less than that of another, the first key compares less.
+ * Keys with equal normalized keys must still be compared in full, unless
+ * the normalized key is exact.
+ * @param <T>
+ */
+public interface NormalizedKeyComparator<T> extends RawComparator<T> {
+
+  /**
+   * The normalized key of the serialized key in <code>b[s..s+l)</code>.
+   */
+  public int normalizedKey(byte[] b, int s, int l);
+
+  /**
+   * Whether keys with equal normalized keys always compare equal.
+   */
+  public boolean isNormalizedKeyExact();
+
+}
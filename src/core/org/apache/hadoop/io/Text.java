@@ -294,7 +294,8 @@ public class Text extends BinaryComparable
   }
 
   /** A WritableComparator optimized for Text keys. */
-  public static class Comparator extends WritableComparator {
+  public static class Comparator extends WritableComparator
+    implements NormalizedKeyComparator {
     public Comparator() {
       super(Text.class);
     }
@@ -305,6 +306,23 @@ public class Text extends BinaryComparable
       int n2 = WritableUtils.decodeVIntSize(b2[s2]);
       return compareBytes(b1, s1+n1, l1-n1, b2, s2+n2, l2-n2);
     }
+
+    /** The first four bytes of the text, padded with zeros. */
+    public int normalizedKey(byte[] b, int s, int l) {
+      int n = WritableUtils.decodeVIntSize(b[s]);
+      int key = 0;
+      for (int i = 0; i < 4; i++) {
+        key <<= 8;
+        if (n + i < l) {
+          key |= b[s + n + i] & 0xff;
+        }
+      }
+      return key ^ Integer.MIN_VALUE;
+    }
+
+    public boolean isNormalizedKeyExact() {
+      return false;
+    }
   }
 
   static {
@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 
 import org.apache.commons.logging.Log;
@@ -47,10 +48,31 @@ public class ProcfsBasedProcessTree {
       .getLog("org.apache.hadoop.mapred.ProcfsBasedProcessTree");
 
   private static final String PROCFS = "/proc/";
+  private static final String READ_BYTES = "read_bytes:";
+  private static final String WRITE_BYTES = "write_bytes:";
   public static final long DEFAULT_SLEEPTIME_BEFORE_SIGKILL = 5000L;
   private long sleepTimeBeforeSigKill = DEFAULT_SLEEPTIME_BEFORE_SIGKILL;
   private static final Pattern PROCFS_STAT_FILE_FORMAT = Pattern
-      .compile("^([0-9-]+)\\s([^\\s]+)\\s[^\\s]\\s([0-9-]+)\\s([0-9-]+)\\s([0-9-]+)\\s([0-9-]+\\s){16}([0-9]+)(\\s[0-9-]+){16}");
+      .compile("^([0-9-]+)\\s([^\\s]+)\\s[^\\s]\\s([0-9-]+)\\s([0-9-]+)\\s([0-9-]+)\\s([0-9-]+\\s){7}([0-9]+)\\s([0-9]+)\\s([0-9-]+\\s){7}([0-9]+)(\\s[0-9-]+){16}");
+
+  /** The length of a clock tick in milliseconds, as used by /proc/[pid]/stat. */
+  public static final long JIFFY_LENGTH_IN_MILLIS;
+  static {
+    long jiffiesPerSecond = 100;
+    if (System.getProperty("os.name").startsWith("Linux")) {
+      try {
+        ShellCommandExecutor shexec =
+          new ShellCommandExecutor(new String[] { "getconf", "CLK_TCK" });
+        shexec.execute();
+        jiffiesPerSecond = Long.parseLong(shexec.getOutput().trim());
+      } catch (IOException e) {
+        LOG.debug("Unable to read CLK_TCK, assuming " + jiffiesPerSecond + ". " + e);
+      } catch (NumberFormatException e) {
+        LOG.debug("Unable to read CLK_TCK, assuming " + jiffiesPerSecond + ". " + e);
+      }
+    }
+    JIFFY_LENGTH_IN_MILLIS = Math.max(1, 1000 / jiffiesPerSecond);
+  }
 
   private Integer pid = -1;
 
@@ -123,7 +145,9 @@ public class ProcfsBasedProcessTree {
 
       // now start constructing the process-tree
       LinkedList<ProcessInfo> pInfoQueue = new LinkedList<ProcessInfo>();
-      pInfoQueue.addAll(me.getChildren());
+      if (me != null) {
+        pInfoQueue.addAll(me.getChildren());
+      }
       while (!pInfoQueue.isEmpty()) {
         ProcessInfo pInfo = pInfoQueue.remove();
         if (!processTree.containsKey(pInfo.getPid())) {
@@ -132,6 +156,10 @@ public class ProcfsBasedProcessTree {
         pInfoQueue.addAll(pInfo.getChildren());
       }
 
+      for (ProcessInfo pInfo : processTree.values()) {
+        readIo(pInfo);
+      }
+
       if (LOG.isDebugEnabled()) {
         // Log.debug the ProcfsBasedProcessTree
         LOG.debug(this.toString());
@@ -140,6 +168,26 @@ public class ProcfsBasedProcessTree {
     return this;
   }
 
+  /**
+   * Update the usage of the processes already in the process-tree, without
+   * scanning procfs for new processes. This is much cheaper than
+   * {@link #getProcessTree()}, which should still be called from time to
+   * time to pick up new descendants.
+   *
+   * @return the process-tree with the latest usage of its known processes.
+   */
+  public ProcfsBasedProcessTree refresh() {
+    for (Iterator<ProcessInfo> it = processTree.values().iterator(); it.hasNext();) {
+      ProcessInfo pInfo = it.next();
+      if (constructProcessInfo(pInfo) == null) {
+        it.remove(); // the process is gone
+      } else {
+        readIo(pInfo);
+      }
+    }
+    return this;
+  }
+
   /**
    * Is the process-tree alive? Currently we care only about the status of the
    * root-process.
@@ -200,6 +248,56 @@ public class ProcfsBasedProcessTree {
     return total/1024;
   }
 
+  /**
+   * Get the cumulative CPU time, user and system, used by all the processes
+   * in the process-tree.
+   *
+   * @return cumulative CPU time in milliseconds.
+   */
+  public long getCumulativeCpuTime() {
+    long jiffies = 0;
+    for (ProcessInfo p : processTree.values()) {
+      if (p != null && p.getUtime() != null) {
+        jiffies += p.getUtime() + p.getStime();
+      }
+    }
+    return jiffies * JIFFY_LENGTH_IN_MILLIS;
+  }
+
+  /**
+   * Get the cumulative number of bytes read from storage by all the
+   * processes in the process-tree. Processes whose io accounting can not
+   * be read are not counted.
+   *
+   * @return cumulative bytes read.
+   */
+  public long getCumulativeReadBytes() {
+    long total = 0;
+    for (ProcessInfo p : processTree.values()) {
+      if (p != null) {
+        total += p.getReadBytes();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Get the cumulative number of bytes written to storage by all the
+   * processes in the process-tree. Processes whose io accounting can not
+   * be read are not counted.
+   *
+   * @return cumulative bytes written.
+   */
+  public long getCumulativeWriteBytes() {
+    long total = 0;
+    for (ProcessInfo p : processTree.values()) {
+      if (p != null) {
+        total += p.getWriteBytes();
+      }
+    }
+    return total;
+  }
+
   /**
    * Get PID from a pid-file.
    * 
@@ -307,7 +405,9 @@ public class ProcfsBasedProcessTree {
         // Set ( name ) ( ppid ) ( pgrpId ) (session ) (vsize )
         pinfo.update(m.group(2), Integer.parseInt(m.group(3)), Integer
             .parseInt(m.group(4)), Integer.parseInt(m.group(5)), Long
-            .parseLong(m.group(7)));
+            .parseLong(m.group(10)));
+        // ( utime ) ( stime )
+        pinfo.updateCpu(Long.parseLong(m.group(7)), Long.parseLong(m.group(8)));
       }
     } catch (IOException io) {
       LOG.warn("Error reading the stream " + io);
@@ -333,6 +433,41 @@ public class ProcfsBasedProcessTree {
     return ret;
   }
 
+  /**
+   * Read the storage io of a process from "/proc/<pid>/io". The file is
+   * only readable by the owner of the process on most kernels, so failures
+   * leave the previous values in place.
+   */
+  private void readIo(ProcessInfo pinfo) {
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(new FileReader(PROCFS + pinfo.getPid() + "/io"));
+      long readBytes = pinfo.getReadBytes();
+      long writeBytes = pinfo.getWriteBytes();
+      String str;
+      while ((str = in.readLine()) != null) {
+        if (str.startsWith(READ_BYTES)) {
+          readBytes = Long.parseLong(str.substring(READ_BYTES.length()).trim());
+        } else if (str.startsWith(WRITE_BYTES)) {
+          writeBytes = Long.parseLong(str.substring(WRITE_BYTES.length()).trim());
+        }
+      }
+      pinfo.updateIo(readBytes, writeBytes);
+    } catch (IOException io) {
+      // not permitted, or the process vanished
+    } catch (NumberFormatException nfe) {
+      LOG.debug("Error parsing io of process " + pinfo.getPid() + " " + nfe);
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException i) {
+          LOG.warn("Error closing the stream " + in);
+        }
+      }
+    }
+  }
+
   /**
    * Is the process with PID pid still alive?
    */
@@ -411,6 +546,10 @@ public class ProcfsBasedProcessTree {
     private Integer ppid; // parent process-id
     private Integer sessionId; // session-id
     private Long vmem; // virtual memory usage
+    private Long utime; // user time in jiffies
+    private Long stime; // system time in jiffies
+    private long readBytes = 0; // bytes read from storage
+    private long writeBytes = 0; // bytes written to storage
     private List<ProcessInfo> children = new ArrayList<ProcessInfo>(); // list of children
 
     public ProcessInfo(int pid) {
@@ -441,6 +580,22 @@ public class ProcfsBasedProcessTree {
       return vmem;
     }
 
+    public Long getUtime() {
+      return utime;
+    }
+
+    public Long getStime() {
+      return stime;
+    }
+
+    public long getReadBytes() {
+      return readBytes;
+    }
+
+    public long getWriteBytes() {
+      return writeBytes;
+    }
+
     public boolean isParent(ProcessInfo p) {
       if (pid.equals(p.getPpid())) {
         return true;
@@ -457,6 +612,16 @@ public class ProcfsBasedProcessTree {
       this.vmem = vmem;
     }
 
+    public void updateCpu(Long utime, Long stime) {
+      this.utime = utime;
+      this.stime = stime;
+    }
+
+    public void updateIo(long readBytes, long writeBytes) {
+      this.readBytes = readBytes;
+      this.writeBytes = writeBytes;
+    }
+
     public boolean addChild(ProcessInfo p) {
       return children.add(p);
     }
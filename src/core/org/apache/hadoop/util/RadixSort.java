@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.util;
+
+/**
+ * An MSD radix sort, one byte at a time, of the items of a
+ * {@link RadixSortable} on their normalized keys. The bytes all the keys
+ * of a range share are skipped, and items with equal normalized keys or
+ * in ranges too small for another pass are sorted by {@link QuickSort},
+ * as are the items of any other {@link IndexedSortable}.
+ */
+public final class RadixSort implements IndexedSorter {
+
+  /* Ranges smaller than this are left to quick sort. */
+  private static final int MIN_RADIX_RANGE = 64;
+
+  private final QuickSort quickSort = new QuickSort();
+
+  public RadixSort() { }
+
+  /**
+   * Sort the given range of items using radix sort.
+   * {@inheritDoc}
+   */
+  public void sort(IndexedSortable s, int l, int r) {
+    sort(s, l, r, null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void sort(IndexedSortable s, int l, int r, Progressable rep) {
+    if (s instanceof RadixSortable) {
+      RadixSortable rs = (RadixSortable) s;
+      sortInternal(rs, l, r, rs.isNormalizedKeyExact(), rep);
+    } else {
+      quickSort.sort(s, l, r, rep);
+    }
+  }
+
+  /* The byte of the normalized key at the given shift, in unsigned order. */
+  private static int digit(long key, int shift) {
+    return (int) (((key ^ Long.MIN_VALUE) >>> shift) & 0xFF);
+  }
+
+  private void sortInternal(RadixSortable s, int l, int r, boolean exact,
+                            Progressable rep) {
+    if (r - l < MIN_RADIX_RANGE) {
+      if (r - l > 1) {
+        quickSort.sort(s, l, r, rep);
+      }
+      return;
+    }
+    final long first = s.getNormalizedKey(l);
+    long diff = 0;
+    for (int i = l + 1; i < r; i++) {
+      diff |= s.getNormalizedKey(i) ^ first;
+    }
+    if (diff == 0) {
+      if (!exact) {
+        quickSort.sort(s, l, r, rep);
+      }
+      return;
+    }
+    // the most significant byte in which the keys differ
+    final int shift =
+      ((Long.SIZE - 1 - Long.numberOfLeadingZeros(diff)) >> 3) << 3;
+
+    final int[] counts = new int[256];
+    for (int i = l; i < r; i++) {
+      counts[digit(s.getNormalizedKey(i), shift)]++;
+    }
+    final int[] next = new int[256];
+    final int[] end = new int[256];
+    int pos = l;
+    for (int b = 0; b < 256; b++) {
+      next[b] = pos;
+      pos += counts[b];
+      end[b] = pos;
+    }
+    // move each item into the bucket of its byte
+    for (int b = 0; b < 256; b++) {
+      while (next[b] < end[b]) {
+        int d = digit(s.getNormalizedKey(next[b]), shift);
+        if (d == b) {
+          next[b]++;
+        } else {
+          s.swap(next[b], next[d]++);
+        }
+      }
+    }
+    if (rep != null) {
+      rep.progress();
+    }
+    for (int b = 0; b < 256; b++) {
+      if (counts[b] > 1) {
+        sortInternal(s, end[b] - counts[b], end[b], exact, rep);
+      }
+    }
+  }
+
+}
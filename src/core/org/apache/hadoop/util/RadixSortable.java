@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.util;
+
+/**
+ * Interface for collections whose items have a normalized key, which
+ * {@link RadixSort} can sort on before comparing them.
+ */
+public interface RadixSortable extends IndexedSortable {
+
+  /**
+   * The normalized key of the item at the given address. Items with lesser
+   * normalized keys must compare less.
+   */
+  long getNormalizedKey(int i);
+
+  /**
+   * Whether items with equal normalized keys always compare equal.
+   */
+  boolean isNormalizedKeyExact();
+}
@@ -37,6 +37,7 @@ import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.lib.ReservoirSampler;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -205,9 +206,13 @@ public class TeraSort extends Configured implements Tool {
 
     public void configure(JobConf job) {
       try {
-        FileSystem fs = FileSystem.getLocal(job);
-        Path partFile = new Path(TeraInputFormat.PARTITION_FILENAME);
-        splitPoints = readPartitions(fs, partFile, job);
+        if (ReservoirSampler.isAdaptive(job)) {
+          splitPoints = ReservoirSampler.<Text>getSplitPoints(job);
+        } else {
+          FileSystem fs = FileSystem.getLocal(job);
+          Path partFile = new Path(TeraInputFormat.PARTITION_FILENAME);
+          splitPoints = readPartitions(fs, partFile, job);
+        }
         trie = buildTrie(splitPoints, 0, splitPoints.length, new Text(), 2);
       } catch (IOException ie) {
         throw new IllegalArgumentException("can't read paritions file", ie);
@@ -227,11 +232,17 @@ public class TeraSort extends Configured implements Tool {
     LOG.info("starting");
     JobConf job = (JobConf) getConf();
 
-    /* Enable pipelining? */
-    if (args[0].equals("-p")) {
-    	job.setBoolean("mapred.map.pipeline", true);
-    	args[0] = args[1];
-    	args[1] = args[2];
+    /* Enable pipelining? Sample in the maps instead of before the job? */
+    boolean adaptive = false;
+    while (args[0].equals("-p") || args[0].equals("-a")) {
+    	if (args[0].equals("-p")) {
+    		job.setBoolean("mapred.map.pipeline", true);
+    	} else {
+    		adaptive = true;
+    	}
+    	String[] rest = new String[args.length - 1];
+    	System.arraycopy(args, 1, rest, 0, rest.length);
+    	args = rest;
     }
     
     Path inputDir = new Path(args[0]);
@@ -248,9 +259,13 @@ public class TeraSort extends Configured implements Tool {
     job.setInputFormat(TeraInputFormat.class);
     job.setOutputFormat(TeraOutputFormat.class);
     job.setPartitionerClass(TotalOrderPartitioner.class);
-    TeraInputFormat.writePartitionFile(job, partitionFile);
-    DistributedCache.addCacheFile(partitionUri, job);
-    DistributedCache.createSymlink(job);
+    if (adaptive) {
+      ReservoirSampler.setAdaptive(job, true);
+    } else {
+      TeraInputFormat.writePartitionFile(job, partitionFile);
+      DistributedCache.addCacheFile(partitionUri, job);
+      DistributedCache.createSymlink(job);
+    }
     job.setInt("dfs.replication", 1);
     TeraOutputFormat.setFinalSync(job, true);
     JobClient.runJob(job);
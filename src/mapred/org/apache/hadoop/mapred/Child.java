@@ -24,6 +24,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLClassLoader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +54,23 @@ class Child {
   static volatile TaskAttemptID taskid;
   static volatile boolean isCleanup;
 
+  /* The framework classes a pooled JVM loads before it gets a task. */
+  private static final String[] POOL_PRELOAD_CLASSES = {
+    "org.apache.hadoop.mapred.MapTask",
+    "org.apache.hadoop.mapred.PipelineMapTask",
+    "org.apache.hadoop.mapred.ReduceTask",
+    "org.apache.hadoop.mapred.IFile",
+    "org.apache.hadoop.mapred.Merger",
+    "org.apache.hadoop.mapred.Counters",
+    "org.apache.hadoop.mapred.buffer.impl.JOutputBuffer",
+    "org.apache.hadoop.mapred.buffer.impl.JInputBuffer",
+    "org.apache.hadoop.mapred.buffer.net.BufferExchangeSink",
+    "org.apache.hadoop.fs.LocalFileSystem",
+    "org.apache.hadoop.hdfs.DistributedFileSystem",
+    "org.apache.hadoop.io.SequenceFile",
+    "org.apache.hadoop.io.Text"
+  };
+
   public static void main(String[] args) throws Throwable {
     LOG.debug("Child starting");
 
@@ -64,6 +83,14 @@ class Child {
     taskid = firstTaskid;
     int jvmIdInt = Integer.parseInt(args[3]);
     JVMId jvmId = new JVMId(taskid.getJobID(),taskid.isMap(),jvmIdInt);
+    // a pooled JVM runs no task of its own, and waits for one to be bound
+    boolean pooled = JvmManager.POOL_IDENTIFIER.equals(
+        taskid.getJobID().getJtIdentifier());
+    ClassLoader jobClassLoader = null;
+    if (pooled) {
+      taskid = null;
+      preload();
+    }
     TaskUmbilicalProtocol umbilical =
       (TaskUmbilicalProtocol)RPC.getProxy(TaskUmbilicalProtocol.class,
           TaskUmbilicalProtocol.versionID,
@@ -127,6 +154,10 @@ class Child {
         } else {
           if (myTask.getTask() == null) {
             taskid = null;
+            if (pooled) {
+              // the tracker waits for a task to bind the JVM to
+              continue;
+            }
             if (++idleLoopCount >= SLEEP_LONGER_COUNT) {
               //we sleep for a bigger interval when we don't receive
               //tasks for a while
@@ -138,6 +169,23 @@ class Child {
           }
         }
         idleLoopCount = 0;
+        pooled = false;
+        if (myTask.getClassPath() != null && jobClassLoader == null) {
+          // the JVM was started before its job, load the job's classes
+          // in a class loader of their own. The work directory of the JVM
+          // is the one its tasks run in.
+          String[] classPath = myTask.getClassPath();
+          URL[] urls = new URL[classPath.length + 1];
+          for (int i = 0; i < classPath.length; i++) {
+            urls[i] = new File(classPath[i]).toURI().toURL();
+          }
+          urls[classPath.length] =
+            new File(".").getAbsoluteFile().toURI().toURL();
+          jobClassLoader =
+            new URLClassLoader(urls, Child.class.getClassLoader());
+          Thread.currentThread().setContextClassLoader(jobClassLoader);
+          defaultConf.setClassLoader(jobClassLoader);
+        }
         task = myTask.getTask();
         taskid = task.getTaskID();
         isCleanup = task.isTaskCleanupTask();
@@ -146,6 +194,9 @@ class Child {
         //are viewable immediately
         TaskLog.syncLogs(firstTaskid, taskid, isCleanup);
         JobConf job = new JobConf(task.getJobFile());
+        if (jobClassLoader != null) {
+          job.setClassLoader(jobClassLoader);
+        }
         if (job.getBoolean("task.memory.mgmt.enabled", false)) {
           if (srcPidPath == null) {
             // get the first task's path for the first time  
@@ -217,4 +268,17 @@ class Child {
       LogManager.shutdown();
     }
   }
+
+  /* Load and initialize the framework classes a task uses. */
+  private static void preload() {
+    ClassLoader loader = Child.class.getClassLoader();
+    for (String className : POOL_PRELOAD_CLASSES) {
+      try {
+        Class.forName(className, true, loader);
+      } catch (Throwable t) {
+        LOG.debug("Failed to preload " + className, t);
+      }
+    }
+    new JobConf();
+  }
 }
@@ -21,15 +21,20 @@ package org.apache.hadoop.mapred;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.*;
 import org.apache.hadoop.io.IntWritable;
@@ -47,6 +52,13 @@ import org.apache.hadoop.util.StringUtils;
  * 
  * <p><code>Counters</code> are bunched into {@link Group}s, each comprising of
  * counters from a particular <code>Enum</code> class. 
+ * 
+ * <p>The names of the counters are interned while they are in use, along
+ * with their localized display names, and given increasing ids. A set of counters
+ * keeps the names and values of its counters in arrays sorted by id, so
+ * adding up and comparing sets of counters are single passes over the
+ * arrays. {@link Group} and {@link Counter} objects are views of the
+ * arrays, created when they are asked for.</p>
  */
 public class Counters implements Writable, Iterable<Counters.Group> {
   private static final Log LOG = LogFactory.getLog(Counters.class);
@@ -62,42 +74,243 @@ public class Counters implements Writable, Iterable<Counters.Group> {
   
   //private static Log log = LogFactory.getLog("Counters.class");
   
+  /* The interned name of a counter group. */
+  private static class GroupName {
+    final String name;
+    final String displayName;
+    // Optional ResourceBundle for localization of group and counter names.
+    private ResourceBundle bundle = null;
+    final ConcurrentMap<String, NameRef<CounterName>> counters =
+      new ConcurrentHashMap<String, NameRef<CounterName>>();
+
+    GroupName(String name) {
+      try {
+        bundle = getResourceBundle(name);
+      }
+      catch (MissingResourceException neverMind) {
+      }
+      this.name = name;
+      this.displayName = localize("CounterGroupName", name);
+      LOG.debug("Creating group " + name + " with " +
+               (bundle == null ? "nothing" : "bundle"));
+    }
+
+    /**
+     * Returns the specified resource bundle, or throws an exception.
+     * @throws MissingResourceException if the bundle isn't found
+     */
+    private static ResourceBundle getResourceBundle(String enumClassName) {
+      String bundleName = enumClassName.replace('$','_');
+      return ResourceBundle.getBundle(bundleName);
+    }
+
+    /**
+     * Looks up key in the ResourceBundle and returns the corresponding value.
+     * If the bundle or the key doesn't exist, returns the default value.
+     */
+    String localize(String key, String defaultValue) {
+      String result = defaultValue;
+      if (bundle != null) {
+        try {
+          result = bundle.getString(key);
+        }
+        catch (MissingResourceException mre) {
+        }
+      }
+      return result;
+    }
+  }
+
+  /* The interned name of a counter. */
+  private static class CounterName {
+    final long id;
+    final GroupName group;
+    final String name;
+    final String displayName;
+
+    CounterName(long id, GroupName group, String name) {
+      this.id = id;
+      this.group = group;
+      this.name = name;
+      this.displayName = group.localize(name + ".name", name);
+    }
+  }
+
+  /* A weak reference to an interned name, which knows its table entry. */
+  private static class NameRef<T> extends WeakReference<T> {
+    final ConcurrentMap<String, NameRef<T>> table;
+    final String name;
+
+    NameRef(ConcurrentMap<String, NameRef<T>> table, String name, T value) {
+      super(value, cleared);
+      this.table = table;
+      this.name = name;
+    }
+  }
+
+  // A name is kept while a set of counters uses it, and is interned again,
+  // with a new id, once it has been dropped. The names of enum counters are
+  // kept for good, as their enums are.
+  private static final ConcurrentMap<String, NameRef<GroupName>> groupNames =
+    new ConcurrentHashMap<String, NameRef<GroupName>>();
+  private static final Map<Enum, CounterName> enumNames =
+    new ConcurrentHashMap<Enum, CounterName>();
+  private static final ReferenceQueue<Object> cleared =
+    new ReferenceQueue<Object>();
+  private static long nextId = 0;
+
+  /* Remove the entries of dropped names, with the groupNames lock held. */
+  private static void purge() {
+    NameRef<?> ref;
+    while ((ref = (NameRef<?>) cleared.poll()) != null) {
+      ref.table.remove(ref.name, ref);
+    }
+  }
+
+  private static <T> T get(Map<String, NameRef<T>> table, String name) {
+    NameRef<T> ref = table.get(name);
+    return ref == null ? null : ref.get();
+  }
+
+  private static GroupName internGroup(String group) {
+    GroupName result = get(groupNames, group);
+    if (result == null) {
+      synchronized (groupNames) {
+        purge();
+        result = get(groupNames, group);
+        if (result == null) {
+          result = new GroupName(group);
+          groupNames.put(group,
+                         new NameRef<GroupName>(groupNames, group, result));
+        }
+      }
+    }
+    return result;
+  }
+
+  private static CounterName intern(GroupName group, String name) {
+    CounterName result = get(group.counters, name);
+    if (result == null) {
+      synchronized (groupNames) {
+        purge();
+        result = get(group.counters, name);
+        if (result == null) {
+          LOG.debug("Adding " + name);
+          result = new CounterName(nextId++, group, name);
+          group.counters.put(name, 
+              new NameRef<CounterName>(group.counters, name, result));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of counter names interned and still in use
+   */
+  static int getInternedNames() {
+    synchronized (groupNames) {
+      purge();
+      int result = 0;
+      for (NameRef<GroupName> ref : groupNames.values()) {
+        GroupName group = ref.get();
+        if (group != null) {
+          result += group.counters.size();
+        }
+      }
+      return result;
+    }
+  }
+
+  private static CounterName intern(Enum key) {
+    CounterName result = enumNames.get(key);
+    if (result == null) {
+      result = intern(internGroup(key.getDeclaringClass().getName()),
+                      key.toString());
+      enumNames.put(key, result);
+    }
+    return result;
+  }
+
   /**
    * A counter record, comprising its name and value. 
    */
   public static class Counter implements Writable {
 
+    // the set the counter belongs to, or null for a counter on its own
+    private final Counters owner;
+    private final CounterName key;
+    // the last known index of the counter in the arrays of its set
+    private int index = 0;
     private String name;
     private String displayName;
     private long value;
     
     Counter() { 
-      value = 0L;
+      this(null, null, 0L);
     }
 
     Counter(String name, String displayName, long value) {
+      this.owner = null;
+      this.key = null;
       this.name = name;
       this.displayName = displayName;
       this.value = value;
     }
+
+    private Counter(Counters owner, CounterName key) {
+      this.owner = owner;
+      this.key = key;
+      this.name = key.name;
+      this.displayName = key.displayName;
+    }
+
+    private Object lock() {
+      return owner == null ? this : owner;
+    }
+
+    // call with the owner locked
+    private int index(boolean add) {
+      if (index < owner.size && owner.keys[index] == key) {
+        return index;
+      }
+      int i = add ? owner.add(key) : owner.indexOf(key);
+      if (i >= 0) {
+        index = i;
+      }
+      return i;
+    }
     
     /**
-     * Read the binary representation of the counter
+     * Read the binary representation of the counter. Only a counter on its
+     * own can be read, the counters of a {@link Counters} are read with it.
      */
-    public synchronized void readFields(DataInput in) throws IOException {
-      name = Text.readString(in);
-      if (in.readBoolean()) {
-        displayName = Text.readString(in);
-      } else {
-        displayName = name;
+    public void readFields(DataInput in) throws IOException {
+      if (owner != null) {
+        throw new UnsupportedOperationException(
+          "A counter of a counter set is read with the set");
+      }
+      synchronized (this) {
+        name = Text.readString(in);
+        if (in.readBoolean()) {
+          displayName = Text.readString(in);
+        } else {
+          displayName = name;
+        }
+        value = WritableUtils.readVLong(in);
       }
-      value = WritableUtils.readVLong(in);
     }
     
     /**
      * Write the binary representation of the counter
      */
-    public synchronized void write(DataOutput out) throws IOException {
+    public void write(DataOutput out) throws IOException {
+      synchronized (lock()) {
+        write(out, getCounter());
+      }
+    }
+
+    private void write(DataOutput out, long value) throws IOException {
       Text.writeString(out, name);
       boolean distinctDisplayName = (! name.equals(displayName));
       out.writeBoolean(distinctDisplayName);
@@ -111,46 +324,58 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * Get the internal name of the counter.
      * @return the internal name of the counter
      */
-    public synchronized String getName() {
-      return name;
+    public String getName() {
+      synchronized (lock()) {
+        return name;
+      }
     }
     
     /**
      * Get the name of the counter.
      * @return the user facing name of the counter
      */
-    public synchronized String getDisplayName() {
-      return displayName;
+    public String getDisplayName() {
+      synchronized (lock()) {
+        return displayName;
+      }
     }
     
     /**
      * Set the display name of the counter.
      */
-    public synchronized void setDisplayName(String displayName) {
-      this.displayName = displayName;
+    public void setDisplayName(String displayName) {
+      synchronized (lock()) {
+        this.displayName = displayName;
+      }
     }
     
     /**
      * Returns the compact stringified version of the counter in the format
      * [(actual-name)(display-name)(value)]
      */
-    public synchronized String makeEscapedCompactString() {
+    public String makeEscapedCompactString() {
+      synchronized (lock()) {
+        return makeEscapedCompactString(getCounter());
+      }
+    }
+
+    private String makeEscapedCompactString(long value) {
       StringBuffer buf = new StringBuffer();
       buf.append(COUNTER_OPEN);
       
       // Add the counter name
       buf.append(UNIT_OPEN);
-      buf.append(escape(getName()));
+      buf.append(escape(name));
       buf.append(UNIT_CLOSE);
       
       // Add the display name
       buf.append(UNIT_OPEN);
-      buf.append(escape(getDisplayName()));
+      buf.append(escape(displayName));
       buf.append(UNIT_CLOSE);
       
       // Add the value
       buf.append(UNIT_OPEN);
-      buf.append(this.value);
+      buf.append(value);
       buf.append(UNIT_CLOSE);
       
       buf.append(COUNTER_CLOSE);
@@ -159,26 +384,41 @@ public class Counters implements Writable, Iterable<Counters.Group> {
     }
     
     // Checks for (content) equality of two (basic) counters
-    synchronized boolean contentEquals(Counter c) {
-      return name.equals(c.getName())
-             && displayName.equals(c.getDisplayName())
-             && value == c.getCounter();
+    boolean contentEquals(Counter c) {
+      synchronized (lock()) {
+        return name.equals(c.getName())
+               && displayName.equals(c.getDisplayName())
+               && getCounter() == c.getCounter();
+      }
     }
     
     /**
      * What is the current value of this counter?
      * @return the current value
      */
-    public synchronized long getCounter() {
-      return value;
+    public long getCounter() {
+      synchronized (lock()) {
+        if (owner == null) {
+          return value;
+        }
+        int i = index(false);
+        return i < 0 ? 0L : owner.values[i];
+      }
     }
     
     /**
      * Increment this counter by the given value
      * @param incr the value to increase this counter by
      */
-    public synchronized void increment(long incr) {
-      value += incr;
+    public void increment(long incr) {
+      synchronized (lock()) {
+        if (owner == null) {
+          value += incr;
+        } else {
+          int i = index(true);
+          owner.values[i] += incr;
+        }
+      }
     }
   }
   
@@ -190,32 +430,14 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    *  counter names.</p>
    */
   public static class Group implements Writable, Iterable<Counter> {
-    private String groupName;
+    private final Counters owner;
+    private final GroupName key;
     private String displayName;
-    private Map<String, Counter> subcounters = new HashMap<String, Counter>();
-    
-    // Optional ResourceBundle for localization of group and counter names.
-    private ResourceBundle bundle = null;    
-    
-    Group(String groupName) {
-      try {
-        bundle = getResourceBundle(groupName);
-      }
-      catch (MissingResourceException neverMind) {
-      }
-      this.groupName = groupName;
-      this.displayName = localize("CounterGroupName", groupName);
-      LOG.debug("Creating group " + groupName + " with " +
-               (bundle == null ? "nothing" : "bundle"));
-    }
     
-    /**
-     * Returns the specified resource bundle, or throws an exception.
-     * @throws MissingResourceException if the bundle isn't found
-     */
-    private static ResourceBundle getResourceBundle(String enumClassName) {
-      String bundleName = enumClassName.replace('$','_');
-      return ResourceBundle.getBundle(bundleName);
+    private Group(Counters owner, GroupName key) {
+      this.owner = owner;
+      this.key = key;
+      this.displayName = key.displayName;
     }
     
     /**
@@ -223,7 +445,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * for this group of counters.
      */
     public String getName() {
-      return groupName;
+      return key.name;
     }
     
     /**
@@ -231,14 +453,18 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * default, but different if an appropriate ResourceBundle is found.
      */
     public String getDisplayName() {
-      return displayName;
+      synchronized (owner) {
+        return displayName;
+      }
     }
     
     /**
      * Set the display name
      */
     public void setDisplayName(String displayName) {
-      this.displayName = displayName;
+      synchronized (owner) {
+        this.displayName = displayName;
+      }
     }
     
     /**
@@ -247,61 +473,73 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * counters within.
      */
     public String makeEscapedCompactString() {
-      StringBuffer buf = new StringBuffer();
-      buf.append(GROUP_OPEN); // group start
-      
-      // Add the group name
-      buf.append(UNIT_OPEN);
-      buf.append(escape(getName()));
-      buf.append(UNIT_CLOSE);
-      
-      // Add the display name
-      buf.append(UNIT_OPEN);
-      buf.append(escape(getDisplayName()));
-      buf.append(UNIT_CLOSE);
-      
-      // write the value
-      for(Counter counter: subcounters.values()) {
-        buf.append(counter.makeEscapedCompactString());
+      synchronized (owner) {
+        StringBuffer buf = new StringBuffer();
+        buf.append(GROUP_OPEN); // group start
+        
+        // Add the group name
+        buf.append(UNIT_OPEN);
+        buf.append(escape(getName()));
+        buf.append(UNIT_CLOSE);
+        
+        // Add the display name
+        buf.append(UNIT_OPEN);
+        buf.append(escape(getDisplayName()));
+        buf.append(UNIT_CLOSE);
+        
+        // write the value
+        for (int i = 0; i < owner.size; i++) {
+          if (owner.keys[i].group == key) {
+            buf.append(owner.getCounter(i).makeEscapedCompactString(
+                         owner.values[i]));
+          }
+        }
+        
+        buf.append(GROUP_CLOSE); // group end
+        return buf.toString();
       }
-      
-      buf.append(GROUP_CLOSE); // group end
-      return buf.toString();
     }
         
     /** 
      * Checks for (content) equality of Groups
      */
-    synchronized boolean contentEquals(Group g) {
-      boolean isEqual = false;
-      if (g != null) {
-        if (size() == g.size()) {
-          isEqual = true;
-          for (Map.Entry<String, Counter> entry : subcounters.entrySet()) {
-            String key = entry.getKey();
-            Counter c1 = entry.getValue();
-            Counter c2 = g.getCounterForName(key);
-            if (!c1.contentEquals(c2)) {
-              isEqual = false;
-              break;
+    boolean contentEquals(Group g) {
+      if (g == null) {
+        return false;
+      }
+      Object[] locks = lockOrder(owner, g.owner);
+      synchronized (locks[0]) {
+        synchronized (locks[1]) {
+          synchronized (locks[2]) {
+            if (size() != g.size()) {
+              return false;
             }
+            for (Counter c1 : this) {
+              Counter c2 = g.getCounterForName(c1.getName());
+              if (!c1.contentEquals(c2)) {
+                return false;
+              }
+            }
+            return true;
           }
         }
       }
-      return isEqual;
     }
     
     /**
      * Returns the value of the specified counter, or 0 if the counter does
      * not exist.
      */
-    public synchronized long getCounter(String counterName) {
-      for(Counter counter: subcounters.values()) {
-        if (counter != null && counter.displayName.equals(counterName)) {
-          return counter.value;
+    public long getCounter(String counterName) {
+      synchronized (owner) {
+        for (int i = 0; i < owner.size; i++) {
+          if (owner.keys[i].group == key &&
+              owner.getCounter(i).displayName.equals(counterName)) {
+            return owner.values[i];
+          }
         }
+        return 0L;
       }
-      return 0L;
     }
     
     /**
@@ -312,7 +550,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * @deprecated use {@link #getCounter(String)} instead
      */
     @Deprecated
-    public synchronized Counter getCounter(int id, String name) {
+    public Counter getCounter(int id, String name) {
       return getCounterForName(name);
     }
     
@@ -321,65 +559,85 @@ public class Counters implements Writable, Iterable<Counters.Group> {
      * @param name the internal counter name
      * @return the counter
      */
-    public synchronized Counter getCounterForName(String name) {
-      Counter result = subcounters.get(name);
-      if (result == null) {
-        LOG.debug("Adding " + name);
-        result = new Counter(name, localize(name + ".name", name), 0L);
-        subcounters.put(name, result);
+    public Counter getCounterForName(String name) {
+      synchronized (owner) {
+        return owner.getCounter(owner.add(intern(key, name)));
       }
-      return result;
     }
     
     /**
      * Returns the number of counters in this group.
      */
-    public synchronized int size() {
-      return subcounters.size();
-    }
-    
-    /**
-     * Looks up key in the ResourceBundle and returns the corresponding value.
-     * If the bundle or the key doesn't exist, returns the default value.
-     */
-    private String localize(String key, String defaultValue) {
-      String result = defaultValue;
-      if (bundle != null) {
-        try {
-          result = bundle.getString(key);
-        }
-        catch (MissingResourceException mre) {
+    public int size() {
+      synchronized (owner) {
+        int result = 0;
+        for (int i = 0; i < owner.size; i++) {
+          if (owner.keys[i].group == key) {
+            result++;
+          }
         }
+        return result;
       }
-      return result;
     }
     
-    public synchronized void write(DataOutput out) throws IOException {
-      Text.writeString(out, displayName);
-      WritableUtils.writeVInt(out, subcounters.size());
-      for(Counter counter: subcounters.values()) {
-        counter.write(out);
+    public void write(DataOutput out) throws IOException {
+      synchronized (owner) {
+        Text.writeString(out, displayName);
+        WritableUtils.writeVInt(out, size());
+        for (int i = 0; i < owner.size; i++) {
+          if (owner.keys[i].group == key) {
+            owner.getCounter(i).write(out, owner.values[i]);
+          }
+        }
       }
     }
     
-    public synchronized void readFields(DataInput in) throws IOException {
-      displayName = Text.readString(in);
-      subcounters.clear();
-      int size = WritableUtils.readVInt(in);
-      for(int i=0; i < size; i++) {
-        Counter counter = new Counter();
-        counter.readFields(in);
-        subcounters.put(counter.getName(), counter);
+    public void readFields(DataInput in) throws IOException {
+      synchronized (owner) {
+        displayName = Text.readString(in);
+        owner.remove(key);
+        int size = WritableUtils.readVInt(in);
+        for(int i=0; i < size; i++) {
+          CounterName counter = intern(key, Text.readString(in));
+          int index = owner.add(counter);
+          if (in.readBoolean()) {
+            String counterDisplayName = Text.readString(in);
+            if (!counterDisplayName.equals(counter.displayName)) {
+              owner.getCounter(index).displayName = counterDisplayName;
+            }
+          } else if (!counter.name.equals(counter.displayName)) {
+            owner.getCounter(index).displayName = counter.name;
+          }
+          owner.values[index] = WritableUtils.readVLong(in);
+        }
       }
     }
 
-    public synchronized Iterator<Counter> iterator() {
-      return new ArrayList<Counter>(subcounters.values()).iterator();
+    public Iterator<Counter> iterator() {
+      synchronized (owner) {
+        List<Counter> result = new ArrayList<Counter>();
+        for (int i = 0; i < owner.size; i++) {
+          if (owner.keys[i].group == key) {
+            result.add(owner.getCounter(i));
+          }
+        }
+        return result.iterator();
+      }
     }
   }
   
-  // Map from group name (enum class name) to map of int (enum ordinal) to
-  // counter record (name-value pair).
+  // The counters, sorted by the ids of their names, and their values. The
+  // Counter views are created when asked for.
+  private CounterName[] keys = NO_KEYS;
+  private long[] values = NO_VALUES;
+  private Counter[] views = NO_VIEWS;
+  private int size = 0;
+
+  private static final CounterName[] NO_KEYS = new CounterName[0];
+  private static final long[] NO_VALUES = new long[0];
+  private static final Counter[] NO_VIEWS = new Counter[0];
+
+  // Map from group name (enum class name) to group view.
   private Map<String,Group> counters = new HashMap<String, Group>();
 
   /**
@@ -387,6 +645,116 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * typical usage.
    */
   private Map<Enum, Counter> cache = new IdentityHashMap<Enum, Counter>();
+
+  // Taken first to lock two instances whose identity hashes are equal
+  private static final Object TIE_LOCK = new Object();
+
+  /*
+   * The locks to take, in order, to lock two instances at once. Pairs are
+   * locked in the order of their identity hashes, so that threads working
+   * on the same pair from either side cannot deadlock.
+   */
+  private static Object[] lockOrder(Counters a, Counters b) {
+    int hashA = System.identityHashCode(a);
+    int hashB = System.identityHashCode(b);
+    if (hashA < hashB) {
+      return new Object[] { a, a, b };
+    } else if (hashA > hashB) {
+      return new Object[] { b, b, a };
+    } else {
+      return new Object[] { TIE_LOCK, a, b };
+    }
+  }
+
+  /* The index of a counter, or -(insertion point + 1) if it is not here. */
+  private int indexOf(CounterName key) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long id = keys[mid].id;
+      if (id < key.id) {
+        low = mid + 1;
+      } else if (id > key.id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /* The index of a counter, added with value 0 if it is not here. */
+  private int add(CounterName key) {
+    int index = indexOf(key);
+    if (index >= 0) {
+      return index;
+    }
+    index = -(index + 1);
+    ensureCapacity(size + 1);
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(values, index, values, index + 1, size - index);
+    System.arraycopy(views, index, views, index + 1, size - index);
+    keys[index] = key;
+    values[index] = 0L;
+    views[index] = null;
+    size++;
+    getGroup(key.group);
+    return index;
+  }
+
+  /* Remove the counters of a group, but not the group. */
+  private void remove(GroupName group) {
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (keys[i].group != group) {
+        keys[n] = keys[i];
+        values[n] = values[i];
+        views[n] = views[i];
+        n++;
+      }
+    }
+    for (int i = n; i < size; i++) {
+      keys[i] = null;
+      views[i] = null;
+    }
+    size = n;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > keys.length) {
+      int length = Math.max(Math.max(capacity, 2 * keys.length), 8);
+      CounterName[] newKeys = new CounterName[length];
+      long[] newValues = new long[length];
+      Counter[] newViews = new Counter[length];
+      System.arraycopy(keys, 0, newKeys, 0, size);
+      System.arraycopy(values, 0, newValues, 0, size);
+      System.arraycopy(views, 0, newViews, 0, size);
+      keys = newKeys;
+      values = newValues;
+      views = newViews;
+    }
+  }
+
+  /* The view of the counter at an index. */
+  private Counter getCounter(int index) {
+    Counter counter = views[index];
+    if (counter == null) {
+      counter = new Counter(this, keys[index]);
+      counter.index = index;
+      views[index] = counter;
+    }
+    return counter;
+  }
+
+  private Group getGroup(GroupName key) {
+    Group result = counters.get(key.name);
+    if (result == null) {
+      result = new Group(this, key);
+      counters.put(key.name, result);
+    }
+    return result;
+  }
   
   /**
    * Returns the names of all counter classes.
@@ -407,8 +775,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
   public synchronized Group getGroup(String groupName) {
     Group result = counters.get(groupName);
     if (result == null) {
-      result = new Group(groupName);
-      counters.put(groupName, result);
+      result = getGroup(internGroup(groupName));
     }
     return result;
   }
@@ -422,8 +789,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
   public synchronized Counter findCounter(Enum key) {
     Counter counter = cache.get(key);
     if (counter == null) {
-      Group group = getGroup(key.getDeclaringClass().getName());
-      counter = group.getCounterForName(key.toString());
+      counter = getCounter(add(intern(key)));
       cache.put(key, counter);
     }
     return counter;    
@@ -436,7 +802,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * @return the counter for that name
    */
   public synchronized Counter findCounter(String group, String name) {
-    return getGroup(group).getCounterForName(name);
+    return getCounter(add(intern(internGroup(group), name)));
   }
 
   /**
@@ -449,7 +815,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    */
   @Deprecated
   public synchronized Counter findCounter(String group, int id, String name) {
-    return getGroup(group).getCounterForName(name);
+    return findCounter(group, name);
   }
 
   /**
@@ -459,7 +825,8 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * @param amount amount by which counter is to be incremented
    */
   public synchronized void incrCounter(Enum key, long amount) {
-    findCounter(key).value += amount;
+    int index = add(intern(key));
+    values[index] += amount;
   }
   
   /**
@@ -470,7 +837,8 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * @param amount amount by which counter is to be incremented
    */
   public synchronized void incrCounter(String group, String counter, long amount) {
-    getGroup(group).getCounterForName(counter).value += amount;
+    int index = add(intern(internGroup(group), counter));
+    values[index] += amount;
   }
   
   /**
@@ -478,7 +846,8 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * does not exist.
    */
   public synchronized long getCounter(Enum key) {
-    return findCounter(key).value;
+    int index = add(intern(key));
+    return values[index];
   }
   
   /**
@@ -486,14 +855,156 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * instance.
    * @param other the other Counters instance
    */
-  public synchronized void incrAllCounters(Counters other) {
-    for (Group otherGroup: other) {
-      Group group = getGroup(otherGroup.getName());
-      group.displayName = otherGroup.displayName;
-      for (Counter otherCounter : otherGroup) {
-        Counter counter = group.getCounterForName(otherCounter.getName());
-        counter.displayName = otherCounter.displayName;
-        counter.value += otherCounter.value;
+  public void incrAllCounters(Counters other) {
+    merge(other, false);
+  }
+
+  /**
+   * Sets multiple counters to their values in another Counters instance,
+   * leaving the counters that are not in the other instance alone.
+   * @param other the other Counters instance
+   */
+  void setAllCounters(Counters other) {
+    merge(other, true);
+  }
+
+  /**
+   * Get the counters whose values differ from their values in an earlier
+   * copy of this instance, and bring the copy up to date.
+   * @param copy the earlier copy, which is updated
+   * @return the counters that changed, with their current values
+   */
+  Counters getChanges(Counters copy) {
+    Counters changes = new Counters();
+    Object[] locks = lockOrder(this, copy);
+    synchronized (locks[0]) {
+      synchronized (locks[1]) {
+        synchronized (locks[2]) {
+          int j = 0;
+          for (int i = 0; i < size; i++) {
+            long id = keys[i].id;
+            while (j < copy.size && copy.keys[j].id < id) {
+              j++;
+            }
+            if (j == copy.size || copy.keys[j].id != id ||
+                copy.values[j] != values[i]) {
+              changes.ensureCapacity(changes.size + 1);
+              changes.keys[changes.size] = keys[i];
+              changes.values[changes.size] = values[i];
+              changes.views[changes.size] = views[i] == null ? null :
+                changes.copyView(views[i]);
+              changes.size++;
+            }
+          }
+          for (int i = 0; i < changes.size; i++) {
+            GroupName group = changes.keys[i].group;
+            changes.getGroup(group).displayName = 
+              counters.get(group.name).displayName;
+          }
+          // no other thread knows of changes yet
+          copy.mergeLocked(changes, true);
+        }
+      }
+    }
+    return changes;
+  }
+
+  private Counter copyView(Counter view) {
+    Counter copy = new Counter(this, view.key);
+    copy.displayName = view.displayName;
+    return copy;
+  }
+
+  /* Add the counters of another instance to these, or set these to them. */
+  private void merge(Counters other, boolean set) {
+    if (other == this) {
+      synchronized (this) {
+        if (!set) {
+          for (int i = 0; i < size; i++) {
+            values[i] += values[i];
+          }
+        }
+      }
+      return;
+    }
+    Object[] locks = lockOrder(this, other);
+    synchronized (locks[0]) {
+      synchronized (locks[1]) {
+        synchronized (locks[2]) {
+          mergeLocked(other, set);
+        }
+      }
+    }
+  }
+
+  /* Merge, with both instances locked. */
+  private void mergeLocked(Counters other, boolean set) {
+    for (Group otherGroup : other.counters.values()) {
+      getGroup(otherGroup.key).displayName = otherGroup.displayName;
+    }
+
+    // both arrays are sorted by id, count the counters new to this one
+    int added = 0;
+    int i = 0;
+    for (int j = 0; j < other.size; j++) {
+      long id = other.keys[j].id;
+      while (i < size && keys[i].id < id) {
+        i++;
+      }
+      if (i == size || keys[i].id != id) {
+        added++;
+      }
+    }
+
+    if (added == 0) {
+      // the usual case, a single pass over the values
+      i = 0;
+      for (int j = 0; j < other.size; j++) {
+        CounterName key = other.keys[j];
+        while (keys[i] != key) {
+          i++;
+        }
+        values[i] = set ? other.values[j] : values[i] + other.values[j];
+      }
+    } else {
+      // merge the two from the back, into the grown arrays
+      ensureCapacity(size + added);
+      i = size - 1;
+      int j = other.size - 1;
+      for (int k = size + added - 1; k >= 0; k--) {
+        long id = i >= 0 ? keys[i].id : -1;
+        long otherId = j >= 0 ? other.keys[j].id : -1;
+        if (id > otherId) {
+          keys[k] = keys[i];
+          values[k] = values[i];
+          views[k] = views[i];
+          i--;
+        } else if (id < otherId) {
+          keys[k] = other.keys[j];
+          values[k] = other.values[j];
+          views[k] = null;
+          j--;
+        } else {
+          keys[k] = keys[i];
+          values[k] = set ? other.values[j] : values[i] + other.values[j];
+          views[k] = views[i];
+          i--;
+          j--;
+        }
+      }
+      size += added;
+    }
+
+    // take the display names of the other counters, views are only
+    // needed for names that differ from the interned ones
+    for (int j = 0; j < other.size; j++) {
+      CounterName key = other.keys[j];
+      Counter otherView = other.views[j];
+      String displayName =
+        otherView == null ? key.displayName : otherView.displayName;
+      int index = indexOf(key);
+      if (views[index] != null || !displayName.equals(key.displayName)) {
+        getCounter(index).displayName = displayName;
       }
     }
   }
@@ -513,11 +1024,7 @@ public class Counters implements Writable, Iterable<Counters.Group> {
    * in each group.
    */
   public synchronized  int size() {
-    int result = 0;
-    for (Group group : this) {
-      result += group.size();
-    }
-    return result;
+    return size;
   }
   
   /**
@@ -548,11 +1055,16 @@ public class Counters implements Writable, Iterable<Counters.Group> {
   public synchronized void readFields(DataInput in) throws IOException {
     int numClasses = in.readInt();
     counters.clear();
+    cache.clear();
+    for (int i = 0; i < size; i++) {
+      keys[i] = null;
+      views[i] = null;
+    }
+    size = 0;
     while (numClasses-- > 0) {
       String groupName = Text.readString(in);
-      Group group = new Group(groupName);
+      Group group = getGroup(internGroup(groupName));
       group.readFields(in);
-      counters.put(groupName, group);
     }
   }
   
@@ -729,22 +1241,28 @@ public class Counters implements Writable, Iterable<Counters.Group> {
                                       charsToEscape);
   }
   
-  synchronized boolean contentEquals(Counters counters) {
-    boolean isEqual = false;
-    if (counters != null) {
-      if (size() == counters.size()) {
-        isEqual = true;
-        for (Map.Entry<String, Group> entry : this.counters.entrySet()) {
-          String key = entry.getKey();
-          Group sourceGroup = entry.getValue();
-          Group targetGroup = counters.getGroup(key);
-          if (!sourceGroup.contentEquals(targetGroup)) {
-            isEqual = false;
-            break;
+  boolean contentEquals(Counters counters) {
+    if (counters == null) {
+      return false;
+    }
+    Object[] locks = lockOrder(this, counters);
+    synchronized (locks[0]) {
+      synchronized (locks[1]) {
+        synchronized (locks[2]) {
+          if (size() != counters.size()) {
+            return false;
+          }
+          for (Map.Entry<String, Group> entry : this.counters.entrySet()) {
+            String key = entry.getKey();
+            Group sourceGroup = entry.getValue();
+            Group targetGroup = counters.getGroup(key);
+            if (!sourceGroup.contentEquals(targetGroup)) {
+              return false;
+            }
           }
+          return true;
         }
       }
     }
-    return isEqual;
   }
 }
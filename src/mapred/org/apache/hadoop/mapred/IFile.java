@@ -23,14 +23,20 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -234,6 +240,74 @@ public class IFile {
     }
   }
 
+  /**
+   * The records read by one call of {@link Reader#nextBatch(RecordBatch)}:
+   * the offsets and lengths of their keys and values in the buffer of the
+   * reader, valid until the next read from it.
+   */
+  public static class RecordBatch {
+    private byte[] data = null;
+    // the key start, key length and value length of each record
+    private final int[] records;
+    private int size = 0;
+
+    public RecordBatch(int capacity) {
+      records = new int[3 * capacity];
+    }
+
+    public int capacity() {
+      return records.length / 3;
+    }
+
+    /** The number of records in the batch. */
+    public int size() {
+      return size;
+    }
+
+    /** The buffer holding the keys and values of the batch. */
+    public byte[] getData() {
+      return data;
+    }
+
+    public int getKeyStart(int i) {
+      return records[3 * i];
+    }
+
+    public int getKeyLength(int i) {
+      return records[3 * i + 1];
+    }
+
+    public int getValueStart(int i) {
+      return records[3 * i] + records[3 * i + 1];
+    }
+
+    public int getValueLength(int i) {
+      return records[3 * i + 2];
+    }
+
+    /** Point the given buffer at the key of record i. */
+    public void getKey(int i, DataInputBuffer key) {
+      key.reset(data, getKeyStart(i), getKeyLength(i));
+    }
+
+    /** Point the given buffer at the value of record i. */
+    public void getValue(int i, DataInputBuffer value) {
+      value.reset(data, getValueStart(i), getValueLength(i));
+    }
+
+    void clear(byte[] data) {
+      this.data = data;
+      size = 0;
+    }
+
+    void add(int keyStart, int keyLength, int valueLength) {
+      int i = 3 * size++;
+      records[i] = keyStart;
+      records[i + 1] = keyLength;
+      records[i + 2] = valueLength;
+    }
+  }
+
   /**
    * <code>IFile.Reader</code> to read intermediate map-outputs. 
    */
@@ -242,8 +316,8 @@ public class IFile {
     private static final int MAX_VINT_SIZE = 9;
 
     // Count records read from disk
-    private long numRecordsRead = 0;
-    private final Counters.Counter readRecordsCounter;
+    long numRecordsRead = 0;
+    final Counters.Counter readRecordsCounter;
 
     final InputStream in;        // Possibly decompressed stream that we read
     Decompressor decompressor;
@@ -323,7 +397,7 @@ public class IFile {
      * @return the no. of bytes read
      * @throws IOException
      */
-    private int readData(byte[] buf, int off, int len) throws IOException {
+    int readData(byte[] buf, int off, int len) throws IOException {
       int bytesRead = 0;
       while (bytesRead < len) {
         int n = in.read(buf, off+bytesRead, len-bytesRead);
@@ -433,6 +507,104 @@ public class IFile {
       return true;
     }
 
+    /**
+     * Read the records that are whole in the buffer, up to the capacity of
+     * the batch, reading the next block only if there are none. The batch
+     * holds views of the buffer, valid until the next call of next or
+     * nextBatch.
+     * 
+     * @param batch the batch to fill
+     * @return false if the end of the file was reached before any record
+     * @throws IOException
+     */
+    public boolean nextBatch(RecordBatch batch) throws IOException {
+      // Sanity check
+      if (eof) {
+        throw new EOFException("Completed reading " + bytesRead);
+      }
+
+      while (true) {
+        int needed = decode(batch);
+        if (batch.size() > 0 || eof) {
+          return batch.size() > 0;
+        }
+        int available = dataIn.getLength() - dataIn.getPosition();
+        readNextBlock(needed);
+        if (dataIn.getLength() - dataIn.getPosition() == available) {
+          throw new EOFException("Rec# " + recNo + ": Could read the next " +
+                                 " record");
+        }
+      }
+    }
+
+    /*
+     * Decode the lengths of the records whole in the buffer into the batch,
+     * without going through the input stream of the buffer. Returns the
+     * bytes needed to decode the next record.
+     */
+    private int decode(RecordBatch batch) throws IOException {
+      byte[] data = dataIn.getData();
+      int start = dataIn.getPosition();
+      int end = dataIn.getLength();
+      int pos = start;
+      int needed = 0;
+      batch.clear(data);
+      while (batch.size() < batch.capacity()) {
+        // Check that both lengths are in the buffer
+        if (pos >= end) {
+          needed = 2*MAX_VINT_SIZE;
+          break;
+        }
+        int keySize = WritableUtils.decodeVIntSize(data[pos]);
+        if (pos + keySize >= end ||
+            pos + keySize + WritableUtils.decodeVIntSize(data[pos + keySize])
+            > end) {
+          needed = 2*MAX_VINT_SIZE;
+          break;
+        }
+        int keyLength = WritableComparator.readVInt(data, pos);
+        int valueLength = WritableComparator.readVInt(data, pos + keySize);
+        int headerLength = keySize +
+          WritableUtils.decodeVIntSize(data[pos + keySize]);
+
+        // Check for EOF, reported once the records before it are read
+        if (keyLength == EOF_MARKER && valueLength == EOF_MARKER) {
+          if (batch.size() == 0) {
+            eof = true;
+            pos += headerLength;
+          }
+          break;
+        }
+
+        // Sanity check
+        int rec = recNo + batch.size();
+        if (keyLength < 0) {
+          throw new IOException("Rec# " + rec + ": Negative key-length: " + 
+                                keyLength);
+        }
+        if (valueLength < 0) {
+          throw new IOException("Rec# " + rec + ": Negative value-length: " + 
+                                valueLength);
+        }
+
+        // Check that the raw key/value is in the buffer
+        final int recordLength = headerLength + keyLength + valueLength;
+        if (end - pos < recordLength) {
+          needed = recordLength;
+          break;
+        }
+        batch.add(pos + headerLength, keyLength, valueLength);
+        pos += recordLength;
+      }
+
+      // Position for the next record
+      dataIn.reset(data, pos, end - pos);
+      bytesRead += pos - start;
+      recNo += batch.size();
+      numRecordsRead += batch.size();
+      return needed;
+    }
+
     public void close() throws IOException {
       // Return the decompressor
       if (decompressor != null) {
@@ -485,6 +657,23 @@ public class IFile {
       return fileLength;
     }
     
+    @Override
+    void readNextBlock(int minSize) throws IOException {
+      // all the data is in the buffer already
+      throw new EOFException("Rec# " + recNo + ": Could read the next " +
+                             " record");
+    }
+
+    @Override
+    public boolean nextBatch(RecordBatch batch) throws IOException {
+      try {
+        return super.nextBatch(batch);
+      } catch (IOException ioe) {
+        dumpOnError();
+        throw ioe;
+      }
+    }
+
     private void dumpOnError() {
       File dumpFile = new File("../output/" + taskid + ".dump");
       System.err.println("Dumping corrupt map-output of " + taskid + 
@@ -565,4 +754,67 @@ public class IFile {
       ramManager.unreserve(bufferSize);
     }
   }
+
+  /**
+   * <code>IFile.MappedReader</code> to read uncompressed segments of local
+   * files through a memory mapping of the file. The checksum of the segment
+   * is not verified: local segments are verified once, as they are written
+   * or copied to the local disk, and not each time they are read.
+   */
+  public static class MappedReader<K, V> extends Reader<K, V> {
+    private MappedByteBuffer data;
+
+    public MappedReader(Configuration conf, FileSystem fs, Path file,
+                        long segmentOffset, long segmentLength,
+                        Counters.Counter readsCounter) throws IOException {
+      super(conf, null, segmentLength, null, readsCounter);
+      RandomAccessFile raf = new RandomAccessFile(localFile(fs, file), "r");
+      try {
+        data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                    segmentOffset, getLength());
+      } finally {
+        raf.close();
+      }
+    }
+
+    /**
+     * Whether a segment of the given file can be read through a mapping: it
+     * must be on the local file system, uncompressed and at most 2GB.
+     */
+    public static boolean canMap(FileSystem fs, CompressionCodec codec,
+                                 long segmentLength) {
+      return codec == null && segmentLength < Integer.MAX_VALUE &&
+             (fs instanceof LocalFileSystem ||
+              fs instanceof RawLocalFileSystem);
+    }
+
+    private static File localFile(FileSystem fs, Path file) {
+      return fs instanceof LocalFileSystem
+             ? ((LocalFileSystem) fs).pathToFile(file)
+             : ((RawLocalFileSystem) fs).pathToFile(file);
+    }
+
+    @Override
+    int readData(byte[] buf, int off, int len) throws IOException {
+      len = Math.min(len, data.remaining());
+      data.get(buf, off, len);
+      return len;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+      return data.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Release the buffers; the mapping goes with the buffer
+      data = null;
+      dataIn = null;
+      buffer = null;
+      if (readRecordsCounter != null) {
+        readRecordsCounter.increment(numRecordsRead);
+      }
+    }
+  }
 }
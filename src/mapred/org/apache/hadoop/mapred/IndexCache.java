@@ -17,33 +17,59 @@
  */
 package org.apache.hadoop.mapred;
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.metrics.MetricsRecord;
 
+/**
+ * Caches the index files of the map outputs served by the tracker.
+ * <p>
+ * The records of a map are kept packed in one direct buffer, three longs
+ * per partition, so the cache takes no heap beyond an entry per map. The
+ * maps are hashed to a fixed number of stripes, each an access-ordered map
+ * under its own lock, and the least recently used maps are evicted once
+ * the records take more than <code>mapred.tasktracker.indexcache.mb</code>.
+ * A map missing from the cache is read by the first thread to ask for it,
+ * while the others asking for it wait.
+ */
 class IndexCache {
 
-  private final JobConf conf;
-  private final int totalMemoryAllowed;
-  private AtomicInteger totalMemoryUsed = new AtomicInteger();
   private static final Log LOG = LogFactory.getLog(IndexCache.class);
 
-  private final ConcurrentHashMap<String,IndexInformation> cache =
-    new ConcurrentHashMap<String,IndexInformation>();
-  
-  private final LinkedBlockingQueue<String> queue = 
-    new LinkedBlockingQueue<String>();
+  private static final int STRIPES = 16;
+
+  private final long totalMemoryAllowed;
+  private final AtomicLong totalMemoryUsed = new AtomicLong();
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final Object evictLock = new Object();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  // the counts last reported to the metrics
+  private long reportedHits = 0;
+  private long reportedMisses = 0;
+  private long reportedEvictions = 0;
 
   public IndexCache(JobConf conf) {
-    this.conf = conf;
     totalMemoryAllowed =
-      conf.getInt("mapred.tasktracker.indexcache.mb", 10) * 1024 * 1024;
+      conf.getInt("mapred.tasktracker.indexcache.mb", 10) * 1024L * 1024L;
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
     LOG.info("IndexCache created with max memory = " + totalMemoryAllowed);
   }
 
@@ -59,71 +85,94 @@ class IndexCache {
    */
   public IndexRecord getIndexInformation(String mapId, int reduce,
       Path fileName) throws IOException {
+    Stripe stripe = getStripe(mapId);
+    IndexInformation info;
+    boolean load = false;
+    synchronized (stripe) {
+      info = stripe.get(mapId);
+      if (info == null) {
+        info = new IndexInformation();
+        stripe.put(mapId, info);
+        load = true;
+      }
+      info.lastAccess = System.nanoTime();
+    }
 
-    IndexInformation info = cache.get(mapId);
-
-    if (info == null) {
-      info = readIndexFileToCache(fileName, mapId);
+    if (load) {
+      misses.incrementAndGet();
+      LOG.debug("IndexCache MISS: MapId " + mapId + " not found");
+      readIndexFile(stripe, mapId, info, fileName);
     } else {
-      synchronized (info) {
-        while (null == info.indexRecordArray) {
-          try {
-            info.wait();
-          } catch (InterruptedException e) {
-            throw new IOException("Interrupted waiting for construction", e);
-          }
-        }
-      }
+      hits.incrementAndGet();
       LOG.debug("IndexCache HIT: MapId " + mapId + " found");
     }
+    LongBuffer records = info.await();
 
-    if (info.indexRecordArray.length == 0 ||
-        info.indexRecordArray.length < reduce) {
-      System.out.println("I am failing here");
+    int partitions = records.capacity() / 3;
+    if (reduce < 0 || reduce >= partitions) {
       throw new IOException("Invalid request " +
         " Map Id = " + mapId + " Reducer = " + reduce +
-        " Index Info Length = " + info.indexRecordArray.length);
+        " Index Info Length = " + partitions);
     }
-    return info.indexRecordArray[reduce];
+    int i = reduce * 3;
+    return new IndexRecord(records.get(i), records.get(i + 1),
+                           records.get(i + 2));
   }
 
-  private IndexInformation readIndexFileToCache(Path indexFileName,
-      String mapId) throws IOException {
-    IndexInformation info;
-    IndexInformation newInd = new IndexInformation();
-    if ((info = cache.putIfAbsent(mapId, newInd)) != null) {
-      synchronized (info) {
-        while (null == info.indexRecordArray) {
-          try {
-            info.wait();
-          } catch (InterruptedException e) {
-            throw new IOException("Interrupted waiting for construction", e);
-          }
+  private void readIndexFile(Stripe stripe, String mapId,
+                             IndexInformation info, Path indexFileName)
+    throws IOException {
+    LongBuffer records;
+    try {
+      records = readIndexFile(indexFileName);
+    } catch (Throwable e) {
+      synchronized (stripe) {
+        if (stripe.get(mapId) == info) {
+          stripe.remove(mapId);
         }
       }
-      LOG.debug("IndexCache HIT: MapId " + mapId + " found");
-      return info;
-    }
-    LOG.debug("IndexCache MISS: MapId " + mapId + " not found") ;
-    IndexRecord[] tmp = null;
-    try { 
-      tmp = IndexRecord.readIndexFile(indexFileName, conf);
-    } catch (Throwable e) { 
-      tmp = new IndexRecord[0];
-      cache.remove(mapId);
-      throw new IOException("Error Reading IndexFile",e);
-    } finally { 
-      synchronized (newInd) { 
-        newInd.indexRecordArray = tmp;
-        newInd.notifyAll();
-      } 
-    } 
-    queue.add(mapId);
-    
-    if (totalMemoryUsed.addAndGet(newInd.getSize()) > totalMemoryAllowed) {
+      IOException error = new IOException("Error Reading IndexFile", e);
+      info.fail(error);
+      throw error;
+    }
+
+    long size = records.capacity() * 8L;
+    synchronized (stripe) {
+      // count the records unless the map was removed meanwhile
+      if (stripe.get(mapId) == info) {
+        info.size = size;
+        totalMemoryUsed.addAndGet(size);
+      }
+    }
+    info.loaded(records);
+
+    if (totalMemoryUsed.get() > totalMemoryAllowed) {
       freeIndexInformation();
     }
-    return newInd;
+  }
+
+  /* Read the records of an index file into a direct buffer. */
+  private static LongBuffer readIndexFile(Path indexFileName)
+    throws IOException {
+    RandomAccessFile file =
+      new RandomAccessFile(new File(indexFileName.toUri().getPath()), "r");
+    try {
+      FileChannel channel = file.getChannel();
+      int numEntries =
+        (int) (channel.size() / MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(
+          numEntries * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, buffer.position()) < 0) {
+          throw new IOException("Index file " + indexFileName +
+                                " ends before its records");
+        }
+      }
+      buffer.flip();
+      return buffer.asLongBuffer();
+    } finally {
+      file.close();
+    }
   }
 
   /**
@@ -132,36 +181,162 @@ class IndexCache {
    * @param mapId The taskID of this map.
    */
   public void removeMap(String mapId) {
-    IndexInformation info = cache.remove(mapId);
-    if (info != null) {
-      totalMemoryUsed.addAndGet(-info.getSize());
-      if (!queue.remove(mapId)) {
-        LOG.warn("Map ID" + mapId + " not found in queue!!");
+    Stripe stripe = getStripe(mapId);
+    IndexInformation info;
+    synchronized (stripe) {
+      info = stripe.remove(mapId);
+      if (info != null) {
+        totalMemoryUsed.addAndGet(-info.size);
       }
-    } else {
+    }
+    if (info == null) {
       LOG.info("Map ID " + mapId + " not found in cache");
     }
   }
 
   /**
-   * Bring memory usage below totalMemoryAllowed.
+   * Bring memory usage below totalMemoryAllowed, evicting the least
+   * recently used maps of all stripes.
    */
-  private synchronized void freeIndexInformation() {
-    while (totalMemoryUsed.get() > totalMemoryAllowed) {
-      String s = queue.remove();
-      IndexInformation info = cache.remove(s);
-      if (info != null) {
-        totalMemoryUsed.addAndGet(-info.getSize());
+  private void freeIndexInformation() {
+    synchronized (evictLock) {
+      while (totalMemoryUsed.get() > totalMemoryAllowed) {
+        // the stripe whose least recently used map is the oldest
+        Stripe oldest = null;
+        long oldestAccess = 0;
+        for (Stripe stripe : stripes) {
+          synchronized (stripe) {
+            IndexInformation eldest = stripe.eldest();
+            if (eldest != null &&
+                (oldest == null || eldest.lastAccess - oldestAccess < 0)) {
+              oldest = stripe;
+              oldestAccess = eldest.lastAccess;
+            }
+          }
+        }
+        if (oldest == null) {
+          return;
+        }
+        synchronized (oldest) {
+          oldest.removeEldest();
+        }
+      }
+    }
+  }
+
+  /** The number of lookups that found their map in the cache. */
+  long getHits() {
+    return hits.get();
+  }
+
+  /** The number of lookups that read the index file of their map. */
+  long getMisses() {
+    return misses.get();
+  }
+
+  /** The number of maps evicted from the cache. */
+  long getEvictions() {
+    return evictions.get();
+  }
+
+  /** The bytes taken by the cached records. */
+  long getMemoryUsed() {
+    return totalMemoryUsed.get();
+  }
+
+  /**
+   * Report the lookups since the last report, their hit rate and the
+   * memory used to a metrics record.
+   */
+  synchronized void updateMetrics(MetricsRecord record) {
+    long hits = this.hits.get();
+    long misses = this.misses.get();
+    long evictions = this.evictions.get();
+    long newHits = hits - reportedHits;
+    long newMisses = misses - reportedMisses;
+    record.incrMetric("index_cache_hits", newHits);
+    record.incrMetric("index_cache_misses", newMisses);
+    record.incrMetric("index_cache_evictions", evictions - reportedEvictions);
+    record.setMetric("index_cache_hit_percent", newHits + newMisses == 0 ? 0
+                     : 100 * ((float) newHits / (newHits + newMisses)));
+    record.setMetric("index_cache_bytes", totalMemoryUsed.get());
+    reportedHits = hits;
+    reportedMisses = misses;
+    reportedEvictions = evictions;
+  }
+
+  private Stripe getStripe(String mapId) {
+    int h = mapId.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return stripes[h & (STRIPES - 1)];
+  }
+
+  /* The maps of a stripe from the least to the most recently used. */
+  private class Stripe extends LinkedHashMap<String, IndexInformation> {
+    private static final long serialVersionUID = 1L;
+
+    Stripe() {
+      super(16, 0.75f, true);
+    }
+
+    /* The least recently used map that takes memory. */
+    IndexInformation eldest() {
+      for (IndexInformation info : values()) {
+        if (info.size > 0) {
+          return info;
+        }
+      }
+      return null;
+    }
+
+    void removeEldest() {
+      Iterator<IndexInformation> it = values().iterator();
+      while (it.hasNext()) {
+        IndexInformation info = it.next();
+        if (info.size > 0) {
+          it.remove();
+          totalMemoryUsed.addAndGet(-info.size);
+          evictions.incrementAndGet();
+          return;
+        }
       }
     }
   }
 
   private static class IndexInformation {
-    IndexRecord[] indexRecordArray = null;
+    private final CountDownLatch loading = new CountDownLatch(1);
+    private volatile LongBuffer records = null;
+    private volatile IOException error = null;
+    // guarded by the stripe
+    long size = 0;
+    long lastAccess;
+
+    void loaded(LongBuffer records) {
+      this.records = records;
+      loading.countDown();
+    }
+
+    void fail(IOException error) {
+      this.error = error;
+      loading.countDown();
+    }
 
-    int getSize() {
-      return ((indexRecordArray == null) ? 
-          0 : indexRecordArray.length * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH);
+    /* The records of the map, once read. */
+    LongBuffer await() throws IOException {
+      LongBuffer result = records;
+      if (result != null) {
+        return result;
+      }
+      try {
+        loading.await();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted waiting for construction", e);
+      }
+      if (error != null) {
+        throw new IOException("Error Reading IndexFile", error);
+      }
+      return records;
     }
   }
 }
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.mapred;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 
@@ -46,14 +47,15 @@ class IndexRecord {
 
     FSDataInputStream indexInputStream = rfs.open(indexFileName);
     long length = rfs.getFileStatus(indexFileName).getLen();
-    IFileInputStream checksumIn = 
-      new IFileInputStream(indexInputStream,length);
 
     int numEntries = (int) length/MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH;
 
     IndexRecord[] indexRecordArray = new IndexRecord[numEntries];
     
-    DataInputStream wrapper = new DataInputStream(checksumIn);
+    // the index records are written without a checksum, see
+    // JOutputBuffer#writeIndexRecord
+    DataInputStream wrapper = new DataInputStream(
+        new BufferedInputStream(indexInputStream));
 
     try {
       for (int i= 0; i < numEntries; i++) {
@@ -65,7 +67,6 @@ class IndexRecord {
       }
     }
     finally {
-      //This would internally call checkumIn.close
       wrapper.close();
     }
     return indexRecordArray;
@@ -766,6 +766,17 @@ public class JobClient extends Configured implements MRConstants, Tool  {
     }
   }
   
+  /**
+   * Submit a chain of jobs, each pipelining its reduce output into the
+   * maps of the next. If a job cannot be submitted, the jobs already
+   * submitted are killed.
+   * 
+   * @param jobs the job configurations, upstream first.
+   * @return handles to the running jobs, in the same order.
+   * @throws FileNotFoundException
+   * @throws InvalidJobConfException
+   * @throws IOException
+   */
   public List<RunningJob> submitJobs(List<JobConf> jobs) 
   	throws FileNotFoundException, InvalidJobConfException, IOException {
 	  List<JobID>     jobids = new ArrayList<JobID>();
@@ -788,7 +799,21 @@ public class JobClient extends Configured implements MRConstants, Tool  {
 			job.set("mapred.job.dependent", jobids.get(i + 1).toString());
 			job.setBoolean("mapred.reduce.pipeline", true);
 		  }
-		  rjobs.add(submitJob(job, jobids.get(i)));
+		  try {
+			  rjobs.add(submitJob(job, jobids.get(i)));
+		  } catch (IOException e) {
+			  // the submitted jobs would pipeline into a job that does not
+			  // exist, so kill them and submit none
+			  for (RunningJob rjob : rjobs) {
+				  try {
+					  rjob.killJob();
+				  } catch (IOException ke) {
+					  LOG.warn("Failed to kill " + rjob.getID() + ": " + 
+							  StringUtils.stringifyException(ke));
+				  }
+			  }
+			  throw e;
+		  }
 	  }
 	  
 	  return rjobs;
@@ -858,6 +883,8 @@ public class JobClient extends Configured implements MRConstants, Tool  {
     			}
     		}
     	});
+    	// a small job runs all of its tasks as one
+    	splits = UberTask.uberize(job, splits);
     	// write the splits to a file for the job tracker
     	FSDataOutputStream out = FileSystem.create(fs,
     			submitSplitFile, new FsPermission(JOB_FILE_PERMISSION));
@@ -1060,7 +1087,22 @@ public class JobClient extends Configured implements MRConstants, Tool  {
   public RunningJob getJob(String jobid) throws IOException {
     return getJob(JobID.forName(jobid));
   }
-  
+
+  /**
+   * Subscribe to the snapshot deltas published by a running job. The job
+   * publishes deltas when it takes snapshots (<code>mapred.snapshot.frequency</code>
+   * below 1) with <code>mapred.snapshot.delta</code> set. The deltas are
+   * deleted when the job is cleaned up, so a subscriber reads the job
+   * output once the job is complete.
+   *
+   * @param job the configuration the job was submitted with.
+   * @return a {@link SnapshotSubscription} to poll for changes of the result.
+   * @throws IOException if the job has no output path.
+   */
+  public SnapshotSubscription subscribeSnapshots(JobConf job) throws IOException {
+    return new SnapshotSubscription(job);
+  }
+
   /**
    * Get the information of the current state of the map tasks of a job.
    * 
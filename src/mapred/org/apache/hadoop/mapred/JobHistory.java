@@ -18,7 +18,10 @@
 
 package org.apache.hadoop.mapred;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileOutputStream;
@@ -30,8 +33,10 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,6 +49,9 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.StringUtils;
 
 /**
@@ -71,10 +79,16 @@ import org.apache.hadoop.util.StringUtils;
  * Version 1 : Changes the line delimiter to '.'
                Values are now escaped for unambiguous parsing. 
                Added the Meta tag to store version info.
+ * Version 2 : Adds a binary format of length-prefixed records, see
+ *             {@link JobHistoryWriter}. The files start with
+ *             BINARY_MAGIC and their first record is the Meta record.
+ *             Text files are still written as version 1.
  */
 public class JobHistory {
   
   static final long VERSION = 1L;
+  static final long BINARY_VERSION = 2L;
+  static final byte[] BINARY_MAGIC = { 'J', 'H', 'S', 'T' };
   public static final Log LOG = LogFactory.getLog(JobHistory.class);
   private static final String DELIMITER = " ";
   private static final char LINE_DELIMITER_CHAR = '.';
@@ -89,9 +103,10 @@ public class JobHistory {
   public static final int JOB_NAME_TRIM_LENGTH = 50;
   private static String JOBTRACKER_UNIQUE_STRING = null;
   private static String LOG_DIR = null;
-  private static Map<String, ArrayList<PrintWriter>> openJobs = 
-                     new HashMap<String, ArrayList<PrintWriter>>();
+  private static Map<String, JobHistoryWriter> openJobs = 
+                     new ConcurrentHashMap<String, JobHistoryWriter>();
   private static boolean disableHistory = false; 
+  private static boolean binaryHistory = true;
   private static final String SECONDARY_FILE_SUFFIX = ".recover";
   private static long jobHistoryBlockSize = 0;
   private static String jobtrackerHostname;
@@ -161,6 +176,18 @@ public class JobHistory {
       jobHistoryBlockSize = 
         conf.getLong("mapred.jobtracker.job.history.block.size", 
                      3 * 1024 * 1024);
+      String format = 
+        conf.get("mapred.jobtracker.job.history.format", "binary");
+      if ("text".equals(format)) {
+        binaryHistory = false;
+      } else if ("binary".equals(format)) {
+        binaryHistory = true;
+      } else {
+        LOG.warn("Unknown job history format " + format + 
+                 ", writing binary history");
+        binaryHistory = true;
+      }
+      JobHistoryWriter.init(conf);
       jtConf = conf;
     } catch(IOException e) {
         LOG.error("Failed to initialize JobHistory log file", e); 
@@ -224,6 +251,21 @@ public class JobHistory {
         }
       }
     }
+
+    /**
+     * Logs history meta-info through a history writer, with the version of
+     * the writer's format.
+     */
+    static void logMetaInfo(JobHistoryWriter writer){
+      if (!disableHistory){
+        if (null != writer){
+          long version = writer.isBinary() ? BINARY_VERSION : VERSION;
+          JobHistory.log(writer, RecordTypes.Meta, 
+              new Keys[] {Keys.VERSION},
+              new String[] {String.valueOf(version)}); 
+        }
+      }
+    }
   }
   
   /** Escapes the string especially for {@link JobHistory}
@@ -245,7 +287,16 @@ public class JobHistory {
   public static void parseHistoryFromFS(String path, Listener l, FileSystem fs)
   throws IOException{
     FSDataInputStream in = fs.open(new Path(path));
-    BufferedReader reader = new BufferedReader(new InputStreamReader (in));
+    BufferedInputStream buffered = new BufferedInputStream(in);
+    if (isBinaryHistory(buffered)) {
+      try {
+        parseBinaryHistory(new DataInputStream(buffered), l);
+      } finally {
+        buffered.close();
+      }
+      return;
+    }
+    BufferedReader reader = new BufferedReader(new InputStreamReader(buffered));
     try {
       String line = null; 
       StringBuffer buf = new StringBuffer(); 
@@ -282,6 +333,82 @@ public class JobHistory {
     }
   }
 
+  /* Peek at the start of a history file for the binary magic. */
+  private static boolean isBinaryHistory(BufferedInputStream in)
+  throws IOException {
+    in.mark(BINARY_MAGIC.length);
+    try {
+      for (int i = 0; i < BINARY_MAGIC.length; i++) {
+        if (in.read() != BINARY_MAGIC[i]) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Parse a binary history file, see {@link JobHistoryWriter} for the
+   * format. Records of types or with keys that this version does not know
+   * are skipped, and a truncated last record, e.g. of a job that was
+   * running when the JobTracker went down, ends the history.
+   */
+  private static void parseBinaryHistory(DataInputStream in, Listener l)
+  throws IOException {
+    in.skipBytes(BINARY_MAGIC.length);
+    RecordTypes[] recordTypes = new RecordTypes[WritableUtils.readVInt(in)];
+    for (int i = 0; i < recordTypes.length; i++) {
+      recordTypes[i] = valueOf(RecordTypes.class, Text.readString(in));
+    }
+    Keys[] keys = new Keys[WritableUtils.readVInt(in)];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = valueOf(Keys.class, Text.readString(in));
+    }
+
+    Map<Keys, String> values = new EnumMap<Keys, String>(Keys.class);
+    DataInputBuffer record = new DataInputBuffer();
+    byte[] buffer = new byte[4096];
+    while (true) {
+      int length;
+      try {
+        length = WritableUtils.readVInt(in);
+        if (length > buffer.length) {
+          buffer = new byte[Math.max(length, 2 * buffer.length)];
+        }
+        in.readFully(buffer, 0, length);
+      } catch (EOFException e) {
+        return;
+      }
+      record.reset(buffer, length);
+      int type = WritableUtils.readVInt(record);
+      RecordTypes recordType = 
+        type < recordTypes.length ? recordTypes[type] : null;
+      if (recordType == null) {
+        continue;
+      }
+      int count = WritableUtils.readVInt(record);
+      for (int i = 0; i < count; i++) {
+        int key = WritableUtils.readVInt(record);
+        String value = Text.readString(record);
+        if (key < keys.length && keys[key] != null) {
+          values.put(keys[key], value);
+        }
+      }
+      l.handle(recordType, values);
+      values.clear();
+    }
+  }
+
+  private static <T extends Enum<T>> T valueOf(Class<T> type, String name) {
+    try {
+      return Enum.valueOf(type, name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
   /**
    * Parse a single line of history. 
    * @param line
@@ -355,6 +482,18 @@ public class JobHistory {
     }
   }
   
+  /**
+   * Queue a record with keys and values for a job's history files. 
+   * @param writer the job's history writer
+   * @param recordType type of log event
+   * @param keys type of log event
+   * @param values type of log event
+   */
+  static void log(JobHistoryWriter writer, RecordTypes recordType, 
+                  Keys[] keys, String[] values) {
+    writer.log(recordType, keys, values);
+  }
+
   /**
    * Returns history disable status. by default history is enabled so this
    * method returns false. 
@@ -813,9 +952,8 @@ public class JobHistory {
           getJobHistoryLogLocationForUser(logFileName, jobConf);
 
         try{
-          ArrayList<PrintWriter> writers = new ArrayList<PrintWriter>();
+          JobHistoryWriter writer = new JobHistoryWriter(binaryHistory);
           FSDataOutputStream out = null;
-          PrintWriter writer = null;
 
           if (LOG_DIR != null) {
             // create output stream for logging in hadoop.job.history.location
@@ -829,8 +967,7 @@ public class JobHistory {
                             defaultBufferSize, 
                             fs.getDefaultReplication(), 
                             jobHistoryBlockSize, null);
-            writer = new PrintWriter(out);
-            writers.add(writer);
+            writer.addStream(out);
           }
           if (userLogFile != null) {
             userLogDir = userLogFile.getParent().toString();
@@ -841,17 +978,16 @@ public class JobHistory {
             userLogFile = recoverJobHistoryFile(jobConf, userLogFile);
             
             out = fs.create(userLogFile, true, 4096);
-            writer = new PrintWriter(out);
-            writers.add(writer);
+            writer.addStream(out);
           }
 
-          openJobs.put(jobUniqueString, writers);
+          openJobs.put(jobUniqueString, writer);
           
           // Log the history meta info
-          JobHistory.MetaInfoManager.logMetaInfo(writers);
+          JobHistory.MetaInfoManager.logMetaInfo(writer);
 
           //add to writer as well 
-          JobHistory.log(writers, RecordTypes.Job, 
+          JobHistory.log(writer, RecordTypes.Job, 
                          new Keys[]{Keys.JOBID, Keys.JOBNAME, Keys.USER, Keys.SUBMIT_TIME, Keys.JOBCONF }, 
                          new String[]{jobId.toString(), jobName, user, 
                                       String.valueOf(submitTime) , jobConfPath}
@@ -941,7 +1077,7 @@ public class JobHistory {
                                  int totalMaps, int totalReduces) {
       if (!disableHistory){
         String logFileKey =  JOBTRACKER_UNIQUE_STRING + jobId; 
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey); 
+        JobHistoryWriter writer = openJobs.get(logFileKey); 
 
         if (null != writer){
           JobHistory.log(writer, RecordTypes.Job, 
@@ -978,7 +1114,7 @@ public class JobHistory {
     public static void logStarted(JobID jobId){
       if (!disableHistory){
         String logFileKey =  JOBTRACKER_UNIQUE_STRING + jobId; 
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey); 
+        JobHistoryWriter writer = openJobs.get(logFileKey); 
 
         if (null != writer){
           JobHistory.log(writer, RecordTypes.Job, 
@@ -1006,7 +1142,7 @@ public class JobHistory {
       if (!disableHistory){
         // close job file for this job
         String logFileKey =  JOBTRACKER_UNIQUE_STRING + jobId; 
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey); 
+        JobHistoryWriter writer = openJobs.get(logFileKey); 
 
         if (null != writer){
           JobHistory.log(writer, RecordTypes.Job,          
@@ -1022,9 +1158,7 @@ public class JobHistory {
                                        String.valueOf(failedMaps), 
                                        String.valueOf(failedReduces),
                                        counters.makeEscapedCompactString()});
-          for (PrintWriter out : writer) {
-            out.close();
-          }
+          writer.close();
           openJobs.remove(logFileKey); 
         }
         Thread historyCleaner  = new Thread(new HistoryCleaner());
@@ -1041,16 +1175,14 @@ public class JobHistory {
     public static void logFailed(JobID jobid, long timestamp, int finishedMaps, int finishedReduces){
       if (!disableHistory){
         String logFileKey =  JOBTRACKER_UNIQUE_STRING + jobid; 
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey); 
+        JobHistoryWriter writer = openJobs.get(logFileKey); 
 
         if (null != writer){
           JobHistory.log(writer, RecordTypes.Job,
                          new Keys[] {Keys.JOBID, Keys.FINISH_TIME, Keys.JOB_STATUS, Keys.FINISHED_MAPS, Keys.FINISHED_REDUCES },
                          new String[] {jobid.toString(),  String.valueOf(timestamp), Values.FAILED.name(), String.valueOf(finishedMaps), 
                                        String.valueOf(finishedReduces)}); 
-          for (PrintWriter out : writer) {
-            out.close();
-          }
+          writer.close();
           openJobs.remove(logFileKey); 
         }
       }
@@ -1071,7 +1203,7 @@ public class JobHistory {
         int finishedReduces) {
       if (!disableHistory) {
         String logFileKey = JOBTRACKER_UNIQUE_STRING + jobid;
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey);
+        JobHistoryWriter writer = openJobs.get(logFileKey);
 
         if (null != writer) {
           JobHistory.log(writer, RecordTypes.Job, new Keys[] { Keys.JOBID,
@@ -1079,9 +1211,7 @@ public class JobHistory {
               Keys.FINISHED_REDUCES }, new String[] { jobid.toString(),
               String.valueOf(timestamp), Values.KILLED.name(),
               String.valueOf(finishedMaps), String.valueOf(finishedReduces) });
-          for (PrintWriter out : writer) {
-            out.close();
-          }
+          writer.close();
           openJobs.remove(logFileKey);
         }
       }
@@ -1094,7 +1224,7 @@ public class JobHistory {
     public static void logJobPriority(JobID jobid, JobPriority priority){
       if (!disableHistory){
         String logFileKey =  JOBTRACKER_UNIQUE_STRING + jobid; 
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey); 
+        JobHistoryWriter writer = openJobs.get(logFileKey); 
 
         if (null != writer){
           JobHistory.log(writer, RecordTypes.Job,
@@ -1114,7 +1244,7 @@ public class JobHistory {
                                   int restartCount){
       if (!disableHistory){
         String logFileKey =  JOBTRACKER_UNIQUE_STRING + jobid; 
-        ArrayList<PrintWriter> writer = openJobs.get(logFileKey); 
+        JobHistoryWriter writer = openJobs.get(logFileKey); 
 
         if (null != writer){
           JobHistory.log(writer, RecordTypes.Job,
@@ -1146,7 +1276,7 @@ public class JobHistory {
     public static void logStarted(TaskID taskId, String taskType, 
                                   long startTime, String splitLocations) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                      + taskId.getJobID()); 
 
         if (null != writer){
@@ -1168,7 +1298,7 @@ public class JobHistory {
     public static void logFinished(TaskID taskId, String taskType, 
                                    long finishTime, Counters counters){
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                      + taskId.getJobID()); 
 
         if (null != writer){
@@ -1200,7 +1330,7 @@ public class JobHistory {
                                  String error, 
                                  TaskAttemptID failedDueToAttempt){
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                      + taskId.getJobID()); 
 
         if (null != writer){
@@ -1262,7 +1392,7 @@ public class JobHistory {
                                   String trackerName, int httpPort, 
                                   String taskType) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1312,7 +1442,7 @@ public class JobHistory {
                                    String stateString, 
                                    Counters counter) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1361,7 +1491,7 @@ public class JobHistory {
                                  long timestamp, String hostName, 
                                  String error, String taskType) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1407,7 +1537,7 @@ public class JobHistory {
                                  long timestamp, String hostName,
                                  String error, String taskType) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1459,7 +1589,7 @@ public class JobHistory {
                                   int httpPort, 
                                   String taskType) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1514,7 +1644,7 @@ public class JobHistory {
                                    String hostName, String taskType,
                                    String stateString, Counters counter) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1565,7 +1695,7 @@ public class JobHistory {
                                  String hostName, String error, 
                                  String taskType) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
@@ -1611,7 +1741,7 @@ public class JobHistory {
                                  String hostName, String error, 
                                  String taskType) {
       if (!disableHistory){
-        ArrayList<PrintWriter> writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
+        JobHistoryWriter writer = openJobs.get(JOBTRACKER_UNIQUE_STRING 
                                                    + taskAttemptId.getJobID()); 
 
         if (null != writer){
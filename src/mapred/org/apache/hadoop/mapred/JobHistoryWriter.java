@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobHistory.Keys;
+import org.apache.hadoop.mapred.JobHistory.RecordTypes;
+
+/**
+ * Writes the history files of a job from a background thread.
+ * <p>
+ * The threads that log history events only put them in a ring buffer shared
+ * by all jobs. A single writer thread takes all the queued events at once,
+ * writes them to the files of their jobs and flushes each file once per
+ * batch. A thread that logs an event while the buffer is full waits for the
+ * writer to catch up, and {@link #close()} waits until all the events of
+ * the job are written.
+ * <p>
+ * A job's events are written either as the text lines of {@link JobHistory}
+ * version 1 or in the binary format of version 2: the
+ * {@link JobHistory#BINARY_MAGIC} bytes, the names of the record types and
+ * of the keys, and then one length-prefixed record per event. A record
+ * holds the index of its record type, the number of values and, for each
+ * value, the index of its key and its UTF-8 bytes. Lengths and indices are
+ * variable-length ints.
+ */
+class JobHistoryWriter {
+
+  private static final Log LOG = LogFactory.getLog(JobHistoryWriter.class);
+
+  private static final int DEFAULT_QUEUE_SIZE = 16 * 1024;
+
+  /* A slot of the ring buffer. */
+  private static class Event {
+    JobHistoryWriter writer;
+    RecordTypes recordType;
+    Keys[] keys;
+    String[] values;
+  }
+
+  private static final Object lock = new Object();
+  private static Event[] ring = null;
+  // the number of events queued and written so far
+  private static long queued = 0;
+  private static long written = 0;
+  private static Thread writerThread = null;
+
+  // used by the writer thread only
+  private static final DataOutputBuffer record = new DataOutputBuffer();
+  private static final DataOutputBuffer frame = new DataOutputBuffer();
+
+  private final boolean binary;
+  private final ArrayList<PrintWriter> textOuts = new ArrayList<PrintWriter>();
+  private final List<OutputStream> binaryOuts = new ArrayList<OutputStream>();
+  private boolean dirty = false;
+  private boolean failed = false;
+
+  /**
+   * Set the size of the ring buffer from
+   * <code>mapred.jobtracker.job.history.queue.size</code>. The buffer is
+   * sized once, by the first call or the first event logged.
+   */
+  static void init(Configuration conf) {
+    synchronized (lock) {
+      if (ring == null) {
+        createRing(conf.getInt("mapred.jobtracker.job.history.queue.size",
+                               DEFAULT_QUEUE_SIZE));
+      }
+    }
+  }
+
+  private static void createRing(int size) {
+    ring = new Event[Math.max(size, 1)];
+    for (int i = 0; i < ring.length; i++) {
+      ring[i] = new Event();
+    }
+  }
+
+  /**
+   * @param binary write the binary format instead of text lines
+   */
+  JobHistoryWriter(boolean binary) {
+    this.binary = binary;
+  }
+
+  boolean isBinary() {
+    return binary;
+  }
+
+  /**
+   * Add a history file to write the events to. Call it before logging.
+   */
+  void addStream(OutputStream out) throws IOException {
+    if (binary) {
+      DataOutputBuffer header = new DataOutputBuffer();
+      header.write(JobHistory.BINARY_MAGIC);
+      RecordTypes[] recordTypes = RecordTypes.values();
+      WritableUtils.writeVInt(header, recordTypes.length);
+      for (RecordTypes recordType : recordTypes) {
+        Text.writeString(header, recordType.name());
+      }
+      Keys[] keys = Keys.values();
+      WritableUtils.writeVInt(header, keys.length);
+      for (Keys key : keys) {
+        Text.writeString(header, key.name());
+      }
+      out.write(header.getData(), 0, header.getLength());
+      binaryOuts.add(out);
+    } else {
+      textOuts.add(new PrintWriter(out));
+    }
+  }
+
+  /**
+   * Queue an event for the history files.
+   */
+  void log(RecordTypes recordType, Keys[] keys, String[] values) {
+    put(this, recordType, keys, values);
+  }
+
+  /**
+   * Write the queued events and close the history files.
+   */
+  void close() {
+    long seq = put(this, null, null, null);
+    synchronized (lock) {
+      boolean interrupted = false;
+      while (written < seq) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /* Queue an event, a null record type closes the writer. */
+  private static long put(JobHistoryWriter writer, RecordTypes recordType,
+                          Keys[] keys, String[] values) {
+    synchronized (lock) {
+      if (ring == null) {
+        createRing(DEFAULT_QUEUE_SIZE);
+      }
+      if (writerThread == null) {
+        writerThread = new Thread(new Runnable() {
+          public void run() {
+            writeEvents();
+          }
+        }, "JobHistory writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+      }
+      boolean interrupted = false;
+      while (queued - written == ring.length) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      Event event = ring[(int) (queued % ring.length)];
+      event.writer = writer;
+      event.recordType = recordType;
+      event.keys = keys;
+      event.values = values;
+      if (queued++ == written) {
+        lock.notifyAll();
+      }
+      return queued;
+    }
+  }
+
+  private static void writeEvents() {
+    List<JobHistoryWriter> dirty = new ArrayList<JobHistoryWriter>();
+    while (true) {
+      long from, to;
+      synchronized (lock) {
+        while (queued == written) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            LOG.warn("JobHistory writer interrupted, " +
+                     "no more history will be written");
+            return;
+          }
+        }
+        from = written;
+        to = queued;
+      }
+
+      // the slots up to the queued count are not reused before the count
+      // of written events passes them
+      for (long seq = from; seq < to; seq++) {
+        Event event = ring[(int) (seq % ring.length)];
+        JobHistoryWriter writer = event.writer;
+        if (event.recordType == null) {
+          writer.closeStreams();
+        } else {
+          writer.write(event.recordType, event.keys, event.values);
+          if (!writer.dirty) {
+            writer.dirty = true;
+            dirty.add(writer);
+          }
+        }
+        event.writer = null;
+        event.keys = null;
+        event.values = null;
+      }
+      for (JobHistoryWriter writer : dirty) {
+        writer.flush();
+        writer.dirty = false;
+      }
+      dirty.clear();
+
+      synchronized (lock) {
+        written = to;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void write(RecordTypes recordType, Keys[] keys, String[] values) {
+    if (failed) {
+      return;
+    }
+    if (!binary) {
+      JobHistory.log(textOuts, recordType, keys, values);
+      return;
+    }
+    try {
+      record.reset();
+      WritableUtils.writeVInt(record, recordType.ordinal());
+      WritableUtils.writeVInt(record, keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        WritableUtils.writeVInt(record, keys[i].ordinal());
+        Text.writeString(record, values[i] == null ? "" : values[i]);
+      }
+      frame.reset();
+      WritableUtils.writeVInt(frame, record.getLength());
+      frame.write(record.getData(), 0, record.getLength());
+      for (OutputStream out : binaryOuts) {
+        out.write(frame.getData(), 0, frame.getLength());
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void flush() {
+    if (failed) {
+      return;
+    }
+    try {
+      for (PrintWriter out : textOuts) {
+        out.flush();
+      }
+      for (OutputStream out : binaryOuts) {
+        out.flush();
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void closeStreams() {
+    for (PrintWriter out : textOuts) {
+      out.close();
+    }
+    for (OutputStream out : binaryOuts) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close job history file", e);
+      }
+    }
+    textOuts.clear();
+    binaryOuts.clear();
+    failed = true;
+  }
+
+  private void fail(IOException e) {
+    LOG.error("Failed to write job history, no more events of the job " +
+              "are logged", e);
+    failed = true;
+  }
+}
@@ -111,7 +111,7 @@ public class JobID extends ID {
   
   @Override
   public int hashCode() {
-    return toStringWOPrefix().toString().hashCode();
+    return jtIdentifier.hashCode() * 31 + id;
   }
   
   @Override
@@ -95,15 +95,13 @@ class JobInProgress {
   JobPriority priority = JobPriority.NORMAL;
   JobTracker jobtracker = null;
 
-  // NetworkTopology Node to the set of TIPs
-  Map<Node, List<TaskInProgress>> nonRunningMapCache;
+  // Non-running map TIPs indexed by NetworkTopology Node, including 
+  // the TIPs without split locations
+  PendingTaskIndex nonRunningMapCache;
   
   // Map of NetworkTopology Node to set of running TIPs
   Map<Node, Set<TaskInProgress>> runningMapCache;
 
-  // A list of non-local non-running maps
-  List<TaskInProgress> nonLocalMaps;
-
   // A set of non-local running maps
   Set<TaskInProgress> nonLocalRunningMaps;
 
@@ -166,6 +164,8 @@ class JobInProgress {
   private boolean monitor = false;
   private JobID pipeline;
   private JobID dependent;
+  // launch the reduces before the maps
+  private boolean gangReduces = false;
   
   // Per-job counters
   public static enum Counter { 
@@ -200,6 +200,7 @@ class JobInProgress {
     this.jobId = jobid;
     this.numMapTasks = conf.getNumMapTasks();
     this.numReduceTasks = conf.getNumReduceTasks();
+    this.gangReduces = gangReduces(conf);
   }
   
   /**
@@ -285,8 +286,8 @@ class JobInProgress {
     this.jobMetrics.setTag("jobId", jobid.toString());
     hasSpeculativeMaps = conf.getMapSpeculativeExecution();
     hasSpeculativeReduces = conf.getReduceSpeculativeExecution();
+    this.gangReduces = gangReduces(conf);
     this.maxLevel = jobtracker.getNumTaskCacheLevels();
-    this.nonLocalMaps = new LinkedList<TaskInProgress>();
     this.nonLocalRunningMaps = new LinkedHashSet<TaskInProgress>();
     this.runningMapCache = new IdentityHashMap<Node, Set<TaskInProgress>>();
     this.nonRunningReduces = new LinkedList<TaskInProgress>();    
@@ -347,50 +348,34 @@ class JobInProgress {
     }
   }
   
-  private Map<Node, List<TaskInProgress>> createCache(
+  private PendingTaskIndex createCache(
                          JobClient.RawSplit[] splits, int maxLevel) {
-    Map<Node, List<TaskInProgress>> cache = 
-      new IdentityHashMap<Node, List<TaskInProgress>>(maxLevel);
+    PendingTaskIndex cache = new PendingTaskIndex(maxLevel);
     
     if (this.monitor) {
     	int i = 0;
     	for (Node node: jobtracker.getNodesAtMaxLevel()) {
-            List<TaskInProgress> hostMaps = cache.get(node);
-            if (hostMaps == null) {
-              hostMaps = new ArrayList<TaskInProgress>();
-              cache.put(node, hostMaps);
-            }
-             hostMaps.add(maps[i++]);
+    	  cache.add(maps[i++], node, 1, false);
     	}
     }
+
+    // the caches keep the maps in the order the scheduler wants them run
+    int[] order = jobtracker.getTaskScheduler().getMapOrder(this, splits);
     
-    for (int i = 0; i < splits.length; i++) {
+    for (int n = 0; n < splits.length; n++) {
+      int i = order == null ? n : order[n];
       String[] splitLocations = splits[i].getLocations();
       if (splitLocations.length == 0) {
-        nonLocalMaps.add(maps[i]);
+        cache.addNonLocal(maps[i], false);
         continue;
       }
 
       for(String host: splitLocations) {
         Node node = jobtracker.resolveAndAddToTopology(host);
         LOG.info("tip:" + maps[i].getTIPId() + " has split on node:" + node);
-        for (int j = 0; j < maxLevel; j++) {
-          List<TaskInProgress> hostMaps = cache.get(node);
-          if (hostMaps == null) {
-            hostMaps = new ArrayList<TaskInProgress>();
-            cache.put(node, hostMaps);
-            hostMaps.add(maps[i]);
-          }
-          //check whether the hostMaps already contains an entry for a TIP
-          //This will be true for nodes that are racks and multiple nodes in
-          //the rack contain the input for a tip. Note that if it already
-          //exists in the hostMaps, it must be the last element there since
-          //we process one TIP at a time sequentially in the split-size order
-          if (hostMaps.get(hostMaps.size() - 1) != maps[i]) {
-            hostMaps.add(maps[i]);
-          }
-          node = node.getParent();
-        }
+        // a rack is added to once, even if several of its nodes 
+        // contain the input for the tip
+        cache.add(maps[i], node, false);
       }
     }
     return cache;
@@ -596,6 +581,38 @@ class JobInProgress {
     return numReduceTasks - runningReduceTasks - failedReduceTIPs - 
     finishedReduceTasks + speculativeReduceTasks;
   }
+  /**
+   * @return the number of reduce TIPs that are neither running nor done
+   */
+  public synchronized int unlaunchedReduces() {
+    return numReduceTasks - runningReduceTasks - failedReduceTIPs - 
+    finishedReduceTasks;
+  }
+
+  /**
+   * Whether the maps of this job should wait until all its reduces are 
+   * running. The maps of a job with mapred.map.pipeline push their output
+   * to the reduces as they run; a map that starts before the reduces 
+   * spills locally instead, and its output is only sent to the reduces 
+   * once it is done. Schedulers launch the reduces of such a job first, 
+   * and hold back its maps until then. The maps do not wait once the 
+   * reduces the job has left to launch no longer fit in the free reduce 
+   * slots, as when other jobs took the slots, so that jobs waiting for 
+   * each other's slots do not deadlock. Nor do they wait if 
+   * mapred.map.pipeline.gang is false.
+   * @param freeReduceSlots the reduce slots that are free for this job
+   * @return true if maps should not be assigned yet
+   */
+  public boolean waitsForReduces(int freeReduceSlots) {
+    int unlaunched = unlaunchedReduces();
+    return gangReduces && unlaunched > 0 && unlaunched <= freeReduceSlots;
+  }
+
+  private static boolean gangReduces(JobConf conf) {
+    return conf.getNumReduceTasks() > 0 && 
+           conf.getBoolean("mapred.map.pipeline", false) &&
+           conf.getBoolean("mapred.map.pipeline.gang", true);
+  }
   public JobPriority getPriority() {
     return this.priority;
   }
@@ -1450,6 +1467,11 @@ class JobInProgress {
    * @param tip the tip that needs to be retired
    */
   private synchronized void retireMap(TaskInProgress tip) {
+    // A failed tip is added back by failMap()
+    if (nonRunningMapCache != null) {
+      nonRunningMapCache.remove(tip);
+    }
+
     // Since a list for running maps is maintained if speculation is 'ON'
     if (hasSpeculativeMaps) {
       if (runningMapCache == null) {
@@ -1505,6 +1527,10 @@ class JobInProgress {
    * @param tip the tip that needs to be scheduled as running
    */
   private synchronized void scheduleMap(TaskInProgress tip) {
+    // Drop it from the non-running caches of all its nodes
+    if (nonRunningMapCache != null) {
+      nonRunningMapCache.remove(tip);
+    }
     
     // Since a running list is maintained only if speculation is 'ON'
     if (hasSpeculativeMaps) {
@@ -1573,22 +1599,13 @@ class JobInProgress {
 
     // Add the TIP in the front of the list for non-local non-running maps
     if (splitLocations.length == 0) {
-      nonLocalMaps.add(0, tip);
+      nonRunningMapCache.addNonLocal(tip, true);
       return;
     }
 
     for(String host: splitLocations) {
       Node node = jobtracker.getNode(host);
-      
-      for (int j = 0; j < maxLevel; ++j) {
-        List<TaskInProgress> hostMaps = nonRunningMapCache.get(node);
-        if (hostMaps == null) {
-          hostMaps = new LinkedList<TaskInProgress>();
-          nonRunningMapCache.put(node, hostMaps);
-        }
-        hostMaps.add(0, tip);
-        node = node.getParent();
-      }
+      nonRunningMapCache.add(tip, node, true);
     }
   }
   
@@ -1763,27 +1780,28 @@ class JobInProgress {
     //    i.e if the cache is available and the host has been resolved
     //    (node!=null)
     
-    if (node != null) {
+    // Scheduling a TIP removes it from the caches of all its nodes, so
+    // an empty cache means there are no non-running TIPs left.
+    boolean hasNonRunning = nonRunningMapCache != null && 
+                            !nonRunningMapCache.isEmpty();
+
+    if (node != null && hasNonRunning) {
       Node key = node;
       for (int level = 0; level < maxLevel; ++level) {
-        List <TaskInProgress> cacheForLevel = nonRunningMapCache.get(key);
+        Collection<TaskInProgress> cacheForLevel = nonRunningMapCache.get(key);
         if (cacheForLevel != null) {
           tip = findTaskFromList(cacheForLevel, tts, 
                                  numUniqueHosts,level == 0);
           if (tip != null) {
             // Add to running cache
             scheduleMap(tip);
-
-            // remove the cache if its empty
-            if (cacheForLevel.size() == 0) {
-              nonRunningMapCache.remove(key);
-            }
-
             return tip.getIdWithinJob();
           }
         }
         key = key.getParent();
       }
+    }
+    if (node != null) {
       // get the node parent at max level
       nodeParentAtMaxLevel = JobTracker.getParentNode(node, maxLevel - 1);
     }
@@ -1798,23 +1816,21 @@ class JobInProgress {
     Collection<Node> nodesAtMaxLevel = jobtracker.getNodesAtMaxLevel();
     
     for (Node parent : nodesAtMaxLevel) {
+      if (!hasNonRunning) {
+        break;
+      }
 
       // skip the parent that has already been scanned
       if (parent == nodeParentAtMaxLevel) {
         continue;
       }
 
-      List<TaskInProgress> cache = nonRunningMapCache.get(parent);
+      Collection<TaskInProgress> cache = nonRunningMapCache.get(parent);
       if (cache != null) {
         tip = findTaskFromList(cache, tts, numUniqueHosts, false);
         if (tip != null) {
           // Add to the running cache
           scheduleMap(tip);
-
-          // remove the cache if empty
-          if (cache.size() == 0) {
-            nonRunningMapCache.remove(parent);
-          }
           LOG.info("Choosing a non-local task " + tip.getTIPId());
           return tip.getIdWithinJob();
         }
@@ -1822,13 +1838,16 @@ class JobInProgress {
     }
 
     // 3. Search non-local tips for a new task
-    tip = findTaskFromList(nonLocalMaps, tts, numUniqueHosts, false);
-    if (tip != null) {
-      // Add to the running list
-      scheduleMap(tip);
+    if (hasNonRunning) {
+      tip = findTaskFromList(nonRunningMapCache.getNonLocal(), tts, 
+                             numUniqueHosts, false);
+      if (tip != null) {
+        // Add to the running list
+        scheduleMap(tip);
 
-      LOG.info("Choosing a non-local task " + tip.getTIPId());
-      return tip.getIdWithinJob();
+        LOG.info("Choosing a non-local task " + tip.getTIPId());
+        return tip.getIdWithinJob();
+      }
     }
 
     //
@@ -20,7 +20,9 @@ package org.apache.hadoop.mapred;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 
@@ -125,6 +127,35 @@ class JobQueueTaskScheduler extends TaskScheduler {
     int totalReduces = clusterStatus.getReduceTasks();
     int totalReduceTaskCapacity = clusterStatus.getMaxReduceTasks();
 
+    //
+    // The maps of a pipelined job push their output to its reduces, so
+    // its reduces are launched first, on any tracker with a free reduce
+    // slot. Its maps are held back until all of its reduces run, and the
+    // reduce slots they still need are reserved from the jobs behind it.
+    // A job whose reduces do not fit in the slots left over does not
+    // wait, so two such jobs never hold slots the other one needs.
+    //
+    int freeReduces = totalReduceTaskCapacity - totalReduces;
+    int reservedReduces = 0;
+    Set<JobInProgress> waitingJobs = new HashSet<JobInProgress>();
+    synchronized (jobQueue) {
+      for (JobInProgress job : jobQueue) {
+        if (job.getStatus().getRunState() != JobStatus.RUNNING ||
+            !job.waitsForReduces(freeReduces - reservedReduces)) {
+          continue;
+        }
+        waitingJobs.add(job);
+        if (numReduces < maxCurrentReduceTasks) {
+          Task t = job.obtainNewReduceTask(taskTracker, numTaskTrackers, 
+              taskTrackerManager.getNumberOfUniqueHosts());
+          if (t != null) {
+            return Collections.singletonList(t);
+          }
+        }
+        reservedReduces += job.unlaunchedReduces();
+      }
+    }
+
     //
     // In the below steps, we allocate first a map task (if appropriate),
     // and then a reduce task if appropriate.  We go through all jobs
@@ -143,7 +174,8 @@ class JobQueueTaskScheduler extends TaskScheduler {
       int totalNeededMaps = 0;
       synchronized (jobQueue) {
         for (JobInProgress job : jobQueue) {
-          if (job.getStatus().getRunState() != JobStatus.RUNNING) {
+          if (job.getStatus().getRunState() != JobStatus.RUNNING ||
+              waitingJobs.contains(job)) {
             continue;
           }
           
@@ -197,6 +229,13 @@ class JobQueueTaskScheduler extends TaskScheduler {
               job.numReduceTasks == 0) {
             continue;
           }
+
+          // leave the reserved slots to the pipelined jobs
+          if (reservedReduces > 0 && 
+              !waitingJobs.contains(job) &&
+              totalReduces + reservedReduces >= totalReduceTaskCapacity) {
+            continue;
+          }
           
           if (job.pipeline() != null && jobQueue.size() > 2) {
         	  boolean schedule = false;
@@ -1006,10 +1006,11 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   
   // All the known TaskInProgress items, mapped to by taskids (taskid->TIP)
   Map<TaskAttemptID, TaskInProgress> taskidToTIPMap =
-    new TreeMap<TaskAttemptID, TaskInProgress>();
+    new HashMap<TaskAttemptID, TaskInProgress>();
 
   // (taskid --> trackerID) 
-  TreeMap<TaskAttemptID, String> taskidToTrackerMap = new TreeMap<TaskAttemptID, String>();
+  Map<TaskAttemptID, String> taskidToTrackerMap =
+    new HashMap<TaskAttemptID, String>();
 
   // (trackerID->TreeSet of taskids running at that tracker)
   TreeMap<String, Set<TaskAttemptID>> trackerToTaskMap =
@@ -1020,8 +1021,9 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
     new TreeMap<String, Set<TaskAttemptID>>();
 
   // (trackerID --> last sent HeartBeatResponse)
+  // Read without the JobTracker lock to answer duplicate heartbeats.
   Map<String, HeartbeatResponse> trackerToHeartbeatResponseMap = 
-    new TreeMap<String, HeartbeatResponse>();
+    new ConcurrentHashMap<String, HeartbeatResponse>();
 
   // (hostname --> Node (NetworkTopology))
   Map<String, Node> hostnameToNodeMap = 
@@ -1724,13 +1726,21 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   public long getStartTime() {
     return startTime;
   }
+  //
+  // The job lists, job lookups and client queries below only lock the
+  // jobs map, which is modified under its own lock, and then the
+  // JobInProgress itself. They do not contend with heartbeat processing
+  // for the JobTracker lock.
+  //
   public Vector<JobInProgress> runningJobs() {
     Vector<JobInProgress> v = new Vector<JobInProgress>();
-    for (Iterator it = jobs.values().iterator(); it.hasNext();) {
-      JobInProgress jip = (JobInProgress) it.next();
-      JobStatus status = jip.getStatus();
-      if (status.getRunState() == JobStatus.RUNNING) {
-        v.add(jip);
+    synchronized (jobs) {
+      for (Iterator it = jobs.values().iterator(); it.hasNext();) {
+        JobInProgress jip = (JobInProgress) it.next();
+        JobStatus status = jip.getStatus();
+        if (status.getRunState() == JobStatus.RUNNING) {
+          v.add(jip);
+        }
       }
     }
     return v;
@@ -1739,30 +1749,32 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * Version that is called from a timer thread, and therefore needs to be
    * careful to synchronize.
    */
-  public synchronized List<JobInProgress> getRunningJobs() {
-    synchronized (jobs) {
-      return runningJobs();
-    }
+  public List<JobInProgress> getRunningJobs() {
+    return runningJobs();
   }
   public Vector<JobInProgress> failedJobs() {
     Vector<JobInProgress> v = new Vector<JobInProgress>();
-    for (Iterator it = jobs.values().iterator(); it.hasNext();) {
-      JobInProgress jip = (JobInProgress) it.next();
-      JobStatus status = jip.getStatus();
-      if ((status.getRunState() == JobStatus.FAILED)
-          || (status.getRunState() == JobStatus.KILLED)) {
-        v.add(jip);
+    synchronized (jobs) {
+      for (Iterator it = jobs.values().iterator(); it.hasNext();) {
+        JobInProgress jip = (JobInProgress) it.next();
+        JobStatus status = jip.getStatus();
+        if ((status.getRunState() == JobStatus.FAILED)
+            || (status.getRunState() == JobStatus.KILLED)) {
+          v.add(jip);
+        }
       }
     }
     return v;
   }
   public Vector<JobInProgress> completedJobs() {
     Vector<JobInProgress> v = new Vector<JobInProgress>();
-    for (Iterator it = jobs.values().iterator(); it.hasNext();) {
-      JobInProgress jip = (JobInProgress) it.next();
-      JobStatus status = jip.getStatus();
-      if (status.getRunState() == JobStatus.SUCCEEDED) {
-        v.add(jip);
+    synchronized (jobs) {
+      for (Iterator it = jobs.values().iterator(); it.hasNext();) {
+        JobInProgress jip = (JobInProgress) it.next();
+        JobStatus status = jip.getStatus();
+        if (status.getRunState() == JobStatus.SUCCEEDED) {
+          v.add(jip);
+        }
       }
     }
     return v;
@@ -1894,9 +1906,14 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * The {@link JobTracker} processes the status information sent by the 
    * {@link TaskTracker} and responds with instructions to start/stop 
    * tasks or jobs, and also 'reset' instructions during contingencies. 
+   * 
+   * Only the processing of the tracker status and the assignment of tasks
+   * hold the {@link JobTracker} lock. Rejected and duplicate heartbeats are
+   * answered without it, and the heartbeat interval is computed before it
+   * is taken.
    */
-  public synchronized HeartbeatResponse heartbeat(TaskTrackerStatus status, 
-                                                  boolean initialContact, boolean acceptNewTasks, short responseId) 
+  public HeartbeatResponse heartbeat(TaskTrackerStatus status, 
+                                     boolean initialContact, boolean acceptNewTasks, short responseId) 
     throws IOException {
     LOG.debug("Got heartbeat from: " + status.getTrackerName() + 
               " (initialContact: " + initialContact + 
@@ -1904,13 +1921,48 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
               " with responseId: " + responseId);
 
     // Make sure heartbeat is from a tasktracker allowed by the jobtracker.
-    if (!acceptTaskTracker(status)) {
+    boolean accepted;
+    synchronized (hostsReader) {
+      accepted = acceptTaskTracker(status);
+    }
+    if (!accepted) {
       throw new DisallowedTaskTrackerException(status);
     }
 
     // First check if the last heartbeat response got through
     String trackerName = status.getTrackerName();
     
+    HeartbeatResponse prevHeartbeatResponse =
+      trackerToHeartbeatResponseMap.get(trackerName);
+    if (initialContact != true && prevHeartbeatResponse != null &&
+        prevHeartbeatResponse.getResponseId() != responseId) {
+      // It is completely safe to not process a 'duplicate' heartbeat from a 
+      // {@link TaskTracker} since it resends the heartbeat when rpcs are 
+      // lost see {@link TaskTracker.transmitHeartbeat()};
+      // acknowledge it by re-sending the previous response to let the 
+      // {@link TaskTracker} go forward. 
+      LOG.info("Ignoring 'duplicate' heartbeat from '" + 
+          trackerName + "'; resending the previous 'lost' response");
+      return prevHeartbeatResponse;
+    }
+
+    // calculate next heartbeat interval before taking the lock; it only
+    // needs the tracker count
+    int nextInterval = getNextHeartbeatInterval();
+    synchronized (this) {
+      return processHeartbeat(status, initialContact, acceptNewTasks, 
+                              responseId, nextInterval);
+    }
+  }
+
+  /**
+   * Process a heartbeat that is not a duplicate, and build the response.
+   * Called with the {@link JobTracker} lock held.
+   */
+  private HeartbeatResponse processHeartbeat(TaskTrackerStatus status,
+      boolean initialContact, boolean acceptNewTasks, short responseId,
+      int nextInterval) throws IOException {
+    String trackerName = status.getTrackerName();
     HeartbeatResponse prevHeartbeatResponse =
       trackerToHeartbeatResponseMap.get(trackerName);
     boolean addRestartInfo = false;
@@ -1934,18 +1986,11 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
               new TaskTrackerAction[] {new ReinitTrackerAction()});
         }
 
-      } else {
-                
-        // It is completely safe to not process a 'duplicate' heartbeat from a 
-        // {@link TaskTracker} since it resends the heartbeat when rpcs are 
-        // lost see {@link TaskTracker.transmitHeartbeat()};
-        // acknowledge it by re-sending the previous response to let the 
-        // {@link TaskTracker} go forward. 
-        if (prevHeartbeatResponse.getResponseId() != responseId) {
-          LOG.info("Ignoring 'duplicate' heartbeat from '" + 
-              trackerName + "'; resending the previous 'lost' response");
-          return prevHeartbeatResponse;
-        }
+      } else if (prevHeartbeatResponse.getResponseId() != responseId) {
+        // the previous response was replaced since the unlocked check
+        LOG.info("Ignoring 'duplicate' heartbeat from '" + 
+            trackerName + "'; resending the previous 'lost' response");
+        return prevHeartbeatResponse;
       }
     }
       
@@ -2006,8 +2051,6 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       actions.addAll(commitTasksList);
     }
 
-    // calculate next heartbeat interval and put in heartbeat response
-    int nextInterval = getNextHeartbeatInterval();
     response.setHeartbeatInterval(nextInterval);
     response.setActions(
                         actions.toArray(new TaskTrackerAction[actions.size()]));
@@ -2423,7 +2466,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
     }
   }
 
-  public synchronized ClusterStatus getClusterStatus() {
+  public ClusterStatus getClusterStatus() {
     synchronized (taskTrackers) {
       return new ClusterStatus(taskTrackers.size(),
                                totalMaps,
@@ -2492,12 +2535,10 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   }
 
   public JobProfile getJobProfile(JobID jobid) {
-    synchronized (this) {
-      JobInProgress job = jobs.get(jobid);
-      if (job != null) {
-        return job.getProfile();
-      } 
-    }
+    JobInProgress job = getJob(jobid);
+    if (job != null) {
+      return job.getProfile();
+    } 
     return completedJobStatusStore.readJobProfile(jobid);
   }
   public JobStatus getJobStatus(JobID jobid) {
@@ -2505,25 +2546,21 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       LOG.warn("JobTracker.getJobStatus() cannot get status for null jobid");
       return null;
     }
-    synchronized (this) {
-      JobInProgress job = jobs.get(jobid);
-      if (job != null) {
-        return job.getStatus();
-      } 
-    }
+    JobInProgress job = getJob(jobid);
+    if (job != null) {
+      return job.getStatus();
+    } 
     return completedJobStatusStore.readJobStatus(jobid);
   }
   public Counters getJobCounters(JobID jobid) {
-    synchronized (this) {
-      JobInProgress job = jobs.get(jobid);
-      if (job != null) {
-        return job.getCounters();
-      } 
-    }
+    JobInProgress job = getJob(jobid);
+    if (job != null) {
+      return job.getCounters();
+    } 
     return completedJobStatusStore.readCounters(jobid);
   }
-  public synchronized TaskReport[] getMapTaskReports(JobID jobid) {
-    JobInProgress job = jobs.get(jobid);
+  public TaskReport[] getMapTaskReports(JobID jobid) {
+    JobInProgress job = getJob(jobid);
     if (job == null) {
       return new TaskReport[0];
     } else {
@@ -2544,8 +2581,8 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
     }
   }
 
-  public synchronized TaskReport[] getReduceTaskReports(JobID jobid) {
-    JobInProgress job = jobs.get(jobid);
+  public TaskReport[] getReduceTaskReports(JobID jobid) {
+    JobInProgress job = getJob(jobid);
     if (job == null) {
       return new TaskReport[0];
     } else {
@@ -2564,8 +2601,8 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
     }
   }
 
-  public synchronized TaskReport[] getCleanupTaskReports(JobID jobid) {
-    JobInProgress job = jobs.get(jobid);
+  public TaskReport[] getCleanupTaskReports(JobID jobid) {
+    JobInProgress job = getJob(jobid);
     if (job == null) {
       return new TaskReport[0];
     } else {
@@ -2587,8 +2624,8 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   
   }
   
-  public synchronized TaskReport[] getSetupTaskReports(JobID jobid) {
-    JobInProgress job = jobs.get(jobid);
+  public TaskReport[] getSetupTaskReports(JobID jobid) {
+    JobInProgress job = getJob(jobid);
     if (job == null) {
       return new TaskReport[0];
     } else {
@@ -2616,16 +2653,14 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * starting from fromEventId.
    * @see org.apache.hadoop.mapred.JobSubmissionProtocol#getTaskCompletionEvents(java.lang.String, int, int)
    */
-  public synchronized TaskCompletionEvent[] getTaskCompletionEvents(
+  public TaskCompletionEvent[] getTaskCompletionEvents(
       JobID jobid, int fromEventId, int maxEvents) throws IOException{
-    synchronized (this) {
-      JobInProgress job = this.jobs.get(jobid);
-      if (null != job) {
-        if (job.inited()) {
-          return job.getTaskCompletionEvents(fromEventId, maxEvents);
-        } else {
-          return EMPTY_EVENTS;
-        }
+    JobInProgress job = getJob(jobid);
+    if (null != job) {
+      if (job.inited()) {
+        return job.getTaskCompletionEvents(fromEventId, maxEvents);
+      } else {
+        return EMPTY_EVENTS;
       }
     }
     return completedJobStatusStore.readJobTaskCompletionEvents(jobid, fromEventId, maxEvents);
@@ -2636,12 +2671,12 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * @param taskId the id of the task
    * @return an array of the diagnostic messages
    */
-  public synchronized String[] getTaskDiagnostics(TaskAttemptID taskId)  
+  public String[] getTaskDiagnostics(TaskAttemptID taskId)  
     throws IOException {
     
     JobID jobId = taskId.getJobID();
     TaskID tipId = taskId.getTaskID();
-    JobInProgress job = jobs.get(jobId);
+    JobInProgress job = getJob(jobId);
     if (job == null) {
       throw new IllegalArgumentException("Job " + jobId + " not found.");
     }
@@ -2688,7 +2723,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * Returns specified TaskInProgress, or null.
    */
   public TaskInProgress getTip(TaskID tipid) {
-    JobInProgress job = jobs.get(tipid.getJobID());
+    JobInProgress job = getJob(tipid.getJobID());
     return (job == null ? null : job.getTaskInProgress(tipid));
   }
     
@@ -2715,11 +2750,18 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   }
     
   public JobStatus[] jobsToComplete() {
-    return getJobStatus(jobs.values(), true);
+    return getJobStatus(getJobs(), true);
   } 
   
   public JobStatus[] getAllJobs() {
-    return getJobStatus(jobs.values(),false);
+    return getJobStatus(getJobs(),false);
+  }
+
+  /** A copy of the known jobs, taken under the jobs lock. */
+  private List<JobInProgress> getJobs() {
+    synchronized (jobs) {
+      return new ArrayList<JobInProgress>(jobs.values());
+    }
   }
     
   /**
@@ -2734,7 +2776,9 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   // JobTracker methods
   ///////////////////////////////////////////////////////////////
   public JobInProgress getJob(JobID jobid) {
-    return jobs.get(jobid);
+    synchronized (jobs) {
+      return jobs.get(jobid);
+    }
   }
 
   /**
@@ -2957,11 +3001,17 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
 
   @Override
   public JobStatus[] getJobsFromQueue(String queue) throws IOException {
-    Collection<JobInProgress> jips = taskScheduler.getJobs(queue);
+    Collection<JobInProgress> jips = null;
+    synchronized (taskScheduler) {
+      Collection<JobInProgress> queued = taskScheduler.getJobs(queue);
+      if (queued != null) {
+        jips = new ArrayList<JobInProgress>(queued);
+      }
+    }
     return getJobStatus(jips,false);
   }
   
-  private synchronized JobStatus[] getJobStatus(Collection<JobInProgress> jips,
+  private JobStatus[] getJobStatus(Collection<JobInProgress> jips,
       boolean toComplete) {
     if(jips == null || jips.isEmpty()) {
       return new JobStatus[]{};
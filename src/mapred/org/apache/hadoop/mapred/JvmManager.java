@@ -20,9 +20,12 @@ package org.apache.hadoop.mapred;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -30,19 +33,62 @@ import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.TaskTracker.TaskInProgress;
+import org.apache.hadoop.util.Shell;
 import org.apache.hadoop.util.Shell.ShellCommandExecutor;
 
+/**
+ * Launches the child JVMs of the tasks, and reuses them for the tasks of
+ * the same job.
+ * <p>
+ * With <code>mapred.tasktracker.jvm.pool.size</code> set, the tracker also
+ * keeps that many idle JVMs per task type, started with only the tracker's
+ * class path and with the framework classes loaded. The first task of a
+ * job that finds no JVM of its own takes a pooled JVM if the task would
+ * have been started the same way: the same child options, temporary
+ * directory and ulimit, no profiling, no symlinked cache files and no
+ * memory management. The JVM is bound to the job from then on, loads the
+ * job's classes in a class loader of its own, and is replaced in the pool
+ * by a new JVM.
+ * <p>
+ * A process cannot change its working directory or environment, so a
+ * pooled JVM is started in a work directory of its own, which is on its
+ * library path and <code>LD_LIBRARY_PATH</code> and holds its
+ * <code>java.io.tmpdir</code>, as a task's work directory is. Its tasks
+ * take it for theirs, as the later tasks of a reused JVM take the first
+ * task's.
+ */
 class JvmManager {
 
   public static final Log LOG =
     LogFactory.getLog("org.apache.hadoop.mapred.JvmManager");
 
+  /** The job identifier of the JVMs in the pool, before they are bound. */
+  static final String POOL_IDENTIFIER = "jvmpool";
+
+  private static final JobID POOL_JOB_ID = new JobID(POOL_IDENTIFIER, 0);
+
+  /* How long an idle pooled JVM waits for a task in one getTask call. */
+  private static final long POOL_WAIT = 1000;
+
   JvmManagerForType mapJvmManager;
 
   JvmManagerForType reduceJvmManager;
+
+  private final JobConf conf;
+  private final int poolSize;
+  // the command of the pooled JVMs, fixed when the pool is started
+  private String poolJavaOpts;
+  private String poolTmp;
+  private InetSocketAddress poolAddress = null;
+  private List<String> poolSetup;
+  private int poolJvms = 0;
   
+
   public JvmEnv constructJvmEnv(List<String> setup, Vector<String>vargs,
       File stdout,File stderr,long logSize, File workDir, 
       Map<String,String> env, String pidFile, JobConf conf) {
@@ -50,17 +96,197 @@ class JvmManager {
   }
   
   public JvmManager(TaskTracker tracker) {
+    this.conf = tracker.getJobConf();
+    this.poolSize = conf.getInt("mapred.tasktracker.jvm.pool.size", 0);
     mapJvmManager = new JvmManagerForType(tracker.getMaxCurrentMapTasks(), 
         true);
     reduceJvmManager = new JvmManagerForType(tracker.getMaxCurrentReduceTasks(),
         false);
   }
+
+  /** The number of idle JVMs kept per task type. */
+  int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Start the pooled JVMs, once the tracker serves the umbilical protocol.
+   * @param address the umbilical address of the tracker
+   */
+  public void startPool(InetSocketAddress address) {
+    if (poolSize <= 0) {
+      return;
+    }
+    poolJavaOpts = conf.get("mapred.child.java.opts", "-Xmx200m");
+    poolTmp = conf.get("mapred.child.tmp", "./tmp");
+    poolAddress = address;
+    String[] ulimitCmd = Shell.getUlimitMemoryCommand(conf);
+    if (ulimitCmd != null) {
+      poolSetup = new ArrayList<String>(Arrays.asList(ulimitCmd));
+    }
+    LOG.info("Starting " + poolSize + " pooled JVMs per task type");
+    mapJvmManager.fillPool();
+    reduceJvmManager.fillPool();
+  }
+
+  /* The command of a new pooled JVM, run as its own first task attempt. */
+  private synchronized JvmEnv createPoolJvmEnv(boolean isMap)
+    throws IOException {
+    TaskAttemptID attemptId = new TaskAttemptID(
+        new TaskID(POOL_JOB_ID, isMap, 0), poolJvms++);
+    LocalDirAllocator lDirAlloc = new LocalDirAllocator("mapred.local.dir");
+    File workDir = new File(lDirAlloc.getLocalPathForWrite(
+        TaskTracker.getLocalTaskDir(POOL_JOB_ID.toString(),
+                                    attemptId.toString())
+        + Path.SEPARATOR + MRConstants.WORKDIR, conf).toString());
+    if (!workDir.mkdirs() && !workDir.isDirectory()) {
+      throw new IOException("Mkdirs failed to create " + workDir);
+    }
+    // the work directory of the JVM stands in for the one of its tasks,
+    // as the first task's does in a reused JVM: the tasks set it up as
+    // theirs, and it is on the library path and holds java.io.tmpdir
+    String sep = System.getProperty("path.separator");
+    Vector<String> vargs = new Vector<String>();
+    vargs.add(new File(new File(System.getProperty("java.home"), "bin"),
+                       "java").toString());
+    if (poolJavaOpts.indexOf("-Djava.library.path=") < 0) {
+      String libraryPath = System.getProperty("java.library.path");
+      vargs.add("-Djava.library.path=" + (libraryPath == null
+          ? workDir.toString() : libraryPath + sep + workDir));
+    }
+    for (String opt : poolJavaOpts.split(" ")) {
+      vargs.add(opt);
+    }
+    Path tmpDir = new Path(poolTmp);
+    if (!tmpDir.isAbsolute()) {
+      tmpDir = new Path(workDir.toString(), poolTmp);
+    }
+    File tmp = new File(tmpDir.toString());
+    if (!tmp.mkdirs() && !tmp.isDirectory()) {
+      throw new IOException("Mkdirs failed to create " + tmpDir);
+    }
+    vargs.add("-Djava.io.tmpdir=" + tmpDir);
+    vargs.add("-classpath");
+    vargs.add(System.getProperty("java.class.path"));
+    vargs.add("-Dhadoop.log.dir=" + 
+        new File(System.getProperty("hadoop.log.dir")).getAbsolutePath());
+    vargs.add("-Dhadoop.root.logger=INFO,TLA");
+    vargs.add("-Dhadoop.tasklog.totalLogFileSize=" +
+              TaskLog.getTaskLogLength(conf));
+    vargs.add("-Dhadoop.tasklog.taskid=" + attemptId);
+    vargs.add(Child.class.getName());
+    vargs.add(poolAddress.getAddress().getHostAddress());
+    vargs.add(Integer.toString(poolAddress.getPort()));
+    vargs.add(attemptId.toString());
+
+    File stdout = TaskLog.getTaskLogFile(attemptId, TaskLog.LogName.STDOUT);
+    File stderr = TaskLog.getTaskLogFile(attemptId, TaskLog.LogName.STDERR);
+    stdout.getParentFile().mkdirs();
+    Map<String, String> env = new HashMap<String, String>();
+    String ldLibraryPath = System.getenv("LD_LIBRARY_PATH");
+    env.put("LD_LIBRARY_PATH", ldLibraryPath == null
+            ? workDir.toString() : workDir + sep + ldLibraryPath);
+    return new JvmEnv(poolSetup, vargs, stdout, stderr,
+                      TaskLog.getTaskLogLength(conf), workDir, env, null,
+                      conf);
+  }
+
+  /**
+   * Whether a task may run in a pooled JVM, which was started the way the
+   * task would start its own.
+   */
+  boolean isPoolable(JobConf job, Task t) {
+    if (poolAddress == null) {
+      return false;
+    }
+    String javaOpts = job.get("mapred.child.java.opts", "-Xmx200m");
+    if (!javaOpts.equals(poolJavaOpts) || javaOpts.contains("@taskid@")) {
+      return false;
+    }
+    if (!job.get("mapred.child.tmp", "./tmp").equals(poolTmp)) {
+      return false;
+    }
+    if (!Arrays.equals(Shell.getUlimitMemoryCommand(job),
+                       poolSetup == null ? null : poolSetup.toArray())) {
+      return false;
+    }
+    if (job.getProfileEnabled() &&
+        job.getProfileTaskRange(t.isMapTask()).isIncluded(t.getPartition())) {
+      return false;
+    }
+    try {
+      if (DistributedCache.getSymlink(job) &&
+          (DistributedCache.getCacheArchives(job) != null ||
+           DistributedCache.getCacheFiles(job) != null)) {
+        return false;
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return !job.getBoolean("task.memory.mgmt.enabled", false);
+  }
+  
   
   public void stop() {
     mapJvmManager.stop();
     reduceJvmManager.stop();
   }
 
+  private JvmManagerForType getManager(JVMId jvmId) {
+    return jvmId.isMapJVM() ? mapJvmManager : reduceJvmManager;
+  }
+
+  /**
+   * Wait a while for an idle pooled JVM to be bound to a task.
+   */
+  public void waitForPooledTask(JVMId jvmId) {
+    if (jvmId.getJobId().equals(POOL_JOB_ID)) {
+      getManager(jvmId).waitForBinding(jvmId, POOL_WAIT);
+    }
+  }
+
+  /** The number of pooled JVMs of a task type waiting for a task. */
+  int getWaitingPoolSize(boolean isMap) {
+    return (isMap ? mapJvmManager : reduceJvmManager).getWaitingPoolSize();
+  }
+
+  /**
+   * Record that a JVM took the task it was launched for, and how long
+   * after the launch.
+   */
+  public void taskTaken(JVMId jvmId) {
+    getManager(jvmId).taskTaken(jvmId);
+  }
+
+  /**
+   * The mean launch latency in milliseconds of the first tasks of the JVMs
+   * of a task type, from the launch of the task to its JVM taking it, or -1
+   * if no such task was launched.
+   * @param pooled whether of the pooled JVMs or of those spawned for a task
+   */
+  long getLaunchLatency(boolean isMap, boolean pooled) {
+    return (isMap ? mapJvmManager : reduceJvmManager)
+      .getLaunchLatency(pooled);
+  }
+
+  /** Whether a JVM is in the pool, not yet bound to a job. */
+  public boolean isJvmIdle(JVMId jvmId) {
+    return getManager(jvmId).isJvmIdle(jvmId);
+  }
+
+  /** The job a JVM runs the tasks of. */
+  public JobID getJobForJvm(JVMId jvmId) {
+    return getManager(jvmId).getJobForJvm(jvmId);
+  }
+
+  /**
+   * The job class path of the task of a pooled JVM, or null if the JVM was
+   * started with it.
+   */
+  public String[] getClassPathForJvm(JVMId jvmId) {
+    return getManager(jvmId).getClassPathForJvm(jvmId);
+  }
+
   public boolean isJvmKnown(JVMId jvmId) {
     if (jvmId.isMapJVM()) {
       return mapJvmManager.isJvmknown(jvmId);
@@ -108,7 +334,7 @@ class JvmManager {
     }
   }  
 
-  private static class JvmManagerForType {
+  private class JvmManagerForType {
     //Mapping from the JVM IDs to running Tasks
     Map <JVMId,TaskRunner> jvmToRunningTask = 
       new HashMap<JVMId, TaskRunner>();
@@ -118,8 +344,14 @@ class JvmManager {
     //Mapping from the JVM IDs to Reduce JVM processes
     Map <JVMId, JvmRunner> jvmIdToRunner = 
       new HashMap<JVMId, JvmRunner>();
+    //The idle pooled JVMs, in the order they were started
+    Map <JVMId, JvmRunner> pool = new LinkedHashMap<JVMId, JvmRunner>();
     int maxJvms;
     boolean isMap;
+    // the total launch latency of the first tasks of pooled and spawned
+    // JVMs, and their number
+    long[] launchLatency = new long[2];
+    int[] launches = new int[2];
     
     Random rand = new Random(System.currentTimeMillis());
 
@@ -132,7 +364,30 @@ class JvmManager {
         TaskRunner t) {
       jvmToRunningTask.put(jvmId, t);
       runningTaskToJvm.put(t,jvmId);
-      jvmIdToRunner.get(jvmId).setBusy(true);
+      JvmRunner jvmRunner = jvmIdToRunner.get(jvmId);
+      jvmRunner.setBusy(true);
+      jvmRunner.launchTime = System.currentTimeMillis();
+    }
+
+    synchronized public void taskTaken(JVMId jvmId) {
+      JvmRunner jvmRunner = jvmIdToRunner.get(jvmId);
+      if (jvmRunner == null || jvmRunner.launchTime == 0) {
+        return;
+      }
+      long latency = System.currentTimeMillis() - jvmRunner.launchTime;
+      jvmRunner.launchTime = 0;
+      if (jvmRunner.numTasksRan == 0) {
+        int pooled = jvmRunner.boundJobId != null ? 1 : 0;
+        launchLatency[pooled] += latency;
+        launches[pooled]++;
+        LOG.info("JVM " + jvmId + " took its first task " + latency +
+                 " ms after the launch");
+      }
+    }
+
+    synchronized public long getLaunchLatency(boolean pooled) {
+      int i = pooled ? 1 : 0;
+      return launches[i] == 0 ? -1 : launchLatency[i] / launches[i];
     }
     
     synchronized public TaskInProgress getTaskForJvm(JVMId jvmId) {
@@ -143,7 +398,89 @@ class JvmManager {
     }
     
     synchronized public boolean isJvmknown(JVMId jvmId) {
-      return jvmIdToRunner.containsKey(jvmId);
+      return jvmIdToRunner.containsKey(jvmId) || pool.containsKey(jvmId);
+    }
+
+    synchronized public boolean isJvmIdle(JVMId jvmId) {
+      return pool.containsKey(jvmId);
+    }
+
+    synchronized public JobID getJobForJvm(JVMId jvmId) {
+      JvmRunner jvmRunner = jvmIdToRunner.get(jvmId);
+      return jvmRunner == null ? jvmId.getJobId() : jvmRunner.getJobId();
+    }
+
+    synchronized public String[] getClassPathForJvm(JVMId jvmId) {
+      JvmRunner jvmRunner = jvmIdToRunner.get(jvmId);
+      return jvmRunner == null || jvmRunner.taskEnv == null ? null
+             : jvmRunner.taskEnv.taskClassPath;
+    }
+
+    synchronized public int getWaitingPoolSize() {
+      int waiting = 0;
+      for (JvmRunner jvmRunner : pool.values()) {
+        if (jvmRunner.waiting) {
+          waiting++;
+        }
+      }
+      return waiting;
+    }
+
+    synchronized public void waitForBinding(JVMId jvmId, long timeout) {
+      JvmRunner pooled = pool.get(jvmId);
+      if (pooled != null) {
+        pooled.waiting = true;
+      }
+      long end = System.currentTimeMillis() + timeout;
+      long remaining = timeout;
+      try {
+        while (pool.containsKey(jvmId) && remaining > 0) {
+          wait(remaining);
+          remaining = end - System.currentTimeMillis();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /* Start pooled JVMs up to the pool size. */
+    synchronized public void fillPool() {
+      while (poolAddress != null && pool.size() < poolSize) {
+        JvmEnv env;
+        try {
+          env = createPoolJvmEnv(isMap);
+        } catch (IOException e) {
+          LOG.warn("Failed to start a pooled JVM", e);
+          return;
+        }
+        JvmRunner jvmRunner = new JvmRunner(env, POOL_JOB_ID);
+        jvmRunner.busy = false;
+        pool.put(jvmRunner.jvmId, jvmRunner);
+        jvmRunner.setDaemon(true);
+        jvmRunner.setName("JVM Runner " + jvmRunner.jvmId + " pooled.");
+        LOG.info(jvmRunner.getName());
+        jvmRunner.start();
+      }
+    }
+
+    /* Bind the oldest pooled JVM to a task, false if the pool is empty. */
+    private boolean bindPooledJvm(JobID jobId, JvmEnv env, TaskRunner t) {
+      Iterator<JvmRunner> it = pool.values().iterator();
+      if (!it.hasNext()) {
+        // replace the pooled JVMs that died idle
+        fillPool();
+        return false;
+      }
+      JvmRunner jvmRunner = it.next();
+      it.remove();
+      jvmRunner.bind(jobId, env);
+      jvmIdToRunner.put(jvmRunner.jvmId, jvmRunner);
+      setRunningTaskForJvm(jvmRunner.jvmId, t);
+      LOG.info("Bound pooled JVM " + jvmRunner.jvmId + " to jobId/taskid: " +
+               jobId + "/" + t.getTask().getTaskID());
+      notifyAll();
+      fillPool();
+      return true;
     }
 
     synchronized public void taskFinished(TaskRunner tr) {
@@ -180,6 +517,7 @@ class JvmManager {
       //exception
       List <JvmRunner> list = new ArrayList<JvmRunner>();
       list.addAll(jvmIdToRunner.values());
+      list.addAll(pool.values());
       for (JvmRunner jvm : list) {
         jvm.kill();
       }
@@ -187,6 +525,9 @@ class JvmManager {
     
     synchronized private void removeJvm(JVMId jvmId) {
       jvmIdToRunner.remove(jvmId);
+      if (pool.remove(jvmId) != null) {
+        notifyAll();
+      }
     }
     private synchronized void reapJvm( 
         TaskRunner t, JvmEnv env) {
@@ -213,7 +554,7 @@ class JvmManager {
         
         while (jvmIter.hasNext()) {
           JvmRunner jvmRunner = jvmIter.next().getValue();
-          JobID jId = jvmRunner.jvmId.getJobId();
+          JobID jId = jvmRunner.getJobId();
           //look for a free JVM for this job; if one exists then just break
           if (jId.equals(jobId) && !jvmRunner.isBusy() && !jvmRunner.ranAll()){
             setRunningTaskForJvm(jvmRunner.jvmId, t); //reserve the JVM
@@ -246,6 +587,9 @@ class JvmManager {
           LOG.info("Killing JVM: " + runnerToKill.jvmId);
           runnerToKill.kill();
         }
+        if (env.taskClassPath != null && bindPooledJvm(jobId, env, t)) {
+          return;
+        }
         spawnNewJvm(jobId, env, t);
         return;
       }
@@ -310,8 +654,15 @@ class JvmManager {
       JvmEnv env;
       volatile boolean killed = false;
       volatile int numTasksRan;
-      final int numTasksToRun;
+      volatile int numTasksToRun;
       JVMId jvmId;
+      // the job and first task of a pooled JVM, once bound
+      volatile JobID boundJobId = null;
+      volatile JvmEnv taskEnv = null;
+      // whether the JVM, while pooled, has asked for a task
+      volatile boolean waiting = false;
+      // when the task the JVM has yet to take was launched, or 0
+      volatile long launchTime = 0;
       volatile boolean busy = true;
       private ShellCommandExecutor shexec; // shell terminal for running the task
       public JvmRunner(JvmEnv env, JobID jobId) {
@@ -324,6 +675,18 @@ class JvmManager {
         runChild(env);
       }
 
+      /* Run the tasks of a job in this pooled JVM. */
+      void bind(JobID jobId, JvmEnv taskEnv) {
+        this.boundJobId = jobId;
+        this.taskEnv = taskEnv;
+        this.numTasksToRun = taskEnv.conf.getNumTasksToExecutePerJvm();
+        this.busy = true;
+      }
+
+      JobID getJobId() {
+        return boundJobId != null ? boundJobId : jvmId.getJobId();
+      }
+
       public void runChild(JvmEnv env) {
         try {
           env.vargs.add(Integer.toString(jvmId.getId()));
@@ -349,7 +712,8 @@ class JvmManager {
             //the task jvm cleans up the common workdir for every 
             //task at the beginning of each task in the task JVM.
             //For the last task, we do it here.
-            if (env.conf.getNumTasksToExecutePerJvm() != 1) {
+            if (env.conf.getNumTasksToExecutePerJvm() != 1 ||
+                jvmId.getJobId().equals(POOL_JOB_ID)) {
               FileUtil.fullyDelete(env.workDir);
             }
           } catch (IOException ie){}
@@ -392,6 +756,9 @@ class JvmManager {
     long logSize;
     JobConf conf;
     Map<String, String> env;
+    // the job's own class path entries, for a task that may run in a
+    // pooled JVM
+    String[] taskClassPath = null;
 
     public JvmEnv(List<String> setup, Vector<String> vargs, File stdout, 
         File stderr, long logSize, File workDir, Map<String,String> env,
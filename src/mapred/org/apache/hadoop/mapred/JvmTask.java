@@ -22,18 +22,31 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 class JvmTask implements Writable {
   Task t;
   boolean shouldDie;
+  String[] classPath = null;
   public JvmTask(Task t, boolean shouldDie) {
     this.t = t;
     this.shouldDie = shouldDie;
   }
+  /**
+   * A task for a pooled JVM, which loads the job's classes from the
+   * given class path entries.
+   */
+  public JvmTask(Task t, String[] classPath) {
+    this(t, false);
+    this.classPath = classPath;
+  }
   public JvmTask() {}
   public Task getTask() {
     return t;
   }
+  public String[] getClassPath() {
+    return classPath;
+  }
   public boolean shouldDie() {
     return shouldDie;
   }
@@ -44,6 +57,10 @@ class JvmTask implements Writable {
       out.writeBoolean(t.isMapTask());
       out.writeBoolean(t.isPipeline());
       t.write(out);
+      out.writeBoolean(classPath != null);
+      if (classPath != null) {
+        WritableUtils.writeStringArray(out, classPath);
+      }
     } else {
       out.writeBoolean(false);
     }
@@ -60,6 +77,7 @@ class JvmTask implements Writable {
         t = new ReduceTask();
       }
       t.readFields(in);
+      classPath = in.readBoolean() ? WritableUtils.readStringArray(in) : null;
     }
   }
 }
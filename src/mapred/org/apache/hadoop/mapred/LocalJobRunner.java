@@ -183,6 +183,9 @@ class LocalJobRunner implements JobSubmissionProtocol {
         }
         // delete the temporary directory in output directory
         outputCommitter.cleanupJob(jContext);
+        if (job.getBoolean("mapred.snapshot.delta", false)) {
+          SnapshotPublisher.deleteDeltas(job);
+        }
         status.setCleanupProgress(1.0f);
 
         this.status.setRunState(JobStatus.SUCCEEDED);
@@ -259,27 +259,6 @@ public class MapTask extends Task {
 			getProgress().complete();
 		}
 		else {
-			boolean pipeline = job.getBoolean("mapred.map.pipeline", false);
-			if (numReduceTasks > 0) {
-				Class mapCombiner = job.getClass("mapred.map.combiner.class", null);
-				if (mapCombiner != null) {
-					job.setCombinerClass(mapCombiner);
-				}
-
-				Class keyClass = job.getMapOutputKeyClass();
-				Class valClass = job.getMapOutputValueClass();
-				Class<? extends CompressionCodec> codecClass = null;
-				if (conf.getCompressMapOutput()) {
-					codecClass = conf.getMapOutputCompressorClass(DefaultCodec.class);
-				}
-				JOutputBuffer buffer = new JOutputBuffer(bufferUmbilical, this, job, 
-						reporter, getProgress(), pipeline, 
-						keyClass, valClass, codecClass);
-				collector = buffer;
-			} else { 
-				collector = new DirectMapOutputCollector(umbilical, job, reporter);
-			}
-
 			// reinstantiate the split
 			try {
 				instantiatedSplit = (InputSplit) 
@@ -294,7 +273,16 @@ public class MapTask extends Task {
 			splitBuffer.reset(split.get(), 0, split.getSize());
 			instantiatedSplit.readFields(splitBuffer);
 
-			// if it is a file split, we can give more details
+			// a small job submitted as one task runs all of its tasks here
+			if (instantiatedSplit instanceof UberTask.Split) {
+				new UberTask(this, job, umbilical,
+				             (UberTask.Split) instantiatedSplit).run();
+				done(umbilical);
+				return;
+			}
+
+			// if it is a file split, we can give more details, to the
+			// partitioner of the map output as well
 			if (instantiatedSplit instanceof FileSplit) {
 				FileSplit fileSplit = (FileSplit) instantiatedSplit;
 				job.set("map.input.file", fileSplit.getPath().toString());
@@ -302,6 +290,26 @@ public class MapTask extends Task {
 				job.setLong("map.input.length", fileSplit.getLength());
 			}
 
+			boolean pipeline = job.getBoolean("mapred.map.pipeline", false);
+			if (numReduceTasks > 0) {
+				Class mapCombiner = job.getClass("mapred.map.combiner.class", null);
+				if (mapCombiner != null) {
+					job.setCombinerClass(mapCombiner);
+				}
+
+				Class keyClass = job.getMapOutputKeyClass();
+				Class valClass = job.getMapOutputValueClass();
+				Class<? extends CompressionCodec> codecClass = null;
+				if (conf.getCompressMapOutput()) {
+					codecClass = conf.getMapOutputCompressorClass(DefaultCodec.class);
+				}
+				JOutputBuffer buffer = new JOutputBuffer(bufferUmbilical, this, job, 
+						reporter, getProgress(), pipeline, 
+						keyClass, valClass, codecClass);
+				collector = buffer;
+			} else { 
+				collector = new DirectMapOutputCollector(umbilical, job, reporter);
+			}
 
 			RecordReader rawIn =                  // open input
 				job.getInputFormat().getRecordReader(instantiatedSplit, job, reporter);
@@ -36,8 +36,8 @@ import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapred.IFile.Reader;
+import org.apache.hadoop.mapred.IFile.RecordBatch;
 import org.apache.hadoop.mapred.IFile.Writer;
-import org.apache.hadoop.util.PriorityQueue;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.Progressable;
 
@@ -164,9 +164,14 @@ public class Merger {
 }
 
   public static class Segment<K extends Object, V extends Object> {
+    // records decoded from the reader at a time
+    private static final int BATCH_SIZE = 256;
+
     Reader<K, V> reader = null;
     DataInputBuffer key = new DataInputBuffer();
     DataInputBuffer value = new DataInputBuffer();
+    RecordBatch batch = null;
+    int record = 0;
     
     Configuration conf = null;
     FileSystem fs = null;
@@ -202,8 +207,16 @@ public class Merger {
     }
 
     private void init(Counters.Counter readsCounter) throws IOException {
-      if (reader == null) {
-        FSDataInputStream in = fs.open(file);
+      if (reader == null &&
+          conf.getBoolean("mapred.merge.local.mmap", true) &&
+          IFile.MappedReader.canMap(fs, codec, segmentLength)) {
+        reader = new IFile.MappedReader<K, V>(conf, fs, file, segmentOffset,
+                                               segmentLength, readsCounter);
+      } else if (reader == null) {
+        // read ahead in large blocks, as the merge reads from all the
+        // segments in turn
+        FSDataInputStream in = fs.open(file,
+            conf.getInt("mapred.merge.read.buffer.size", 64 * 1024));
         in.seek(segmentOffset);
         reader = new Reader<K, V>(conf, (DataInputStream) in, segmentLength, codec, readsCounter);
       }
@@ -218,7 +231,20 @@ public class Merger {
     }
     
     public boolean next() throws IOException {
-      return reader.next(key, value);
+      if (batch == null) {
+        batch = new RecordBatch(BATCH_SIZE);
+      } else {
+        record++;
+      }
+      if (record >= batch.size()) {
+        if (!reader.nextBatch(batch)) {
+          return false;
+        }
+        record = 0;
+      }
+      batch.getKey(record, key);
+      batch.getValue(record, value);
+      return true;
     }
     
     public void close() throws IOException {
@@ -234,8 +260,15 @@ public class Merger {
     }
   }
   
+  /**
+   * Merges sorted segments through a tree of losers: each internal node of
+   * a binary tree over the segments holds the segment that lost the match
+   * played there, and the root the overall winner. Replacing the key of
+   * the winner replays only the matches on its path to the root, one
+   * comparison per level, where a heap compares both children per level.
+   */
   private static class MergeQueue<K extends Object, V extends Object> 
-  extends PriorityQueue<Segment<K, V>> implements RawKeyValueIterator {
+  implements RawKeyValueIterator {
     Configuration conf;
     FileSystem fs;
     CompressionCodec codec;
@@ -254,6 +287,13 @@ public class Merger {
     DataInputBuffer value;
     
     Segment<K, V> minSegment;
+
+    // the segments merged, null once exhausted; tree[0] is the index of
+    // the least of them, tree[n] that of the loser at internal node n
+    private Segment<K, V>[] leaves;
+    private int[] tree;
+    private int live = 0;
+
     Comparator<Segment<K, V>> segmentComparator =   
       new Comparator<Segment<K, V>>() {
       public int compare(Segment<K, V> o1, Segment<K, V> o2) {
@@ -312,10 +352,15 @@ public class Merger {
     }
 
     public void close() throws IOException {
-      Segment<K, V> segment;
-      while((segment = pop()) != null) {
-        segment.close();
+      if (leaves != null) {
+        for (int i = 0; i < leaves.length; i++) {
+          if (leaves[i] != null) {
+            leaves[i].close();
+            leaves[i] = null;
+          }
+        }
       }
+      live = 0;
     }
 
     public DataInputBuffer getKey() throws IOException {
@@ -326,53 +371,101 @@ public class Merger {
       return value;
     }
 
-    private void adjustPriorityQueue(Segment<K, V> reader) throws IOException{
+    /** Play the matches of the tree over the given segments. */
+    @SuppressWarnings("unchecked")
+    private void initialize(List<Segment<K, V>> merging) {
+      leaves = merging.toArray(new Segment[merging.size()]);
+      tree = new int[Math.max(leaves.length, 1)];
+      live = leaves.length;
+      if (live > 0) {
+        tree[0] = play(1);
+      }
+    }
+
+    /* Play the matches below node n, and return the index of the winner. */
+    private int play(int n) {
+      if (n >= leaves.length) {
+        return n - leaves.length;
+      }
+      int left = play(2 * n);
+      int right = play(2 * n + 1);
+      if (beats(left, right)) {
+        tree[n] = right;
+        return left;
+      }
+      tree[n] = left;
+      return right;
+    }
+
+    /* Replay the matches of segment i from its leaf up to the root. */
+    private void replay(int i) {
+      for (int n = (i + leaves.length) >>> 1; n > 0; n >>>= 1) {
+        if (beats(tree[n], i)) {
+          int winner = tree[n];
+          tree[n] = i;
+          i = winner;
+        }
+      }
+      tree[0] = i;
+    }
+
+    /*
+     * Whether segment i comes before segment j: by key, and of equal keys
+     * the one earlier in the merge first. Exhausted segments come last.
+     */
+    private boolean beats(int i, int j) {
+      if (leaves[i] == null || leaves[j] == null) {
+        return leaves[j] == null && (leaves[i] != null || i < j);
+      }
+      DataInputBuffer key1 = leaves[i].getKey();
+      DataInputBuffer key2 = leaves[j].getKey();
+      int s1 = key1.getPosition();
+      int l1 = key1.getLength() - s1;
+      int s2 = key2.getPosition();
+      int l2 = key2.getLength() - s2;
+
+      int c = comparator.compare(key1.getData(), s1, l1,
+                                 key2.getData(), s2, l2);
+      return c < 0 || (c == 0 && i < j);
+    }
+
+    private void adjustTree() throws IOException {
+      int i = tree[0];
+      Segment<K, V> reader = leaves[i];
       long startPos = reader.getPosition();
       boolean hasNext = reader.next();
       long endPos = reader.getPosition();
       totalBytesProcessed += endPos - startPos;
       mergeProgress.set(totalBytesProcessed * progPerByte);
-      if (hasNext) {
-        adjustTop();
-      } else {
-        pop();
+      if (!hasNext) {
+        leaves[i] = null;
+        live--;
         reader.close();
       }
+      replay(i);
     }
 
     public boolean next() throws IOException {
-      if (size() == 0)
+      if (live == 0)
         return false;
 
       if (minSegment != null) {
         //minSegment is non-null for all invocations of next except the first
-        //one. For the first invocation, the priority queue is ready for use
-        //but for the subsequent invocations, first adjust the queue 
-        adjustPriorityQueue(minSegment);
-        if (size() == 0) {
+        //one. For the first invocation, the tree is ready for use but for
+        //the subsequent invocations, first advance the last winner
+        adjustTree();
+        if (live == 0) {
           minSegment = null;
           return false;
         }
       }
-      minSegment = top();
+      minSegment = leaves[tree[0]];
       
       key = minSegment.getKey();
       value = minSegment.getValue();
 
       return true;
     }
-
-    @SuppressWarnings("unchecked")
-    protected boolean lessThan(Object a, Object b) {
-      DataInputBuffer key1 = ((Segment<K, V>)a).getKey();
-      DataInputBuffer key2 = ((Segment<K, V>)b).getKey();
-      int s1 = key1.getPosition();
-      int l1 = key1.getLength() - s1;
-      int s2 = key2.getPosition();
-      int l2 = key2.getLength() - s2;
-
-      return comparator.compare(key1.getData(), s1, l1, key2.getData(), s2, l2) < 0;
-    }
     
     public RawKeyValueIterator merge(Class<K> keyClass, Class<V> valueClass,
                                      int factor, Path tmpDir,
@@ -441,12 +534,8 @@ public class Merger {
           numSegmentsToConsider = factor - segmentsConsidered;
         }
         
-        //feed the streams to the priority queue
-        initialize(segmentsToMerge.size());
-        clear();
-        for (Segment<K, V> segment : segmentsToMerge) {
-          put(segment);
-        }
+        //feed the streams to the tree of losers
+        initialize(segmentsToMerge);
         
         //if we have lesser number of segments remaining, then just return the
         //iterator, else do another single level merge
@@ -500,8 +589,7 @@ public class Merger {
           writeFile(this, writer, reporter, conf);
           writer.close();
           
-          //we finished one single level merge; now clean up the priority 
-          //queue
+          //we finished one single level merge; now clean up the tree
           this.close();
 
           // Add the newly create segment to the list of segments to be merged
@@ -0,0 +1,272 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.AbstractCollection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.net.Node;
+
+/**
+ * The non-running TIPs of a job, indexed by the network topology nodes
+ * their splits are on.
+ * <p>
+ * Every node has a queue of the TIPs local to it, and TIPs without split
+ * locations are kept in a separate non-local queue. A TIP is added to the
+ * queues of its hosts and their parents up to the max cache level.
+ * {@link #remove(TaskInProgress)} drops a TIP from all of its queues in
+ * time proportional to the number of queues it is in, so a TIP scheduled
+ * from one node does not stay behind in the queues of the others, and
+ * nodes whose queues become empty are dropped from the index.
+ */
+class PendingTaskIndex {
+
+  /* A TIP's place in one queue. */
+  private static class Entry {
+    final TaskInProgress tip;
+    TipQueue queue;
+    Entry prev;
+    Entry next;
+    // the entry of the same TIP in its next queue
+    Entry sibling;
+
+    Entry(TaskInProgress tip, TipQueue queue) {
+      this.tip = tip;
+      this.queue = queue;
+    }
+  }
+
+  /**
+   * An ordered set of TIPs that supports insertion at either end and
+   * removal in constant time. Its iterator keeps working when other
+   * entries are removed while it is in use.
+   */
+  class TipQueue extends AbstractCollection<TaskInProgress> {
+    private final Node node;
+    private final Entry head = new Entry(null, this);
+    private int size = 0;
+
+    TipQueue(Node node) {
+      this.node = node;
+      head.prev = head;
+      head.next = head;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<TaskInProgress> iterator() {
+      return new Iterator<TaskInProgress>() {
+        private Entry next = head.next;
+        private Entry last = null;
+
+        public boolean hasNext() {
+          skipRemoved();
+          return next != head;
+        }
+
+        public TaskInProgress next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          last = next;
+          next = next.next;
+          return last.tip;
+        }
+
+        public void remove() {
+          if (last == null) {
+            throw new IllegalStateException();
+          }
+          unlink(last);
+          last = null;
+        }
+
+        // an unlinked entry still points into the queue it was in
+        private void skipRemoved() {
+          while (next != head && next.queue != TipQueue.this) {
+            next = next.next;
+          }
+        }
+      };
+    }
+
+    private void link(Entry entry, boolean first) {
+      Entry after = first ? head : head.prev;
+      entry.prev = after;
+      entry.next = after.next;
+      after.next.prev = entry;
+      after.next = entry;
+      size++;
+    }
+  }
+
+  private final int maxLevel;
+
+  private final Map<Node, TipQueue> queues =
+    new IdentityHashMap<Node, TipQueue>();
+
+  private final TipQueue nonLocal = new TipQueue(null);
+
+  // the most recently added entry of each pending TIP
+  private final Map<TaskInProgress, Entry> entries =
+    new IdentityHashMap<TaskInProgress, Entry>();
+
+  /**
+   * @param maxLevel the number of topology levels a TIP is indexed at
+   */
+  PendingTaskIndex(int maxLevel) {
+    this.maxLevel = maxLevel;
+  }
+
+  /**
+   * Add a TIP to the queues of a node and its parents up to the max level.
+   * A TIP is added to a queue once, however often its node is passed.
+   * @param tip the TIP
+   * @param node the node the TIP is local to
+   * @param first add the TIP to the front of the queues, e.g. to retry a
+   *              failed TIP early
+   */
+  void add(TaskInProgress tip, Node node, boolean first) {
+    add(tip, node, maxLevel, first);
+  }
+
+  /**
+   * Add a TIP to the queues of a node and its parents up to the given
+   * number of levels.
+   */
+  void add(TaskInProgress tip, Node node, int levels, boolean first) {
+    for (int level = 0; level < levels && node != null; ++level) {
+      TipQueue queue = queues.get(node);
+      if (queue == null) {
+        queue = new TipQueue(node);
+        queues.put(node, queue);
+      }
+      add(tip, queue, first);
+      node = node.getParent();
+    }
+  }
+
+  /**
+   * Add a TIP without split locations.
+   */
+  void addNonLocal(TaskInProgress tip, boolean first) {
+    add(tip, nonLocal, first);
+  }
+
+  private void add(TaskInProgress tip, TipQueue queue, boolean first) {
+    Entry entry = entries.get(tip);
+    for (Entry e = entry; e != null; e = e.sibling) {
+      if (e.queue == queue) {
+        if (first && queue.head.next != e) {
+          // move it to the front
+          e.prev.next = e.next;
+          e.next.prev = e.prev;
+          queue.size--;
+          queue.link(e, true);
+        }
+        return;
+      }
+    }
+    Entry added = new Entry(tip, queue);
+    added.sibling = prune(entry);
+    queue.link(added, first);
+    entries.put(tip, added);
+  }
+
+  /* Drop the entries of a TIP that were removed from their queue. */
+  private static Entry prune(Entry entry) {
+    while (entry != null && entry.queue == null) {
+      entry = entry.sibling;
+    }
+    for (Entry e = entry; e != null; e = e.sibling) {
+      while (e.sibling != null && e.sibling.queue == null) {
+        e.sibling = e.sibling.sibling;
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Remove a TIP from all its queues, e.g. when it is scheduled.
+   * @return true if the TIP was pending
+   */
+  boolean remove(TaskInProgress tip) {
+    Entry entry = entries.remove(tip);
+    for (Entry e = entry; e != null; e = e.sibling) {
+      unlink(e);
+    }
+    return entry != null;
+  }
+
+  private void unlink(Entry entry) {
+    TipQueue queue = entry.queue;
+    if (queue == null) {
+      return;
+    }
+    // leave prev and next, a queue iterator may be positioned on the entry
+    entry.prev.next = entry.next;
+    entry.next.prev = entry.prev;
+    entry.queue = null;
+    if (--queue.size == 0 && queue.node != null &&
+        queues.get(queue.node) == queue) {
+      queues.remove(queue.node);
+    }
+    Entry live = prune(entries.get(entry.tip));
+    if (live == null) {
+      entries.remove(entry.tip);
+    } else {
+      entries.put(entry.tip, live);
+    }
+  }
+
+  /**
+   * Get the queue of the TIPs local to a node.
+   * @return the queue or null if no pending TIP is local to the node
+   */
+  TipQueue get(Node node) {
+    return queues.get(node);
+  }
+
+  /**
+   * Get the queue of the TIPs without split locations.
+   */
+  TipQueue getNonLocal() {
+    return nonLocal;
+  }
+
+  /**
+   * @return true if the TIP is in any queue
+   */
+  boolean contains(TaskInProgress tip) {
+    return entries.containsKey(tip);
+  }
+
+  /**
+   * @return true if no TIP is pending
+   */
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+}
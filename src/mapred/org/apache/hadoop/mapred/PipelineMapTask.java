@@ -39,6 +39,7 @@ import org.apache.hadoop.mapred.TaskCompletionEvent.Status;
 import org.apache.hadoop.mapred.buffer.BufferUmbilicalProtocol;
 import org.apache.hadoop.mapred.buffer.OutputFile;
 import org.apache.hadoop.mapred.buffer.OutputFile.Header;
+import org.apache.hadoop.mapred.buffer.impl.CodecSelector;
 import org.apache.hadoop.mapred.buffer.impl.JOutputBuffer;
 import org.apache.hadoop.mapred.buffer.impl.ValuesIterator;
 import org.apache.hadoop.mapred.buffer.net.BufferExchange;
@@ -149,6 +150,9 @@ public class PipelineMapTask extends MapTask implements InputCollector {
 	private boolean snapshots = false;
 	private boolean stream = false;
 	
+	/* Resolves the codec of each incoming segment. */
+	private CodecSelector codecs = null;
+	
 	public PipelineMapTask() {
 		super();
 	}
@@ -294,6 +298,10 @@ public class PipelineMapTask extends MapTask implements InputCollector {
 			codec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
 		}
 		
+		if (this.codecs == null) {
+			this.codecs = new CodecSelector(conf, codec);
+		}
+		
 		if (this.buffer == null) {
 		    Class outputKeyClass = conf.getMapOutputKeyClass();
 		    Class outputValClass = conf.getMapOutputValueClass();
@@ -305,7 +313,8 @@ public class PipelineMapTask extends MapTask implements InputCollector {
 			this.buffer.malloc();
 		}
 		
-		IFile.Reader reader = new IFile.Reader(conf, istream, header.compressed(), codec, null);
+		IFile.Reader reader = new IFile.Reader(conf, istream, header.compressed(), 
+				                               codecs.codec(header.codec()), null);
 		DataInputBuffer key = new DataInputBuffer();
 		DataInputBuffer value = new DataInputBuffer();
 		Object keyObject = null;
@@ -176,6 +176,10 @@ public class ReduceTask extends Task {
 	private float   snapshotFreq    = 1f;
 	private boolean inputSnapshots = false;
 	private boolean stream = false;
+	private SnapshotPublisher snapshotPublisher = null;
+	
+	/* The map outputs on the local disk, when the maps ran in this JVM. */
+	private List<OutputFile> localMapOutputs = null;
 
 	{ 
 		getProgress().setStatus("reduce"); 
@@ -227,6 +231,15 @@ public class ReduceTask extends Task {
 	@Override
 	public int getNumberOfInputs() { return numMaps; }
 
+	/**
+	 * Read the given map outputs from the local disk instead of fetching
+	 * them from the trackers that ran the maps.
+	 * @param outputs The final outputs of all the maps.
+	 */
+	void setLocalMapOutputs(List<OutputFile> outputs) {
+		this.localMapOutputs = outputs;
+	}
+
 	/**
 	 * Localize the given JobConf to be specific for this task.
 	 */
@@ -301,6 +314,11 @@ public class ReduceTask extends Task {
 		snapshotFreq   = job.getFloat("mapred.snapshot.frequency", 1f);
 		snapshotThreshold = snapshotFreq;
 		inputSnapshots  = job.getBoolean("mapred.job.input.snapshots", false);
+		if (snapshotFreq < 1f && !reducePipeline &&
+			job.getBoolean("mapred.snapshot.delta", false) &&
+			SnapshotPublisher.getSnapshotDir(job) != null) {
+			snapshotPublisher = new SnapshotPublisher(job, getTaskID(), reporter);
+		}
 		
 		InputCollector inputCollector = null;
 		if (inputSnapshots) {
@@ -313,27 +331,36 @@ public class ReduceTask extends Task {
 				                              inputKeyClass, inputValClass, codecClass);
 		}
 		
-		BufferExchangeSink sink = new BufferExchangeSink(job, inputCollector, this); 
-		
-		MapOutputFetcher fetcher = new MapOutputFetcher(umbilical, bufferUmbilical, reporter, sink);
-		fetcher.setDaemon(true);
-		fetcher.start();
-		
-		setPhase(TaskStatus.Phase.SHUFFLE); 
-		stream = job.getBoolean("mapred.stream", false) ||
-				 job.getBoolean("mapred.job.monitor", false);
-		if (stream) {
-			stream(job, inputCollector, sink, reporter, bufferUmbilical);
+		Progress inputProgress;
+		if (localMapOutputs != null) {
+			setPhase(TaskStatus.Phase.SHUFFLE); 
+			copyLocal(job, inputCollector);
+			inputProgress = copyPhase;
 		}
 		else {
-			copy(job, inputCollector, sink, reporter, bufferUmbilical);
+			BufferExchangeSink sink = new BufferExchangeSink(job, inputCollector, this); 
+
+			MapOutputFetcher fetcher = new MapOutputFetcher(umbilical, bufferUmbilical, reporter, sink);
+			fetcher.setDaemon(true);
+			fetcher.start();
+
+			setPhase(TaskStatus.Phase.SHUFFLE); 
+			stream = job.getBoolean("mapred.stream", false) ||
+					 job.getBoolean("mapred.job.monitor", false);
+			if (stream) {
+				stream(job, inputCollector, sink, reporter, bufferUmbilical);
+			}
+			else {
+				copy(job, inputCollector, sink, reporter, bufferUmbilical);
+			}
+			fetcher.interrupt();
+			inputProgress = sink.getProgress();
 		}
-		fetcher.interrupt();
 		
 		long begin = System.currentTimeMillis();
 		try {
 			setPhase(TaskStatus.Phase.REDUCE); 
-			reduce(job, reporter, inputCollector, bufferUmbilical, sink.getProgress(), reducePhase);
+			reduce(job, reporter, inputCollector, bufferUmbilical, inputProgress, reducePhase);
 		} finally {
 			reducePhase.complete();
 			setProgressFlag();
@@ -406,6 +433,31 @@ public class ReduceTask extends Task {
 		}
 	}
 	
+	/* Read this reduce's partition of each local map output. */
+	private void copyLocal(JobConf job, InputCollector inputCollector) 
+	throws IOException {
+		FileSystem rfs = FileSystem.getLocal(job).getRaw();
+		int copied = 0;
+		for (OutputFile file : localMapOutputs) {
+			file.open(rfs);
+			try {
+				OutputFile.Header header = file.seek(getPartition());
+				if (!inputCollector.read(file.dataInputStream(), header)) {
+					throw new IOException("ReduceTask " + getTaskID() + 
+							" failed to read the output of " + header.owner());
+				}
+			} finally {
+				file.close();
+			}
+			copyPhase.set(++copied / (float) localMapOutputs.size());
+			setProgressFlag();
+		}
+		copyPhase.complete();
+		setProgressFlag();
+		LOG.info("ReduceTask " + getTaskID() + " read " + copied + 
+				 " local map outputs.");
+	}
+	
 	@SuppressWarnings("unchecked")
 	private void reduce(JobConf job, InputCollector input, OutputCollector output, Reporter reporter, Progress progress) throws IOException {
 		Reducer reducer = (Reducer)ReflectionUtils.newInstance(job.getReducerClass(), job);
@@ -465,26 +517,41 @@ public class ReduceTask extends Task {
 			outputBuffer.free();
 			LOG.debug("Reduce phase complete.");
 		} else {
-			// make output collector
-			String filename = snapshot ? 
-					getSnapshotOutputName(getPartition(), inputProgress.get()) :
-				    getOutputName(getPartition());
-
-			FileSystem fs = FileSystem.get(job);
-			final RecordWriter out = job.getOutputFormat().getRecordWriter(fs, job, filename, reporter);  
+			final SnapshotPublisher publisher = snapshot ? snapshotPublisher : null;
+			if (publisher != null) {
+				publisher.open(inputProgress.get());
+			}
+			
+			/* Intermediate snapshots are only published as deltas when a
+			 * publisher is configured. The final output is always written. */
+			final boolean last = reduceProgress != null;
+			final RecordWriter out;
+			if (publisher == null || last) {
+				// make output collector
+				String filename = snapshot ? 
+						getSnapshotOutputName(getPartition(), inputProgress.get()) :
+					    getOutputName(getPartition());
+
+				FileSystem fs = FileSystem.get(job);
+				out = job.getOutputFormat().getRecordWriter(fs, job, filename, reporter);  
+				LOG.debug("ReduceTask: create final output file " + filename);
+			} else {
+				out = null;
+			}
 			OutputCollector outputCollector = new OutputCollector() {
 				@SuppressWarnings("unchecked")
 				public void collect(Object key, Object value)
 				throws IOException {
-					out.write(key, value);
+					if (out != null) out.write(key, value);
+					if (publisher != null) publisher.collect(key, value);
 					reduceOutputCounter.increment(1);
 					// indicate that progress update needs to be sent
 					reporter.progress();
 				}
 			};
-			LOG.debug("ReduceTask: create final output file " + filename);
 			reduce(job, inputCollector, outputCollector, reporter, reduceProgress);
-			out.close(reporter);
+			if (out != null) out.close(reporter);
+			if (publisher != null) publisher.publish();
 		}
 	}
 }
@@ -0,0 +1,571 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Serves map outputs to reduces from a single selector thread.
+ * <p>
+ * The selector thread only moves bytes. Parsing a request, looking up its
+ * index records, which may read the index files, opening the map outputs
+ * and reporting the lost ones to the tracker are done by a small pool of
+ * <code>mapred.task.tracker.shuffle.lookup.threads</code> workers, which
+ * hand the segments back to the selector. A connection is not read while
+ * its request is looked up.
+ * <p>
+ * A reduce keeps a connection open for as long as it fetches from this
+ * tracker, and asks for many segments with one request: a request names a
+ * job and a list of (map, partition) pairs. The offsets of the segments
+ * come from the {@link IndexCache}, and their bytes are sent straight from
+ * the map output files to the socket with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so they are never copied through the heap.
+ * <p>
+ * A request is an int length followed by the job id, the number of
+ * segments and, for each segment, the map attempt id and the partition.
+ * Each segment of the response is its raw and compressed length followed
+ * by the compressed bytes. A segment that can not be served has a
+ * compressed length of -1 and an error message instead of bytes. Strings
+ * are written as {@link Text} and counts as variable-length ints.
+ * <p>
+ * The tracker does not start the server: reduces in this tree take the
+ * map outputs the maps push through the buffer manager, and nothing
+ * fetches from it but {@link Client}, which the tests and
+ * <code>shufflebench</code> use.
+ */
+class ShuffleServer implements Runnable {
+
+  private static final Log LOG = LogFactory.getLog(ShuffleServer.class);
+
+  /* Requests larger than this are refused. */
+  private static final int MAX_REQUEST_LENGTH = 1024 * 1024;
+
+  private final JobConf conf;
+  private final IndexCache indexCache;
+  private final LocalDirAllocator lDirAlloc =
+    new LocalDirAllocator("mapred.local.dir");
+  private final TaskTracker tracker;
+  private final TaskTracker.ShuffleServerMetrics metrics;
+
+  private final ServerSocketChannel acceptChannel;
+  private final Selector selector;
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  private final ExecutorService workers;
+  /* Lookups the workers are done with, for the selector to send. */
+  private final ConcurrentLinkedQueue<Lookup> done =
+    new ConcurrentLinkedQueue<Lookup>();
+
+  /**
+   * Bind the server, {@link #start()} serves the requests.
+   * @param conf the tracker configuration
+   * @param address the address to listen on
+   * @param indexCache the cache of the map output index files
+   * @param tracker the tracker to report lost map outputs to, or null
+   * @param metrics the shuffle metrics to update, or null
+   */
+  ShuffleServer(JobConf conf, InetSocketAddress address, IndexCache indexCache,
+                TaskTracker tracker, TaskTracker.ShuffleServerMetrics metrics)
+    throws IOException {
+    this.conf = conf;
+    this.indexCache = indexCache;
+    this.tracker = tracker;
+    this.metrics = metrics;
+    this.selector = Selector.open();
+    this.acceptChannel = ServerSocketChannel.open();
+    acceptChannel.configureBlocking(false);
+    acceptChannel.socket().setReuseAddress(true);
+    acceptChannel.socket().bind(address);
+    acceptChannel.register(selector, SelectionKey.OP_ACCEPT);
+    this.thread = new Thread(this, "ShuffleServer on " + getPort());
+    thread.setDaemon(true);
+    this.workers = Executors.newFixedThreadPool(
+      conf.getInt("mapred.task.tracker.shuffle.lookup.threads", 2),
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread worker = new Daemon(r);
+          worker.setName("ShuffleServer lookup on " + getPort());
+          return worker;
+        }
+      });
+  }
+
+  /** The port the server listens on. */
+  int getPort() {
+    return acceptChannel.socket().getLocalPort();
+  }
+
+  void start() {
+    thread.start();
+    LOG.info("ShuffleServer up at " + acceptChannel.socket().getLocalSocketAddress());
+  }
+
+  /** Stop the server and close all connections. */
+  void stop() {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run() {
+    try {
+      while (running) {
+        selector.select();
+        finishLookups();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              connection.read();
+            } else if (key.isWritable()) {
+              connection.write();
+            }
+          } catch (IOException e) {
+            LOG.info("Closing shuffle connection from " + connection + ": " + e);
+            connection.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.error("ShuffleServer failed", e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Connection) {
+          ((Connection) key.attachment()).close();
+        }
+      }
+      workers.shutdown();
+      try {
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      Lookup lookup;
+      while ((lookup = done.poll()) != null) {
+        release(lookup.segments);
+      }
+      try {
+        selector.close();
+        acceptChannel.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close the ShuffleServer", e);
+      }
+    }
+  }
+
+  /* Queue the segments the workers looked up on their connections. */
+  private void finishLookups() {
+    Lookup lookup;
+    while ((lookup = done.poll()) != null) {
+      Connection connection = lookup.connection;
+      connection.lookup = null;
+      if (!connection.key.isValid()) {
+        // closed while the request was looked up
+        release(lookup.segments);
+        continue;
+      }
+      connection.out.addAll(lookup.segments);
+      try {
+        if (lookup.failure != null) {
+          throw lookup.failure;
+        }
+        connection.serve();
+      } catch (IOException e) {
+        LOG.info("Closing shuffle connection from " + connection + ": " + e);
+        connection.close();
+      }
+    }
+  }
+
+  private static void release(LinkedList<Segment> segments) {
+    for (Segment segment : segments) {
+      if (segment.output != null) {
+        segment.output.release();
+      }
+    }
+    segments.clear();
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = acceptChannel.accept()) != null) {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      Connection connection = new Connection(channel);
+      connection.key = channel.register(selector, SelectionKey.OP_READ,
+                                        connection);
+    }
+  }
+
+  /* An open map output file, shared by the segments of a request. */
+  private static class MapOutput {
+    final FileChannel channel;
+    int segments = 0;
+
+    MapOutput(File file) throws IOException {
+      channel = new RandomAccessFile(file, "r").getChannel();
+    }
+
+    void release() {
+      if (--segments == 0) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close map output", e);
+        }
+      }
+    }
+  }
+
+  /* A segment of a response, its header and then its file range. */
+  private static class Segment {
+    final ByteBuffer header;
+    final MapOutput output;
+    long position;
+    long remaining;
+
+    Segment(ByteBuffer header, MapOutput output, long position, long length) {
+      this.header = header;
+      this.output = output;
+      this.position = position;
+      this.remaining = length;
+      if (output != null) {
+        output.segments++;
+      }
+    }
+  }
+
+  private class Connection {
+    final SocketChannel channel;
+    SelectionKey key;
+    ByteBuffer in = ByteBuffer.allocate(4096);
+    final LinkedList<Segment> out = new LinkedList<Segment>();
+    /* The request the workers are looking up, if any. */
+    Lookup lookup;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      if (channel.read(in) < 0) {
+        close();
+        return;
+      }
+      serve();
+    }
+
+    /* Hand the next buffered request to the workers once the last is sent. */
+    void serve() throws IOException {
+      if (out.isEmpty() && lookup == null && in.position() >= 4) {
+        int length = in.getInt(0);
+        if (length < 0 || length > MAX_REQUEST_LENGTH) {
+          throw new IOException("Bad request length " + length);
+        }
+        if (in.position() < 4 + length) {
+          if (in.capacity() < 4 + length) {
+            ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+          }
+        } else {
+          byte[] request = new byte[length];
+          System.arraycopy(in.array(), 4, request, 0, length);
+          // keep the bytes of the next requests
+          in.flip();
+          in.position(4 + length);
+          in.compact();
+          lookup = new Lookup(this, request);
+          workers.execute(lookup);
+        }
+      }
+      key.interestOps(lookup != null ? 0
+                      : out.isEmpty() ? SelectionKey.OP_READ
+                                      : SelectionKey.OP_WRITE);
+    }
+
+    /* Send as much of the response as the socket takes. */
+    void write() throws IOException {
+      while (!out.isEmpty()) {
+        Segment segment = out.getFirst();
+        if (segment.header.hasRemaining()) {
+          channel.write(segment.header);
+          if (segment.header.hasRemaining()) {
+            return;
+          }
+        }
+        while (segment.remaining > 0) {
+          long n = segment.output.channel.transferTo(segment.position,
+                                                     segment.remaining,
+                                                     channel);
+          if (n <= 0) {
+            return;
+          }
+          segment.position += n;
+          segment.remaining -= n;
+          if (metrics != null) {
+            metrics.outputBytes(n);
+          }
+        }
+        out.removeFirst();
+        if (segment.output != null) {
+          segment.output.release();
+          if (metrics != null) {
+            metrics.successOutput();
+          }
+        }
+      }
+      serve();
+    }
+
+    void close() {
+      release(out);
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close shuffle connection", e);
+      }
+    }
+
+    public String toString() {
+      return String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+  }
+
+  /* The segments of one request, looked up by a worker. */
+  private class Lookup implements Runnable {
+    final Connection connection;
+    final DataInputBuffer request = new DataInputBuffer();
+    final DataOutputBuffer header = new DataOutputBuffer();
+    final LinkedList<Segment> segments = new LinkedList<Segment>();
+    IOException failure;
+
+    Lookup(Connection connection, byte[] request) {
+      this.connection = connection;
+      this.request.reset(request, request.length);
+    }
+
+    public void run() {
+      try {
+        addSegments();
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        failure = new IOException(StringUtils.stringifyException(e));
+      } finally {
+        done.add(this);
+        selector.wakeup();
+      }
+    }
+
+    private void addSegments() throws IOException {
+      String jobId = Text.readString(request);
+      int count = WritableUtils.readVInt(request);
+      Map<String, MapOutput> outputs = new HashMap<String, MapOutput>();
+      try {
+        for (int i = 0; i < count; i++) {
+          String mapId = Text.readString(request);
+          int reduce = WritableUtils.readVInt(request);
+          addSegment(jobId, mapId, reduce, outputs);
+        }
+      } finally {
+        // drop the reference held while the request is read
+        for (MapOutput output : outputs.values()) {
+          output.release();
+        }
+      }
+    }
+
+    private void addSegment(String jobId, String mapId, int reduce,
+                            Map<String, MapOutput> outputs) {
+      header.reset();
+      try {
+        String dir = TaskTracker.getIntermediateOutputDir(jobId, mapId);
+        Path indexFileName =
+          lDirAlloc.getLocalPathToRead(dir + "/file.out.index", conf);
+        IndexRecord info =
+          indexCache.getIndexInformation(mapId, reduce, indexFileName);
+        MapOutput output = outputs.get(mapId);
+        if (output == null) {
+          Path mapOutputFileName =
+            lDirAlloc.getLocalPathToRead(dir + "/file.out", conf);
+          output = new MapOutput(new File(mapOutputFileName.toUri().getPath()));
+          output.segments++;
+          outputs.put(mapId, output);
+        }
+        if (info.startOffset + info.partLength > output.channel.size()) {
+          throw new IOException("Map output of " + mapId + " is truncated");
+        }
+        WritableUtils.writeVLong(header, info.rawLength);
+        WritableUtils.writeVLong(header, info.partLength);
+        segments.add(new Segment(wrap(header), output, info.startOffset,
+                                 info.partLength));
+      } catch (Exception e) {
+        String errorMsg = "getMapOutput(" + mapId + "," + reduce +
+                          ") failed :\n" + StringUtils.stringifyException(e);
+        LOG.warn(errorMsg);
+        if (tracker != null) {
+          try {
+            tracker.mapOutputLost(TaskAttemptID.forName(mapId), errorMsg);
+          } catch (IOException ie) {
+            LOG.warn("Failed to report lost map output " + mapId, ie);
+          }
+        }
+        if (metrics != null) {
+          metrics.failedOutput();
+        }
+        header.reset();
+        try {
+          WritableUtils.writeVLong(header, -1);
+          WritableUtils.writeVLong(header, -1);
+          Text.writeString(header, errorMsg);
+        } catch (IOException ie) {
+          throw new RuntimeException(ie);
+        }
+        segments.add(new Segment(wrap(header), null, 0, 0));
+      }
+    }
+
+    private ByteBuffer wrap(DataOutputBuffer buffer) {
+      ByteBuffer result = ByteBuffer.allocate(buffer.getLength());
+      result.put(buffer.getData(), 0, buffer.getLength());
+      result.flip();
+      return result;
+    }
+  }
+
+  /**
+   * A connection of a reduce to a shuffle server, kept open for any number
+   * of requests.
+   */
+  static class Client {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final DataOutputBuffer request = new DataOutputBuffer();
+
+    Client(InetSocketAddress address) throws IOException {
+      socket = new Socket();
+      socket.setTcpNoDelay(true);
+      socket.connect(address);
+      in = new DataInputStream(
+             new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+      out = new DataOutputStream(
+              new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Ask for segments of map outputs. The segments are read with
+     * {@link #nextSegment()}, in the order they are asked for.
+     * @param jobId the job of the maps
+     * @param mapIds the map attempts
+     * @param reduces the partition to get from each map
+     */
+    void request(String jobId, String[] mapIds, int[] reduces)
+      throws IOException {
+      request.reset();
+      Text.writeString(request, jobId);
+      WritableUtils.writeVInt(request, mapIds.length);
+      for (int i = 0; i < mapIds.length; i++) {
+        Text.writeString(request, mapIds[i]);
+        WritableUtils.writeVInt(request, reduces[i]);
+      }
+      out.writeInt(request.getLength());
+      out.write(request.getData(), 0, request.getLength());
+      out.flush();
+    }
+
+    /**
+     * Read the header of the next segment. Its compressed length of bytes
+     * are then read from {@link #getInputStream()}.
+     * @return the raw and compressed lengths of the segment
+     * @throws IOException if the server failed to send the segment
+     */
+    IndexRecord nextSegment() throws IOException {
+      long rawLength = WritableUtils.readVLong(in);
+      long partLength = WritableUtils.readVLong(in);
+      if (partLength < 0) {
+        throw new IOException(Text.readString(in));
+      }
+      return new IndexRecord(0, rawLength, partLength);
+    }
+
+    DataInputStream getInputStream() {
+      return in;
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.NumberFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Publishes the snapshots of a reduce partition as deltas.
+ *
+ * Each delta holds only the keys whose values changed since the previous
+ * snapshot of the same task attempt, and the keys that are no longer
+ * produced. A delta is two sequence files in the <code>_snapshots</code>
+ * directory of the job output:
+ * <ul>
+ * <li><code>delta-P-A-S.data</code> holds the changed keys and their
+ * new values, in reduce order.</li>
+ * <li><code>delta-P-A-S.meta</code> holds the removed keys, and records
+ * the snapshot progress and the number of changed, removed and live keys
+ * in its metadata.</li>
+ * </ul>
+ * where P is the partition, A the task attempt and S the sequence number
+ * of the snapshot within the attempt. The first delta of an attempt is a
+ * base: it holds every key and replaces whatever a client built from
+ * earlier attempts. Both files are written to a temporary directory and
+ * renamed into place, the meta file last, so the presence of a meta file
+ * means the delta is complete. The deltas of a job are deleted when the
+ * job is cleaned up.
+ *
+ * Changes are found by comparing a 64 bit hash of each serialized value
+ * with the hash recorded for its key in the previous snapshot, so the
+ * publisher keeps one entry per live key of the partition in memory.
+ *
+ * @see SnapshotSubscription
+ */
+class SnapshotPublisher implements OutputCollector<Object, Object> {
+  private static final Log LOG =
+    LogFactory.getLog(SnapshotPublisher.class.getName());
+
+  static final String SNAPSHOT_DIR = "_snapshots";
+  static final String DATA_SUFFIX = ".data";
+  static final String META_SUFFIX = ".meta";
+  static final String DELTA_PREFIX = "delta-";
+
+  static final Text PROGRESS = new Text("progress");
+  static final Text CHANGED = new Text("changed");
+  static final Text REMOVED = new Text("removed");
+  static final Text KEYS = new Text("keys");
+  static final Text BASE = new Text("base");
+
+  private static final NumberFormat NUMBER_FORMAT = NumberFormat.getInstance();
+  static {
+    NUMBER_FORMAT.setMinimumIntegerDigits(5);
+    NUMBER_FORMAT.setGroupingUsed(false);
+  }
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final JobConf job;
+  private final FileSystem fs;
+  private final Path dir;
+  private final Path tmpDir;
+  private final int partition;
+  private final int attempt;
+  private final Class keyClass;
+  private final Class valClass;
+  private final Progressable progressable;
+
+  private final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+  private final DataOutputBuffer valBuffer = new DataOutputBuffer();
+  private final Serializer<Object> keySerializer;
+  private final Serializer<Object> valSerializer;
+  private final Deserializer<Object> keyDeserializer;
+
+  /* Value hashes of the previous and of the current snapshot. */
+  private Map<ByteBuffer, Long> previous = new HashMap<ByteBuffer, Long>();
+  private Map<ByteBuffer, Long> current = null;
+
+  private int sequence = 0;
+  private float progress = 0f;
+  private long changed = 0;
+  private String name = null;
+  private SequenceFile.Writer writer = null;
+
+  @SuppressWarnings("unchecked")
+  SnapshotPublisher(JobConf job, TaskAttemptID attemptId, Progressable progressable)
+  throws IOException {
+    this.job = job;
+    this.dir = getSnapshotDir(job);
+    if (this.dir == null) {
+      throw new IOException("Snapshot deltas require an output path");
+    }
+    this.fs = this.dir.getFileSystem(job);
+    this.tmpDir = new Path(this.dir, "_tmp");
+    this.partition = attemptId.getTaskID().getId();
+    this.attempt = attemptId.getId();
+    this.keyClass = job.getOutputKeyClass();
+    this.valClass = job.getOutputValueClass();
+    this.progressable = progressable;
+
+    SerializationFactory factory = new SerializationFactory(job);
+    this.keySerializer = factory.getSerializer(keyClass);
+    this.keySerializer.open(keyBuffer);
+    this.valSerializer = factory.getSerializer(valClass);
+    this.valSerializer.open(valBuffer);
+    this.keyDeserializer = factory.getDeserializer(keyClass);
+  }
+
+  /**
+   * @param job the job configuration
+   * @return the directory holding the snapshot deltas of the job, or null
+   * if the job has no output path.
+   */
+  static Path getSnapshotDir(JobConf job) {
+    Path output = FileOutputFormat.getOutputPath(job);
+    return output == null ? null : new Path(output, SNAPSHOT_DIR);
+  }
+
+  /**
+   * Delete the snapshot deltas of a job. Called when the job is cleaned
+   * up, once its output holds the result.
+   * @param job the job configuration
+   */
+  static void deleteDeltas(JobConf job) throws IOException {
+    Path dir = getSnapshotDir(job);
+    if (dir != null) {
+      FileSystem fs = dir.getFileSystem(job);
+      if (fs.exists(dir)) {
+        fs.delete(dir, true);
+      }
+    }
+  }
+
+  static synchronized String getDeltaName(int partition, int attempt, int sequence) {
+    return DELTA_PREFIX + NUMBER_FORMAT.format(partition) + "-" +
+           NUMBER_FORMAT.format(attempt) + "-" + NUMBER_FORMAT.format(sequence);
+  }
+
+  /**
+   * Start a new snapshot.
+   * @param progress the input progress of the snapshot
+   */
+  void open(float progress) throws IOException {
+    this.progress = progress;
+    this.changed = 0;
+    this.current = new HashMap<ByteBuffer, Long>(Math.max(16, previous.size() * 4 / 3 + 1));
+    this.name = getDeltaName(partition, attempt, sequence);
+    this.writer = SequenceFile.createWriter(fs, job, new Path(tmpDir, name + DATA_SUFFIX),
+                                            keyClass, valClass, CompressionType.NONE,
+                                            null, progressable, new SequenceFile.Metadata());
+  }
+
+  public void collect(Object key, Object value) throws IOException {
+    keyBuffer.reset();
+    keySerializer.serialize(key);
+    valBuffer.reset();
+    valSerializer.serialize(value);
+
+    byte[] keyBytes = new byte[keyBuffer.getLength()];
+    System.arraycopy(keyBuffer.getData(), 0, keyBytes, 0, keyBytes.length);
+    ByteBuffer k = ByteBuffer.wrap(keyBytes);
+    long hash = hash(valBuffer.getData(), valBuffer.getLength());
+
+    current.put(k, hash);
+    Long last = previous.get(k);
+    if (last == null || last.longValue() != hash) {
+      writer.append(key, value);
+      changed++;
+    }
+  }
+
+  /**
+   * Publish the current snapshot.
+   */
+  void publish() throws IOException {
+    writer.close();
+    writer = null;
+
+    SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+    long removed = 0;
+    for (ByteBuffer k : previous.keySet()) {
+      if (!current.containsKey(k)) removed++;
+    }
+    metadata.set(PROGRESS, new Text(Float.toString(progress)));
+    metadata.set(CHANGED, new Text(Long.toString(changed)));
+    metadata.set(REMOVED, new Text(Long.toString(removed)));
+    metadata.set(KEYS, new Text(Long.toString(current.size())));
+    metadata.set(BASE, new Text(Boolean.toString(sequence == 0)));
+
+    SequenceFile.Writer meta =
+      SequenceFile.createWriter(fs, job, new Path(tmpDir, name + META_SUFFIX),
+                                keyClass, NullWritable.class, CompressionType.NONE,
+                                null, progressable, metadata);
+    try {
+      if (removed > 0) {
+        DataInputBuffer in = new DataInputBuffer();
+        keyDeserializer.open(in);
+        Object key = null;
+        for (ByteBuffer k : previous.keySet()) {
+          if (!current.containsKey(k)) {
+            in.reset(k.array(), k.array().length);
+            key = keyDeserializer.deserialize(key);
+            meta.append(key, NullWritable.get());
+          }
+        }
+      }
+    } finally {
+      meta.close();
+    }
+
+    rename(name + DATA_SUFFIX);
+    rename(name + META_SUFFIX);
+    LOG.info("Published snapshot delta " + name + " at progress " + progress +
+             ": " + changed + " changed, " + removed + " removed, " +
+             current.size() + " keys.");
+
+    previous = current;
+    current = null;
+    sequence++;
+  }
+
+  private void rename(String file) throws IOException {
+    Path dst = new Path(dir, file);
+    fs.delete(dst, false);
+    if (!fs.rename(new Path(tmpDir, file), dst)) {
+      throw new IOException("Unable to publish snapshot delta " + dst);
+    }
+  }
+
+  private static long hash(byte[] data, int length) {
+    long hash = FNV_OFFSET;
+    for (int i = 0; i < length; i++) {
+      hash ^= data[i] & 0xff;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * A client subscription to the snapshot deltas of a job.
+ *
+ * A job publishes deltas when <code>mapred.snapshot.frequency</code> is
+ * below 1 and <code>mapred.snapshot.delta</code> is set. Each call to
+ * {@link #poll(Listener)} applies the deltas published since the previous
+ * call, in order, so the work of a client is proportional to the number
+ * of keys that changed rather than to the size of the result.
+ *
+ * @see JobClient#subscribeSnapshots(JobConf)
+ */
+public class SnapshotSubscription {
+
+  /** Receives the changes of the job result. */
+  public static interface Listener {
+    /**
+     * Discard every key of a partition. Called before the first delta
+     * of a new reduce attempt is applied.
+     * @param partition the reduce partition
+     */
+    void reset(int partition) throws IOException;
+
+    /**
+     * A key was added to the result or its value changed.
+     * @param partition the reduce partition
+     * @param key the key
+     * @param value the new value
+     */
+    void update(int partition, Object key, Object value) throws IOException;
+
+    /**
+     * A key is no longer part of the result.
+     * @param partition the reduce partition
+     * @param key the key
+     */
+    void remove(int partition, Object key) throws IOException;
+
+    /**
+     * All changes of a snapshot of a partition have been applied.
+     * @param partition the reduce partition
+     * @param progress the input progress of the snapshot
+     */
+    void snapshot(int partition, float progress) throws IOException;
+  }
+
+  /* The last delta applied to a partition. */
+  private static class Position {
+    int attempt;
+    int sequence;
+    float progress;
+
+    Position(int attempt, int sequence, float progress) {
+      this.attempt = attempt;
+      this.sequence = sequence;
+      this.progress = progress;
+    }
+  }
+
+  private static final PathFilter META_FILTER = new PathFilter() {
+    public boolean accept(Path path) {
+      String name = path.getName();
+      return name.startsWith(SnapshotPublisher.DELTA_PREFIX) &&
+             name.endsWith(SnapshotPublisher.META_SUFFIX);
+    }
+  };
+
+  private final JobConf job;
+  private final Path dir;
+  private final FileSystem fs;
+  private final Map<Integer, Position> positions = new HashMap<Integer, Position>();
+
+  /**
+   * Subscribe to the snapshot deltas of a job.
+   * @param job the configuration of the job
+   * @throws IOException if the job has no output path
+   */
+  public SnapshotSubscription(JobConf job) throws IOException {
+    this.job = job;
+    this.dir = SnapshotPublisher.getSnapshotDir(job);
+    if (this.dir == null) {
+      throw new IOException("Job " + job.getJobName() + " has no output path");
+    }
+    this.fs = this.dir.getFileSystem(job);
+  }
+
+  /**
+   * Apply the deltas published since the last call.
+   * @param listener receives the changes
+   * @return the number of deltas applied
+   */
+  public synchronized int poll(Listener listener) throws IOException {
+    if (!fs.exists(dir)) {
+      return 0;
+    }
+    FileStatus[] metas = fs.listStatus(dir, META_FILTER);
+    if (metas == null) {
+      return 0;
+    }
+    // delta names sort by partition, attempt and sequence
+    Path[] paths = FileUtil.stat2Paths(metas);
+    Arrays.sort(paths);
+
+    int applied = 0;
+    for (Path meta : paths) {
+      String name = meta.getName();
+      String[] fields = name.substring(SnapshotPublisher.DELTA_PREFIX.length(),
+          name.length() - SnapshotPublisher.META_SUFFIX.length()).split("-");
+      int partition = Integer.parseInt(fields[0]);
+      int attempt = Integer.parseInt(fields[1]);
+      int sequence = Integer.parseInt(fields[2]);
+
+      Position position = positions.get(partition);
+      if (position != null &&
+          (attempt < position.attempt ||
+           (attempt == position.attempt && sequence <= position.sequence))) {
+        continue;  // already applied, or from an earlier attempt
+      }
+      if (position != null && attempt > position.attempt && sequence > 0) {
+        continue;  // wait for the base of the new attempt
+      }
+      float progress = apply(listener, partition, meta);
+      positions.put(partition, new Position(attempt, sequence, progress));
+      applied++;
+    }
+    return applied;
+  }
+
+  /**
+   * @param partition a reduce partition
+   * @return the progress of the last snapshot applied to the partition, or
+   * 0 if none has been applied.
+   */
+  public synchronized float getProgress(int partition) {
+    Position position = positions.get(partition);
+    return position == null ? 0f : position.progress;
+  }
+
+  private float apply(Listener listener, int partition, Path meta)
+  throws IOException {
+    String name = meta.getName();
+    Path data = new Path(dir, name.substring(0,
+        name.length() - SnapshotPublisher.META_SUFFIX.length()) +
+        SnapshotPublisher.DATA_SUFFIX);
+
+    SequenceFile.Reader removed = new SequenceFile.Reader(fs, meta, job);
+    try {
+      SequenceFile.Metadata metadata = removed.getMetadata();
+      float progress = Float.parseFloat(get(metadata, SnapshotPublisher.PROGRESS));
+      if (Boolean.valueOf(get(metadata, SnapshotPublisher.BASE))) {
+        listener.reset(partition);
+      }
+
+      SequenceFile.Reader changed = new SequenceFile.Reader(fs, data, job);
+      try {
+        Object key;
+        while ((key = changed.next((Object) null)) != null) {
+          Object value = changed.getCurrentValue((Object) null);
+          listener.update(partition, key, value);
+        }
+      } finally {
+        changed.close();
+      }
+
+      Object key;
+      while ((key = removed.next((Object) null)) != null) {
+        listener.remove(partition, key);
+      }
+      listener.snapshot(partition, progress);
+      return progress;
+    } finally {
+      removed.close();
+    }
+  }
+
+  private static String get(SequenceFile.Metadata metadata, Text name)
+  throws IOException {
+    Text value = metadata.get(name);
+    if (value == null) {
+      throw new IOException("Snapshot delta is missing " + name);
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Orders the maps of a job so that every prefix of the order is close to a
+ * uniform sample of the input, for jobs that act on snapshots taken before
+ * all maps are done.
+ * <p>
+ * The input is split into strata, one per input file (or one in all if
+ * the splits are not {@link FileSplit}s). Each stratum is shuffled, and its
+ * k-th of n maps is placed at (k+u)/n, for a random u in [0, 1) per
+ * stratum. Sorting the maps by these points interleaves the strata in
+ * proportion to their sizes, so a stratum that holds 30% of the maps holds
+ * 30% of any prefix, give or take a map per stratum. Since a node is
+ * offered its local maps in this order too, the maps stay data-local.
+ * <p>
+ * A job asks for this order with <code>mapred.map.order=stratified</code>.
+ * The order is random but repeatable, seeded by
+ * <code>mapred.map.order.seed</code> or else the job id.
+ */
+class StratifiedMapOrder {
+
+  private static final Log LOG = LogFactory.getLog(StratifiedMapOrder.class);
+
+  /**
+   * Get the stratified order of a job's maps.
+   * @param conf the job configuration
+   * @param splits the splits of the job's maps
+   * @param seed the random seed
+   * @return the indices of the maps in the order to run them
+   */
+  static int[] order(JobConf conf, JobClient.RawSplit[] splits, long seed) {
+    Map<String, List<Integer>> strata =
+      new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < splits.length; i++) {
+      String stratum = getStratum(conf, splits[i]);
+      List<Integer> maps = strata.get(stratum);
+      if (maps == null) {
+        maps = new ArrayList<Integer>();
+        strata.put(stratum, maps);
+      }
+      maps.add(i);
+    }
+
+    Random random = new Random(seed);
+    final double[] position = new double[splits.length];
+    for (List<Integer> maps : strata.values()) {
+      Collections.shuffle(maps, random);
+      int n = maps.size();
+      double start = random.nextDouble();
+      for (int k = 0; k < n; k++) {
+        position[maps.get(k)] = (k + start) / n;
+      }
+    }
+
+    Integer[] order = new Integer[splits.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Double.compare(position[a], position[b]);
+      }
+    });
+    LOG.info("Ordered " + splits.length + " maps over " + strata.size() +
+             " input strata");
+
+    int[] result = new int[order.length];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = order[i];
+    }
+    return result;
+  }
+
+  /* The input file of a file split, or the split class otherwise. */
+  private static String getStratum(JobConf conf, JobClient.RawSplit split) {
+    String className = split.getClassName();
+    BytesWritable bytes = split.getBytes();
+    if (bytes == null) {
+      return className;
+    }
+    try {
+      Class<?> splitClass = conf.getClassByName(className);
+      if (!FileSplit.class.isAssignableFrom(splitClass)) {
+        return className;
+      }
+      Writable instance =
+        (Writable) ReflectionUtils.newInstance(splitClass, conf);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(bytes.getBytes(), bytes.getLength());
+      instance.readFields(in);
+      return ((FileSplit) instance).getPath().toString();
+    } catch (Exception e) {
+      // the split class is only on the job's classpath
+      return className;
+    }
+  }
+}
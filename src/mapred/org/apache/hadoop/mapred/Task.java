@@ -813,6 +813,9 @@ public abstract class Task implements Writable, Configurable {
     getProgress().setStatus("cleanup");
     // do the cleanup
     conf.getOutputCommitter().cleanupJob(jobContext);
+    if (conf.getBoolean("mapred.snapshot.delta", false)) {
+      SnapshotPublisher.deleteDeltas(conf);
+    }
     done(umbilical);
   }
 
@@ -127,7 +127,7 @@ public class TaskAttemptID extends ID {
   
   @Override
   public int hashCode() {
-    return toStringWOPrefix().toString().hashCode();
+    return taskId.hashCode() * 31 + id;
   }
   
   @Override
@@ -139,7 +139,7 @@ public class TaskID extends ID {
   
   @Override
   public int hashCode() {
-    return toStringWOPrefix().toString().hashCode();
+    return (jobId.hashCode() * 31 + id) * 2 + (isMap ? 0 : 1);
   }
   
   @Override
@@ -537,6 +537,15 @@ class TaskInProgress {
     // For example, startTime should not be updated, 
     // but finishTime has to be updated.
     if (!isCleanupAttempt(taskid)) {
+      if (oldStatus != null) {
+        status.updateCounters(oldStatus);
+      } else if (status.getChangedCountersOnly()) {
+        // the earlier reports were lost with a restart; keep these counters
+        // until the tracker, told of the restart, sends all of them again
+        LOG.info("Only changed counters reported for " + taskid + 
+                 ", awaiting the full counters");
+        status.setChangedCountersOnly(false);
+      }
       taskStatuses.put(taskid, status);
     } else {
       taskStatuses.get(taskid).statusUpdate(status.getRunState(),
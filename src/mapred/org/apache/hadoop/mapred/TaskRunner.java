@@ -200,6 +200,7 @@ abstract class TaskRunner extends Thread {
       // start with same classpath as parent process
       classPath.append(System.getProperty("java.class.path"));
       classPath.append(sep);
+      int taskClassPathStart = classPath.length();
       if (!workDir.mkdirs()) {
         if (!workDir.isDirectory()) {
           LOG.fatal("Mkdirs failed to create " + workDir.toString());
@@ -261,6 +262,7 @@ abstract class TaskRunner extends Thread {
         }
       }
 
+      int taskClassPathEnd = classPath.length();
       classPath.append(sep);
       classPath.append(workDir);
       //  Build exec child jmv args.
@@ -401,9 +403,22 @@ abstract class TaskRunner extends Thread {
         ldLibraryPath.append(oldLdLibraryPath);
       }
       env.put("LD_LIBRARY_PATH", ldLibraryPath.toString());
-      jvmManager.launchJvm(this, 
-          jvmManager.constructJvmEnv(setup,vargs,stdout,stderr,logSize, 
-              workDir, env, pidFile, conf));
+      JvmManager.JvmEnv jvmEnv = jvmManager.constructJvmEnv(setup, vargs,
+          stdout, stderr, logSize, workDir, env, pidFile, conf);
+      if (jvmManager.isPoolable(conf, t)) {
+        // a pooled JVM loads the job's own classes from these, and from
+        // its own work directory in place of the task's
+        List<String> taskClassPath = new ArrayList<String>();
+        for (String entry : classPath.substring(taskClassPathStart,
+                                                taskClassPathEnd).split(sep)) {
+          if (entry.length() > 0) {
+            taskClassPath.add(entry);
+          }
+        }
+        jvmEnv.taskClassPath =
+          taskClassPath.toArray(new String[taskClassPath.size()]);
+      }
+      jvmManager.launchJvm(this, jvmEnv);
       synchronized (lock) {
         while (!done) {
           lock.wait();
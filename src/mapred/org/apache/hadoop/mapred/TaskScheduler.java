@@ -90,5 +90,31 @@ abstract class TaskScheduler implements Configurable {
    * @return
    */
   public abstract Collection<JobInProgress> getJobs(String queueName);
+
+  /**
+   * Returns the order in which the maps of a job are offered to
+   * TaskTrackers. Each node is offered its local maps in this order. 
+   * By default, maps run in split order unless the job sets 
+   * mapred.map.order to "stratified", see {@link StratifiedMapOrder}.
+   * Schedulers may override this, e.g. to order the maps of all jobs
+   * that take snapshots.
+   * @param job the job, whose tasks are being initialized
+   * @param splits the splits of the job's maps
+   * @return the indices of the maps in the order to run them, or null for
+   *         the split order
+   */
+  public int[] getMapOrder(JobInProgress job, JobClient.RawSplit[] splits) {
+    JobConf jobConf = job.getJobConf();
+    String order = jobConf.get("mapred.map.order", "split");
+    if ("stratified".equals(order)) {
+      long seed = jobConf.getLong("mapred.map.order.seed", 
+                                  job.getJobID().hashCode());
+      return StratifiedMapOrder.order(jobConf, splits, seed);
+    } else if (!"split".equals(order)) {
+      JobTracker.LOG.warn("Unknown map order " + order + " for " + 
+                          job.getJobID() + ", using the split order");
+    }
+    return null;
+  }
     
 }
@@ -57,6 +57,8 @@ abstract class TaskStatus implements Writable, Cloneable {
   private volatile Phase phase = Phase.STARTING; 
   private Counters counters;
   private boolean includeCounters;
+  // the counters are only those that changed since the last report
+  private boolean changedCountersOnly = false;
   private SortedRanges.Range nextRecordRange = new SortedRanges.Range();
 
   public TaskStatus() {}
@@ -216,6 +218,30 @@ abstract class TaskStatus implements Writable, Cloneable {
   public void setIncludeCounters(boolean send) {
     includeCounters = send;
   }
+
+  boolean getChangedCountersOnly() {
+    return changedCountersOnly;
+  }
+
+  void setChangedCountersOnly(boolean changedOnly) {
+    changedCountersOnly = changedOnly;
+  }
+
+  /**
+   * Complete the counters of this report with the previous report of the
+   * same attempt. A report without counters keeps the previous counters,
+   * and the counters of a report of changed counters are set on them.
+   * @param previous the previous report
+   */
+  void updateCounters(TaskStatus previous) {
+    if (!includeCounters) {
+      counters = previous.counters;
+    } else if (changedCountersOnly) {
+      previous.counters.setAllCounters(counters);
+      counters = previous.counters;
+      changedCountersOnly = false;
+    }
+  }
   
   /**
    * Get task's counters.
@@ -365,6 +391,7 @@ abstract class TaskStatus implements Writable, Cloneable {
     out.writeBoolean(includeCounters);
     out.writeLong(outputSize);
     if (includeCounters) {
+      out.writeBoolean(changedCountersOnly);
       counters.write(out);
     }
     nextRecordRange.write(out);
@@ -383,6 +410,7 @@ abstract class TaskStatus implements Writable, Cloneable {
     this.includeCounters = in.readBoolean();
     this.outputSize = in.readLong();
     if (includeCounters) {
+      changedCountersOnly = in.readBoolean();
       counters.readFields(in);
     }
     nextRecordRange.readFields(in);
@@ -226,7 +226,7 @@ public class TaskTracker
    * the specific metrics for shuffle. The TaskTracker is actually a server for
    * the shuffle and hence the name ShuffleServerMetrics.
    */
-  private class ShuffleServerMetrics implements Updater {
+  class ShuffleServerMetrics implements Updater {
     private MetricsRecord shuffleMetricsRecord = null;
     private int serverHandlerBusy = 0;
     private long outputBytes = 0;
@@ -272,6 +272,10 @@ public class TaskTracker
         failedOutputs = 0;
         successOutputs = 0;
       }
+      IndexCache cache = indexCache;
+      if (cache != null) {
+        cache.updateMetrics(shuffleMetricsRecord);
+      }
       shuffleMetricsRecord.update();
     }
   }
@@ -479,9 +483,11 @@ public class TaskTracker
     // RPC initialization
     int maxConnections = maxCurrentMapTasks + maxCurrentReduceTasks;
     //set the num handlers to max*2 since canCommit may wait for the duration
-    //of a heartbeat RPC
+    //of a heartbeat RPC, and add one for each pooled JVM waiting for a task
     this.taskReportServer =
-      RPC.getServer(this, bindAddress, tmpPort, 2 * maxConnections, false, this.fConf);
+      RPC.getServer(this, bindAddress, tmpPort,
+                    2 * maxConnections + 2 * jvmManager.getPoolSize(),
+                    false, this.fConf);
     this.taskReportServer.start();
 
     // get the assigned address
@@ -496,6 +502,7 @@ public class TaskTracker
     // Clear out temporary files that might be lying around
     DistributedCache.purgeCache(this.fConf);
     cleanupStorage();
+    jvmManager.startPool(taskReportAddress);
     this.justStarted = true;
 
     this.jobClient = (InterTrackerProtocol) 
@@ -1219,6 +1226,12 @@ public class TaskTracker
               }
             }
 
+            // The restarted JobTracker has only the counters changed in
+            // the last heartbeat, send all of them again
+            for (TaskInProgress tip : runningTasks.values()) {
+              tip.reportedCounters = null;
+            }
+
             // Mark the reducers in shuffle for rollback
             synchronized (shouldReset) {
               for (Map.Entry<TaskAttemptID, TaskInProgress> entry 
@@ -1943,6 +1956,9 @@ public class TaskTracker
     private boolean keepFailedTaskFiles;
     private boolean alwaysKeepTaskFiles;
     private TaskStatus taskStatus; 
+    // the counters as last reported to the JobTracker, null when the
+    // JobTracker has to be sent all of them
+    private Counters reportedCounters = null;
     private long taskTimeout;
     private String debugCommand;
     private volatile boolean slotTaken = false;
@@ -2646,16 +2662,28 @@ public class TaskTracker
   /**
    * Called upon startup by the child process, to fetch Task data.
    */
-  public synchronized JvmTask getTask(JVMId jvmId) 
+  public JvmTask getTask(JVMId jvmId) 
   throws IOException {
     LOG.debug("JVM with ID : " + jvmId + " asked for a task");
+    // an idle pooled JVM waits for a task outside the tracker lock
+    jvmManager.waitForPooledTask(jvmId);
+    synchronized (this) {
+      return getTaskForJvm(jvmId);
+    }
+  }
+
+  private JvmTask getTaskForJvm(JVMId jvmId) throws IOException {
     if (!jvmManager.isJvmKnown(jvmId)) {
       LOG.info("Killing unknown JVM " + jvmId);
       return new JvmTask(null, true);
     }
-    RunningJob rjob = runningJobs.get(jvmId.getJobId());
+    if (jvmManager.isJvmIdle(jvmId)) {
+      return new JvmTask(null, false);
+    }
+    JobID jobId = jvmManager.getJobForJvm(jvmId);
+    RunningJob rjob = runningJobs.get(jobId);
     if (rjob == null) { //kill the JVM since the job is dead
-      LOG.info("Killing JVM " + jvmId + " since job " + jvmId.getJobId() +
+      LOG.info("Killing JVM " + jvmId + " since job " + jobId +
                " is dead");
       jvmManager.killJvm(jvmId);
       return new JvmTask(null, true);
@@ -2667,7 +2695,10 @@ public class TaskTracker
     if (tasks.get(tip.getTask().getTaskID()) != null) { //is task still present
       LOG.info("JVM with ID: " + jvmId + " given task: " + 
           tip.getTask().getTaskID());
-      return new JvmTask(tip.getTask(), false);
+      jvmManager.taskTaken(jvmId);
+      String[] classPath = jvmManager.getClassPathForJvm(jvmId);
+      return classPath == null ? new JvmTask(tip.getTask(), false)
+                               : new JvmTask(tip.getTask(), classPath);
     } else {
       LOG.info("Killing JVM with ID: " + jvmId + " since scheduled task: " + 
           tip.getTask().getTaskID() + " is " + tip.taskStatus.getRunState());
@@ -2908,7 +2939,23 @@ public class TaskTracker
       if (status.getRunState() != TaskStatus.State.RUNNING) {
         status.setIncludeCounters(true);
       }
-      result.add((TaskStatus)status.clone());
+      TaskStatus report = (TaskStatus)status.clone();
+      if (report.getIncludeCounters()) {
+        if (tip.reportedCounters == null ||
+            status.getRunState() != TaskStatus.State.RUNNING) {
+          // all the counters the first time, after the JobTracker has
+          // lost them and when the task is done
+          tip.reportedCounters = new Counters();
+          status.getCounters().getChanges(tip.reportedCounters);
+        } else {
+          // only the counters that changed since the last heartbeat, a
+          // heartbeat is resent until it gets through
+          report.setCounters(
+            status.getCounters().getChanges(tip.reportedCounters));
+          report.setChangedCountersOnly(true);
+        }
+      }
+      result.add(report);
       status.clearStatus();
     }
     return result;
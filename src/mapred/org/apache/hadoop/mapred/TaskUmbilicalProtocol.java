@@ -53,12 +53,14 @@ interface TaskUmbilicalProtocol extends VersionedProtocol {
    * Version 13 changed the getTask method signature for HADOOP-249
    * Version 14 changed the getTask method signature for HADOOP-4232
    * Version 15 Adds FAILED_UNCLEAN and KILLED_UNCLEAN states for HADOOP-4759
+   * Version 16 getTask() also returns the job class path for pooled JVMs
    * */
 
-  public static final long versionID = 15L;
+  public static final long versionID = 16L;
   
   /**
-   * Called when a child task process starts, to get its task.
+   * Called when a child task process starts, to get its task. An idle
+   * pooled JVM may be kept waiting for a task for a while.
    * @param jvmId the ID of this JVM w.r.t the tasktracker that launched it
    * @return Task object
    * @throws IOException 
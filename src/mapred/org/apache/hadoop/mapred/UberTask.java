@@ -0,0 +1,323 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.buffer.BufferUmbilicalProtocol;
+import org.apache.hadoop.mapred.buffer.OutputFile;
+import org.apache.hadoop.mapred.buffer.net.BufferRequest;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Runs all the tasks of a small job in one child JVM.
+ * <p>
+ * With <code>mapred.job.ubertask.enable</code> set, a job with at most
+ * <code>mapred.job.ubertask.maxmaps</code> splits, at most
+ * <code>mapred.job.ubertask.maxbytes</code> of input and at most one
+ * reduce is submitted as a single map task over all of its splits. That
+ * task runs the maps one after the other, the way the LocalJobRunner
+ * does, and then the reduce, which reads the map outputs from the local
+ * disk instead of fetching them from the trackers. The tasks report their
+ * progress and counters through the task that runs them, and commit their
+ * output themselves.
+ */
+class UberTask {
+
+  private static final Log LOG = LogFactory.getLog(UberTask.class);
+
+  /**
+   * The splits of all the maps of an uber task.
+   */
+  static class Split implements InputSplit, Configurable {
+    private InputSplit[] splits;
+    private Configuration conf;
+
+    public Split() { }
+
+    Split(InputSplit[] splits) {
+      this.splits = splits;
+    }
+
+    InputSplit[] getSplits() {
+      return splits;
+    }
+
+    public long getLength() throws IOException {
+      long length = 0;
+      for (InputSplit split : splits) {
+        length += split.getLength();
+      }
+      return length;
+    }
+
+    /** The hosts of all the splits, those of the largest first. */
+    public String[] getLocations() throws IOException {
+      Set<String> hosts = new LinkedHashSet<String>();
+      for (InputSplit split : splits) {
+        String[] locations = split.getLocations();
+        if (locations != null) {
+          for (String host : locations) {
+            hosts.add(host);
+          }
+        }
+      }
+      return hosts.toArray(new String[hosts.size()]);
+    }
+
+    public void write(DataOutput out) throws IOException {
+      WritableUtils.writeVInt(out, splits.length);
+      for (InputSplit split : splits) {
+        Text.writeString(out, split.getClass().getName());
+        split.write(out);
+      }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      splits = new InputSplit[WritableUtils.readVInt(in)];
+      for (int i = 0; i < splits.length; i++) {
+        String className = Text.readString(in);
+        try {
+          splits[i] = (InputSplit) ReflectionUtils.newInstance(
+              conf.getClassByName(className), conf);
+        } catch (ClassNotFoundException e) {
+          throw (IOException) new IOException("Split class " + className +
+                                              " not found").initCause(e);
+        }
+        splits[i].readFields(in);
+      }
+    }
+
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+    }
+
+    public Configuration getConf() {
+      return conf;
+    }
+  }
+
+  /**
+   * Submit a small job as one uber task.
+   * @param job the job, changed to run a single map if it is small enough
+   * @param splits the splits of the job, the largest first
+   * @return the single split of the uber task, or the given splits if the
+   *         job is not run as an uber task
+   */
+  static InputSplit[] uberize(JobConf job, InputSplit[] splits)
+    throws IOException {
+    if (!job.getBoolean("mapred.job.ubertask.enable", false) ||
+        splits.length == 0 || job.getNumReduceTasks() > 1 ||
+        splits.length > job.getInt("mapred.job.ubertask.maxmaps", 9)) {
+      return splits;
+    }
+    // pipelined and snapshot output is consumed while the tasks run
+    if (job.getBoolean("mapred.map.pipeline", false) ||
+        job.getBoolean("mapred.reduce.pipeline", false) ||
+        job.getBoolean("mapred.job.input.snapshots", false) ||
+        job.getFloat("mapred.snapshot.frequency", 1f) < 1f) {
+      return splits;
+    }
+    Split split = new Split(splits);
+    long maxBytes = job.getLong("mapred.job.ubertask.maxbytes",
+                                job.getLong("dfs.block.size", 64 << 20));
+    if (split.getLength() > maxBytes) {
+      return splits;
+    }
+    LOG.info("Running the " + splits.length + " maps and " +
+             job.getNumReduceTasks() + " reduces of the job as one task");
+    job.setInt("mapred.job.ubertask.reduces", job.getNumReduceTasks());
+    job.setNumReduceTasks(0);
+    job.setMapSpeculativeExecution(false);
+    return new InputSplit[] { split };
+  }
+
+  private final MapTask task;
+  private final JobConf job;
+  private final TaskUmbilicalProtocol umbilical;
+  private final InputSplit[] splits;
+  private final int reduces;
+
+  // the task running, and its position among all of them
+  private volatile Task current = null;
+  private volatile int position = 0;
+  private final List<OutputFile> mapOutputs = new ArrayList<OutputFile>();
+
+  UberTask(MapTask task, JobConf job, TaskUmbilicalProtocol umbilical,
+           Split split) {
+    this.task = task;
+    this.job = job;
+    this.umbilical = umbilical;
+    this.splits = split.getSplits();
+    this.reduces = job.getInt("mapred.job.ubertask.reduces", 0);
+  }
+
+  /** Run the maps and then the reduce. */
+  void run() throws IOException {
+    JobID jobId = task.getJobID();
+    int attempt = task.getTaskID().getId();
+    FileHandle outputHandle = new FileHandle(jobId);
+    outputHandle.setConf(job);
+    List<TaskAttemptID> attempts = new ArrayList<TaskAttemptID>();
+    try {
+      DataOutputBuffer buffer = new DataOutputBuffer();
+      for (int i = 0; i < splits.length; i++) {
+        TaskAttemptID mapId =
+          new TaskAttemptID(new TaskID(jobId, true, i), attempt);
+        attempts.add(mapId);
+        buffer.reset();
+        splits[i].write(buffer);
+        BytesWritable split = new BytesWritable();
+        split.set(buffer.getData(), 0, buffer.getLength());
+        run(new MapTask(task.getJobFile(), mapId, i,
+                        splits[i].getClass().getName(), split));
+      }
+      if (reduces > 0) {
+        TaskAttemptID reduceId =
+          new TaskAttemptID(new TaskID(jobId, false, 0), attempt);
+        attempts.add(reduceId);
+        ReduceTask reduce =
+          new ReduceTask(task.getJobFile(), reduceId, 0, splits.length);
+        reduce.setLocalMapOutputs(mapOutputs);
+        run(reduce);
+      }
+    } finally {
+      for (TaskAttemptID id : attempts) {
+        outputHandle.removeAll(id);
+      }
+    }
+  }
+
+  private void run(Task inner) throws IOException {
+    LOG.info("Uber task " + task.getTaskID() + " running " +
+             inner.getTaskID());
+    JobConf conf = new JobConf(job);
+    conf.setNumReduceTasks(reduces);
+    inner.localizeConfiguration(conf);
+    inner.setConf(conf);
+    current = inner;
+    Umbilical local = new Umbilical();
+    inner.run(conf, local, local);
+    task.getCounters().incrAllCounters(inner.getCounters());
+    position++;
+    task.setProgress(position / (float) (splits.length + reduces));
+  }
+
+  /*
+   * The umbilical of the tasks run by the uber task, which reports their
+   * progress and errors as those of the uber task.
+   */
+  private class Umbilical
+    implements TaskUmbilicalProtocol, BufferUmbilicalProtocol {
+
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return protocol.equals(BufferUmbilicalProtocol.class.getName())
+             ? BufferUmbilicalProtocol.versionID
+             : TaskUmbilicalProtocol.versionID;
+    }
+
+    public JvmTask getTask(JVMId jvmId) {
+      return null;
+    }
+
+    public boolean statusUpdate(TaskAttemptID taskId, TaskStatus taskStatus) {
+      if (current != null && taskId.equals(current.getTaskID())) {
+        task.setProgress((position + taskStatus.getProgress()) /
+                         (splits.length + reduces));
+      }
+      return true;
+    }
+
+    public void reportDiagnosticInfo(TaskAttemptID taskid, String trace)
+      throws IOException {
+      umbilical.reportDiagnosticInfo(task.getTaskID(), trace);
+    }
+
+    public void reportNextRecordRange(TaskAttemptID taskid,
+                                      SortedRanges.Range range) {
+      // the ranges of the tasks run here are not those of the uber task
+    }
+
+    public boolean ping(TaskAttemptID taskid) {
+      return true;
+    }
+
+    public void done(TaskAttemptID taskid) {
+    }
+
+    public void commitPending(TaskAttemptID taskId, TaskStatus taskStatus) {
+      statusUpdate(taskId, taskStatus);
+    }
+
+    public boolean canCommit(TaskAttemptID taskid) {
+      return true;
+    }
+
+    public void shuffleError(TaskAttemptID taskId, String message)
+      throws IOException {
+      umbilical.shuffleError(task.getTaskID(), message);
+    }
+
+    public void fsError(TaskAttemptID taskId, String message)
+      throws IOException {
+      umbilical.fsError(task.getTaskID(), message);
+    }
+
+    public MapTaskCompletionEventsUpdate getMapCompletionEvents(JobID jobId,
+        int fromEventId, int maxLocs, TaskAttemptID id) {
+      return new MapTaskCompletionEventsUpdate(
+          TaskCompletionEvent.EMPTY_ARRAY, false);
+    }
+
+    public ReduceTaskCompletionEventsUpdate getReduceCompletionEvents(
+        JobID reduceJobId, int fromIndex, int maxLocs) {
+      return new ReduceTaskCompletionEventsUpdate(
+          TaskCompletionEvent.EMPTY_ARRAY, false);
+    }
+
+    public void request(BufferRequest request) throws IOException {
+      throw new IOException("Uber task " + task.getTaskID() +
+                            " does not serve buffer requests");
+    }
+
+    public float stallFraction(TaskAttemptID owner) {
+      return 0f;
+    }
+
+    public void output(OutputFile file) {
+      if (file.header().eof()) {
+        mapOutputs.add(file);
+      }
+    }
+  }
+}
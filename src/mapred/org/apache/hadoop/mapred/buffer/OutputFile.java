@@ -50,6 +50,9 @@ public class OutputFile implements Comparable<OutputFile>, Writable {
 		private long decompressedLength;
 		
 		private boolean eof;
+		
+		/* The class name of the segment codec, empty if uncompressed. */
+		private String codec = "";
 
 		public Header() {}
 
@@ -66,6 +69,7 @@ public class OutputFile implements Comparable<OutputFile>, Writable {
 				   " EOF? " + eof +
 			       " owner " + owner +
 			       " progress " + progress +
+			       " codec " + (codec.length() == 0 ? "none" : codec) +
 			       ". File size = " + compressedLength;
 		}
 		
@@ -88,6 +92,9 @@ public class OutputFile implements Comparable<OutputFile>, Writable {
 		void decompressed(long d) { this.decompressedLength = d; }
 		
 		public boolean eof() { return this.eof; }
+		
+		public String codec() { return this.codec; }
+		void codec(String c) { this.codec = c; }
 
 		@Override
 		public void readFields(DataInput in) throws IOException {
@@ -98,6 +105,7 @@ public class OutputFile implements Comparable<OutputFile>, Writable {
 			this.compressedLength = in.readLong();
 			this.decompressedLength = in.readLong();
 			this.eof = in.readBoolean();
+			this.codec = WritableUtils.readString(in);
 		}
 
 		@Override
@@ -107,6 +115,7 @@ public class OutputFile implements Comparable<OutputFile>, Writable {
 			out.writeLong(this.compressedLength);
 			out.writeLong(this.decompressedLength);
 			out.writeBoolean(this.eof);
+			WritableUtils.writeString(out, this.codec);
 		}
 
 		public static Header readHeader(DataInput in) throws IOException {
@@ -420,6 +429,15 @@ public class OutputFile implements Comparable<OutputFile>, Writable {
 		return this.header;
 	}
 	
+	/**
+	 * Set the codec that the segments of this file were written with.
+	 * @param codec The codec class name, or the empty string if the
+	 * segments are not compressed.
+	 */
+	public void codec(String codec) {
+		this.header.codec(codec);
+	}
+	
 	public Type type() {
 		return this.type;
 	}
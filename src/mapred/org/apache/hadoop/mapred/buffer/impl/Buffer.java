@@ -21,9 +21,7 @@ package org.apache.hadoop.mapred.buffer.impl;
 import java.io.IOException;
 
 import org.apache.hadoop.io.RawComparator;
-import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
-import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.mapred.IFile;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -92,7 +90,8 @@ public abstract class Buffer<K extends Object, V extends Object> {
 	
 	protected final CompressionCodec codec;
 	
-	protected final Decompressor decompressor;
+	/* Selects the codec of each segment written and read. */
+	protected final CodecSelector codecs;
 	
 	@SuppressWarnings("unchecked")
 	protected Buffer(JobConf conf, Task task, Reporter reporter, Progress progress, 
@@ -109,11 +108,9 @@ public abstract class Buffer<K extends Object, V extends Object> {
 		
 		if (codecClass != null) {
 			codec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
-			decompressor = CodecPool.getDecompressor(codec);
-
 		} else {
 			codec = null;
-			decompressor = null;
 		}
+		codecs = new CodecSelector(conf, codec);
 	}
 }
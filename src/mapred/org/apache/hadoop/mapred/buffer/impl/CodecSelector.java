@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.buffer.impl;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.LzoCodec;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Chooses the compression codec of each output segment and resolves
+ * the codec named in the header of an incoming segment.
+ *
+ * By default every segment is written with the codec configured for the
+ * job's map output. When mapred.map.output.compression.adaptive is set,
+ * the codec is chosen per segment:
+ * <ul>
+ * <li>segments smaller than mapred.map.output.compression.min.bytes are
+ * not compressed, since codec setup dominates small pipelined spills.</li>
+ * <li>final merged segments, and segments of at least
+ * mapred.map.output.compression.strong.bytes, use the strong codec
+ * (the job's map output codec, or Deflate).</li>
+ * <li>all other segments use the fast codec (LZO when the native library
+ * is loaded, otherwise Deflate).</li>
+ * </ul>
+ * The level is raised by one when the receivers are stalling (the network
+ * is the bottleneck) and lowered by one when the CPUs are saturated.
+ */
+public class CodecSelector {
+	private static final Log LOG = LogFactory.getLog(CodecSelector.class.getName());
+
+	/** The header codec name of an uncompressed segment. */
+	public static final String NONE = "";
+
+	private static final int LEVEL_NONE   = 0;
+	private static final int LEVEL_FAST   = 1;
+	private static final int LEVEL_STRONG = 2;
+
+	private final JobConf conf;
+
+	private final CompressionCodec jobCodec;
+
+	private final boolean adaptive;
+
+	private final long minBytes;
+
+	private final long strongBytes;
+
+	private final float stallThreshold;
+
+	private final float loadThreshold;
+
+	private final OperatingSystemMXBean os;
+
+	private CompressionCodec fastCodec = null;
+
+	private CompressionCodec strongCodec = null;
+
+	/* The last stall fraction reported by the buffer manager. */
+	private volatile float stallFraction = 0f;
+
+	/* Codec instances for decoding, keyed by class name. */
+	private final Map<String, CompressionCodec> codecs =
+		new HashMap<String, CompressionCodec>();
+
+	public CodecSelector(JobConf conf, CompressionCodec jobCodec) {
+		this.conf = conf;
+		this.jobCodec = jobCodec;
+		this.adaptive = conf.getBoolean("mapred.map.output.compression.adaptive", false);
+		this.minBytes = conf.getLong("mapred.map.output.compression.min.bytes", 64 * 1024);
+		this.strongBytes = conf.getLong("mapred.map.output.compression.strong.bytes", 16 * 1024 * 1024);
+		this.stallThreshold = conf.getFloat("mapred.map.output.compression.stall.threshold", 0.5f);
+		this.loadThreshold = conf.getFloat("mapred.map.output.compression.load.threshold", 1.0f);
+		this.os = ManagementFactory.getOperatingSystemMXBean();
+
+		if (jobCodec != null) {
+			codecs.put(name(jobCodec), jobCodec);
+		}
+
+		if (this.adaptive) {
+			Class<? extends CompressionCodec> fastClass =
+				LzoCodec.isNativeLzoLoaded(conf) ? LzoCodec.class : DefaultCodec.class;
+			fastClass = conf.getClass("mapred.map.output.compression.fast.codec",
+					                  fastClass, CompressionCodec.class);
+			this.fastCodec = newCodec(fastClass);
+			this.strongCodec = jobCodec != null ? jobCodec : newCodec(DefaultCodec.class);
+			LOG.info("Adaptive segment compression: fast codec " + name(fastCodec) +
+					 ", strong codec " + name(strongCodec));
+		}
+	}
+
+	/**
+	 * Record the fraction of receivers that stalled during the last transfer.
+	 * @param fraction The stall fraction.
+	 */
+	public void stallFraction(float fraction) {
+		this.stallFraction = fraction;
+	}
+
+	/**
+	 * Select the codec for a new segment.
+	 * @param bytes The approximate uncompressed size of the segment.
+	 * @param finalMerge True if the segment is part of the final output.
+	 * @return The codec or null for no compression.
+	 */
+	public CompressionCodec select(long bytes, boolean finalMerge) {
+		if (!adaptive) {
+			return jobCodec;
+		}
+
+		int level = bytes < minBytes ? LEVEL_NONE :
+			        finalMerge || bytes >= strongBytes ? LEVEL_STRONG : LEVEL_FAST;
+		if (level < LEVEL_STRONG && stallFraction > stallThreshold) {
+			level++;
+		}
+		if (level > LEVEL_NONE && cpuBound()) {
+			level--;
+		}
+
+		switch (level) {
+		case LEVEL_STRONG: return strongCodec;
+		case LEVEL_FAST: return fastCodec;
+		default: return null;
+		}
+	}
+
+	/**
+	 * Resolve the codec named in a segment header.
+	 * @param name The codec class name, or {@link #NONE}.
+	 * @return The codec or null if the segment is not compressed.
+	 * @throws IOException If the codec class can not be loaded.
+	 */
+	public CompressionCodec codec(String name) throws IOException {
+		if (name == null || NONE.equals(name)) {
+			return null;
+		}
+		synchronized (codecs) {
+			CompressionCodec codec = codecs.get(name);
+			if (codec == null) {
+				try {
+					codec = newCodec(conf.getClassByName(name).asSubclass(CompressionCodec.class));
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Unknown segment codec " + name);
+				}
+				codecs.put(name, codec);
+			}
+			return codec;
+		}
+	}
+
+	/**
+	 * @param codec A codec or null.
+	 * @return The name of the codec as written to a segment header.
+	 */
+	public static String name(CompressionCodec codec) {
+		return codec == null ? NONE : codec.getClass().getName();
+	}
+
+	private boolean cpuBound() {
+		double load = os.getSystemLoadAverage();
+		return load >= 0 && load / os.getAvailableProcessors() > loadThreshold;
+	}
+
+	private CompressionCodec newCodec(Class<? extends CompressionCodec> codecClass) {
+		return (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
+	}
+}
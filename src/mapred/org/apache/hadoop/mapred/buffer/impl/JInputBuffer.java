@@ -26,7 +26,9 @@ import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
 import org.apache.hadoop.mapred.FileHandle;
 import org.apache.hadoop.mapred.IFile;
 import org.apache.hadoop.mapred.IFileInputStream;
@@ -116,12 +118,16 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 		byte[] data;
 		boolean inMemory;
 		long compressedSize;
+		
+		/* The codec of the on-disk file. */
+		CompressionCodec codec;
 
-		public JInput(TaskID taskid, Path file, long compressedLength) {
+		public JInput(TaskID taskid, Path file, long compressedLength, CompressionCodec codec) {
 			this.taskid = taskid;
 
 			this.file = file;
 			this.compressedSize = compressedLength;
+			this.codec = codec;
 
 			this.data = null;
 
@@ -147,7 +153,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 			}
 		}
 
-		public void replace(Path file) throws IOException {
+		public void replace(Path file, CompressionCodec codec) throws IOException {
 			if (inMemory || file == null) {
 				this.file = file;
 				this.inMemory = false;
@@ -155,6 +161,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 			else {
 				localFileSys.rename(file, this.file);
 			}
+			this.codec = codec;
 		}
 
 		public FileStatus status() {
@@ -532,7 +539,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 
 		// Note the output of the merge
 		FileStatus status = localFileSys.getFileStatus(outputPath);
-		addInputFilesOnDisk(new JInput(taskid, outputPath, status.getLen()));
+		addInputFilesOnDisk(new JInput(taskid, outputPath, status.getLen(), codec));
 
 		LOG.info("FLUSH: Merged " + inMemorySegments.size() + " segments, " +
 				mergeOutputSize + " bytes to disk to satisfy " + "reduce memory limit");
@@ -565,10 +572,13 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 
 		// Check if this map-output can be saved in-memory
 		boolean shuffleInMemory = ramManager.canFitInMemory(decompressedLength); 
+		
+		// The codec this segment was written with
+		CompressionCodec segmentCodec = codecs.codec(header.codec());
 
 		// Shuffle
 		if (shuffleInMemory &&
-			shuffleInMemory(taskid, istream,
+			shuffleInMemory(taskid, istream, segmentCodec,
 					(int)decompressedLength,
 					(int)compressedLength)) {
 			LOG.info("Shuffeled " + decompressedLength + " bytes (" + 
@@ -581,7 +591,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 
 			Path filename = outputHandle.getInputFileForWrite(task.getTaskID(), taskid, spills++, decompressedLength);
 
-			shuffleToDisk(taskid, istream, filename, compressedLength);
+			shuffleToDisk(taskid, istream, segmentCodec, filename, compressedLength);
 		}
 		return true;
 	}
@@ -589,6 +599,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 	private boolean shuffleInMemory(
 			TaskID taskid,
 			InputStream ins,
+			CompressionCodec segmentCodec,
 			int decompressedLength,
 			int compressedLength)
 	throws IOException {
@@ -602,11 +613,29 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 		IFileInputStream checksumIn = new IFileInputStream(ins, compressedLength);
 		ins = checksumIn;       
 
-		// Are map-outputs compressed?
-		if (codec != null) {
+		// Is this segment compressed?
+		Decompressor decompressor = null;
+		if (segmentCodec != null) {
+			decompressor = CodecPool.getDecompressor(segmentCodec);
 			decompressor.reset();
-			ins = codec.createInputStream(ins, decompressor);
+			ins = segmentCodec.createInputStream(ins, decompressor);
+		}
+		
+		try {
+			return shuffleInMemory(taskid, ins, decompressedLength, compressedLength);
+		} finally {
+			if (decompressor != null) {
+				CodecPool.returnDecompressor(decompressor);
+			}
 		}
+	}
+	
+	private boolean shuffleInMemory(
+			TaskID taskid,
+			InputStream ins,
+			int decompressedLength,
+			int compressedLength)
+	throws IOException {
 
 		LOG.debug("JBufferInput: copy compressed " + compressedLength + 
 				" (decompressed " + decompressedLength + ") bytes from map " + taskid);
@@ -694,19 +723,22 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 	private void shuffleToDisk(
 			TaskID taskid,
 			InputStream ins,
+			CompressionCodec segmentCodec,
 			Path filename,
 			long mapOutputLength) 
 	throws IOException {
-		JInput input = new JInput(taskid, filename, mapOutputLength);
+		JInput input = new JInput(taskid, filename, mapOutputLength, segmentCodec);
 
-		// Copy data to local-disk
+		// Copy data to local-disk, verifying its checksum once here so that
+		// the segment is not verified each time it is read
+		IFileInputStream checksumIn = new IFileInputStream(ins, mapOutputLength);
 		OutputStream outs = null;
 		int bytesRead = 0;
 		try {
 			outs = rfs.create(filename);
 
 			byte[] buf = new byte[64 * 1024];
-			int n = ins.read(buf, 0, (int) Math.min(buf.length, mapOutputLength));
+			int n = checksumIn.readWithChecksum(buf, 0, (int) Math.min(buf.length, mapOutputLength));
 			while (n > 0) {
 				bytesRead += n;
 				shuffleClientMetrics.inputBytes(n);
@@ -714,7 +746,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 
 				// indicate we're making progress
 				reporter.progress();
-				n = ins.read(buf, 0, (int) Math.min(buf.length, mapOutputLength - bytesRead));
+				n = checksumIn.readWithChecksum(buf, 0, (int) Math.min(buf.length, mapOutputLength - bytesRead));
 			}
 
 			LOG.info("Read " + bytesRead + " bytes from map-output for " + taskid);
@@ -823,12 +855,8 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 		return totalSize;
 	}
 
-	private Path[] getFiles(FileSystem fs)  throws IOException {
-		List<Path> fileList = new ArrayList<Path>();
-		for (JInput input : inputFilesOnDisk) {
-			fileList.add(input.file);
-		}
-		return fileList.toArray(new Path[0]);
+	private List<JInput> getFiles(FileSystem fs)  throws IOException {
+		return new ArrayList<JInput>(inputFilesOnDisk);
 	}
 
 	/**
@@ -870,10 +898,9 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 		List<Segment<K,V>> diskSegments = new ArrayList<Segment<K,V>>();
 		long onDiskBytes = 0;
 		synchronized (inputFilesOnDisk) {
-			Path[] onDisk = getFiles(fs);
-			for (Path file : onDisk) {
-				onDiskBytes += fs.getFileStatus(file).getLen();
-				diskSegments.add(new Segment<K, V>(job, fs, file, codec, false));
+			for (JInput input : getFiles(fs)) {
+				onDiskBytes += fs.getFileStatus(input.file).getLen();
+				diskSegments.add(new Segment<K, V>(job, fs, input.file, input.codec, false));
 			}
 			inputFilesOnDisk.clear();
 		}
@@ -959,7 +986,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 			
 			// Register the output of the merge iterator
 			FileStatus status = localFileSys.getFileStatus(outputPath);
-			addInputFilesOnDisk(new JInput(taskid, outputPath, status.getLen()));
+			addInputFilesOnDisk(new JInput(taskid, outputPath, status.getLen(), codec));
 		}
 
 		@Override
@@ -1082,6 +1109,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 						break;
 					}
 					List<Path> mapFiles = new ArrayList<Path>();
+					List<Segment<K, V>> mapSegments = new ArrayList<Segment<K, V>>();
 					long approxOutputSize = 0;
 					int bytesPerSum = 
 						conf.getInt("io.bytes.per.checksum", 512);
@@ -1099,6 +1127,8 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 							FileStatus filestatus = last.status();
 							inputFilesOnDisk.remove(last);
 							mapFiles.add(filestatus.getPath());
+							mapSegments.add(new Segment<K, V>(conf, localFileSys, 
+									filestatus.getPath(), last.codec, false));
 							approxOutputSize += filestatus.getLen();
 						}
 					}
@@ -1123,8 +1153,8 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 					try {
 						iter = Merger.merge(conf, localFileSys,
 								keyClass, valClass,
-								codec, mapFiles.toArray(new Path[mapFiles.size()]), 
-								true, ioSortFactor, tmpDir, 
+								codec, mapSegments, 
+								ioSortFactor, tmpDir, 
 								conf.getOutputKeyComparator(), reporter,
 								null, null);
 
@@ -1140,7 +1170,7 @@ extends Buffer<K, V> implements InputCollector<K, V> {
 						localFileSys.delete(outputPath, true);
 						throw new IOException (StringUtils.stringifyException(e));
 					}
-					last.replace(outputPath);
+					last.replace(outputPath, codec);
 					addInputFilesOnDisk(last);
 
 					LOG.info(task.getTaskID() +
@@ -34,6 +34,8 @@ import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.NormalizedKeyComparator;
+import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
@@ -54,12 +56,13 @@ import org.apache.hadoop.mapred.buffer.OutputFile;
 import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.IndexedSorter;
 import org.apache.hadoop.util.Progress;
-import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.RadixSort;
+import org.apache.hadoop.util.RadixSortable;
 import org.apache.hadoop.util.ReflectionUtils;
 
 public class JOutputBuffer<K extends Object, V extends Object> 
        extends Buffer<K, V>
-	   implements OutputCollector<K, V>, IndexedSortable {
+	   implements OutputCollector<K, V>, RadixSortable {
 
 	private class PartitionBufferMerger {
 
@@ -90,8 +93,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			Path dataFile = outputHandle.getOutputFileForWrite(taskid, finalDataSize);
 			Path indexFile = outputHandle.getOutputIndexFileForWrite(taskid, indexFileSize);
 			PartitionBufferFile finalOutput = new PartitionBufferFile(0, dataFile, indexFile, 1f, true);
-			merge(finalSpills, finalOutput);
-			return new OutputFile(taskid, -1, 1f, finalOutput.data, finalOutput.index, true, partitions);
+			merge(finalSpills, finalOutput, finalDataSize, true);
+			return finalOutput.outputFile(new OutputFile(taskid, -1, 1f, finalOutput.data, finalOutput.index, true, partitions));
 		}
 
 		/**
@@ -125,14 +128,14 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			Path indexFile = outputHandle.getOutputSnapshotIndexFileForWrite(taskid, snapshotId, indexFileSize);
 			PartitionBufferFile snapshot = new PartitionBufferFile(-1, dataFile, indexFile, progress, eof);
 
-			merge(mergeSpills, snapshot);
+			merge(mergeSpills, snapshot, dataFileSize, false);
 			
 			SortedSet<OutputFile> outputs = new TreeSet<OutputFile>();
-			outputs.add(new OutputFile(taskid, spillids, progress, snapshot.data, snapshot.index, eof, partitions));
+			outputs.add(snapshot.outputFile(new OutputFile(taskid, spillids, progress, snapshot.data, snapshot.index, eof, partitions)));
 			for (PartitionBufferFile spill : mergeSpills) {
 				OutputFile file = new OutputFile(taskid, spill.id, spill.progress,
 						                        spill.data, spill.index, spill.eof, partitions);
-				outputs.add(file);
+				outputs.add(spill.outputFile(file));
 			}
 			
 			return outputs;
@@ -165,9 +168,9 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			Path indexFile = outputHandle.getOutputSnapshotIndexFileForWrite(taskid, snapshotId, indexSize);
 			PartitionBufferFile snapshot = new PartitionBufferFile(-1, dataFile, indexFile, progress, eof);
 
-			merge(mergeSpills, snapshot);
+			merge(mergeSpills, snapshot, dataSize, false);
 			reset(true);
-			return new OutputFile(taskid, progress, snapshot.data, snapshot.index, partitions);
+			return snapshot.outputFile(new OutputFile(taskid, progress, snapshot.data, snapshot.index, partitions));
 		}
 		
 		public synchronized OutputFile mergeStream(long sequence) throws IOException {
@@ -197,13 +200,14 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			Path indexFile = outputHandle.getOutputSnapshotIndexFileForWrite(taskid, snapshotId, indexSize);
 			PartitionBufferFile snapshot = new PartitionBufferFile(-1, dataFile, indexFile, progress, eof);
 
-			merge(mergeSpills, snapshot);
+			merge(mergeSpills, snapshot, dataSize, false);
 			LOG.info("Stream snapshot size " + snapshot.dataSize());
-			return new OutputFile(taskid, sequence, snapshot.data, snapshot.index, partitions);
+			return snapshot.outputFile(new OutputFile(taskid, sequence, snapshot.data, snapshot.index, partitions));
 		}
 		
 		@SuppressWarnings("unchecked")
-		private void merge(List<PartitionBufferFile> spills, PartitionBufferFile output) throws IOException {
+		private void merge(List<PartitionBufferFile> spills, PartitionBufferFile output, 
+				           long size, boolean finalMerge) throws IOException {
 			if (spills.size() == 1) {
 				output.copy(spills.get(0));
 				return;
@@ -211,10 +215,11 @@ public class JOutputBuffer<K extends Object, V extends Object>
 
 			FSDataOutputStream dataOut = localFs.create(output.data, true);
 			FSDataOutputStream indexOut = localFs.create(output.index, true);
+			output.codec = spills.size() == 0 ? null : codecs.select(size, finalMerge);
 
 			if (spills.size() == 0) {
 				//create dummy files
-				writeEmptyOutput(dataOut, indexOut);
+				writeEmptyOutput(dataOut, indexOut, null);
 				dataOut.close();
 				indexOut.close();
 			} else {
@@ -229,12 +234,19 @@ public class JOutputBuffer<K extends Object, V extends Object>
 						long rawSegmentLength = indexIn.readLong();
 						long segmentLength = indexIn.readLong();
 						indexIn.close();
-						FSDataInputStream in = localFs.open(spill.data);
-						in.seek(segmentOffset);
-						Segment<K, V> s =
-							new Segment<K, V>(new IFile.Reader<K, V>(job, (DataInputStream) in, 
-									          segmentLength, codec, null), true);
-						segmentList.add(s);
+						IFile.Reader<K, V> reader = null;
+						if (job.getBoolean("mapred.merge.local.mmap", true) &&
+								IFile.MappedReader.canMap(localFs, spill.codec, segmentLength)) {
+							reader = new IFile.MappedReader<K, V>(job, localFs, spill.data,
+									segmentOffset, segmentLength, null);
+						} else {
+							FSDataInputStream in = localFs.open(spill.data,
+									job.getInt("mapred.merge.read.buffer.size", 64 * 1024));
+							in.seek(segmentOffset);
+							reader = new IFile.Reader<K, V>(job, (DataInputStream) in, 
+									segmentLength, spill.codec, null);
+						}
+						segmentList.add(new Segment<K, V>(reader, true));
 					}
 
 					//merge
@@ -249,7 +261,7 @@ public class JOutputBuffer<K extends Object, V extends Object>
 					//write merged output to disk
 					long segmentStart = dataOut.getPos();
 					IFile.Writer<K, V> writer =
-						new IFile.Writer<K, V>(job, dataOut, keyClass, valClass, codec, null);
+						new IFile.Writer<K, V>(job, dataOut, keyClass, valClass, output.codec, null);
 					if (null == combinerClass || spills.size() < minSpillsForCombine) {
 						Merger.writeFile(kvIter, writer, reporter, job);
 					} else {
@@ -332,7 +344,7 @@ public class JOutputBuffer<K extends Object, V extends Object>
 						Path index = outputHandle.getSpillIndexFileForWrite(
 								taskid, spills.size(), partitions * MAP_OUTPUT_INDEX_RECORD_LENGTH);
 						FSDataOutputStream indexOut = localFs.create(index, false);
-						writeEmptyOutput(dataOut, indexOut);
+						writeEmptyOutput(dataOut, indexOut, null);
 						dataOut.close(); indexOut.close();
 						PartitionBufferFile spillFile = new PartitionBufferFile(spills.size(), data, index, 1f, true);
 						LOG.debug("Finished spill sentinal. id = " + spills.size());
@@ -352,6 +364,7 @@ public class JOutputBuffer<K extends Object, V extends Object>
 					LOG.debug("Check pipeline statistic.");
 					float stall_frac = umbilical.stallFraction(taskid);
 					LOG.info("Stall fraction " + stall_frac);
+					codecs.stallFraction(stall_frac);
 					if (!open ||  (stall_frac < 0.5f && 
 							       (reduction * (spills.size() - nextPipelineSpill)) >= 1.0f)) {
 						LOG.debug("Perform pipeline.");
@@ -377,8 +390,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			int numSpillFiles = spills.size() - nextPipelineSpill;
 			if (numSpillFiles == 1) {
 				PartitionBufferFile spill = spills.get(nextPipelineSpill);
-				OutputFile file = new OutputFile(taskid, nextPipelineSpill, spill.progress,
-						                        spill.data, spill.index, spill.eof, partitions);
+				OutputFile file = spill.outputFile(new OutputFile(taskid, nextPipelineSpill, spill.progress,
+						                        spill.data, spill.index, spill.eof, partitions));
 				LOG.info(JOutputBuffer.this.taskid + " pipelining " + file);
 				umbilical.output(file);
 				nextPipelineSpill++;
@@ -460,13 +473,32 @@ public class JOutputBuffer<K extends Object, V extends Object>
 		
 		boolean eof;
 		
+		/* The codec the segments of this file are written with. */
+		CompressionCodec codec;
+		
 		public PartitionBufferFile(int id, Path data, Path index, float progress, boolean eof) {
+			this(id, data, index, progress, eof, null);
+		}
+		
+		public PartitionBufferFile(int id, Path data, Path index, float progress, boolean eof,
+				                   CompressionCodec codec) {
 			this.id = id;
 			this.data = data;
 			this.index = index;
 			this.valid = true;
 			this.progress = progress;
 			this.eof = eof;
+			this.codec = codec;
+		}
+		
+		/**
+		 * Tag an output file with the codec of this file.
+		 * @param file The output file describing this file.
+		 * @return The output file.
+		 */
+		public OutputFile outputFile(OutputFile file) {
+			file.codec(CodecSelector.name(this.codec));
+			return file;
 		}
 
 		@Override
@@ -481,6 +513,7 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			this.id = file.id;
 			this.progress = file.progress;
 			this.eof = file.eof;
+			this.codec = file.codec;
 			this.valid = true;
 			
 			localFs.copyFromLocalFile(file.data, this.data);
@@ -530,15 +563,13 @@ public class JOutputBuffer<K extends Object, V extends Object>
 	private final Serializer<K> keySerializer;
 	private final Serializer<V> valSerializer;
 
-	// Compression for map-outputs
-	private CompressionCodec codec = null;
-
 	// k/v accounting
 	private volatile int kvstart = 0;  // marks beginning of spill
 	private volatile int kvend = 0;    // marks beginning of collectable
 	private int kvindex = 0;           // marks end of collected
 	private final int[] kvoffsets;     // indices into kvindices
-	private final int[] kvindices;     // partition, k/v offsets into kvbuffer
+	private final int[] kvindices;     // partition, k/v offsets into kvbuffer,
+	                                   // normalized key prefix
 	private volatile int bufstart = 0; // marks beginning of spill
 	private volatile int bufend = 0;   // marks beginning of collectable
 	private volatile int bufvoid = 0;  // marks the point where we should stop
@@ -550,7 +581,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 	private static final int PARTITION = 0; // partition offset in acct
 	private static final int KEYSTART = 1;  // key offset in acct
 	private static final int VALSTART = 2;  // val offset in acct
-	private static final int ACCTSIZE = 3;  // total #fields in acct
+	private static final int KEYPREFIX = 3; // normalized key in acct
+	private static final int ACCTSIZE = 4;  // total #fields in acct
 	private static final int RECSIZE =
 		(ACCTSIZE + 1) * 4;  // acct bytes per record
 
@@ -561,6 +593,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 	private final int softBufferLimit;
 	private final int minSpillsForCombine;
 	private final IndexedSorter sorter;
+	// encodes the key prefixes, null if the comparator cannot
+	private final NormalizedKeyComparator<K> normalizer;
 	private final Object spillLock = new Object();
 	private final Object mergeLock = new Object();
 	private final BlockingBuffer bb = new BlockingBuffer();
@@ -614,7 +648,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 		}
 		sorter = (IndexedSorter)
 		ReflectionUtils.newInstance(
-				job.getClass("map.sort.class", QuickSort.class), job);
+				job.getClass("map.sort.class", RadixSort.class), job);
+		normalizer = getNormalizer(comparator);
 		// buffers and accounting
 		int maxMemUsage = sortmb << 20;
 
@@ -787,6 +822,7 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			kvindices[ind + PARTITION] = 0;
 			kvindices[ind + KEYSTART] = keystart;
 			kvindices[ind + VALSTART] = valstart;
+			kvindices[ind + KEYPREFIX] = normalizedKey(keystart, valstart);
 			kvindex = (kvindex + 1) % kvoffsets.length;
 		} catch (MapBufferTooSmallException e) {
 			LOG.info("Record too large for in-memory buffer: " + e.getMessage());
@@ -844,6 +880,7 @@ public class JOutputBuffer<K extends Object, V extends Object>
 			kvindices[ind + PARTITION] = partition;
 			kvindices[ind + KEYSTART] = keystart;
 			kvindices[ind + VALSTART] = valstart;
+			kvindices[ind + KEYPREFIX] = normalizedKey(keystart, valstart);
 			kvindex = (kvindex + 1) % kvoffsets.length;
 		} catch (MapBufferTooSmallException e) {
 			LOG.info("Record too large for in-memory buffer: " + e.getMessage());
@@ -853,9 +890,39 @@ public class JOutputBuffer<K extends Object, V extends Object>
 
 	}
 
+	/**
+	 * The comparator if it encodes normalized keys, and they agree with its
+	 * comparisons: a subclass overriding compare but not normalizedKey
+	 * is not used.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K> NormalizedKeyComparator<K> getNormalizer(
+			RawComparator<K> comparator) {
+		if (!(comparator instanceof NormalizedKeyComparator)) {
+			return null;
+		}
+		try {
+			Class<?> c = comparator.getClass();
+			Class<?> compare = c.getMethod("compare", byte[].class, int.class,
+					int.class, byte[].class, int.class, int.class).getDeclaringClass();
+			Class<?> normalize = c.getMethod("normalizedKey", byte[].class,
+					int.class, int.class).getDeclaringClass();
+			return compare.isAssignableFrom(normalize) 
+			       ? (NormalizedKeyComparator<K>) comparator : null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/* The normalized key prefix of the key serialized at keystart. */
+	private int normalizedKey(int keystart, int valstart) {
+		return normalizer == null ? 0 :
+			normalizer.normalizedKey(kvbuffer, keystart, valstart - keystart);
+	}
+
 	/**
 	 * Compare logical range, st i, j MOD offset capacity.
-	 * Compare by partition, then by key.
+	 * Compare by partition, then by normalized key prefix, then by key.
 	 * @see IndexedSortable#compare
 	 */
 	public int compare(int i, int j) {
@@ -865,6 +932,15 @@ public class JOutputBuffer<K extends Object, V extends Object>
 		if (kvindices[ii + PARTITION] != kvindices[ij + PARTITION]) {
 			return kvindices[ii + PARTITION] - kvindices[ij + PARTITION];
 		}
+		// sort by key prefix
+		final int pi = kvindices[ii + KEYPREFIX];
+		final int pj = kvindices[ij + KEYPREFIX];
+		if (pi != pj) {
+			return pi < pj ? -1 : 1;
+		}
+		if (normalizer != null && normalizer.isNormalizedKeyExact()) {
+			return 0;
+		}
 		// sort by key
 		return comparator.compare(kvbuffer,
 				kvindices[ii + KEYSTART],
@@ -874,6 +950,21 @@ public class JOutputBuffer<K extends Object, V extends Object>
 				kvindices[ij + VALSTART] - kvindices[ij + KEYSTART]);
 	}
 
+	/**
+	 * The partition and normalized key prefix of logical index i MOD
+	 * offset capacity.
+	 * @see RadixSortable#getNormalizedKey
+	 */
+	public long getNormalizedKey(int i) {
+		final int ii = kvoffsets[i % kvoffsets.length];
+		return ((long) kvindices[ii + PARTITION] << 32) |
+		       ((kvindices[ii + KEYPREFIX] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+
+	public boolean isNormalizedKeyExact() {
+		return normalizer != null && normalizer.isNormalizedKeyExact();
+	}
+
 	/**
 	 * Swap logical indices st i, j MOD offset capacity.
 	 * @see IndexedSortable#swap
@@ -1051,7 +1142,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 		}
 	}
 
-	private void writeEmptyOutput(FSDataOutputStream dataOut, FSDataOutputStream indexOut) throws IOException {
+	private void writeEmptyOutput(FSDataOutputStream dataOut, FSDataOutputStream indexOut,
+			                      CompressionCodec codec) throws IOException {
 		//create dummy output
 		for (int i = 0; i < partitions; i++) {
 			long segmentStart = dataOut.getPos();
@@ -1105,12 +1197,13 @@ public class JOutputBuffer<K extends Object, V extends Object>
 						: kvoffsets.length + kvend;
 				sorter.sort(JOutputBuffer.this, kvstart, endPosition, reporter);
 				int spindex = kvstart;
+				CompressionCodec spillCodec = codecs.select(rawDataSize, false);
 				InMemValBytes value = new InMemValBytes();
 				for (int i = 0; i < partitions; ++i) {
 					IFile.Writer<K, V> writer = null;
 					try {
 						long segmentStart = out.getPos();
-						writer = new IFile.Writer<K, V>(job, out, keyClass, valClass, codec, null);
+						writer = new IFile.Writer<K, V>(job, out, keyClass, valClass, spillCodec, null);
 
 						if (null == combinerClass) {
 							// spill directly
@@ -1161,7 +1254,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 						}
 					}
 				}
-				PartitionBufferFile spill = new PartitionBufferFile(spills.size(), filename, indexFilename, progress.get(), this.eof);
+				PartitionBufferFile spill = new PartitionBufferFile(spills.size(), filename, indexFilename, 
+						                                            progress.get(), this.eof, spillCodec);
 				LOG.info("Finished spill " + spills.size());
 				spills.add(spill);
 				return combinerClass != null && rawDataSize > 0 ? 
@@ -1204,13 +1298,13 @@ public class JOutputBuffer<K extends Object, V extends Object>
 				Path indexFilename = outputHandle.getSpillIndexFileForWrite(
 						this.taskid, spills.size(), partitions * MAP_OUTPUT_INDEX_RECORD_LENGTH);
 				indexOut = localFs.create(indexFilename);
+				CompressionCodec spillCodec = codecs.select(size, false);
 				// we don't run the combiner for a single record
 				for (int i = 0; i < partitions; ++i) {
 					IFile.Writer writer = null;
 					try {
 						long segmentStart = out.getPos();
-						// Create a new codec, don't care!
-						writer = new IFile.Writer(job, out, keyClass, valClass, codec, null);
+						writer = new IFile.Writer(job, out, keyClass, valClass, spillCodec, null);
 
 						if (i == partition) {
 							writer.append(key, value);
@@ -1224,7 +1318,8 @@ public class JOutputBuffer<K extends Object, V extends Object>
 						throw e;
 					}
 				}
-				spills.add(new PartitionBufferFile(spills.size(), filename, indexFilename, progress.get(), this.eof));
+				spills.add(new PartitionBufferFile(spills.size(), filename, indexFilename, 
+						                           progress.get(), this.eof, spillCodec));
 			} finally {
 				if (out != null) out.close();
 				if (indexOut != null) indexOut.close();
@@ -34,6 +34,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapred.FileHandle;
+import org.apache.hadoop.mapred.IFileInputStream;
 import org.apache.hadoop.mapred.InputCollector;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Merger;
@@ -75,6 +76,9 @@ public class JSnapshotBuffer<K extends Object, V extends Object>
 
 		/* How many bytes are in the data file */
 		private long length = 0;
+		
+		/* The codec the data file was written with. */
+		private CompressionCodec codec = null;
 
 		/* Snapshot progress. */
 		private float progress = 0f;
@@ -96,6 +100,12 @@ public class JSnapshotBuffer<K extends Object, V extends Object>
 			}
 		}
 		
+		public CompressionCodec codec() {
+			synchronized (this) {
+				return this.codec;
+			}
+		}
+		
 		public void discard() {
 			synchronized (this) {
 				if (this.data != null) {
@@ -120,18 +130,21 @@ public class JSnapshotBuffer<K extends Object, V extends Object>
 		throws IOException {
 			if (this.progress < header.progress()) {
 				long bytes = header.compressed();
+				CompressionCodec codec = codecs.codec(header.codec());
 				Path filename = 
 					fileHandle.getInputSnapshotFileForWrite(task.getTaskID(), taskid, runs++, bytes);
-				// Copy data to local-disk
+				// Copy data to local-disk, verifying its checksum once here
+				// so that the snapshot is not verified each time it is read
+				IFileInputStream checksumIn = new IFileInputStream(istream, bytes);
 				OutputStream output = null;
 				output = localFs.create(filename);
 
 				byte[] buf = new byte[64 * 1024];
-				int n = istream.read(buf, 0, (int) Math.min(bytes, buf.length));
+				int n = checksumIn.readWithChecksum(buf, 0, (int) Math.min(bytes, buf.length));
 				while (n > 0) {
 					bytes -= n;
 					output.write(buf, 0, n);
-					n = istream.read(buf, 0, (int) Math.min(bytes, buf.length));
+					n = checksumIn.readWithChecksum(buf, 0, (int) Math.min(bytes, buf.length));
 				}
 				output.close();
 				
@@ -140,6 +153,7 @@ public class JSnapshotBuffer<K extends Object, V extends Object>
 						this.data = filename;
 						this.progress = header.progress();
 						this.length = header.decompressed();
+						this.codec = codec;
 					}
 				}
 			}
@@ -233,7 +247,7 @@ public class JSnapshotBuffer<K extends Object, V extends Object>
 			Path data = snapshot.data();
 			if (data != null && fs.exists(data)) {
 				onDiskBytes += fs.getFileStatus(data).getLen();
-				diskSegments.add(new Segment<K, V>(job, fs, data, codec, false));
+				diskSegments.add(new Segment<K, V>(job, fs, data, snapshot.codec(), false));
 			}
 			else if (data != null && !fs.exists(data)) {
 				LOG.warn("Snapshot data is missing from file system! " + data);
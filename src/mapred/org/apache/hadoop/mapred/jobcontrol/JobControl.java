@@ -244,12 +244,21 @@ public class JobControl implements Runnable{
 		
     for (Job nextJob : oldJobs.values()) {
       //System.out.println("Job to submit to Hadoop: " + nextJob.getJobName());
-      nextJob.submit();
+      submit(nextJob);
       //System.out.println("Hadoop ID: " + nextJob.getMapredJobID());
       this.addToQueue(nextJob);
     }	
   }
 	
+  /**
+   * Submit a job that has become ready. Subclasses may override this
+   * to submit related jobs together with the given one.
+   * @param aJob the ready job
+   */
+  protected void submit(Job aJob) {
+    aJob.submit();
+  }
+	
   synchronized public boolean allFinished() {
     return this.waitingJobs.size() == 0 &&
       this.readyJobs.size() == 0 &&
@@ -0,0 +1,252 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.jobcontrol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.Task;
+import org.apache.hadoop.util.StringUtils;
+
+/** A {@link JobControl} that runs a DAG of jobs and pipelines data along
+ *  selected edges of the graph.
+ *
+ *  A pipelined edge connects the reduce output of an upstream job to the
+ *  map input of a downstream job (see <code>mapred.job.pipeline</code>).
+ *  When the upstream job becomes ready, it is submitted together with the
+ *  chain of downstream jobs it pipelines into, so that the JobTracker can
+ *  schedule the downstream PipelineMapTasks while the upstream reduces are
+ *  still running.
+ *
+ *  The HOP runtime pipelines a job into at most one downstream job, so each
+ *  job can be the upstream of at most one pipelined edge. Other edges of the
+ *  graph are ordinary dependencies. A downstream job whose other depending
+ *  jobs have not yet succeeded when its upstream is submitted falls back to
+ *  an ordinary dependency on the upstream job, and so must also be able to
+ *  read the upstream output from its configured input paths.
+ */
+public class PipelineJobControl extends JobControl {
+
+  /** A pipelined edge between two jobs of the graph. */
+  public static class Edge {
+    private Job upstream;
+    private Job downstream;
+    private boolean pipelined;   // true if both jobs were submitted together
+    private long startTime;      // the time the downstream job was submitted
+
+    Edge(Job upstream, Job downstream) {
+      this.upstream = upstream;
+      this.downstream = downstream;
+      this.pipelined = false;
+      this.startTime = 0;
+    }
+
+    /**
+     * @return the job producing the records of this edge
+     */
+    public Job getUpstream() {
+      return this.upstream;
+    }
+
+    /**
+     * @return the job consuming the records of this edge
+     */
+    public Job getDownstream() {
+      return this.downstream;
+    }
+
+    /**
+     * @return true if the records of this edge were pipelined, false
+     * if the downstream job ran after the upstream job completed.
+     */
+    public synchronized boolean isPipelined() {
+      return this.pipelined;
+    }
+
+    /**
+     * @return the number of records the upstream reduces have produced
+     */
+    public long getRecordsProduced() throws IOException {
+      return getCounter(upstream, Task.Counter.REDUCE_OUTPUT_RECORDS);
+    }
+
+    /**
+     * @return the number of records the downstream maps have consumed
+     */
+    public long getRecordsConsumed() throws IOException {
+      return getCounter(downstream, Task.Counter.MAP_INPUT_RECORDS);
+    }
+
+    /**
+     * @return the number of records per second consumed by the downstream
+     * job since it was submitted, or 0 if it has not been submitted.
+     */
+    public float getThroughput() throws IOException {
+      long start;
+      synchronized (this) {
+        start = this.startTime;
+      }
+      if (start == 0) {
+        return 0f;
+      }
+      long elapsed = Math.max(1, System.currentTimeMillis() - start);
+      return getRecordsConsumed() * 1000f / elapsed;
+    }
+
+    synchronized void started(boolean pipelined) {
+      this.pipelined = pipelined;
+      this.startTime = System.currentTimeMillis();
+    }
+
+    private static long getCounter(Job job, Task.Counter key)
+    throws IOException {
+      if (job.getAssignedJobID() == null) {
+        return 0;
+      }
+      RunningJob running = job.getJobClient().getJob(job.getAssignedJobID());
+      if (running == null) {
+        return 0;
+      }
+      Counters counters = running.getCounters();
+      return counters == null ? 0 : counters.getCounter(key);
+    }
+
+    @Override
+    public String toString() {
+      return upstream.getJobName() + " -> " + downstream.getJobName();
+    }
+  }
+
+  private Map<Job, Edge> downstreamEdges;   // keyed by the upstream job
+  private Map<Job, Edge> upstreamEdges;     // keyed by the downstream job
+
+  /**
+   * Construct a pipeline job control for a group of jobs.
+   * @param groupName a name identifying this group
+   */
+  public PipelineJobControl(String groupName) {
+    super(groupName);
+    this.downstreamEdges = new HashMap<Job, Edge>();
+    this.upstreamEdges = new HashMap<Job, Edge>();
+  }
+
+  /**
+   * Pipeline the reduce output of one job into the maps of another. The
+   * downstream job also depends on the upstream job, as if added through
+   * {@link Job#addDependingJob(Job)}. Both jobs must still be added to
+   * this job control.
+   *
+   * @param upstream the job producing the records
+   * @param downstream the job consuming the records
+   * @return <tt>true</tt> if the edge was added, <tt>false</tt> if either
+   * job already has a pipelined edge in that direction or the downstream
+   * job is no longer waiting.
+   */
+  public synchronized boolean addPipelinedJob(Job upstream, Job downstream) {
+    if (upstream == downstream ||
+        this.downstreamEdges.containsKey(upstream) ||
+        this.upstreamEdges.containsKey(downstream)) {
+      return false;
+    }
+    if (!downstream.addDependingJob(upstream)) {
+      return false;
+    }
+    Edge edge = new Edge(upstream, downstream);
+    this.downstreamEdges.put(upstream, edge);
+    this.upstreamEdges.put(downstream, edge);
+    return true;
+  }
+
+  /**
+   * @return the pipelined edges of the graph
+   */
+  public synchronized List<Edge> getEdges() {
+    return new ArrayList<Edge>(this.downstreamEdges.values());
+  }
+
+  /**
+   * Submit a ready job together with the chain of jobs it pipelines into.
+   */
+  @Override
+  protected synchronized void submit(Job aJob) {
+    List<Job> chain = new ArrayList<Job>();
+    chain.add(aJob);
+    Edge edge = this.downstreamEdges.get(aJob);
+    while (edge != null && canPipeline(edge.getDownstream())) {
+      chain.add(edge.getDownstream());
+      edge = this.downstreamEdges.get(edge.getDownstream());
+    }
+
+    if (chain.size() == 1) {
+      aJob.submit();
+      Edge incoming = this.upstreamEdges.get(aJob);
+      if (incoming != null) {
+        incoming.started(false);
+      }
+      return;
+    }
+
+    List<JobConf> confs = new ArrayList<JobConf>();
+    for (Job job : chain) {
+      confs.add(job.getJobConf());
+    }
+    try {
+      List<RunningJob> running = aJob.getJobClient().submitJobs(confs);
+      for (int i = 0; i < chain.size(); i++) {
+        Job job = chain.get(i);
+        job.setAssignedJobID(running.get(i).getID());
+        job.setState(Job.RUNNING);
+        if (i > 0) {
+          this.upstreamEdges.get(job).started(true);
+        }
+      }
+    } catch (IOException ioe) {
+      // submitJobs kills the jobs of the chain it submitted before failing
+      String message = StringUtils.stringifyException(ioe);
+      for (Job job : chain) {
+        job.setState(Job.FAILED);
+        job.setMessage(message);
+      }
+    }
+  }
+
+  /**
+   * A downstream job can be pipelined if it is still waiting and all
+   * of its depending jobs, other than its pipelined upstream job, have
+   * succeeded.
+   */
+  private boolean canPipeline(Job downstream) {
+    if (downstream.getState() != Job.WAITING) {
+      return false;
+    }
+    Job upstream = this.upstreamEdges.get(downstream).getUpstream();
+    for (Job pred : downstream.getDependingJobs()) {
+      if (pred != upstream && pred.getState() != Job.SUCCESS) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
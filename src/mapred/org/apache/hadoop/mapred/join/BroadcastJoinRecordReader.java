@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Joins a stream of records with a table held in memory, by probing the
+ * table with the key of each record. For each value of the key in the
+ * table, the reader emits a tuple of the value of the record and the value
+ * from the table. An outer join also emits the records whose key has no
+ * value in the table, as tuples with only their own value.
+ */
+public class BroadcastJoinRecordReader<K extends WritableComparable>
+    implements RecordReader<K,TupleWritable> {
+
+  private final RecordReader<K,Writable> stream;
+  private final HashJoinTable table;
+  // the buffers of this reader to probe the table, which others may share
+  private final HashJoinTable.Probe probe;
+  private final Class<? extends Writable> tableValueClass;
+  private final boolean outer;
+
+  private final K key;
+  private final Writable value;
+  // the entry of the next value from the table that joins the record
+  private int match = -1;
+
+  /**
+   * @param stream the records to join
+   * @param table the table the records are joined with
+   * @param tableValueClass the class of the values of the table
+   * @param outer whether to emit the records that join no value
+   */
+  @SuppressWarnings("unchecked")
+  public BroadcastJoinRecordReader(RecordReader<K,? extends Writable> stream,
+      HashJoinTable table, Class<? extends Writable> tableValueClass,
+      boolean outer) {
+    this.stream = (RecordReader<K,Writable>) stream;
+    this.table = table;
+    this.probe = table.newProbe();
+    this.tableValueClass = tableValueClass;
+    this.outer = outer;
+    this.key = stream.createKey();
+    this.value = stream.createValue();
+  }
+
+  public boolean next(K key, TupleWritable value) throws IOException {
+    while (match < 0) {
+      if (!stream.next(this.key, this.value)) {
+        return false;
+      }
+      match = probe.find(this.key);
+      if (match < 0 && outer) {
+        WritableUtils.cloneInto(key, this.key);
+        WritableUtils.cloneInto(value.get(0), this.value);
+        value.clearWritten();
+        value.setWritten(0);
+        return true;
+      }
+    }
+    WritableUtils.cloneInto(key, this.key);
+    WritableUtils.cloneInto(value.get(0), this.value);
+    probe.getValue(match, value.get(1));
+    value.clearWritten();
+    value.setWritten(0);
+    value.setWritten(1);
+    match = table.next(match);
+    return true;
+  }
+
+  public K createKey() {
+    return stream.createKey();
+  }
+
+  public TupleWritable createValue() {
+    return new TupleWritable(new Writable[] {
+        stream.createValue(),
+        ReflectionUtils.newInstance(tableValueClass, null) });
+  }
+
+  public long getPos() throws IOException {
+    return stream.getPos();
+  }
+
+  public float getProgress() throws IOException {
+    return stream.getProgress();
+  }
+
+  public void close() throws IOException {
+    stream.close();
+  }
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * An InputFormat that joins a stream of records with a second input by
+ * hashing, so that neither input need be sorted, and the join emits tuples
+ * as the records of the stream arrive.
+ * <p>
+ * The stream is read by the InputFormat in
+ * <tt>mapred.join.hash.stream.format</tt> from the paths in
+ * <tt>mapred.join.hash.stream.path</tt>. The second input is read by the
+ * InputFormat in <tt>mapred.join.hash.build.format</tt> from the paths in
+ * <tt>mapred.join.hash.build.path</tt>:
+ * <ul>
+ * <li>if <tt>mapred.join.hash.build.broadcast</tt> is true, the default,
+ * it is a small table that every task reads in full into a
+ * {@link HashJoinTable}, once per JVM, and probes with each record of its
+ * split of the stream, which is split as its InputFormat splits it; with
+ * <tt>mapred.join.hash.outer</tt> set, records that join no value are
+ * emitted as well.</li>
+ * <li>otherwise it is another stream, and the two are joined by a
+ * {@link SymmetricHashJoinRecordReader}, for pipelined inputs whose end a
+ * join cannot wait for. As for the {@link CompositeInputFormat}, both
+ * inputs must be partitioned the same way: each file is one split, and the
+ * ith file of one input is joined only with the ith file of the other, so
+ * they must hold the same keys, e.g. as the outputs of jobs with the same
+ * number of reduces and the same partitioner.</li>
+ * </ul>
+ * The values of the joined tuples are those of the stream, then those of
+ * the second input.
+ */
+public class HashJoinInputFormat<K extends WritableComparable>
+    implements InputFormat<K,TupleWritable> {
+
+  private static final Log LOG = LogFactory.getLog(HashJoinInputFormat.class);
+
+  // the broadcast table of this JVM, and the job and input it was read for
+  private static HashJoinTable table = null;
+  private static Class<? extends Writable> tableValueClass = null;
+  private static String tableSource = null;
+
+  /**
+   * Set the stream joined by a job.
+   */
+  public static void setStreamInput(JobConf job,
+      Class<? extends InputFormat> inf, String path) {
+    job.setClass("mapred.join.hash.stream.format", inf, InputFormat.class);
+    job.set("mapred.join.hash.stream.path", path);
+  }
+
+  /**
+   * Set the small table the stream of a job is joined with, which every
+   * task reads in full.
+   */
+  public static void setBroadcastInput(JobConf job,
+      Class<? extends InputFormat> inf, String path) {
+    job.setClass("mapred.join.hash.build.format", inf, InputFormat.class);
+    job.set("mapred.join.hash.build.path", path);
+    job.setBoolean("mapred.join.hash.build.broadcast", true);
+  }
+
+  /**
+   * Set the second stream the stream of a job is joined with.
+   */
+  public static void setPipelinedInput(JobConf job,
+      Class<? extends InputFormat> inf, String path) {
+    job.setClass("mapred.join.hash.build.format", inf, InputFormat.class);
+    job.set("mapred.join.hash.build.path", path);
+    job.setBoolean("mapred.join.hash.build.broadcast", false);
+  }
+
+  /* The InputFormat of an input, with the job configured to read it. */
+  private static InputFormat getFormat(JobConf job, String input)
+    throws IOException {
+    Class<? extends InputFormat> inf = job.getClass(
+        "mapred.join.hash." + input + ".format", null, InputFormat.class);
+    String path = job.get("mapred.join.hash." + input + ".path");
+    if (inf == null || path == null) {
+      throw new IOException("No " + input + " input for the hash join");
+    }
+    return ReflectionUtils.newInstance(inf, job);
+  }
+
+  private static JobConf getConf(JobConf job, String input) {
+    JobConf conf = new JobConf(job);
+    FileInputFormat.setInputPaths(conf,
+        job.get("mapred.join.hash." + input + ".path"));
+    return conf;
+  }
+
+  private static boolean isBroadcast(JobConf job) {
+    return job.getBoolean("mapred.join.hash.build.broadcast", true);
+  }
+
+  /**
+   * The splits of the stream, or, for a join of two streams, the ith
+   * file of each stream in the ith composite split.
+   */
+  public InputSplit[] getSplits(JobConf job, int numSplits)
+    throws IOException {
+    if (isBroadcast(job)) {
+      return getFormat(job, "stream").getSplits(getConf(job, "stream"),
+                                                numSplits);
+    }
+    // one split per file of each stream, the partitions of the join
+    JobConf conf = getConf(job, "stream");
+    conf.setLong("mapred.min.split.size", Long.MAX_VALUE);
+    InputSplit[] splits = getFormat(job, "stream").getSplits(conf, numSplits);
+    conf = getConf(job, "build");
+    conf.setLong("mapred.min.split.size", Long.MAX_VALUE);
+    InputSplit[] build = getFormat(job, "build").getSplits(conf, numSplits);
+    if (build.length != splits.length) {
+      throw new IOException("Inconsistent split cardinality from the " +
+                            "streams of the hash join (" + splits.length +
+                            "/" + build.length + ")");
+    }
+    InputSplit[] joined = new InputSplit[splits.length];
+    for (int i = 0; i < splits.length; i++) {
+      CompositeInputSplit split = new CompositeInputSplit(2);
+      split.add(splits[i]);
+      split.add(build[i]);
+      joined[i] = split;
+    }
+    return joined;
+  }
+
+  @SuppressWarnings("unchecked")
+  public RecordReader<K,TupleWritable> getRecordReader(InputSplit split,
+      JobConf job, Reporter reporter) throws IOException {
+    if (isBroadcast(job)) {
+      RecordReader<K,Writable> stream = getFormat(job, "stream")
+        .getRecordReader(split, getConf(job, "stream"), reporter);
+      synchronized (HashJoinInputFormat.class) {
+        loadTable(job, reporter);
+        return new BroadcastJoinRecordReader<K>(stream, table,
+            tableValueClass, job.getBoolean("mapred.join.hash.outer", false));
+      }
+    }
+    // a stream job has no splits, and reads both streams from its own
+    InputSplit first = split;
+    InputSplit second = split;
+    if (split instanceof CompositeInputSplit) {
+      first = ((CompositeInputSplit) split).get(0);
+      second = ((CompositeInputSplit) split).get(1);
+    }
+    return new SymmetricHashJoinRecordReader<K>(
+        getFormat(job, "stream").getRecordReader(first,
+            getConf(job, "stream"), reporter),
+        getFormat(job, "build").getRecordReader(second,
+            getConf(job, "build"), reporter));
+  }
+
+  /* Read the broadcast table, unless this JVM already has. */
+  @SuppressWarnings("unchecked")
+  private static void loadTable(JobConf job, Reporter reporter)
+    throws IOException {
+    String source = job.get("mapred.job.id") + " " +
+                    job.get("mapred.join.hash.build.path");
+    if (source.equals(tableSource)) {
+      return;
+    }
+    JobConf conf = getConf(job, "build");
+    InputFormat inf = getFormat(job, "build");
+    HashJoinTable loaded = new HashJoinTable();
+    Class<? extends Writable> valueClass = null;
+    for (InputSplit split : inf.getSplits(conf, 1)) {
+      RecordReader<Writable,Writable> reader =
+        inf.getRecordReader(split, conf, reporter);
+      try {
+        Writable key = reader.createKey();
+        Writable value = reader.createValue();
+        valueClass = value.getClass();
+        while (reader.next(key, value)) {
+          loaded.add(key, value);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    if (valueClass == null) {
+      throw new IOException("No input to read the hash join table from");
+    }
+    LOG.info("Read " + loaded.size() + " records into a hash join table " +
+             "of " + loaded.getMemory() + " bytes");
+    // readers of another job may still probe the table read before
+    table = loaded;
+    tableValueClass = valueClass;
+    tableSource = source;
+  }
+}
@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A multimap from keys to values, both serialized, for the hash joins. The
+ * pairs are appended to a direct buffer, outside the Java heap, and found
+ * through an open addressing index of their offsets, itself in a direct
+ * buffer; the heap holds no object per pair. Keys are equal if their
+ * serialized bytes are.
+ * <p>
+ * Each pair is an entry of four ints, the entry of the next value of the
+ * same key, the hash of the key and the lengths of the key and of the
+ * value, followed by the bytes of the key and of the value.
+ * <p>
+ * A table is built by one thread. Once built, it may be probed by many at
+ * once, each through a {@link Probe} of its own.
+ */
+public class HashJoinTable {
+
+  private static final int HEADER = 16;
+  private static final int NEXT = 0;
+  private static final int HASH = 4;
+  private static final int KEY_LENGTH = 8;
+  private static final int VALUE_LENGTH = 12;
+
+  // the entries, one after the other
+  private ByteBuffer data;
+
+  // one more than the offset of the last entry of each key, 0 if empty
+  private IntBuffer slots;
+  private int keys = 0;
+  private int size = 0;
+
+  private final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+  private final DataOutputBuffer valueBuffer = new DataOutputBuffer();
+  // the probe of the thread that builds the table
+  private final Probe probe = new Probe();
+
+  public HashJoinTable() {
+    data = ByteBuffer.allocateDirect(64 * 1024);
+    slots = ByteBuffer.allocateDirect(4 * 1024).asIntBuffer();
+  }
+
+  /** The number of pairs in the table. */
+  public int size() {
+    return size;
+  }
+
+  /** The bytes the table holds outside the heap. */
+  public long getMemory() {
+    return data.capacity() + 4L * slots.capacity();
+  }
+
+  /**
+   * Add a pair to the table.
+   */
+  public void add(Writable key, Writable value) throws IOException {
+    keyBuffer.reset();
+    key.write(keyBuffer);
+    valueBuffer.reset();
+    value.write(valueBuffer);
+    add(keyBuffer.getData(), 0, keyBuffer.getLength(),
+        valueBuffer.getData(), 0, valueBuffer.getLength());
+  }
+
+  /**
+   * Add a serialized pair to the table.
+   */
+  public void add(byte[] key, int keyStart, int keyLength,
+                  byte[] value, int valueStart, int valueLength) {
+    int entryLength = HEADER + keyLength + valueLength;
+    if (data.position() + entryLength > data.capacity()) {
+      grow(entryLength);
+    }
+    int hash = WritableComparator.hashBytes(key, keyStart, keyLength);
+    int slot = find(hash, key, keyStart, keyLength);
+    int entry = data.position();
+    data.putInt(slots.get(slot) - 1);
+    data.putInt(hash);
+    data.putInt(keyLength);
+    data.putInt(valueLength);
+    data.put(key, keyStart, keyLength);
+    data.put(value, valueStart, valueLength);
+    if (slots.get(slot) == 0) {
+      keys++;
+    }
+    slots.put(slot, entry + 1);
+    size++;
+    // keep the index at most half full
+    if (2 * keys > slots.capacity()) {
+      rehash();
+    }
+  }
+
+  /*
+   * The slot of the given key: the slot holding its last entry, or the
+   * empty slot it would take.
+   */
+  private int find(int hash, byte[] key, int keyStart, int keyLength) {
+    int mask = slots.capacity() - 1;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    for (; slots.get(slot) != 0; slot = (slot + 1) & mask) {
+      int entry = slots.get(slot) - 1;
+      if (data.getInt(entry + HASH) == hash &&
+          data.getInt(entry + KEY_LENGTH) == keyLength &&
+          equals(entry + HEADER, key, keyStart, keyLength)) {
+        break;
+      }
+    }
+    return slot;
+  }
+
+  private boolean equals(int offset, byte[] key, int start, int length) {
+    for (int i = 0; i < length; i++) {
+      if (data.get(offset + i) != key[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void grow(int entryLength) {
+    long capacity = Math.max(2L * data.capacity(),
+                             (long) data.position() + entryLength);
+    if (capacity > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Hash join table larger than " +
+                                      Integer.MAX_VALUE + " bytes");
+    }
+    ByteBuffer larger = ByteBuffer.allocateDirect((int) capacity);
+    data.flip();
+    larger.put(data);
+    data = larger;
+  }
+
+  private void rehash() {
+    IntBuffer larger =
+      ByteBuffer.allocateDirect(8 * slots.capacity()).asIntBuffer();
+    int mask = larger.capacity() - 1;
+    for (int i = 0; i < slots.capacity(); i++) {
+      int entry = slots.get(i);
+      if (entry != 0) {
+        int hash = data.getInt(entry - 1 + HASH);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (larger.get(slot) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        larger.put(slot, entry);
+      }
+    }
+    slots = larger;
+  }
+
+  /**
+   * Find the values of a key, from the thread that builds the table.
+   * @return the entry of the last value added for the key, or -1 if the
+   *         key has none
+   * @see #next(int)
+   */
+  public int find(Writable key) throws IOException {
+    return probe.find(key);
+  }
+
+  /**
+   * Find the values of a serialized key.
+   * @return the entry of the last value added for the key, or -1 if the
+   *         key has none
+   */
+  public int find(byte[] key, int start, int length) {
+    int hash = WritableComparator.hashBytes(key, start, length);
+    return slots.get(find(hash, key, start, length)) - 1;
+  }
+
+  /**
+   * @return the entry of the value of the same key added before that of
+   *         the given entry, or -1 if there is none
+   */
+  public int next(int entry) {
+    return data.getInt(entry + NEXT);
+  }
+
+  /**
+   * Read the value of an entry, from the thread that builds the table.
+   */
+  public void getValue(int entry, Writable value) throws IOException {
+    probe.getValue(entry, value);
+  }
+
+  /**
+   * A probe of the table, which a thread may use while others use probes of
+   * their own.
+   */
+  public Probe newProbe() {
+    return new Probe();
+  }
+
+  /**
+   * The buffers a thread serializes keys into and reads values from to
+   * probe the table. The table itself is only read, by absolute gets.
+   */
+  public class Probe {
+    private final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+    private final DataInputBuffer valueIn = new DataInputBuffer();
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Find the values of a key.
+     * @return the entry of the last value added for the key, or -1 if the
+     *         key has none
+     * @see HashJoinTable#next(int)
+     */
+    public int find(Writable key) throws IOException {
+      keyBuffer.reset();
+      key.write(keyBuffer);
+      return HashJoinTable.this.find(keyBuffer.getData(), 0,
+                                     keyBuffer.getLength());
+    }
+
+    /**
+     * Read the value of an entry.
+     */
+    public void getValue(int entry, Writable value) throws IOException {
+      int keyLength = data.getInt(entry + KEY_LENGTH);
+      int valueLength = data.getInt(entry + VALUE_LENGTH);
+      if (scratch.length < valueLength) {
+        scratch = new byte[Math.max(2 * scratch.length, valueLength)];
+      }
+      ByteBuffer view = data.duplicate();
+      view.position(entry + HEADER + keyLength);
+      view.get(scratch, 0, valueLength);
+      valueIn.reset(scratch, valueLength);
+      value.readFields(valueIn);
+    }
+  }
+
+  /**
+   * Remove all the pairs, and release the memory they took.
+   */
+  public void clear() {
+    data = ByteBuffer.allocateDirect(64 * 1024);
+    slots = ByteBuffer.allocateDirect(4 * 1024).asIntBuffer();
+    keys = 0;
+    size = 0;
+  }
+}
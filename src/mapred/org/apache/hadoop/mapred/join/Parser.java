@@ -309,8 +309,10 @@ public class Parser {
         if (!rrCstrMap.containsKey(ident)) {
           throw new IOException("No RecordReader for " + ident);
         }
-        return rrCstrMap.get(ident).newInstance(id,
+        ComposableRecordReader rr = rrCstrMap.get(ident).newInstance(id,
             inf.getRecordReader(split, getConf(job), reporter), cmpcl);
+        ReflectionUtils.setConf(rr, job);
+        return rr;
       } catch (IllegalAccessException e) {
         throw (IOException)new IOException().initCause(e);
       } catch (InstantiationException e) {
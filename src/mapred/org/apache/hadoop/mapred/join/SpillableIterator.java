@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.IFile;
+
+/**
+ * This class provides an implementation of ResetableIterator. This
+ * implementation keeps the elements added to it serialized, one after the
+ * other in a byte array, until they take more than
+ * <tt>mapred.join.group.memory.mb</tt>; it then spills them to a local
+ * IFile, in <tt>mapred.local.dir</tt>, and replays the spilled elements
+ * from that file before those still in memory. Elements may not be added
+ * once spilled elements have been read, until the iterator is cleared.
+ */
+public class SpillableIterator<X extends Writable>
+    implements ResetableIterator<X> {
+
+  private static final LocalDirAllocator lDirAlloc =
+    new LocalDirAllocator("mapred.local.dir");
+  private static final AtomicInteger spills = new AtomicInteger();
+
+  private final Configuration conf;
+  private final long maxMemory;
+
+  // the elements in memory, one after the other, and where each ends
+  private final DataOutputBuffer arena = new DataOutputBuffer();
+  private int[] ends = new int[64];
+  private int buffered = 0;
+
+  // the spilled elements, which come before those in memory
+  private FileSystem rfs = null;
+  private Path spillFile = null;
+  private IFile.Writer<BytesWritable,NullWritable> writer = null;
+  private IFile.Reader<BytesWritable,NullWritable> reader = null;
+  private int spilled = 0;
+
+  // the number of elements read since the last reset, and the last one
+  private int position = 0;
+  private final DataOutputBuffer hold = new DataOutputBuffer();
+
+  private final DataInputBuffer element = new DataInputBuffer();
+  private final DataInputBuffer empty = new DataInputBuffer();
+  private final DataInputBuffer in = new DataInputBuffer();
+
+  public SpillableIterator(Configuration conf) {
+    this(conf, (long) conf.getInt("mapred.join.group.memory.mb", 16) << 20);
+  }
+
+  /**
+   * @param maxMemory the bytes the elements may take in memory
+   */
+  public SpillableIterator(Configuration conf, long maxMemory) {
+    this.conf = conf;
+    this.maxMemory = maxMemory;
+  }
+
+  /** The number of elements spilled to disk. */
+  public int getSpilled() {
+    return spilled;
+  }
+
+  public boolean hasNext() {
+    return position < spilled + buffered;
+  }
+
+  public boolean next(X val) throws IOException {
+    if (!hasNext()) {
+      return false;
+    }
+    hold.reset();
+    if (position < spilled) {
+      if (reader == null) {
+        reader = new IFile.Reader<BytesWritable,NullWritable>(conf, rfs,
+            spillFile, null, null);
+      }
+      if (!reader.next(element, empty)) {
+        throw new IOException("Spilled join group " + spillFile +
+                              " ended after " + position + " of " +
+                              spilled + " elements");
+      }
+      hold.write(element.getData(), element.getPosition(),
+                 element.getLength() - element.getPosition());
+    } else {
+      int i = position - spilled;
+      int start = i == 0 ? 0 : ends[i - 1];
+      hold.write(arena.getData(), start, ends[i] - start);
+    }
+    position++;
+    in.reset(hold.getData(), hold.getLength());
+    val.readFields(in);
+    return true;
+  }
+
+  public boolean replay(X val) throws IOException {
+    if (position == 0) {
+      return false;
+    }
+    in.reset(hold.getData(), hold.getLength());
+    val.readFields(in);
+    return true;
+  }
+
+  public void reset() {
+    position = 0;
+    try {
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
+      if (reader != null) {
+        reader.close();
+        reader = null;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to reset spilled join group " +
+                                 spillFile, e);
+    }
+  }
+
+  public void add(X item) throws IOException {
+    if (spilled > 0 && writer == null) {
+      throw new IOException("Cannot add to spilled join group " + spillFile +
+                            " once read");
+    }
+    item.write(arena);
+    if (buffered == ends.length) {
+      ends = Arrays.copyOf(ends, 2 * ends.length);
+    }
+    ends[buffered++] = arena.getLength();
+    if (arena.getLength() + 4L * buffered > maxMemory) {
+      spill();
+    }
+  }
+
+  /* Append the elements in memory to the spill file. */
+  private void spill() throws IOException {
+    if (writer == null) {
+      rfs = FileSystem.getLocal(conf).getRaw();
+      spillFile = lDirAlloc.getLocalPathForWrite(
+          conf.get("mapred.task.id", "join") + "/join_group_" +
+          spills.getAndIncrement() + ".out", conf);
+      writer = new IFile.Writer<BytesWritable,NullWritable>(conf, rfs,
+          spillFile, BytesWritable.class, NullWritable.class, null, null);
+    }
+    empty.reset(arena.getData(), 0);
+    for (int i = 0, start = 0; i < buffered; start = ends[i++]) {
+      element.reset(arena.getData(), start, ends[i] - start);
+      writer.append(element, empty);
+    }
+    spilled += buffered;
+    buffered = 0;
+    arena.reset();
+  }
+
+  public void close() throws IOException {
+    clear();
+  }
+
+  public void clear() {
+    reset();
+    if (spillFile != null) {
+      try {
+        rfs.delete(spillFile, false);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to delete spilled join group " +
+                                   spillFile, e);
+      }
+      spillFile = null;
+    }
+    spilled = 0;
+    buffered = 0;
+    arena.reset();
+  }
+}
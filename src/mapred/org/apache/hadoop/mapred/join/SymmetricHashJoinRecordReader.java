@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Joins two streams of records, neither of which need be sorted or read
+ * in full before the join emits its first tuple. The reader takes a record
+ * from each stream in turn, adds it to the table of its stream, and probes
+ * the table of the other stream with its key; each value found there is
+ * emitted with the value of the record, in a tuple of the value from the
+ * first stream and the value from the second. Once a stream ends, nothing
+ * is left to probe the table of the other, which is released, and the
+ * records of the other stream are no longer added to it.
+ */
+public class SymmetricHashJoinRecordReader<K extends WritableComparable>
+    implements RecordReader<K,TupleWritable> {
+
+  private final RecordReader<K,Writable>[] streams;
+  private final HashJoinTable[] tables =
+    { new HashJoinTable(), new HashJoinTable() };
+  private final boolean[] ended = { false, false };
+
+  private final K[] keys;
+  private final Writable[] values;
+
+  // the stream of the record joined, and the entry of its next match
+  private int side = 1;
+  private int match = -1;
+
+  @SuppressWarnings("unchecked")
+  public SymmetricHashJoinRecordReader(
+      RecordReader<K,? extends Writable> first,
+      RecordReader<K,? extends Writable> second) {
+    streams = new RecordReader[] { first, second };
+    keys = (K[]) new WritableComparable[] {
+        first.createKey(), second.createKey() };
+    values = new Writable[] { first.createValue(), second.createValue() };
+  }
+
+  public boolean next(K key, TupleWritable value) throws IOException {
+    while (match < 0) {
+      if (ended[0] && ended[1]) {
+        return false;
+      }
+      // the other stream, unless it has ended
+      if (!ended[1 - side]) {
+        side = 1 - side;
+      }
+      if (!streams[side].next(keys[side], values[side])) {
+        ended[side] = true;
+        // nothing is left to probe the table of the other stream
+        tables[1 - side].clear();
+        continue;
+      }
+      int other = 1 - side;
+      if (!ended[other]) {
+        tables[side].add(keys[side], values[side]);
+      }
+      match = tables[other].find(keys[side]);
+    }
+    int other = 1 - side;
+    WritableUtils.cloneInto(key, keys[side]);
+    WritableUtils.cloneInto(value.get(side), values[side]);
+    tables[other].getValue(match, value.get(other));
+    value.setWritten(0);
+    value.setWritten(1);
+    match = tables[other].next(match);
+    return true;
+  }
+
+  public K createKey() {
+    return streams[0].createKey();
+  }
+
+  public TupleWritable createValue() {
+    return new TupleWritable(new Writable[] {
+        streams[0].createValue(), streams[1].createValue() });
+  }
+
+  /** The position of the first stream. */
+  public long getPos() throws IOException {
+    return streams[0].getPos();
+  }
+
+  public float getProgress() throws IOException {
+    return (streams[0].getProgress() + streams[1].getProgress()) / 2;
+  }
+
+  public void close() throws IOException {
+    tables[0].clear();
+    tables[1].clear();
+    streams[0].close();
+    streams[1].close();
+  }
+}
@@ -20,6 +20,8 @@ package org.apache.hadoop.mapred.join;
 
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
@@ -30,11 +32,13 @@ import org.apache.hadoop.mapred.RecordReader;
  * Proxy class for a RecordReader participating in the join framework.
  * This class keeps track of the &quot;head&quot; key-value pair for the
  * provided RecordReader and keeps a store of values matching a key when
- * this source is participating in a join.
+ * this source is participating in a join. Once configured, it keeps the
+ * values in a {@link SpillableIterator}, so that a key with more values
+ * than fit in memory spills them to disk.
  */
 public class WrappedRecordReader<K extends WritableComparable,
                           U extends Writable>
-    implements ComposableRecordReader<K,U> {
+    implements ComposableRecordReader<K,U>, Configurable {
 
   private boolean empty = false;
   private RecordReader<K,U> rr;
@@ -45,6 +49,7 @@ public class WrappedRecordReader<K extends WritableComparable,
   private WritableComparator cmp;
 
   private ResetableIterator<U> vjoin;
+  private Configuration conf;
 
   /**
    * For a given RecordReader rr, occupy position id in collector.
@@ -68,6 +73,18 @@ public class WrappedRecordReader<K extends WritableComparable,
     next();
   }
 
+  /**
+   * Keep the values of a key in an iterator that spills them to disk.
+   */
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    vjoin = new SpillableIterator<U>(conf);
+  }
+
+  public Configuration getConf() {
+    return conf;
+  }
+
   /** {@inheritDoc} */
   public int id() {
     return id;
@@ -178,6 +195,7 @@ public class WrappedRecordReader<K extends WritableComparable,
    * Forward close request to proxied RR.
    */
   public void close() throws IOException {
+    vjoin.close();
     rr.close();
   }
 
@@ -0,0 +1,385 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SkipBadRecords;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Multithreaded implementation for @link org.apache.hadoop.mapred.MapRunnable
+ * that hands the records to its threads in batches.
+ * <p>
+ * Where {@link MultithreadedMapRunner} runs each record as a task of its
+ * own, and its threads contend for the output collector on every record,
+ * this runner reads <code>mapred.map.multithreadedrunner.batch</code>
+ * records at a time into a batch that one thread maps. The thread collects
+ * the output of the batch into a buffer of its own, and the buffer is then
+ * passed to the output collector at once. The runner recycles a fixed
+ * number of batches, so at most twice as many records as the threads map
+ * at once are read ahead.
+ * <p>
+ * With <code>mapred.map.multithreadedrunner.ordered</code> set, the output
+ * of each batch is collected only once that of all the batches read before
+ * it has been, so the map output is in the order of the input, as with
+ * the default implementation.
+ * <p>
+ * Map implementations using this MapRunnable must be thread-safe, and the
+ * map output must be serializable. The number of threads is set by
+ * <code>mapred.map.multithreadedrunner.threads</code>, 10 by default.
+ */
+public class MultithreadedBatchMapRunner<K1, V1, K2, V2>
+    implements MapRunnable<K1, V1, K2, V2> {
+
+  private static final Log LOG =
+    LogFactory.getLog(MultithreadedBatchMapRunner.class.getName());
+
+  private JobConf job;
+  private Mapper<K1, V1, K2, V2> mapper;
+  private ExecutorService executorService;
+  private int numberOfThreads;
+  private int batchSize;
+  private boolean ordered;
+  private boolean incrProcCount;
+  private SerializationFactory serializationFactory;
+  private volatile IOException ioException;
+  private volatile RuntimeException runtimeException;
+
+  // the batches not being read or mapped, and those mapped whose output
+  // has not been collected yet, in the order they were read
+  private BlockingQueue<Batch> free;
+  private final LinkedList<Batch> pending = new LinkedList<Batch>();
+
+  private OutputCollector<K2, V2> output;
+
+  @SuppressWarnings("unchecked")
+  public void configure(JobConf jobConf) {
+    this.job = jobConf;
+    this.numberOfThreads =
+      jobConf.getInt("mapred.map.multithreadedrunner.threads", 10);
+    this.batchSize =
+      Math.max(1, jobConf.getInt("mapred.map.multithreadedrunner.batch", 100));
+    this.ordered =
+      jobConf.getBoolean("mapred.map.multithreadedrunner.ordered", false);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Configuring jobConf " + jobConf.getJobName() +
+                " to use " + numberOfThreads + " threads mapping batches of " +
+                batchSize + " records" + (ordered ? " in order" : ""));
+    }
+
+    //increment processed counter only if skipping feature is enabled
+    this.incrProcCount = SkipBadRecords.getMapperMaxSkipRecords(job)>0 &&
+      SkipBadRecords.getAutoIncrMapperProcCount(job);
+    this.mapper = ReflectionUtils.newInstance(jobConf.getMapperClass(),
+        jobConf);
+    this.serializationFactory = new SerializationFactory(jobConf);
+
+    // the batches bound the work queued, which need not be bounded itself
+    executorService = new ThreadPoolExecutor(numberOfThreads, numberOfThreads,
+                                             0L, TimeUnit.MILLISECONDS,
+                                             new LinkedBlockingQueue<Runnable>());
+  }
+
+  private void checkForExceptionsFromProcessingThreads()
+      throws IOException, RuntimeException {
+    // Checking if a Mapper.map or the collection of a batch has generated an
+    // exception. If so we rethrow it to force an abort of the Map operation
+    // thus keeping the semantics of the default implementation.
+    if (ioException != null) {
+      throw ioException;
+    }
+    if (runtimeException != null) {
+      throw runtimeException;
+    }
+  }
+
+  public void run(RecordReader<K1, V1> input, OutputCollector<K2, V2> output,
+                  Reporter reporter)
+    throws IOException {
+    this.output = output;
+    try {
+      free = new ArrayBlockingQueue<Batch>(2 * numberOfThreads);
+      for (int i = 0; i < 2 * numberOfThreads; i++) {
+        free.add(new Batch(input, reporter));
+      }
+
+      boolean more = true;
+      while (more) {
+        Batch batch = nextFree();
+        more = batch.read(input);
+        if (batch.size == 0) {
+          free.add(batch);
+          break;
+        }
+        if (ordered) {
+          pending.add(batch);
+        }
+        executorService.execute(batch);
+        checkForExceptionsFromProcessingThreads();
+      }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Finished dispatching all Mappper.map batches, job "
+                  + job.getJobName());
+      }
+
+      // Graceful shutdown of the Threadpool, it will let all scheduled
+      // batches to end.
+      executorService.shutdown();
+
+      try {
+        while (!executorService.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Awaiting all running Mappper.map batches to finish, " +
+                      "job " + job.getJobName());
+          }
+          checkForExceptionsFromProcessingThreads();
+          collectPending(false);
+        }
+        checkForExceptionsFromProcessingThreads();
+        collectPending(true);
+      } catch (InterruptedException iEx) {
+        throw new RuntimeException(iEx);
+      }
+
+    } catch (IOException ioEx) {
+      // Forcing a shutdown of all thread of the threadpool and rethrowing
+      // the IOException
+      executorService.shutdownNow();
+      throw ioEx;
+    } catch (RuntimeException rtEx) {
+      executorService.shutdownNow();
+      throw rtEx;
+    } finally {
+      mapper.close();
+    }
+  }
+
+  /**
+   * Get a batch to read records into: in order, once the output of the
+   * oldest batch is collected; otherwise, once any batch is free.
+   */
+  private Batch nextFree() throws IOException {
+    try {
+      while (true) {
+        Batch batch = free.poll();
+        if (batch != null) {
+          return batch;
+        }
+        if (ordered) {
+          Batch oldest = pending.removeFirst();
+          oldest.await();
+          checkForExceptionsFromProcessingThreads();
+          oldest.collect(output);
+          return oldest;
+        }
+        batch = free.poll(100, TimeUnit.MILLISECONDS);
+        checkForExceptionsFromProcessingThreads();
+        if (batch != null) {
+          return batch;
+        }
+      }
+    } catch (InterruptedException iEx) {
+      throw new RuntimeException(iEx);
+    }
+  }
+
+  /**
+   * Collect the output of the mapped batches read before any batch still
+   * being mapped, or of all of them.
+   */
+  private void collectPending(boolean all) throws IOException {
+    while (!pending.isEmpty() && (all || pending.getFirst().isDone())) {
+      Batch oldest = pending.removeFirst();
+      oldest.collect(output);
+      free.add(oldest);
+    }
+  }
+
+  /* Called from the thread that mapped a batch. */
+  private void mapped(Batch batch) {
+    if (ordered) {
+      batch.done();
+      return;
+    }
+    try {
+      synchronized (this) {
+        batch.collect(output);
+      }
+    } catch (IOException ex) {
+      failed(ex);
+    } catch (RuntimeException ex) {
+      failed(ex);
+    }
+    free.add(batch);
+  }
+
+  private synchronized void failed(IOException ex) {
+    if (ioException == null) {
+      ioException = ex;
+    }
+  }
+
+  private synchronized void failed(RuntimeException ex) {
+    if (runtimeException == null) {
+      runtimeException = ex;
+    }
+  }
+
+  /**
+   * Records mapped together by one thread, and the serialized output of
+   * that thread for them. The key and value instances are reused for the
+   * next batch read once the output is collected.
+   */
+  private class Batch implements Runnable, OutputCollector<K2, V2> {
+    private final Object[] keys = new Object[batchSize];
+    private final Object[] values = new Object[batchSize];
+    private int size = 0;
+    private final Reporter reporter;
+
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+    private final Serializer<K2> keySerializer;
+    private final Serializer<V2> valueSerializer;
+    private final Deserializer<K2> keyDeserializer;
+    private final Deserializer<V2> valueDeserializer;
+    private K2 key = null;
+    private V2 value = null;
+    private int records = 0;
+
+    private boolean done = false;
+
+    @SuppressWarnings("unchecked")
+    Batch(RecordReader<K1, V1> input, Reporter reporter) throws IOException {
+      for (int i = 0; i < batchSize; i++) {
+        keys[i] = input.createKey();
+        values[i] = input.createValue();
+      }
+      this.reporter = reporter;
+      Class<K2> keyClass = (Class<K2>) job.getMapOutputKeyClass();
+      Class<V2> valueClass = (Class<V2>) job.getMapOutputValueClass();
+      keySerializer = serializationFactory.getSerializer(keyClass);
+      keySerializer.open(buffer);
+      valueSerializer = serializationFactory.getSerializer(valueClass);
+      valueSerializer.open(buffer);
+      keyDeserializer = serializationFactory.getDeserializer(keyClass);
+      keyDeserializer.open(in);
+      valueDeserializer = serializationFactory.getDeserializer(valueClass);
+      valueDeserializer.open(in);
+    }
+
+    /** Read the next records of the input, false if it has ended. */
+    @SuppressWarnings("unchecked")
+    boolean read(RecordReader<K1, V1> input) throws IOException {
+      size = 0;
+      synchronized (this) {
+        done = false;
+      }
+      while (size < batchSize) {
+        if (!input.next((K1) keys[size], (V1) values[size])) {
+          return false;
+        }
+        size++;
+      }
+      return true;
+    }
+
+    /**
+     * Map the records of the batch.
+     * <p>
+     * This method is called from the thread-pool thread.
+     */
+    @SuppressWarnings("unchecked")
+    public void run() {
+      try {
+        for (int i = 0; i < size; i++) {
+          mapper.map((K1) keys[i], (V1) values[i], this, reporter);
+          if (incrProcCount) {
+            reporter.incrCounter(SkipBadRecords.COUNTER_GROUP,
+                SkipBadRecords.COUNTER_MAP_PROCESSED_RECORDS, 1);
+          }
+        }
+      } catch (IOException ex) {
+        failed(ex);
+      } catch (RuntimeException ex) {
+        failed(ex);
+      } finally {
+        mapped(this);
+      }
+    }
+
+    /** Serialize a pair of the output of the batch. */
+    public void collect(K2 k, V2 v) throws IOException {
+      keySerializer.serialize(k);
+      valueSerializer.serialize(v);
+      records++;
+    }
+
+    /** Pass the output of the batch to the output collector. */
+    void collect(OutputCollector<K2, V2> output) throws IOException {
+      in.reset(buffer.getData(), buffer.getLength());
+      for (int i = 0; i < records; i++) {
+        key = keyDeserializer.deserialize(key);
+        value = valueDeserializer.deserialize(value);
+        output.collect(key, value);
+      }
+      buffer.reset();
+      records = 0;
+    }
+
+    synchronized void done() {
+      done = true;
+      notifyAll();
+    }
+
+    synchronized boolean isDone() {
+      return done;
+    }
+
+    synchronized void await() throws InterruptedException {
+      while (!done) {
+        wait(100);
+        if (ioException != null || runtimeException != null) {
+          return;
+        }
+      }
+    }
+  }
+}
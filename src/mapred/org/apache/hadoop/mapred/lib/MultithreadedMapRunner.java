@@ -47,6 +47,9 @@ import java.util.concurrent.*;
  * <code>mapred.map.multithreadedrunner.threads</code> property, its default
  * value is 10 threads.
  * <p>
+ * When the Map operation is cheap next to handing each record to a thread,
+ * {@link MultithreadedBatchMapRunner} hands the records over in batches.
+ * <p>
  */
 public class MultithreadedMapRunner<K1, V1, K2, V2>
     implements MapRunnable<K1, V1, K2, V2> {
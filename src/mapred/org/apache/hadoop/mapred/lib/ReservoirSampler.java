@@ -0,0 +1,314 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapred.FileOutputCommitter;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Gathers the split points of a {@link TotalOrderPartitioner} from the maps
+ * of the job it partitions, instead of from a pass over the input before
+ * the job.
+ * <p>
+ * Before it partitions any record, each map keeps a reservoir of
+ * <tt>total.order.partitioner.adaptive.samples</tt>(1000) of the keys of
+ * the first <tt>total.order.partitioner.adaptive.records</tt>(100000)
+ * records of its split, and writes them to a file in
+ * <tt>total.order.partitioner.adaptive.dir</tt>, by default the temporary
+ * directory of the job output. Once the samples of
+ * <tt>total.order.partitioner.adaptive.maps</tt> maps, by default all those
+ * of the job, are there, or once the maps have waited for them for
+ * <tt>total.order.partitioner.adaptive.timeout</tt>(60000) ms, the maps
+ * propose the split points of all the samples there, and the first proposal
+ * renamed into place is elected; every map then partitions its output by
+ * those same split points. Their first spill is therefore pipelined with
+ * the final split points.
+ * <p>
+ * As with {@link InputSampler}, the keys of the input must be the keys of
+ * the map output. Until the split points are written, the maps wait for
+ * one another, so the maps waited for should be able to run at once.
+ */
+public class ReservoirSampler {
+
+  private static final Log LOG = LogFactory.getLog(ReservoirSampler.class);
+
+  private static final String SAMPLES = "samples";
+  private static final String TMP = "_tmp";
+  private static final String PROPOSAL = "proposal_";
+  private static final String ELECTED = "_elected";
+  private static final String PARTITIONS = "_partition.lst";
+
+  /**
+   * Use the split points gathered from the maps of a job.
+   */
+  public static void setAdaptive(JobConf job, boolean adaptive) {
+    job.setBoolean("total.order.partitioner.adaptive", adaptive);
+  }
+
+  /**
+   * Whether the split points are gathered from the maps of the job.
+   * @see #setAdaptive(JobConf,boolean)
+   */
+  public static boolean isAdaptive(JobConf job) {
+    return job.getBoolean("total.order.partitioner.adaptive", false);
+  }
+
+  /**
+   * The directory in which the maps of a job exchange samples.
+   */
+  public static Path getSampleDir(JobConf job) {
+    String dir = job.get("total.order.partitioner.adaptive.dir");
+    if (dir != null) {
+      return new Path(dir);
+    }
+    Path output = FileOutputFormat.getOutputPath(job);
+    if (output == null) {
+      throw new IllegalArgumentException("No sample directory, nor output" +
+                                         " directory, for the job");
+    }
+    return new Path(new Path(output, FileOutputCommitter.TEMP_DIR_NAME),
+                    "_partition_samples");
+  }
+
+  /**
+   * Sample the split of this map, if it has a file split, and get the split
+   * points gathered from the maps of the job.
+   * @param job the configuration of the map
+   * @return the distinct split points, in order, at most one fewer than the
+   *         reduces of the job
+   */
+  @SuppressWarnings("unchecked") // keytype from conf not static
+  public static <K> K[] getSplitPoints(JobConf job) throws IOException {
+    Class<K> keyClass = (Class<K>) job.getMapOutputKeyClass();
+    Path dir = getSampleDir(job);
+    FileSystem fs = dir.getFileSystem(job);
+    Path partitions = new Path(new Path(dir, ELECTED), PARTITIONS);
+    String taskId = job.get("mapred.task.id", "sample");
+    if (!fs.exists(partitions) && job.get("map.input.file") != null) {
+      writeSamples(job, fs, dir, taskId, sample(job));
+    }
+
+    boolean local = "local".equals(job.get("mapred.job.tracker", "local"));
+    int wanted = job.getInt("total.order.partitioner.adaptive.maps",
+                            local ? 1 : job.getNumMapTasks());
+    long timeout =
+      job.getLong("total.order.partitioner.adaptive.timeout", 60000);
+    long deadline = System.currentTimeMillis() + timeout;
+    while (!fs.exists(partitions)) {
+      FileStatus[] files = fs.listStatus(new Path(dir, SAMPLES));
+      int samples = files == null ? 0 : files.length;
+      if (samples >= wanted || System.currentTimeMillis() >= deadline) {
+        LOG.info("Proposing split points of the samples of " + samples +
+                 " maps");
+        return elect(job, fs, dir, taskId,
+            getSplitPoints(job, ReservoirSampler.<K>readSamples(job, fs,
+                                                                files)));
+      }
+      sleep();
+    }
+    return readKeys(job, fs, partitions, keyClass);
+  }
+
+  /**
+   * Propose split points, and get those of the first map to propose any.
+   * <p>
+   * Each map writes its proposal in a directory of its own, which it then
+   * renames to the elected directory. Only the first rename creates that
+   * directory: a later one fails, or moves the directory into it, so the
+   * split points in the elected directory are never replaced.
+   */
+  @SuppressWarnings("unchecked")
+  static <K> K[] elect(JobConf job, FileSystem fs, Path dir, String taskId,
+                       K[] splitPoints) throws IOException {
+    Path partitions = new Path(new Path(dir, ELECTED), PARTITIONS);
+    if (!fs.exists(partitions)) {
+      Path proposal = new Path(new Path(dir, TMP), PROPOSAL + taskId);
+      writeKeys(job, fs, new Path(proposal, PARTITIONS), splitPoints);
+      fs.rename(proposal, new Path(dir, ELECTED));
+    }
+    return readKeys(job, fs, partitions,
+                    (Class<K>) job.getMapOutputKeyClass());
+  }
+
+  /**
+   * The keys of a uniform random sample of the first records of the split
+   * of this map.
+   */
+  @SuppressWarnings("unchecked")
+  static <K> List<K> sample(JobConf job) throws IOException {
+    int size = job.getInt("total.order.partitioner.adaptive.samples", 1000);
+    long records =
+      job.getLong("total.order.partitioner.adaptive.records", 100000);
+    FileSplit split = new FileSplit(new Path(job.get("map.input.file")),
+                                    job.getLong("map.input.start", 0),
+                                    job.getLong("map.input.length", 0),
+                                    (String[]) null);
+    RecordReader<K, Object> reader = job.getInputFormat().getRecordReader(
+        split, job, Reporter.NULL);
+    Random random = new Random(split.getPath().hashCode() + split.getStart());
+    List<K> samples = new ArrayList<K>(size);
+    try {
+      K key = reader.createKey();
+      Object value = reader.createValue();
+      for (long n = 0; n < records && reader.next(key, value); n++) {
+        if (n < size) {
+          samples.add(key);
+          key = reader.createKey();
+        } else {
+          long i = (long) (random.nextDouble() * (n + 1));
+          if (i < size) {
+            // the replaced key is read into next
+            K replaced = samples.set((int) i, key);
+            key = replaced;
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return samples;
+  }
+
+  /**
+   * The split points of a sample, taken as
+   * {@link InputSampler#writePartitionFile} takes them.
+   */
+  @SuppressWarnings("unchecked")
+  static <K> K[] getSplitPoints(JobConf job, K[] samples) {
+    RawComparator<K> comparator =
+      (RawComparator<K>) job.getOutputKeyComparator();
+    Arrays.sort(samples, comparator);
+    int numPartitions = job.getNumReduceTasks();
+    List<K> splitPoints = new ArrayList<K>(numPartitions);
+    float stepSize = samples.length / (float) numPartitions;
+    int last = -1;
+    for (int i = 1; i < numPartitions; ++i) {
+      int k = Math.round(stepSize * i);
+      // a key repeated across split points takes the next distinct key
+      while (k < samples.length && last >= 0 &&
+             comparator.compare(samples[last], samples[k]) >= 0) {
+        ++k;
+      }
+      if (k >= samples.length) {
+        break;
+      }
+      splitPoints.add(samples[k]);
+      last = k;
+    }
+    return splitPoints.toArray((K[]) Array.newInstance(
+        samples.getClass().getComponentType(), splitPoints.size()));
+  }
+
+  /*
+   * Write the samples of a map outside the samples directory, and then move
+   * them into it, so only the complete samples of a map are seen there.
+   */
+  private static <K> void writeSamples(JobConf job, FileSystem fs, Path dir,
+                                       String taskId, List<K> samples)
+    throws IOException {
+    Path tmp = new Path(new Path(dir, TMP), taskId);
+    writeKeys(job, fs, tmp, samples.toArray());
+    fs.mkdirs(new Path(dir, SAMPLES));
+    Path file = new Path(new Path(dir, SAMPLES), taskId);
+    if (!fs.rename(tmp, file)) {
+      throw new IOException("Failed to rename " + tmp + " to " + file);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> K[] readSamples(JobConf job, FileSystem fs,
+                                     FileStatus[] files) throws IOException {
+    Class<K> keyClass = (Class<K>) job.getMapOutputKeyClass();
+    List<K> samples = new ArrayList<K>();
+    if (files != null) {
+      for (FileStatus file : files) {
+        try {
+          samples.addAll(Arrays.asList(
+              readKeys(job, fs, file.getPath(), keyClass)));
+        } catch (FileNotFoundException e) {
+          LOG.warn("Samples " + file.getPath() + " vanished", e);
+        }
+      }
+    }
+    if (samples.isEmpty()) {
+      throw new IOException("No map has sampled its split");
+    }
+    return samples.toArray((K[]) Array.newInstance(keyClass, samples.size()));
+  }
+
+  private static void writeKeys(JobConf job, FileSystem fs, Path file,
+                                Object[] keys) throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, job, file,
+        job.getMapOutputKeyClass(), NullWritable.class);
+    try {
+      for (Object key : keys) {
+        writer.append(key, NullWritable.get());
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K> K[] readKeys(JobConf job, FileSystem fs, Path file,
+                                  Class<K> keyClass) throws IOException {
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, file, job);
+    List<K> keys = new ArrayList<K>();
+    try {
+      K key = ReflectionUtils.newInstance(keyClass, job);
+      while ((key = (K) reader.next(key)) != null) {
+        keys.add(key);
+        key = ReflectionUtils.newInstance(keyClass, job);
+      }
+    } finally {
+      reader.close();
+    }
+    return keys.toArray((K[]) Array.newInstance(keyClass, keys.size()));
+  }
+
+  private static void sleep() throws IOException {
+    try {
+      Thread.sleep(500);
+    } catch (InterruptedException e) {
+      throw (IOException) new IOException("Interrupted waiting for split" +
+                                          " points").initCause(e);
+    }
+  }
+}
@@ -36,7 +36,8 @@ import org.apache.hadoop.util.ReflectionUtils;
 
 /**
  * Partitioner effecting a total order by reading split points from
- * an externally generated source.
+ * an externally generated source, or from the samples of the maps of the
+ * job itself.
  */
 public class TotalOrderPartitioner<K extends WritableComparable,V>
     implements Partitioner<K,V> {
@@ -56,20 +57,31 @@ public class TotalOrderPartitioner<K extends WritableComparable,V>
    * defined for this job. The input file must be sorted with the same
    * comparator and contain {@link
      org.apache.hadoop.mapred.JobConf#getNumReduceTasks} - 1 keys.
+   * With <tt>total.order.partitioner.adaptive</tt> set, the split points
+   * are instead gathered from samples of the maps of the job by a
+   * {@link ReservoirSampler}.
    */
   @SuppressWarnings("unchecked") // keytype from conf not static
   public void configure(JobConf job) {
     try {
-      String parts = getPartitionFile(job);
-      final Path partFile = new Path(parts);
-      final FileSystem fs = (DEFAULT_PATH.equals(parts))
-        ? FileSystem.getLocal(job)     // assume in DistributedCache
-        : partFile.getFileSystem(job);
-
       Class<K> keyClass = (Class<K>)job.getMapOutputKeyClass();
-      K[] splitPoints = readPartitions(fs, partFile, keyClass, job);
-      if (splitPoints.length != job.getNumReduceTasks() - 1) {
-        throw new IOException("Wrong number of partitions in keyset");
+      K[] splitPoints;
+      if (ReservoirSampler.isAdaptive(job)) {
+        // fewer split points when the samples have fewer distinct keys
+        splitPoints = ReservoirSampler.<K>getSplitPoints(job);
+        if (splitPoints.length > job.getNumReduceTasks() - 1) {
+          throw new IOException("Wrong number of partitions in keyset");
+        }
+      } else {
+        String parts = getPartitionFile(job);
+        final Path partFile = new Path(parts);
+        final FileSystem fs = (DEFAULT_PATH.equals(parts))
+          ? FileSystem.getLocal(job)     // assume in DistributedCache
+          : partFile.getFileSystem(job);
+        splitPoints = readPartitions(fs, partFile, keyClass, job);
+        if (splitPoints.length != job.getNumReduceTasks() - 1) {
+          throw new IOException("Wrong number of partitions in keyset");
+        }
       }
       RawComparator<K> comparator =
         (RawComparator<K>) job.getOutputKeyComparator();
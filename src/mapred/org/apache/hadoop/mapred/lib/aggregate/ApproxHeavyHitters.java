@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * This class implements a value aggregator that finds the values that
+ * make up more than a given fraction of a sequence, and estimates their
+ * number of occurrences, with a Count-Min sketch. The sketch is a table of
+ * depth rows of width counters; a value increments one counter of each
+ * row, and its count is estimated by the smallest of them. The estimate
+ * exceeds the true count by at most error * total with a probability of
+ * 1 - e^-depth.
+ * 
+ */
+public class ApproxHeavyHitters
+  extends SketchValueAggregator<ApproxHeavyHitters> {
+
+  /** The default fraction of the values above which a value is reported. */
+  public static final double DEFAULT_FRACTION = 0.01;
+
+  /** The default error of the estimates, as a fraction of the values. */
+  public static final double DEFAULT_ERROR = 0.002;
+
+  /* The number of rows: the estimates hold with a probability of 99%. */
+  private static final int DEPTH = 5;
+
+  /* Bytes assumed for a candidate: its map entry, value and count. */
+  private static final int CANDIDATE_OVERHEAD = 128;
+
+  private double fraction;
+
+  private int width;
+
+  private long[] counters;
+
+  private long total = 0;
+
+  // the values that were above the fraction when last added
+  private Map<String, Long> candidates = new HashMap<String, Long>();
+
+  /**
+   * the default constructor
+   * 
+   */
+  public ApproxHeavyHitters() {
+    this(DEFAULT_FRACTION, DEFAULT_ERROR);
+  }
+
+  /**
+   * constructor
+   * @param fraction the fraction of the values above which a value is
+   *        reported
+   * @param error the error of the estimated counts, as a fraction of the
+   *        values, smaller than the reported fraction
+   */
+  public ApproxHeavyHitters(double fraction, double error) {
+    if (!(error > 0 && error < fraction && fraction <= 1)) {
+      throw new IllegalArgumentException("Error " + error + " and fraction " +
+                                         fraction + " not in 0 < error < " +
+                                         "fraction <= 1");
+    }
+    this.fraction = fraction;
+    this.width = (int) Math.ceil(Math.E / error);
+    this.counters = new long[DEPTH * width];
+  }
+
+  /* The counter of the given row for a hash. */
+  private int counter(long hash, int row) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    return row * width + (((h1 + row * h2) & Integer.MAX_VALUE) % width);
+  }
+
+  private long estimate(long hash) {
+    long min = Long.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      min = Math.min(min, counters[counter(hash, row)]);
+    }
+    return min;
+  }
+
+  /**
+   * @param value a value
+   * @return the estimated number of occurrences of the value
+   */
+  public long getEstimate(String value) {
+    Text text = new Text(value);
+    return estimate(hash(text.getBytes(), text.getLength()));
+  }
+
+  /**
+   * @return the bound on the amount by which an estimate exceeds the
+   *         true count
+   */
+  public long getErrorBound() {
+    return (long) Math.ceil(total * Math.E / width);
+  }
+
+  /**
+   * add a value, with a count, to the aggregator
+   * 
+   * @param value the value. It is expected to be a string in the form of
+   *        xxxx\tnum, meaning xxxx has num occurrences, or xxxx, meaning
+   *        xxxx occurs once.
+   */
+  protected void addValue(Text value) {
+    String valCountStr = value.toString();
+    int pos = valCountStr.lastIndexOf("\t");
+    String valStr = valCountStr;
+    long count = 1;
+    if (pos >= 0) {
+      valStr = valCountStr.substring(0, pos);
+      count = Long.parseLong(valCountStr.substring(pos + 1));
+    }
+    Text text = pos >= 0 ? new Text(valStr) : value;
+    long hash = hash(text.getBytes(), text.getLength());
+    long min = Long.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      int i = counter(hash, row);
+      counters[i] += count;
+      min = Math.min(min, counters[i]);
+    }
+    total += count;
+    if (min >= fraction * total) {
+      candidates.put(valStr, min);
+      if (candidates.size() > 2 / fraction) {
+        prune();
+      }
+    }
+  }
+
+  /* Drop the candidates that are no longer above the fraction. */
+  private void prune() {
+    Map<String, Long> above = new HashMap<String, Long>();
+    for (String value : candidates.keySet()) {
+      long estimate = getEstimate(value);
+      if (estimate >= fraction * total) {
+        above.put(value, estimate);
+      }
+    }
+    candidates = above;
+  }
+
+  /**
+   * @return the values estimated to make up more than the fraction of the
+   *         sequence, with their estimated counts, the largest first
+   */
+  public List<Map.Entry<String, Long>> getHeavyHitters() {
+    prune();
+    List<Map.Entry<String, Long>> hitters =
+      new ArrayList<Map.Entry<String, Long>>(candidates.entrySet());
+    Collections.sort(hitters, new Comparator<Map.Entry<String, Long>>() {
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+        int cmp = b.getValue().compareTo(a.getValue());
+        return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+      }
+    });
+    return hitters;
+  }
+
+  /**
+   * @return the string representation of this aggregator: the number of
+   *         values aggregated, the bound on the error of the estimated
+   *         counts, and then each value above the fraction and its
+   *         estimated count, separated by tabs
+   */
+  public String getReport() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(total).append("\t").append(getErrorBound());
+    for (Map.Entry<String, Long> hitter : getHeavyHitters()) {
+      sb.append("\t").append(hitter.getKey());
+      sb.append("\t").append(hitter.getValue());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * reset the aggregator
+   */
+  public void reset() {
+    Arrays.fill(counters, 0);
+    total = 0;
+    candidates.clear();
+  }
+
+  protected boolean isEmpty() {
+    return total == 0;
+  }
+
+  public long getMemory() {
+    return 8L * counters.length + CANDIDATE_OVERHEAD * candidates.size();
+  }
+
+  /* Add the counters of the given sketch to those of this one. */
+  protected void merge(ApproxHeavyHitters other) {
+    if (other.width != width) {
+      throw new IllegalArgumentException("Sketch of width " + other.width +
+                                         " merged into one of width " + width);
+    }
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] += other.counters[i];
+    }
+    total += other.total;
+    candidates.putAll(other.candidates);
+    prune();
+  }
+
+  public void write(DataOutput out) throws IOException {
+    prune();
+    out.writeDouble(fraction);
+    WritableUtils.writeVInt(out, width);
+    WritableUtils.writeVLong(out, total);
+    for (long counter : counters) {
+      WritableUtils.writeVLong(out, counter);
+    }
+    WritableUtils.writeVInt(out, candidates.size());
+    for (String value : candidates.keySet()) {
+      Text.writeString(out, value);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    fraction = in.readDouble();
+    width = WritableUtils.readVInt(in);
+    total = WritableUtils.readVLong(in);
+    counters = new long[DEPTH * width];
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = WritableUtils.readVLong(in);
+    }
+    candidates.clear();
+    int size = WritableUtils.readVInt(in);
+    for (int i = 0; i < size; i++) {
+      String value = Text.readString(in);
+      candidates.put(value, getEstimate(value));
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * This class implements a value aggregator that finds the most frequent
+ * values of a sequence with the Space-Saving algorithm. It keeps a counter
+ * for each of at most capacity values; a value with no counter takes the
+ * counter of the least frequent one, and inherits its count as the error
+ * of its own. The count of a value exceeds its true count by at most its
+ * error, which is at most total / capacity, so every value that occurs
+ * more often than that has a counter.
+ * 
+ */
+public class ApproxTopValues extends SketchValueAggregator<ApproxTopValues> {
+
+  /** The default number of values counted. */
+  public static final int DEFAULT_CAPACITY = 100;
+
+  /** The default number of values reported. */
+  public static final int DEFAULT_TOP = 10;
+
+  /** The count of a value, and the bound on the error of the count. */
+  public static class Counter implements Comparable<Counter> {
+    private final String value;
+    private long count;
+    private long error;
+
+    Counter(String value, long count, long error) {
+      this.value = value;
+      this.count = count;
+      this.error = error;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getError() {
+      return error;
+    }
+
+    /* The least frequent first, and then in the order of the values. */
+    public int compareTo(Counter other) {
+      if (count != other.count) {
+        return count < other.count ? -1 : 1;
+      }
+      return value.compareTo(other.value);
+    }
+  }
+
+  /* Bytes assumed for a counter: its value and its map and tree entries. */
+  private static final int COUNTER_OVERHEAD = 192;
+
+  private int capacity;
+
+  private int top;
+
+  private long total = 0;
+
+  private Map<String, Counter> counters = new HashMap<String, Counter>();
+
+  private TreeSet<Counter> ordered = new TreeSet<Counter>();
+
+  /**
+   * the default constructor
+   * 
+   */
+  public ApproxTopValues() {
+    this(DEFAULT_CAPACITY, DEFAULT_TOP);
+  }
+
+  /**
+   * constructor
+   * @param capacity the number of values counted
+   * @param top the number of values reported, at most capacity
+   */
+  public ApproxTopValues(int capacity, int top) {
+    if (top <= 0 || capacity < top) {
+      throw new IllegalArgumentException("Capacity " + capacity +
+                                         " less than top " + top);
+    }
+    this.capacity = capacity;
+    this.top = top;
+  }
+
+  /* Count a value, with the given count and error. */
+  private void add(String value, long count, long error) {
+    Counter counter = counters.get(value);
+    if (counter == null) {
+      if (counters.size() < capacity) {
+        counter = new Counter(value, 0, 0);
+      } else {
+        // the least frequent value gives up its counter
+        Counter least = ordered.pollFirst();
+        counters.remove(least.value);
+        counter = new Counter(value, least.count, least.count);
+      }
+      counters.put(value, counter);
+    } else {
+      ordered.remove(counter);
+    }
+    counter.count += count;
+    counter.error += error;
+    ordered.add(counter);
+  }
+
+  /**
+   * add a value, with a count, to the aggregator
+   * 
+   * @param value the value. It is expected to be a string in the form of
+   *        xxxx\tnum, meaning xxxx has num occurrences, or xxxx, meaning
+   *        xxxx occurs once.
+   */
+  protected void addValue(Text value) {
+    String valCountStr = value.toString();
+    int pos = valCountStr.lastIndexOf("\t");
+    String valStr = valCountStr;
+    long count = 1;
+    if (pos >= 0) {
+      valStr = valCountStr.substring(0, pos);
+      count = Long.parseLong(valCountStr.substring(pos + 1));
+    }
+    add(valStr, count, 0);
+    total += count;
+  }
+
+  /**
+   * @return the counters of the most frequent values, the most frequent
+   *         first
+   */
+  public List<Counter> getTopValues() {
+    List<Counter> values = new ArrayList<Counter>(top);
+    for (Counter counter : ordered.descendingSet()) {
+      if (values.size() == top) {
+        break;
+      }
+      values.add(counter);
+    }
+    return values;
+  }
+
+  /**
+   * @return the bound on the error of the count of any value
+   */
+  public long getErrorBound() {
+    return counters.size() < capacity ? 0 : ordered.first().count;
+  }
+
+  /**
+   * @return the string representation of this aggregator: the number of
+   *         values aggregated, the bound on the error of any count, and
+   *         then each of the most frequent values, its count and the error
+   *         of its count, separated by tabs
+   */
+  public String getReport() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(total).append("\t").append(getErrorBound());
+    for (Counter counter : getTopValues()) {
+      sb.append("\t").append(counter.value);
+      sb.append("\t").append(counter.count);
+      sb.append("\t").append(counter.error);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * reset the aggregator
+   */
+  public void reset() {
+    counters.clear();
+    ordered.clear();
+    total = 0;
+  }
+
+  protected boolean isEmpty() {
+    return total == 0;
+  }
+
+  public long getMemory() {
+    return COUNTER_OVERHEAD * counters.size();
+  }
+
+  /*
+   * Merge the counters of both sketches. A value without a counter in a
+   * full sketch occurred at most as often as its least frequent value.
+   */
+  protected void merge(ApproxTopValues other) {
+    long least = getErrorBound();
+    long otherLeast = other.getErrorBound();
+    List<Counter> merged = new ArrayList<Counter>(counters.size() +
+                                                  other.counters.size());
+    for (Counter counter : counters.values()) {
+      Counter in = other.counters.get(counter.value);
+      merged.add(in == null
+                 ? new Counter(counter.value, counter.count + otherLeast,
+                               counter.error + otherLeast)
+                 : new Counter(counter.value, counter.count + in.count,
+                               counter.error + in.error));
+    }
+    for (Counter in : other.counters.values()) {
+      if (!counters.containsKey(in.value)) {
+        merged.add(new Counter(in.value, in.count + least,
+                               in.error + least));
+      }
+    }
+    total += other.total;
+    counters.clear();
+    ordered.clear();
+    ordered.addAll(merged);
+    while (ordered.size() > capacity) {
+      ordered.pollFirst();
+    }
+    for (Counter counter : ordered) {
+      counters.put(counter.value, counter);
+    }
+  }
+
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, capacity);
+    WritableUtils.writeVInt(out, top);
+    WritableUtils.writeVLong(out, total);
+    WritableUtils.writeVInt(out, counters.size());
+    for (Counter counter : ordered) {
+      Text.writeString(out, counter.value);
+      WritableUtils.writeVLong(out, counter.count);
+      WritableUtils.writeVLong(out, counter.error);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    reset();
+    capacity = WritableUtils.readVInt(in);
+    top = WritableUtils.readVInt(in);
+    total = WritableUtils.readVLong(in);
+    int size = WritableUtils.readVInt(in);
+    for (int i = 0; i < size; i++) {
+      Counter counter = new Counter(Text.readString(in),
+                                    WritableUtils.readVLong(in),
+                                    WritableUtils.readVLong(in));
+      counters.put(counter.value, counter);
+      ordered.add(counter);
+    }
+  }
+}
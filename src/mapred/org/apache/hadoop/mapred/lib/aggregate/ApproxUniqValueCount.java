@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * This class implements a value aggregator that estimates the number of
+ * distinct values of a sequence in bounded memory, with a HyperLogLog
+ * sketch of 2^precision one-byte registers. The relative standard error of
+ * the estimate is about 1.04 / sqrt(2^precision), 1.6% by default.
+ * 
+ */
+public class ApproxUniqValueCount
+  extends SketchValueAggregator<ApproxUniqValueCount> {
+
+  /** The default number of bits of the hash that select a register. */
+  public static final int DEFAULT_PRECISION = 12;
+
+  private int precision;
+
+  private byte[] registers;
+
+  /* Bytes the sketch takes besides its registers. */
+  private static final int OVERHEAD = 48;
+
+  /**
+   * the default constructor
+   * 
+   */
+  public ApproxUniqValueCount() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * constructor
+   * @param precision the number of bits of the hash that select a register,
+   *        from 4 to 16
+   */
+  public ApproxUniqValueCount(int precision) {
+    checkPrecision(precision);
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  private static void checkPrecision(int precision) {
+    if (precision < 4 || precision > 16) {
+      throw new IllegalArgumentException("Precision " + precision +
+                                         " not between 4 and 16");
+    }
+  }
+
+  protected void addValue(Text value) {
+    addHash(hash(value.getBytes(), value.getLength()));
+  }
+
+  /**
+   * add a value, given its 64 bit hash, to the aggregator
+   * 
+   * @param hash the hash of the value
+   */
+  public void addHash(long hash) {
+    int register = (int) (hash >>> (64 - precision));
+    int rank = Math.min(Long.numberOfLeadingZeros(hash << precision) + 1,
+                        64 - precision + 1);
+    if (registers[register] < rank) {
+      registers[register] = (byte) rank;
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct values aggregated
+   */
+  public long getEstimate() {
+    double sum = 0;
+    int zeros = 0;
+    for (byte rank : registers) {
+      sum += Math.scalb(1.0, -rank);
+      if (rank == 0) {
+        zeros++;
+      }
+    }
+    double m = registers.length;
+    double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709
+                   : 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // linear counting is more accurate for small cardinalities
+      estimate = m * Math.log(m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * @return the standard error of the estimate
+   */
+  public long getStandardError() {
+    return Math.round(getEstimate() * 1.04 / Math.sqrt(registers.length));
+  }
+
+  /**
+   * @return the estimated number of distinct values aggregated, and the
+   *         standard error of the estimate, separated by a tab
+   */
+  public String getReport() {
+    return getEstimate() + "\t" + getStandardError();
+  }
+
+  /**
+   * reset the aggregator
+   */
+  public void reset() {
+    Arrays.fill(registers, (byte) 0);
+  }
+
+  public long getMemory() {
+    return OVERHEAD + registers.length;
+  }
+
+  protected boolean isEmpty() {
+    for (byte rank : registers) {
+      if (rank != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Take the maximum of each register of this and the given sketch. */
+  protected void merge(ApproxUniqValueCount other) {
+    if (other.precision < precision) {
+      fold(other.precision);
+    }
+    // registers of a finer sketch fold into this one: the low bits of
+    // their index are the high bits of the rest of the hash
+    int d = other.precision - precision;
+    for (int i = 0; i < other.registers.length; i++) {
+      int rank = other.registers[i];
+      if (rank == 0) {
+        continue;
+      }
+      int low = i & ((1 << d) - 1);
+      rank = low != 0 ? Integer.numberOfLeadingZeros(low) - (32 - d) + 1
+                      : rank + d;
+      if (registers[i >>> d] < rank) {
+        registers[i >>> d] = (byte) rank;
+      }
+    }
+  }
+
+  /* Lower the precision of this sketch. */
+  private void fold(int lower) {
+    ApproxUniqValueCount finer = new ApproxUniqValueCount(precision);
+    finer.registers = registers;
+    precision = lower;
+    registers = new byte[1 << lower];
+    merge(finer);
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(precision);
+    out.write(registers);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int precision = in.readByte();
+    checkPrecision(precision);
+    this.precision = precision;
+    registers = new byte[1 << precision];
+    in.readFully(registers);
+  }
+}
@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * This class implements a value aggregator that estimates quantiles of a
+ * sequence of numbers with a t-digest. The digest summarizes the numbers
+ * by the means and weights of at most about compression clusters of
+ * adjacent numbers; the clusters are small near the ends of the
+ * distribution, where the extreme quantiles fall, and large near the
+ * median. Numbers are buffered, and merged into the clusters in sorted
+ * order once the buffer is full.
+ * 
+ */
+public class ApproxValueQuantiles
+  extends SketchValueAggregator<ApproxValueQuantiles> {
+
+  /** The default bound on the number of clusters. */
+  public static final double DEFAULT_COMPRESSION = 100;
+
+  /** The quantiles reported by default. */
+  public static final double[] DEFAULT_QUANTILES =
+    { 0.25, 0.5, 0.75, 0.9, 0.99 };
+
+  private double compression;
+
+  private double[] quantiles;
+
+  // the clusters, in the order of their means
+  private double[] means = new double[0];
+  private long[] weights = new long[0];
+  private int clusters = 0;
+
+  private long count = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  // the numbers not yet merged into the clusters
+  private double[] buffer;
+  private int buffered = 0;
+
+  /**
+   * the default constructor
+   * 
+   */
+  public ApproxValueQuantiles() {
+    this(DEFAULT_COMPRESSION, DEFAULT_QUANTILES);
+  }
+
+  /**
+   * constructor
+   * @param compression the bound on the number of clusters, at least 10
+   * @param quantiles the quantiles to report, each between 0 and 1
+   */
+  public ApproxValueQuantiles(double compression, double[] quantiles) {
+    if (!(compression >= 10)) {
+      throw new IllegalArgumentException("Compression " + compression +
+                                         " less than 10");
+    }
+    for (double q : quantiles) {
+      if (!(q >= 0 && q <= 1)) {
+        throw new IllegalArgumentException("Quantile " + q +
+                                           " not between 0 and 1");
+      }
+    }
+    this.compression = compression;
+    this.quantiles = quantiles.clone();
+    this.buffer = new double[(int) Math.ceil(5 * compression)];
+  }
+
+  /**
+   * add a number to the aggregator
+   * 
+   * @param value the number
+   */
+  protected void addValue(Text value) {
+    double number = Double.parseDouble(value.toString());
+    if (buffered == buffer.length) {
+      compress();
+    }
+    buffer[buffered++] = number;
+    min = Math.min(min, number);
+    max = Math.max(max, number);
+  }
+
+  /* The scale of the clusters: one unit of it holds at most one cluster. */
+  private double scale(double q) {
+    return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+  }
+
+  /* Merge the buffered numbers into the clusters. */
+  private void compress() {
+    if (buffered == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, buffered);
+    long[] ones = new long[buffered];
+    Arrays.fill(ones, 1);
+    count += buffered;
+    mergeClusters(buffer, ones, buffered);
+    buffered = 0;
+  }
+
+  /*
+   * Merge clusters, in the order of their means, into those of the digest,
+   * whose count already includes their weights.
+   */
+  private void mergeClusters(double[] otherMeans, long[] otherWeights,
+                             int n) {
+    int size = clusters + n;
+    double[] m = new double[size];
+    long[] w = new long[size];
+    for (int i = 0, j = 0, k = 0; k < size; k++) {
+      if (j == n || (i < clusters && means[i] <= otherMeans[j])) {
+        m[k] = means[i];
+        w[k] = weights[i++];
+      } else {
+        m[k] = otherMeans[j];
+        w[k] = otherWeights[j++];
+      }
+    }
+
+    // join adjacent clusters while they span at most one unit of the scale
+    int out = 0;
+    double mean = m[0];
+    long weight = w[0];
+    long before = 0;
+    double low = scale(0);
+    for (int k = 1; k < size; k++) {
+      if (scale((before + weight + w[k]) / (double) count) - low <= 1) {
+        weight += w[k];
+        mean += (m[k] - mean) * w[k] / weight;
+      } else {
+        m[out] = mean;
+        w[out++] = weight;
+        before += weight;
+        low = scale(before / (double) count);
+        mean = m[k];
+        weight = w[k];
+      }
+    }
+    m[out] = mean;
+    w[out++] = weight;
+    means = m;
+    weights = w;
+    clusters = out;
+  }
+
+  /**
+   * @return the number of numbers aggregated
+   */
+  public long getCount() {
+    return count + buffered;
+  }
+
+  /**
+   * @param q a quantile, between 0 and 1
+   * @return the estimated value of the quantile, NaN if no number has been
+   *         aggregated
+   */
+  public double getQuantile(double q) {
+    compress();
+    if (count == 0) {
+      return Double.NaN;
+    }
+    // the mean of a cluster stands at the middle of its ranks
+    double rank = q * count;
+    double before = 0;
+    double previous = 0;
+    for (int i = 0; i < clusters; i++) {
+      double center = before + weights[i] / 2.0;
+      if (rank < center) {
+        double lowRank = i == 0 ? 0 : previous;
+        double lowValue = i == 0 ? min : means[i - 1];
+        return lowValue + (means[i] - lowValue) * (rank - lowRank) /
+                          (center - lowRank);
+      }
+      previous = center;
+      before += weights[i];
+    }
+    return means[clusters - 1] + (max - means[clusters - 1]) *
+                                 (rank - previous) / (count - previous);
+  }
+
+  /**
+   * @param q a quantile, between 0 and 1
+   * @return the bound on the error of the rank of the estimated quantile,
+   *         as a fraction of the numbers: the weight of the cluster the
+   *         quantile falls in
+   */
+  public double getRankError(double q) {
+    compress();
+    if (count == 0) {
+      return 0;
+    }
+    double rank = q * count;
+    long before = 0;
+    for (int i = 0; i < clusters; i++) {
+      before += weights[i];
+      if (rank < before) {
+        return weights[i] / (double) count;
+      }
+    }
+    return weights[clusters - 1] / (double) count;
+  }
+
+  /**
+   * @return the string representation of this aggregator: the number of
+   *         numbers aggregated, their minimum and maximum, and then for each
+   *         reported quantile its estimated value and the bound on the
+   *         error of its rank, separated by tabs
+   */
+  public String getReport() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(getCount());
+    if (getCount() > 0) {
+      sb.append("\t").append(min).append("\t").append(max);
+      for (double q : quantiles) {
+        sb.append("\t").append(getQuantile(q));
+        sb.append("\t").append(getRankError(q));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * reset the aggregator
+   */
+  public void reset() {
+    clusters = 0;
+    count = 0;
+    buffered = 0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  protected boolean isEmpty() {
+    return getCount() == 0;
+  }
+
+  public long getMemory() {
+    return 8L * (means.length + weights.length + buffer.length);
+  }
+
+  /* Merge the clusters of the given digest into those of this one. */
+  protected void merge(ApproxValueQuantiles other) {
+    compress();
+    other.compress();
+    count += other.count;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    mergeClusters(other.means, other.weights, other.clusters);
+  }
+
+  public void write(DataOutput out) throws IOException {
+    compress();
+    out.writeDouble(compression);
+    WritableUtils.writeVInt(out, quantiles.length);
+    for (double q : quantiles) {
+      out.writeDouble(q);
+    }
+    WritableUtils.writeVLong(out, count);
+    out.writeDouble(min);
+    out.writeDouble(max);
+    WritableUtils.writeVInt(out, clusters);
+    for (int i = 0; i < clusters; i++) {
+      out.writeDouble(means[i]);
+      WritableUtils.writeVLong(out, weights[i]);
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    compression = in.readDouble();
+    quantiles = new double[WritableUtils.readVInt(in)];
+    for (int i = 0; i < quantiles.length; i++) {
+      quantiles[i] = in.readDouble();
+    }
+    count = WritableUtils.readVLong(in);
+    min = in.readDouble();
+    max = in.readDouble();
+    clusters = WritableUtils.readVInt(in);
+    means = new double[clusters];
+    weights = new long[clusters];
+    for (int i = 0; i < clusters; i++) {
+      means[i] = in.readDouble();
+      weights[i] = WritableUtils.readVLong(in);
+    }
+    buffer = new double[(int) Math.ceil(5 * compression)];
+    buffered = 0;
+  }
+}
@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.OutputCollector;
+
+/**
+ * This class folds the aggregation id/value pairs of a mapper into one
+ * value aggregator per aggregation id, so that the mapper emits the
+ * combiner output of each aggregator rather than every pair. The
+ * aggregators are found in an open addressing table, with linear probing,
+ * keyed by the serialized bytes of their ids.
+ */
+class HashAggregationTable {
+
+  /* Bytes an entry is assumed to take besides its id. */
+  static final int ENTRY_OVERHEAD = 96;
+
+  /* Bytes a value is assumed to take in aggregators that keep values. */
+  static final int VALUE_OVERHEAD = 64;
+
+  // the ids of the entries, one after the other
+  private byte[] ids = new byte[4096];
+  private int idsLength = 0;
+
+  // the entries: where their id starts, its length and hash, and the
+  // aggregator of the id
+  private int[] starts = new int[64];
+  private int[] lengths = new int[64];
+  private int[] hashes = new int[64];
+  private ValueAggregator[] aggregators = new ValueAggregator[64];
+  private int size = 0;
+
+  // one more than the entry in each slot, 0 for an empty slot
+  private int[] slots = new int[128];
+
+  private long memory = 0;
+
+  /** The number of aggregation ids in the table. */
+  int size() {
+    return size;
+  }
+
+  /** An estimate of the bytes taken by the table. */
+  long getMemory() {
+    return memory + 4L * slots.length + 20L * starts.length + ids.length;
+  }
+
+  /**
+   * Add a value to the aggregator of the given id.
+   * @return false if the type of the id has no known aggregator, in which
+   *         case the pair is not added
+   */
+  boolean add(Text id, Text value) {
+    byte[] bytes = id.getBytes();
+    int length = id.getLength();
+    int hash = WritableComparator.hashBytes(bytes, length);
+    int mask = slots.length - 1;
+    int slot = slot(hash, mask);
+    for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int entry = slots[slot] - 1;
+      if (hashes[entry] == hash && lengths[entry] == length &&
+          WritableComparator.compareBytes(ids, starts[entry], length,
+                                          bytes, 0, length) == 0) {
+        add(aggregators[entry], value);
+        return true;
+      }
+    }
+
+    ValueAggregator aggregator = newAggregator(id);
+    if (aggregator == null) {
+      return false;
+    }
+    if (size == starts.length) {
+      growEntries();
+    }
+    if (idsLength + length > ids.length) {
+      ids = Arrays.copyOf(ids, Math.max(ids.length * 2, idsLength + length));
+    }
+    System.arraycopy(bytes, 0, ids, idsLength, length);
+    starts[size] = idsLength;
+    lengths[size] = length;
+    hashes[size] = hash;
+    aggregators[size] = aggregator;
+    idsLength += length;
+    slots[slot] = ++size;
+    memory += ENTRY_OVERHEAD + length;
+    if (aggregator instanceof SketchValueAggregator) {
+      memory += ((SketchValueAggregator<?>) aggregator).getMemory();
+    }
+    // keep the table at most half full
+    if (2 * size > slots.length) {
+      rehash();
+    }
+    add(aggregator, value);
+    return true;
+  }
+
+  /* The first slot to probe for a hash: hashBytes is weak in its low bits. */
+  private static int slot(int hash, int mask) {
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private void add(ValueAggregator aggregator, Text value) {
+    if (aggregator instanceof SketchValueAggregator) {
+      // a sketch may grow, up to its bound, with the values added
+      SketchValueAggregator<?> sketch = (SketchValueAggregator<?>) aggregator;
+      long before = sketch.getMemory();
+      sketch.addNextValue(value);
+      memory += sketch.getMemory() - before;
+      return;
+    }
+    aggregator.addNextValue(value);
+    if (aggregator instanceof UniqValueCount ||
+        aggregator instanceof ValueHistogram) {
+      memory += VALUE_OVERHEAD + value.getLength();
+    }
+  }
+
+  /*
+   * The aggregator of the type that prefixes the given id, or null if
+   * there is none.
+   */
+  private static ValueAggregator newAggregator(Text id) {
+    String idStr = id.toString();
+    int pos = idStr.indexOf(ValueAggregatorDescriptor.TYPE_SEPARATOR);
+    if (pos < 0) {
+      return null;
+    }
+    return ValueAggregatorBaseDescriptor.generateValueAggregator(
+        idStr.substring(0, pos));
+  }
+
+  private void growEntries() {
+    int capacity = starts.length * 2;
+    starts = Arrays.copyOf(starts, capacity);
+    lengths = Arrays.copyOf(lengths, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    aggregators = Arrays.copyOf(aggregators, capacity);
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    int mask = slots.length - 1;
+    for (int entry = 0; entry < size; entry++) {
+      int slot = slot(hashes[entry], mask);
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = entry + 1;
+    }
+  }
+
+  /**
+   * Emit the combiner output of each aggregator under its id, the way
+   * the combiner does, and empty the table.
+   */
+  void flush(OutputCollector<Text, Text> output) throws IOException {
+    Text id = new Text();
+    for (int entry = 0; entry < size; entry++) {
+      id.set(ids, starts[entry], lengths[entry]);
+      for (Object v : aggregators[entry].getCombinerOutput()) {
+        if (v instanceof Text) {
+          output.collect(id, (Text) v);
+        } else {
+          output.collect(id, new Text(v.toString()));
+        }
+      }
+      aggregators[entry] = null;
+    }
+    Arrays.fill(slots, 0);
+    size = 0;
+    idsLength = 0;
+    memory = 0;
+  }
+}
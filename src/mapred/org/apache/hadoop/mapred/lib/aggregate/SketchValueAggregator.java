@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * This class is the base of the value aggregators that summarize a
+ * sequence of values in a sketch of bounded size. The combiner output of
+ * such an aggregator is the sketch itself, serialized as a Writable and
+ * encoded in base 64, so that the combiner and the reducer merge sketches
+ * instead of aggregating values again. An empty sketch takes the
+ * parameters of the first sketch merged into it.
+ * 
+ * @param <T> the class of the sketch
+ */
+public abstract class SketchValueAggregator<T extends SketchValueAggregator<T>>
+  implements ValueAggregator, Writable {
+
+  /* Marks the combiner output of a sketch. */
+  private static final byte[] SKETCH_PREFIX = { 0, 'S', 'K', 'T' };
+
+  /**
+   * add a value, which is not a sketch, to the aggregator
+   * 
+   * @param value the value
+   */
+  protected abstract void addValue(Text value);
+
+  /**
+   * add the values summarized by another sketch to this one
+   * 
+   * @param other a sketch that is not empty
+   */
+  protected abstract void merge(T other);
+
+  /**
+   * @return true if no value has been added to the sketch
+   */
+  protected abstract boolean isEmpty();
+
+  /**
+   * @return an estimate of the bytes the sketch takes in memory, which
+   *         must be cheap to compute, as it is asked for every value added
+   *         to an aggregator of the mapper
+   */
+  public abstract long getMemory();
+
+  /**
+   * add a value to the aggregator
+   * 
+   * @param val
+   *          an object, or the combiner output of another aggregator of
+   *          the same type.
+   * 
+   */
+  @SuppressWarnings("unchecked")
+  public void addNextValue(Object val) {
+    Text text = val instanceof Text ? (Text) val : new Text(val.toString());
+    if (!isSketch(text)) {
+      addValue(text);
+      return;
+    }
+    byte[] bytes = Base64.decodeBase64(Arrays.copyOfRange(
+        text.getBytes(), SKETCH_PREFIX.length, text.getLength()));
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(bytes, bytes.length);
+    try {
+      if (isEmpty()) {
+        readFields(in);
+      } else {
+        T other = (T) ReflectionUtils.newInstance(getClass(), null);
+        other.readFields(in);
+        if (!other.isEmpty()) {
+          merge(other);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed sketch of " +
+                                         bytes.length + " bytes", e);
+    }
+  }
+
+  /**
+   * @return an array with one element, the serialized sketch. The return
+   *         value is expected to be used by the a combiner.
+   */
+  public ArrayList<Text> getCombinerOutput() {
+    DataOutputBuffer out = new DataOutputBuffer();
+    try {
+      write(out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] encoded =
+      Base64.encodeBase64(Arrays.copyOf(out.getData(), out.getLength()));
+    Text sketch = new Text();
+    sketch.append(SKETCH_PREFIX, 0, SKETCH_PREFIX.length);
+    sketch.append(encoded, 0, encoded.length);
+    ArrayList<Text> retv = new ArrayList<Text>(1);
+    retv.add(sketch);
+    return retv;
+  }
+
+  private static boolean isSketch(Text text) {
+    if (text.getLength() < SKETCH_PREFIX.length) {
+      return false;
+    }
+    byte[] bytes = text.getBytes();
+    for (int i = 0; i < SKETCH_PREFIX.length; i++) {
+      if (bytes[i] != SKETCH_PREFIX[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A 64 bit hash of the given bytes: FNV-1a, with the finalizer of
+   * MurmurHash3 to spread its bits.
+   */
+  static long hash(byte[] bytes, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      h ^= bytes[i] & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
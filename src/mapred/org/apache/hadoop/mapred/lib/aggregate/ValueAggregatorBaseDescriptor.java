@@ -31,6 +31,14 @@ public class ValueAggregatorBaseDescriptor implements ValueAggregatorDescriptor
 
   static public final String UNIQ_VALUE_COUNT = "UniqValueCount";
 
+  static public final String APPROX_UNIQ_VALUE_COUNT = "ApproxUniqValueCount";
+
+  static public final String APPROX_HEAVY_HITTERS = "ApproxHeavyHitters";
+
+  static public final String APPROX_TOP_VALUES = "ApproxTopValues";
+
+  static public final String APPROX_VALUE_QUANTILES = "ApproxValueQuantiles";
+
   static public final String LONG_VALUE_SUM = "LongValueSum";
 
   static public final String DOUBLE_VALUE_SUM = "DoubleValueSum";
@@ -47,6 +55,23 @@ public class ValueAggregatorBaseDescriptor implements ValueAggregatorDescriptor
   
   private static long maxNumItems = Long.MAX_VALUE;
   
+  private static int approxUniqPrecision =
+    ApproxUniqValueCount.DEFAULT_PRECISION;
+  
+  private static double heavyHittersFraction =
+    ApproxHeavyHitters.DEFAULT_FRACTION;
+  
+  private static double heavyHittersError = ApproxHeavyHitters.DEFAULT_ERROR;
+  
+  private static int topValuesCapacity = ApproxTopValues.DEFAULT_CAPACITY;
+  
+  private static int topValues = ApproxTopValues.DEFAULT_TOP;
+  
+  private static double quantilesCompression =
+    ApproxValueQuantiles.DEFAULT_COMPRESSION;
+  
+  private static double[] quantiles = ApproxValueQuantiles.DEFAULT_QUANTILES;
+  
   public String inputFile = null;
 
   private static class MyEntry implements Entry<Text, Text> {
@@ -107,6 +132,14 @@ public class ValueAggregatorBaseDescriptor implements ValueAggregatorDescriptor
       retv = new DoubleValueSum();
     } else if (type.compareToIgnoreCase(UNIQ_VALUE_COUNT) == 0) {
       retv = new UniqValueCount(maxNumItems);
+    } else if (type.compareToIgnoreCase(APPROX_UNIQ_VALUE_COUNT) == 0) {
+      retv = new ApproxUniqValueCount(approxUniqPrecision);
+    } else if (type.compareToIgnoreCase(APPROX_HEAVY_HITTERS) == 0) {
+      retv = new ApproxHeavyHitters(heavyHittersFraction, heavyHittersError);
+    } else if (type.compareToIgnoreCase(APPROX_TOP_VALUES) == 0) {
+      retv = new ApproxTopValues(topValuesCapacity, topValues);
+    } else if (type.compareToIgnoreCase(APPROX_VALUE_QUANTILES) == 0) {
+      retv = new ApproxValueQuantiles(quantilesCompression, quantiles);
     } else if (type.compareToIgnoreCase(VALUE_HISTOGRAM) == 0) {
       retv = new ValueHistogram();
     }
@@ -156,5 +189,28 @@ public class ValueAggregatorBaseDescriptor implements ValueAggregatorDescriptor
     this.inputFile = job.get("map.input.file");
     maxNumItems = job.getLong("aggregate.max.num.unique.values",
                               Long.MAX_VALUE);
+    approxUniqPrecision = job.getInt("aggregate.approx.unique.precision",
+                                     ApproxUniqValueCount.DEFAULT_PRECISION);
+    heavyHittersFraction = job.getFloat(
+        "aggregate.approx.heavy.hitters.fraction",
+        (float) ApproxHeavyHitters.DEFAULT_FRACTION);
+    heavyHittersError = job.getFloat(
+        "aggregate.approx.heavy.hitters.error",
+        (float) ApproxHeavyHitters.DEFAULT_ERROR);
+    topValuesCapacity = job.getInt("aggregate.approx.top.capacity",
+                                   ApproxTopValues.DEFAULT_CAPACITY);
+    topValues = job.getInt("aggregate.approx.top.k",
+                           ApproxTopValues.DEFAULT_TOP);
+    quantilesCompression = job.getFloat(
+        "aggregate.approx.quantiles.compression",
+        (float) ApproxValueQuantiles.DEFAULT_COMPRESSION);
+    String[] qs = job.getStrings("aggregate.approx.quantiles");
+    quantiles = ApproxValueQuantiles.DEFAULT_QUANTILES;
+    if (qs != null) {
+      quantiles = new double[qs.length];
+      for (int i = 0; i < qs.length; i++) {
+        quantiles[i] = Double.parseDouble(qs[i].trim());
+      }
+    }
   }
 }
@@ -25,16 +25,36 @@ import java.util.Map.Entry;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 
 /**
  * This class implements the generic mapper of Aggregate.
+ * <p>
+ * With <code>aggregate.map.hash.enable</code> set, the mapper folds the
+ * values of each aggregation id into an aggregator of its own, and emits
+ * the combiner output of the aggregators once they take more than
+ * <code>aggregate.map.hash.memory.mb</code>, and when the mapper closes.
  */
 public class ValueAggregatorMapper<K1 extends WritableComparable,
                                    V1 extends Writable>
   extends ValueAggregatorJobBase<K1, V1> {
 
+  private HashAggregationTable table = null;
+
+  private long maxMemory;
+
+  private OutputCollector<Text, Text> output = null;
+
+  public void configure(JobConf job) {
+    super.configure(job);
+    if (job.getBoolean("aggregate.map.hash.enable", false)) {
+      table = new HashAggregationTable();
+      maxMemory = job.getLong("aggregate.map.hash.memory.mb", 16) << 20;
+    }
+  }
+
   /**
    *  the map function. It iterates through the value aggregator descriptor 
    *  list to generate aggregation id/value pairs and emit them.
@@ -42,6 +62,7 @@ public class ValueAggregatorMapper<K1 extends WritableComparable,
   public void map(K1 key, V1 value,
                   OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
 
+    this.output = output;
     Iterator iter = this.aggregatorDescriptorList.iterator();
     while (iter.hasNext()) {
       ValueAggregatorDescriptor ad = (ValueAggregatorDescriptor) iter.next();
@@ -49,9 +70,24 @@ public class ValueAggregatorMapper<K1 extends WritableComparable,
         ad.generateKeyValPairs(key, value).iterator();
       while (ens.hasNext()) {
         Entry<Text, Text> en = ens.next();
-        output.collect(en.getKey(), en.getValue());
+        if (table == null || !table.add(en.getKey(), en.getValue())) {
+          output.collect(en.getKey(), en.getValue());
+        }
       }
     }
+    if (table != null && table.getMemory() > maxMemory) {
+      table.flush(output);
+    }
+  }
+
+  /**
+   * Emit what the aggregators of the mapper hold.
+   */
+  public void close() throws IOException {
+    if (table != null && output != null) {
+      table.flush(output);
+    }
+    super.close();
   }
 
   /**
@@ -0,0 +1,220 @@
+package org.apache.hadoop.mapred.monitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.mapred.monitor.impl.SystemMeasurement;
+
+/**
+ * Receives the measurement streams written by {@link MeasurementTransport}.
+ * A single thread multiplexes all connections with a selector and hands
+ * each decoded batch to a {@link Handler}.
+ */
+public class MeasurementReceiver {
+	private static final Log LOG = LogFactory.getLog(MeasurementReceiver.class.getName());
+
+	/** Consumes decoded measurement batches. Called from the receiver thread. */
+	public static interface Handler {
+		public void receive(Measurement.Type type, List<Measurement> batch);
+	}
+
+	private static final Measurement.Type[] TYPES = Measurement.Type.values();
+
+	private final ServerSocketChannel server;
+
+	private final Selector selector;
+
+	private final Handler handler;
+
+	private Thread receiver = null;
+
+	private volatile boolean open = false;
+
+	public MeasurementReceiver(InetSocketAddress address, Handler handler) throws IOException {
+		this.handler = handler;
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.configureBlocking(false);
+		this.server.socket().bind(address);
+		this.server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * @return The address the receiver is listening on.
+	 */
+	public InetSocketAddress address() {
+		return (InetSocketAddress) this.server.socket().getLocalSocketAddress();
+	}
+
+	/**
+	 * Create an empty measurement of the given type.
+	 * @param type The measurement type.
+	 * @return The measurement or null if the type has no implementation.
+	 */
+	public static Measurement newMeasurement(Measurement.Type type) {
+		if (type == Measurement.Type.SYSTEM) {
+			return new SystemMeasurement();
+		}
+		return null;
+	}
+
+	public synchronized void open() {
+		if (open) return;
+		open = true;
+		this.receiver = new Thread("MeasurementReceiver " + address()) {
+			public void run() {
+				try {
+					while (open) {
+						selector.select();
+						Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+						while (keys.hasNext()) {
+							SelectionKey key = keys.next();
+							keys.remove();
+							if (!key.isValid()) continue;
+
+							if (key.isAcceptable()) {
+								accept();
+							} else if (key.isReadable()) {
+								Connection connection = (Connection) key.attachment();
+								if (!connection.read()) {
+									key.cancel();
+									connection.close();
+								}
+							}
+						}
+					}
+				} catch (IOException e) {
+					if (open) LOG.error("Measurement receiver failed.", e);
+				} finally {
+					LOG.info("Measurement receiver thread exiting.");
+				}
+			}
+		};
+		receiver.setDaemon(true);
+		receiver.setPriority(Thread.MAX_PRIORITY);
+		receiver.start();
+	}
+
+	public void close() throws IOException {
+		synchronized (this) {
+			if (!open) return;
+			open = false;
+		}
+		selector.wakeup();
+		try {
+			receiver.join();
+		} catch (InterruptedException e) { }
+
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Connection) {
+				((Connection) key.attachment()).close();
+			}
+		}
+		selector.close();
+		server.close();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			LOG.debug("Measurement receiver open connection.");
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+		}
+	}
+
+	private class Connection {
+		private final SocketChannel channel;
+
+		private final DataInputBuffer in = new DataInputBuffer();
+
+		private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+		private Measurement.Type type = null;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Read the available bytes and dispatch complete frames.
+		 * @return false if the stream ended.
+		 */
+		boolean read() {
+			try {
+				int bytes = channel.read(buffer);
+				buffer.flip();
+				try {
+					if (!frames()) return false;
+				} finally {
+					buffer.compact();
+				}
+				return bytes >= 0;
+			} catch (IOException e) {
+				LOG.warn("Measurement stream failed.", e);
+				return false;
+			}
+		}
+
+		private boolean frames() throws IOException {
+			if (type == null) {
+				if (buffer.remaining() < 4) return true;
+				int ordinal = buffer.getInt();
+				if (ordinal < 0 || ordinal >= TYPES.length || newMeasurement(TYPES[ordinal]) == null) {
+					LOG.error("Closing unknown measurement stream. " + ordinal);
+					return false;
+				}
+				type = TYPES[ordinal];
+				LOG.debug("Receiving measurement type " + type);
+			}
+
+			while (buffer.remaining() >= 4) {
+				int length = buffer.getInt(buffer.position());
+				if (length == MeasurementTransport.EOS) {
+					return false;
+				} else if (length < 4) {
+					throw new IOException("Bad measurement frame length " + length);
+				} else if (buffer.remaining() < length + 4) {
+					if (buffer.capacity() < length + 4) {
+						/* Grow the buffer to hold the whole frame. */
+						ByteBuffer grown = ByteBuffer.allocate(length + 4);
+						grown.put(buffer);
+						grown.flip();
+						buffer = grown;
+					}
+					return true;
+				}
+
+				buffer.getInt();
+				in.reset(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				buffer.position(buffer.position() + length);
+
+				int count = in.readInt();
+				List<Measurement> batch = new ArrayList<Measurement>(count);
+				for (int i = 0; i < count; i++) {
+					Measurement measurement = newMeasurement(type);
+					measurement.readFields(in);
+					batch.add(measurement);
+				}
+				handler.receive(type, batch);
+			}
+			return true;
+		}
+
+		void close() {
+			try { channel.close();
+			} catch (IOException e) { }
+		}
+	}
+}
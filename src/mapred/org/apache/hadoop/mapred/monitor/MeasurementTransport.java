@@ -0,0 +1,227 @@
+package org.apache.hadoop.mapred.monitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/**
+ * Sends measurements to the monitor server in batches.
+ *
+ * Measurements are queued in a bounded ring buffer by {@link #offer(Measurement)},
+ * which never blocks on the network. A flusher thread drains the buffer every
+ * mapred.monitor.flush.interval milliseconds, or as soon as
+ * mapred.monitor.batch.size measurements are queued, and writes them as a
+ * single binary frame. When the buffer is full the oldest measurement is dropped.
+ *
+ * The stream starts with the measurement type ordinal (int) followed by frames
+ * of the form: length (int), count (int), count serialized measurements.
+ * A length of {@link #EOS} ends the stream.
+ *
+ * Measurements must not be modified after they are offered.
+ */
+public class MeasurementTransport {
+	private static final Log LOG = LogFactory.getLog(MeasurementTransport.class.getName());
+
+	/** The frame length that ends a measurement stream. */
+	public static final int EOS = -1;
+
+	private final InetSocketAddress address;
+
+	private final Measurement.Type type;
+
+	private final Measurement[] ring;
+
+	/* Next slot to read, and number of queued measurements. */
+	private int head = 0;
+
+	private int size = 0;
+
+	private final int batchSize;
+
+	private final long flushInterval;
+
+	private long dropped = 0;
+
+	private long sent = 0;
+
+	private boolean open = true;
+
+	private SocketChannel channel = null;
+
+	private final DataOutputBuffer frame = new DataOutputBuffer();
+
+	private final Thread flusher;
+
+	public MeasurementTransport(Configuration conf, InetSocketAddress address, Measurement.Type type) {
+		this.address = address;
+		this.type = type;
+		this.ring = new Measurement[Math.max(1, conf.getInt("mapred.monitor.buffer.size", 4096))];
+		this.batchSize = Math.min(ring.length, Math.max(1, conf.getInt("mapred.monitor.batch.size", 512)));
+		this.flushInterval = conf.getLong("mapred.monitor.flush.interval", 1000);
+
+		this.flusher = new Thread("MeasurementTransport " + address) {
+			public void run() {
+				try {
+					while (flush()) { }
+				} catch (InterruptedException e) {
+					LOG.debug("Measurement flusher interrupted.");
+				}
+			}
+		};
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Queue a measurement.
+	 * @param measurement The measurement.
+	 * @return false if the oldest queued measurement was dropped to make room
+	 * or the transport is closed.
+	 */
+	public synchronized boolean offer(Measurement measurement) {
+		if (!open) return false;
+
+		boolean room = true;
+		if (size == ring.length) {
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			size--;
+			dropped++;
+			room = false;
+		}
+		ring[(head + size) % ring.length] = measurement;
+		size++;
+		if (size >= batchSize) {
+			notifyAll();
+		}
+		return room;
+	}
+
+	/**
+	 * @return The number of measurements dropped because the buffer was full
+	 * or the server could not be reached.
+	 */
+	public synchronized long dropped() {
+		return this.dropped;
+	}
+
+	/**
+	 * @return The number of measurements written to the server.
+	 */
+	public synchronized long sent() {
+		return this.sent;
+	}
+
+	/**
+	 * Send the queued measurements and end the stream.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (!open) return;
+			open = false;
+			notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			flusher.interrupt();
+		}
+
+		if (channel != null) {
+			try {
+				ByteBuffer eos = ByteBuffer.allocate(4);
+				eos.putInt(EOS).flip();
+				write(eos);
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+		if (dropped > 0) {
+			LOG.warn("Monitor transport dropped " + dropped + " measurements.");
+		}
+	}
+
+	/**
+	 * Wait for a batch and write it to the server.
+	 * @return false if the transport is closed and drained.
+	 */
+	private boolean flush() throws InterruptedException {
+		Measurement[] batch;
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + flushInterval;
+			while (open && size < batchSize) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) break;
+				wait(wait);
+			}
+			if (!open && size == 0) return false;
+
+			batch = new Measurement[Math.min(size, batchSize)];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = ring[head];
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+			}
+			size -= batch.length;
+		}
+		if (batch.length == 0) return true;
+
+		try {
+			frame.reset();
+			frame.writeInt(0);
+			frame.writeInt(batch.length);
+			for (Measurement m : batch) {
+				m.write(frame);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(frame.getData(), 0, frame.getLength());
+			buffer.putInt(0, frame.getLength() - 4);
+
+			if (connect()) {
+				write(buffer);
+				synchronized (this) {
+					sent += batch.length;
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Unable to send " + batch.length + " measurements to " + address, e);
+			synchronized (this) {
+				dropped += batch.length;
+			}
+			disconnect();
+		}
+		return true;
+	}
+
+	private boolean connect() throws IOException {
+		if (channel == null) {
+			LOG.info("Monitor transport connect to server at " + address);
+			channel = SocketChannel.open(address);
+			channel.socket().setTcpNoDelay(true);
+			ByteBuffer header = ByteBuffer.allocate(4);
+			header.putInt(type.ordinal()).flip();
+			write(header);
+		}
+		return channel != null;
+	}
+
+	private void disconnect() {
+		if (channel != null) {
+			try { channel.close();
+			} catch (IOException e) { }
+			channel = null;
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
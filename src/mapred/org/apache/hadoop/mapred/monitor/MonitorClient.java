@@ -1,21 +1,19 @@
 package org.apache.hadoop.mapred.monitor;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
@@ -35,8 +33,11 @@ public abstract class MonitorClient<V> extends Configured implements Tool,
 		Reducer<Text, Measurement<V>, Text, Measurement<V>> {
 
 
+	private static final Log LOG = LogFactory.getLog(MonitorClient.class.getName());
+
+	private transient JobConf job = null;
 	private transient InetSocketAddress jolAddress = null;
-	private transient DataOutputStream ostream = null;
+	private transient MeasurementTransport transport = null;
 
 	private final static MonitorClient factory(Measurement.Type t) {
 		if (t == Measurement.Type.SYSTEM) {
@@ -51,41 +52,9 @@ public abstract class MonitorClient<V> extends Configured implements Tool,
 	
 	public abstract Aggregator<V, Measurement<V>> aggregator();
 	
-	private boolean connect() throws IOException {
-		if (this.jolAddress != null && this.ostream == null) {
-			System.err.println("Monitor client connect to server at " + this.jolAddress);
-			Socket socket = new Socket();
-			socket.connect(this.jolAddress);
-			this.ostream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-			WritableUtils.writeEnum(this.ostream, type());
-			this.ostream.flush();
-			if (socket.isConnected()) System.err.println("Monitor client connected to server.");
-			return socket.isConnected();
-		}
-		return this.ostream != null;
-	}
-	
-	private boolean send(Measurement measurement) {
-		if (this.ostream != null) {
-			try {
-				System.err.println("Send measurement: " + measurement.value());
-				this.ostream.writeBoolean(true);
-				measurement.write(this.ostream);
-				return true;
-			} catch (IOException e) {
-				e.printStackTrace();
-				try {
-					close();
-				} catch (IOException e1) {
-					ostream = null;
-				}
-			}
-		}
-		return false;
-	}
-	
 	@Override
 	public void configure(JobConf job) {
+		this.job = job;
 		String address = job.get("mapred.monitor.jol.address", null);
 		if (address != null) {
 			this.jolAddress = NetUtils.createSocketAddr(address);
@@ -94,12 +63,11 @@ public abstract class MonitorClient<V> extends Configured implements Tool,
 
 	@Override
 	public void close() throws IOException {
-		if (ostream != null) {
-			System.err.println("Closing stream.");
-			ostream.writeBoolean(false);
-			ostream.flush();
-			ostream.close();
-			ostream = null;
+		if (transport != null) {
+			LOG.debug("Closing measurement transport. Sent " + transport.sent() + 
+					  " measurements, dropped " + transport.dropped() + ".");
+			transport.close();
+			transport = null;
 		}
 	}
 	
@@ -118,12 +86,14 @@ public abstract class MonitorClient<V> extends Configured implements Tool,
 	public final void reduce(Text key, Iterator<Measurement<V>> values,
 			OutputCollector<Text, Measurement<V>> output, Reporter reporter)
 	throws IOException {
-		boolean connected = connect();
+		if (this.jolAddress != null && this.transport == null) {
+			this.transport = new MeasurementTransport(this.job, this.jolAddress, type());
+		}
 		
 		Collection<Measurement<V>> measurements = aggregator().aggregate(values);
 		for (Measurement<V> measurement : measurements) {
 			output.collect(measurement.key(), measurement);
-			if (connected) connected = send(measurement);
+			if (transport != null) transport.offer(measurement);
 			reporter.progress();
 		}
 	}
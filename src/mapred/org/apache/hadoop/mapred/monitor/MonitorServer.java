@@ -1,41 +1,32 @@
 package org.apache.hadoop.mapred.monitor;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URL;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.concurrent.Executor;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.io.WritableUtils;
-import org.apache.hadoop.mapred.JobTracker;
-import org.apache.hadoop.mapred.monitor.impl.SystemMeasurement;
 
 import jol.core.*;
 import jol.types.basic.BasicTupleSet;
-import jol.types.basic.Tuple;
 import jol.types.basic.TupleSet;
 import jol.types.exception.JolRuntimeException;
-import jol.types.exception.UpdateException;
 
 public class MonitorServer {
 	public static final Log LOG = LogFactory.getLog(MonitorServer.class);
 
 	  
-	/* The channel used for accepting new connections. */
-	private ServerSocketChannel server;
-	
-	private Thread acceptor;
+	/* Receives the measurement streams of all monitor clients. */
+	private MeasurementReceiver receiver;
 	
 	private JolSystem jolSystem;
 	
-	/* An executor for running incoming connections. */
-	private Executor executor;
+	/* Evaluates received batches off the receiver thread. */
+	private ExecutorService executor;
 	
 	private MeasurementTable mTable;
 	
@@ -50,13 +41,15 @@ public class MonitorServer {
 			this.jolSystem.evaluate();
 
 			String host = InetAddress.getLocalHost().getHostName();
-			/* The server socket and selector registration */
-			this.server = ServerSocketChannel.open();
-			this.server.configureBlocking(true);
-			this.server.socket().bind(new InetSocketAddress(host, 0));
-			
+			this.receiver = new MeasurementReceiver(new InetSocketAddress(host, 0), 
+					new MeasurementReceiver.Handler() {
+						public void receive(Measurement.Type type, List<Measurement> batch) {
+							executor.execute(new MeasurementHandler(type, batch));
+						}
+					});
 			
-			this.executor = Executors.newCachedThreadPool(); 
+			/* The runtime is not thread safe, so batches are evaluated in order by one thread. */
+			this.executor = Executors.newSingleThreadExecutor(); 
 			
 			LOG.info("Monitor server running at " + address());
 		} catch (Exception e) {
@@ -68,7 +61,7 @@ public class MonitorServer {
 	public String address() {
 		try {
 			String host = InetAddress.getLocalHost().getHostName();
-			int    port = this.server.socket().getLocalPort();
+			int    port = this.receiver.address().getPort();
 			return host + ":" + port;
 		} catch (Exception e) {
 			return null;
@@ -76,72 +69,38 @@ public class MonitorServer {
 	}
 	
 	public boolean open() {
-		this.acceptor = new Thread() {
-			public void run() {
-				try {
-					while (server.isOpen()) {
-						SocketChannel channel = server.accept();
-						LOG.debug("Monitor server open connection.");
-						channel.configureBlocking(true);
-						/* Note: no buffered input stream due to memory pressure. */
-						DataInputStream  istream = new DataInputStream(channel.socket().getInputStream());
-						Measurement.Type type = WritableUtils.readEnum(istream, Measurement.Type.class);
-						LOG.debug("Receiving measurement type " + type);
-						if (type == Measurement.Type.SYSTEM) {
-							LOG.debug("Executing SYSTEM handler.");
-							executor.execute(new SystemMeasurementHandler(istream));
-						}
-						else {
-							LOG.error("Closing unknown measurement stream. " + type);
-							istream.close();
-						}
-					}
-				} catch (IOException e) { 
-					e.printStackTrace();
-				}
-				finally {
-					LOG.info("Monitor server thread exiting.");
-				}
-			}
-		};
-		acceptor.setDaemon(true);
-		acceptor.setPriority(Thread.MAX_PRIORITY);
-		acceptor.start();
+		this.receiver.open();
 		return true;
 	}
 	
+	public void close() throws IOException {
+		this.receiver.close();
+		this.executor.shutdown();
+	}
+	
 	
-	private class SystemMeasurementHandler implements Runnable {
-		DataInputStream istream = null;
+	private class MeasurementHandler implements Runnable {
+		private Measurement.Type type;
 		
-		public SystemMeasurementHandler(DataInputStream istream) {
-			this.istream = istream;
+		private List<Measurement> batch;
+		
+		public MeasurementHandler(Measurement.Type type, List<Measurement> batch) {
+			this.type = type;
+			this.batch = batch;
 		}
 		
 		public void run() {
 			try {
 				TupleSet mTuples = new BasicTupleSet();
-				
-				boolean open = istream.readBoolean();
-				while (open) {
-					Measurement measurement = new SystemMeasurement();
-					measurement.readFields(istream);
-					mTuples.add(mTable.tuple(Measurement.Type.SYSTEM, measurement.attributes()));
-					open = istream.readBoolean();
+				for (Measurement measurement : batch) {
+					mTuples.add(mTable.tuple(type, measurement.attributes()));
 				}
 				
-				System.err.println("schedule measurements:");
+				LOG.debug("Schedule " + batch.size() + " " + type + " measurements.");
 				jolSystem.schedule("monitor", MeasurementTable.TABLENAME, mTuples, null);
 				jolSystem.evaluate();
-			} catch (IOException e) {
-				e.printStackTrace();
 			} catch (JolRuntimeException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} finally {
-				try { istream.close();
-				} catch (IOException e) {
-				}
+				LOG.error("Unable to evaluate measurements.", e);
 			}
 		}
 		
@@ -0,0 +1,123 @@
+package org.apache.hadoop.mapred.monitor.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A /proc file that is kept open and reread into a reused buffer.
+ * Numbers are parsed directly from the bytes, so sampling the file
+ * creates no Strings and, once the buffer has grown to the size of
+ * the file, no garbage.
+ */
+class ProcFile {
+	private final String path;
+
+	private final RandomAccessFile file;
+
+	private byte[] buffer = new byte[4096];
+
+	private int length = 0;
+
+	private int position = 0;
+
+	ProcFile(String path) throws IOException {
+		this.path = path;
+		this.file = new RandomAccessFile(path, "r");
+	}
+
+	/**
+	 * Reread the file from the start. Procfs regenerates the contents
+	 * on every read from offset 0.
+	 */
+	void read() throws IOException {
+		file.seek(0);
+		length = 0;
+		position = 0;
+		int n;
+		while ((n = file.read(buffer, length, buffer.length - length)) > 0) {
+			length += n;
+			if (length == buffer.length) {
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+		}
+	}
+
+	/**
+	 * Move to the first line that starts, after leading blanks, with the
+	 * given prefix and position after the prefix.
+	 * @param prefix The line prefix.
+	 * @return false if there is no such line.
+	 */
+	boolean line(byte[] prefix) {
+		int start = 0;
+		while (start < length) {
+			int i = start;
+			while (i < length && buffer[i] == ' ') i++;
+			if (matches(i, prefix)) {
+				position = i + prefix.length;
+				return true;
+			}
+			while (start < length && buffer[start] != '\n') start++;
+			start++;
+		}
+		return false;
+	}
+
+	/**
+	 * Parse the next unsigned integer on the current line.
+	 * @throws IOException If the line has no more numbers.
+	 */
+	long nextLong() throws IOException {
+		skipToDigit();
+		long value = 0;
+		while (position < length && isDigit(buffer[position])) {
+			value = value * 10 + (buffer[position++] - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Parse the next unsigned decimal number, such as 0.52, on the current line.
+	 * @throws IOException If the line has no more numbers.
+	 */
+	double nextDecimal() throws IOException {
+		long value = nextLong();
+		long scale = 1;
+		if (position < length && buffer[position] == '.') {
+			position++;
+			while (position < length && isDigit(buffer[position])) {
+				value = value * 10 + (buffer[position++] - '0');
+				scale *= 10;
+			}
+		}
+		return (double) value / scale;
+	}
+
+	void close() throws IOException {
+		file.close();
+	}
+
+	private void skipToDigit() throws IOException {
+		while (position < length && !isDigit(buffer[position])) {
+			if (buffer[position] == '\n') break;
+			position++;
+		}
+		if (position >= length || !isDigit(buffer[position])) {
+			throw new IOException("Can't parse " + path);
+		}
+	}
+
+	private boolean matches(int offset, byte[] prefix) {
+		if (offset + prefix.length > length) return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer[offset + i] != prefix[i]) return false;
+		}
+		return true;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
@@ -8,24 +8,21 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.monitor.Agent;
 import org.apache.hadoop.mapred.monitor.Aggregator;
 import org.apache.hadoop.mapred.monitor.Measurement;
 import org.apache.hadoop.mapred.monitor.impl.SystemMeasurement;
 import org.apache.hadoop.mapred.monitor.MonitorClient;
+import org.apache.hadoop.util.ProcfsBasedProcessTree;
 
 public class SystemStats extends MonitorClient {
 	
-	private final Pattern whiteSpace = Pattern.compile("\\s+");
-	
 	public static enum SystemStatEntry {
 		USER(0, "normal processes executing in user mode"),
 		NICE(1, "niced processes executing in user mode"),
@@ -59,11 +56,25 @@ public class SystemStats extends MonitorClient {
 	private static SystemStatEntry[] entries = SystemStatEntry.values();
 
 	
+	/* The system files sampled by the agent. */
+	private static final byte[] CPU     = "cpu ".getBytes();
+	private static final byte[] LOADAVG = new byte[0];
+	private static final byte[] PGPGIN  = "pgpgin ".getBytes();
+	private static final byte[] PGPGOUT = "pgpgout ".getBytes();
+	private static final byte[] PSWPIN  = "pswpin ".getBytes();
+	private static final byte[] PSWPOUT = "pswpout ".getBytes();
+	private static final byte[] NETDEV  = "eth0:".getBytes();
+
 	private class AgentImpl implements Agent<Text, SystemMeasurement> {
-		private final Number[] values;
+		private final double[] values;
+		
+		private ProcFile stat = null;
+		private ProcFile loadavg = null;
+		private ProcFile vmstat = null;
+		private ProcFile netdev = null;
 
 		public AgentImpl() {
-			this.values = new Number[SystemStatEntry.values().length];
+			this.values = new double[SystemStatEntry.values().length];
 		}
 		
 		public String toString() {
@@ -72,6 +83,9 @@ public class SystemStats extends MonitorClient {
 			for (int i = 0; i < values.length; i++) {
 				sb.append("Measure " + entries[i].name + " = " + values[i] + "\n");
 			}
+			if (tasks != null) {
+				sb.append(tasks.toString());
+			}
 			return sb.toString();
 		}
 
@@ -80,12 +94,16 @@ public class SystemStats extends MonitorClient {
 			try {
 				long timestamp = System.currentTimeMillis();
 				stat();
+				Date date = new Date(timestamp);
 				List<SystemMeasurement> measurements = new ArrayList<SystemMeasurement>();
 				for (int i = 0; i < values.length; i++) {
 					measurements.add(
 							new SystemMeasurement(hostname, 
 									hostname, entries[i].name(), 
-									new Date(timestamp), values[i].floatValue()));
+									date, (float) values[i]));
+				}
+				if (tasks != null) {
+					tasks.measure(hostname, date, measurements);
 				}
 				return measurements;
 			} catch (IOException e) {
@@ -95,61 +113,44 @@ public class SystemStats extends MonitorClient {
 		}
 		
 		private void stat() throws IOException {
-			File f = new File("/proc/stat");
-			BufferedReader in = new BufferedReader(new FileReader(f));
-			String info = in.readLine();
-			if(!info.startsWith("cpu  ")) { throw new IllegalStateException("Can't parse /proc/stat!"); }
-			info = info.substring(5);
-			String[] tok = whiteSpace.split(info);
-			for(int i = 0; i < tok.length; i++) {
-				values[i] = Long.parseLong(tok[i]);
+			if (stat == null) {
+				stat    = new ProcFile("/proc/stat");
+				loadavg = new ProcFile("/proc/loadavg");
+				vmstat  = new ProcFile("/proc/vmstat");
+				netdev  = new ProcFile("/proc/net/dev");
+			}
+			
+			/* The first cpu line: user, nice, system, idle, iowait, irq, softirq, steal... */
+			stat.read();
+			if (!stat.line(CPU)) { throw new IllegalStateException("Can't parse /proc/stat!"); }
+			for (int i = SystemStatEntry.USER.offset; i <= SystemStatEntry.GUEST.offset; i++) {
+				values[i] = stat.nextLong();
 			}
-			in.close();
 			
 			/* Load averages */ 
-			f = new File("/proc/loadavg");
-			in = new BufferedReader(new FileReader(f));
-			info = in.readLine();
-			tok = whiteSpace.split(info);
-			values[SystemStatEntry.LOAD_1.offset] = Double.parseDouble(tok[0]);
-			values[SystemStatEntry.LOAD_5.offset] = Double.parseDouble(tok[1]);
-			values[SystemStatEntry.LOAD_15.offset] = Double.parseDouble(tok[2]);
+			loadavg.read();
+			loadavg.line(LOADAVG);
+			values[SystemStatEntry.LOAD_1.offset] = loadavg.nextDecimal();
+			values[SystemStatEntry.LOAD_5.offset] = loadavg.nextDecimal();
+			values[SystemStatEntry.LOAD_15.offset] = loadavg.nextDecimal();
 
-	                    
-			f = new File("/proc/vmstat");
-			in = new BufferedReader(new FileReader(f));
-			while ((info = in.readLine()) != null) {
-				tok = whiteSpace.split(info);
-				if (tok[0].equals("pgpgin")) {
-					values[SystemStatEntry.PAGEIN.offset] = Long.parseLong(tok[1]);
-				} else if (tok[0].equals("pgpgout")) {
-					values[SystemStatEntry.PAGEOUT.offset] = Long.parseLong(tok[1]);
-				} else if (tok[0].equals("pswpin")) {
-					values[SystemStatEntry.SWAPIN.offset] = Long.parseLong(tok[1]);
-				} else if (tok[0].equals("pswpout")) {
-					values[SystemStatEntry.SWAPOUT.offset] = Long.parseLong(tok[1]);
-				}
-			}
-			in.close();
+			vmstat.read();
+			if (vmstat.line(PGPGIN)) values[SystemStatEntry.PAGEIN.offset] = vmstat.nextLong();
+			if (vmstat.line(PGPGOUT)) values[SystemStatEntry.PAGEOUT.offset] = vmstat.nextLong();
+			if (vmstat.line(PSWPIN)) values[SystemStatEntry.SWAPIN.offset] = vmstat.nextLong();
+			if (vmstat.line(PSWPOUT)) values[SystemStatEntry.SWAPOUT.offset] = vmstat.nextLong();
 			
-			f = new File("/proc/net/dev");
-			in = new BufferedReader(new FileReader(f));
-			String netinfo = null;
-			while((netinfo = in.readLine()) != null) {
-				if(netinfo.contains("eth0:")) { 
-					netinfo = netinfo.substring(netinfo.indexOf(':') + 1);
-					tok = whiteSpace.split(netinfo);
-					values[SystemStatEntry.BYTES_RECEIVE.offset] = Long.parseLong(tok[1]);
-					values[SystemStatEntry.PACKETS_RECEIVE.offset] = Long.parseLong(tok[2]);
-					values[SystemStatEntry.ERRORS_RECEIVE.offset] = Long.parseLong(tok[3]);
-						
-					values[SystemStatEntry.BYTES_SEND.offset] = Long.parseLong(tok[9]);
-					values[SystemStatEntry.PACKETS_SEND.offset] = Long.parseLong(tok[10]);
-					values[SystemStatEntry.ERRORS_SEND.offset] = Long.parseLong(tok[11]);
-					break;
-				}
+			/* Receive: bytes packets errs drop fifo frame compressed multicast, then transmit. */
+			netdev.read();
+			if (netdev.line(NETDEV)) {
+				values[SystemStatEntry.BYTES_RECEIVE.offset] = netdev.nextLong();
+				values[SystemStatEntry.PACKETS_RECEIVE.offset] = netdev.nextLong();
+				values[SystemStatEntry.ERRORS_RECEIVE.offset] = netdev.nextLong();
+				for (int i = 0; i < 5; i++) netdev.nextLong();
+				values[SystemStatEntry.BYTES_SEND.offset] = netdev.nextLong();
+				values[SystemStatEntry.PACKETS_SEND.offset] = netdev.nextLong();
+				values[SystemStatEntry.ERRORS_SEND.offset] = netdev.nextLong();
 			}
-			in.close();
 		}
 	}
 	
@@ -204,6 +205,8 @@ public class SystemStats extends MonitorClient {
 	
 	private Aggregator aggregator;
 	
+	private TaskStats tasks = null;
+	
 	public SystemStats() {
 		this.agent = new AgentImpl();
 		this.aggregator = new AggregatorImpl();
@@ -216,6 +219,19 @@ public class SystemStats extends MonitorClient {
 		this.hostname = name;
 	}
 	
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		if (job.getBoolean("mapred.monitor.tasks", true) && ProcfsBasedProcessTree.isAvailable()) {
+			try {
+				this.tasks = new TaskStats(job.getLocalDirs(), 
+						job.getLong("mapred.monitor.tasks.rescan.interval", 1000));
+			} catch (IOException e) {
+				this.tasks = null;
+			}
+		}
+	}
+	
 	@Override
 	public Measurement.Type type() {
 		return Measurement.Type.SYSTEM;
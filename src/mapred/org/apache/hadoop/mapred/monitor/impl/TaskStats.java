@@ -0,0 +1,128 @@
+package org.apache.hadoop.mapred.monitor.impl;
+
+import java.io.File;
+import java.sql.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.util.ProcfsBasedProcessTree;
+
+/**
+ * Samples the CPU and storage io of the tasks running on this node.
+ *
+ * Tasks are found through the pid files the TaskTracker writes to
+ * <code>taskTracker/jobcache/&lt;job&gt;/&lt;attempt&gt;/pid</code> under
+ * each local directory. The local directories and /proc are rescanned
+ * for new tasks and new child processes once per rescan interval; in
+ * between, only the known processes of each task are reread.
+ */
+class TaskStats {
+	public static enum TaskStatEntry {
+		CPU_MS("cpu time used by the task and its children, in ms"),
+		READ_BYTES("bytes read from storage"),
+		WRITE_BYTES("bytes written to storage");
+
+		public final String name;
+		private TaskStatEntry(String n) {
+			this.name = n;
+		}
+	}
+
+	private static final TaskStatEntry[] entries = TaskStatEntry.values();
+
+	private final File[] jobcaches;
+
+	private final long rescanInterval;
+
+	private long lastScan = 0;
+
+	/* The process tree of each running task attempt. */
+	private final Map<String, ProcfsBasedProcessTree> tasks =
+		new HashMap<String, ProcfsBasedProcessTree>();
+
+	/* The pid file of each running task attempt, removed when the task is cleaned up. */
+	private final Map<String, File> pidFiles = new HashMap<String, File>();
+
+	TaskStats(String[] localDirs, long rescanInterval) {
+		this.jobcaches = new File[localDirs.length];
+		for (int i = 0; i < localDirs.length; i++) {
+			this.jobcaches[i] = new File(localDirs[i], "taskTracker" + File.separator + "jobcache");
+		}
+		this.rescanInterval = rescanInterval;
+	}
+
+	/**
+	 * Add a measurement of each entry of each running task.
+	 * @param host The host name.
+	 * @param date The time of the sample.
+	 * @param measurements The list to add to.
+	 */
+	void measure(String host, Date date, List<SystemMeasurement> measurements) {
+		long now = System.currentTimeMillis();
+		boolean rescan = now - lastScan >= rescanInterval;
+		if (rescan) {
+			scan();
+			lastScan = now;
+		}
+
+		for (Iterator<Map.Entry<String, ProcfsBasedProcessTree>> it =
+			tasks.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, ProcfsBasedProcessTree> task = it.next();
+			ProcfsBasedProcessTree tree = task.getValue();
+			if (rescan) {
+				if (!pidFiles.get(task.getKey()).exists()) {
+					pidFiles.remove(task.getKey());
+					it.remove();
+					continue;
+				}
+				tree.getProcessTree();
+			} else {
+				tree.refresh();
+			}
+
+			String prefix = task.getKey() + ".";
+			measurements.add(new SystemMeasurement(host, host, prefix + TaskStatEntry.CPU_MS.name(),
+					date, (float) tree.getCumulativeCpuTime()));
+			measurements.add(new SystemMeasurement(host, host, prefix + TaskStatEntry.READ_BYTES.name(),
+					date, (float) tree.getCumulativeReadBytes()));
+			measurements.add(new SystemMeasurement(host, host, prefix + TaskStatEntry.WRITE_BYTES.name(),
+					date, (float) tree.getCumulativeWriteBytes()));
+		}
+	}
+
+	/* Find the pid files of new task attempts. */
+	private void scan() {
+		for (File jobcache : jobcaches) {
+			File[] jobs = jobcache.listFiles();
+			if (jobs == null) continue;
+			for (File job : jobs) {
+				File[] attempts = job.listFiles();
+				if (attempts == null) continue;
+				for (File attempt : attempts) {
+					String name = attempt.getName();
+					if (!name.startsWith("attempt_") || tasks.containsKey(name)) continue;
+					File pidFile = new File(attempt, "pid");
+					if (!pidFile.exists()) continue;
+					String pid = ProcfsBasedProcessTree.getPidFromPidFile(pidFile.getPath());
+					if (pid != null) {
+						tasks.put(name, new ProcfsBasedProcessTree(pid));
+						pidFiles.put(name, pidFile);
+					}
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, ProcfsBasedProcessTree> task : tasks.entrySet()) {
+			ProcfsBasedProcessTree tree = task.getValue();
+			sb.append("Task " + task.getKey() + " " + entries[0].name + " = " + tree.getCumulativeCpuTime() + "\n");
+			sb.append("Task " + task.getKey() + " " + entries[1].name + " = " + tree.getCumulativeReadBytes() + "\n");
+			sb.append("Task " + task.getKey() + " " + entries[2].name + " = " + tree.getCumulativeWriteBytes() + "\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestNormalizedKeyComparator extends TestCase {
+
+  private static final int SAMPLE = 2000;
+
+  private final Random r = new Random();
+
+  public void testText() throws IOException {
+    Text[] keys = new Text[SAMPLE];
+    for (int i = 0; i < keys.length; i++) {
+      byte[] b = new byte[r.nextInt(7)];
+      for (int j = 0; j < b.length; j++) {
+        // few distinct bytes, so that prefixes are often shared
+        b[j] = (byte) (r.nextBoolean() ? 'a' + r.nextInt(3) : 0xE0);
+      }
+      keys[i] = new Text(b);
+    }
+    check(new Text.Comparator(), keys);
+  }
+
+  public void testIntWritable() throws IOException {
+    IntWritable[] keys = new IntWritable[SAMPLE];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new IntWritable(r.nextInt(100) - 50 +
+                                (r.nextBoolean() ? Integer.MIN_VALUE : 0));
+    }
+    check(new IntWritable.Comparator(), keys);
+  }
+
+  public void testLongWritable() throws IOException {
+    LongWritable[] keys = new LongWritable[SAMPLE];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new LongWritable((r.nextInt(7) - 3L) << 32 | r.nextInt(5));
+    }
+    check(new LongWritable.Comparator(), keys);
+    check(new LongWritable.DecreasingComparator(), keys);
+  }
+
+  private void check(NormalizedKeyComparator<?> comparator,
+                     Writable[] keys) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    int[] start = new int[keys.length];
+    int[] length = new int[keys.length];
+    int[] normalized = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      start[i] = out.getLength();
+      keys[i].write(out);
+      length[i] = out.getLength() - start[i];
+    }
+    byte[] b = out.getData();
+    for (int i = 0; i < keys.length; i++) {
+      normalized[i] = comparator.normalizedKey(b, start[i], length[i]);
+    }
+    for (int n = 0; n < 20 * SAMPLE; n++) {
+      int i = r.nextInt(keys.length);
+      int j = r.nextInt(keys.length);
+      int cmp = comparator.compare(b, start[i], length[i],
+                                   b, start[j], length[j]);
+      String msg = comparator.getClass().getName() + " " + keys[i] + 
+        " (" + normalized[i] + ") " + keys[j] + " (" + normalized[j] + ")";
+      if (normalized[i] < normalized[j]) {
+        assertTrue(msg, cmp < 0);
+      } else if (normalized[i] > normalized[j]) {
+        assertTrue(msg, cmp > 0);
+      } else if (comparator.isNormalizedKeyExact()) {
+        assertEquals(msg, 0, cmp);
+      }
+    }
+  }
+}
@@ -0,0 +1,396 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.StaticMapping;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * JobTracker load benchmark.
+ * <p>
+ * Starts a {@link JobTracker} in this process and drives it with simulated
+ * task trackers, which heartbeat back to back without running any tasks:
+ * a launched task is reported as succeeded once it has run for the task
+ * run time. Client threads query the cluster and job status meanwhile,
+ * the way JobClients and the web UI do. Following are the parameters that
+ * can be specified
+ * <li>Number of simulated trackers and their map and reduce slots.
+ * <li>Number of jobs, and maps and reduces per job.
+ * <li>Number of client threads and their poll interval.
+ * <p>
+ * Reports the heartbeats and client queries served per second, and their
+ * mean latency.
+ */
+public class JobTrackerLoadBenchmark extends Configured implements Tool {
+
+  private static final Log LOG =
+    LogFactory.getLog(JobTrackerLoadBenchmark.class);
+
+  private static final Path BASE_DIR =
+    new Path(System.getProperty("test.build.data",
+                                File.separator + "benchmarks" + File.separator
+                                + "JobTrackerLoadBenchmark"));
+
+  /**
+   * An input format of empty splits, one per map, each located on one of
+   * the simulated hosts.
+   */
+  public static class SimulatedInputFormat
+    implements InputFormat<BytesWritable, BytesWritable> {
+
+    public InputSplit[] getSplits(JobConf job,
+                                  int numSplits) throws IOException {
+      int hosts = job.getInt("jtbench.hosts", 1);
+      InputSplit[] result = new InputSplit[numSplits];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = new FileSplit(new Path("dummy-split-" + i), 0, 1,
+                                  new String[] {hostName(i % hosts)});
+      }
+      return result;
+    }
+
+    public RecordReader<BytesWritable, BytesWritable> getRecordReader(
+        InputSplit split, JobConf job, Reporter reporter) throws IOException {
+      throw new IOException("Simulated splits can't be read");
+    }
+  }
+
+  static String hostName(int i) {
+    return "host" + i + ".benchmark";
+  }
+
+  private final AtomicLong heartbeats = new AtomicLong();
+  private final AtomicLong heartbeatNanos = new AtomicLong();
+  private final AtomicLong launched = new AtomicLong();
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong queryNanos = new AtomicLong();
+  private volatile boolean running = true;
+
+  /**
+   * A task tracker that heartbeats in a loop and reports its tasks as
+   * succeeded after the task run time.
+   */
+  private class SimulatedTracker extends Thread {
+    private final JobTracker jobTracker;
+    private final String trackerName;
+    private final String host;
+    private final int maxMaps;
+    private final int maxReduces;
+    private final long taskTime;
+    private final Map<TaskAttemptID, TaskStatus> tasks =
+      new HashMap<TaskAttemptID, TaskStatus>();
+    private final Map<TaskAttemptID, Long> started =
+      new HashMap<TaskAttemptID, Long>();
+
+    SimulatedTracker(JobTracker jobTracker, int i, int maxMaps,
+                     int maxReduces, long taskTime) {
+      super("SimulatedTracker " + i);
+      this.jobTracker = jobTracker;
+      this.host = hostName(i);
+      this.trackerName = "tracker_" + host + ":localhost/127.0.0.1:" +
+                         (40000 + i);
+      this.maxMaps = maxMaps;
+      this.maxReduces = maxReduces;
+      this.taskTime = taskTime;
+      setDaemon(true);
+    }
+
+    public void run() {
+      short responseId = -1;
+      boolean initialContact = true;
+      try {
+        while (running) {
+          TaskTrackerStatus status = status();
+          long start = System.nanoTime();
+          HeartbeatResponse response =
+            jobTracker.heartbeat(status, initialContact, true, responseId);
+          heartbeatNanos.addAndGet(System.nanoTime() - start);
+          heartbeats.incrementAndGet();
+          initialContact = false;
+          responseId = response.getResponseId();
+          TaskTrackerAction[] actions = response.getActions();
+          if (actions != null) {
+            for (TaskTrackerAction action : actions) {
+              act(action);
+            }
+          }
+        }
+      } catch (IOException e) {
+        LOG.error(trackerName + " failed", e);
+      }
+    }
+
+    /* The status to report, dropping tasks reported as finished before. */
+    private TaskTrackerStatus status() {
+      long now = System.currentTimeMillis();
+      List<TaskStatus> reports = new ArrayList<TaskStatus>();
+      for (Iterator<TaskStatus> it = tasks.values().iterator();
+           it.hasNext(); ) {
+        TaskStatus task = it.next();
+        if (task.getRunState() != TaskStatus.State.RUNNING) {
+          it.remove();
+          started.remove(task.getTaskID());
+          continue;
+        }
+        if (now - started.get(task.getTaskID()) >= taskTime) {
+          task.setRunState(TaskStatus.State.SUCCEEDED);
+          task.setProgress(1.0f);
+          task.setFinishTime(now);
+        }
+        reports.add((TaskStatus) task.clone());
+      }
+      TaskTrackerStatus status =
+        new TaskTrackerStatus(trackerName, host, 0, reports, 0,
+                              maxMaps, maxReduces);
+      status.getResourceStatus().setAvailableSpace(Long.MAX_VALUE);
+      return status;
+    }
+
+    private void act(TaskTrackerAction action) {
+      if (action instanceof LaunchTaskAction) {
+        Task task = ((LaunchTaskAction) action).getTask();
+        TaskStatus status =
+          TaskStatus.createTaskStatus(task.isMapTask(), task.getTaskID(),
+                                      0.0f, TaskStatus.State.RUNNING, "", "",
+                                      trackerName, task.getPhase(),
+                                      task.getCounters());
+        status.setStartTime(System.currentTimeMillis());
+        tasks.put(task.getTaskID(), status);
+        started.put(task.getTaskID(), System.currentTimeMillis());
+        launched.incrementAndGet();
+      } else if (action instanceof KillTaskAction) {
+        TaskStatus status = tasks.get(((KillTaskAction) action).getTaskID());
+        if (status != null) {
+          status.setRunState(TaskStatus.State.KILLED);
+        }
+      } else if (action instanceof KillJobAction) {
+        JobID job = ((KillJobAction) action).getJobID();
+        for (TaskStatus status : tasks.values()) {
+          if (status.getTaskID().getJobID().equals(job) &&
+              status.getRunState() == TaskStatus.State.RUNNING) {
+            status.setRunState(TaskStatus.State.KILLED);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A client that polls the cluster, job and task completion status once
+   * per poll interval.
+   */
+  private class Client extends Thread {
+    private final JobTracker jobTracker;
+    private final long pollInterval;
+
+    Client(JobTracker jobTracker, int i, long pollInterval) {
+      super("Client " + i);
+      this.jobTracker = jobTracker;
+      this.pollInterval = pollInterval;
+      setDaemon(true);
+    }
+
+    public void run() {
+      try {
+        while (running) {
+          long start = System.nanoTime();
+          jobTracker.getClusterStatus();
+          int count = 1;
+          for (JobStatus job : jobTracker.getAllJobs()) {
+            jobTracker.getJobStatus(job.getJobID());
+            jobTracker.getJobCounters(job.getJobID());
+            jobTracker.getTaskCompletionEvents(job.getJobID(), 0, 100);
+            count += 3;
+          }
+          queryNanos.addAndGet(System.nanoTime() - start);
+          queries.addAndGet(count);
+          if (pollInterval > 0) {
+            Thread.sleep(pollInterval);
+          }
+        }
+      } catch (IOException e) {
+        LOG.error(getName() + " failed", e);
+      } catch (InterruptedException e) {
+        LOG.error(getName() + " interrupted", e);
+      }
+    }
+  }
+
+  static int printUsage() {
+    System.out.println("jtbench [-trackers <n>] [-maps <n per job>]" +
+                       " [-reduces <n per job>] [-jobs <n>] [-clients <n>]" +
+                       " [-poll <ms>] [-slots <map slots per tracker>]" +
+                       " [-tasktime <ms>] [-duration <s>]");
+    ToolRunner.printGenericCommandUsage(System.out);
+    return -1;
+  }
+
+  public int run(String[] args) throws Exception {
+    int trackers = 100;
+    int maps = 1000;
+    int reduces = 100;
+    int jobs = 4;
+    int clients = 4;
+    long pollInterval = 100;
+    int slots = 2;
+    long taskTime = 0;
+    long duration = 300;
+    for (int i = 0; i < args.length; i++) {
+      if ("-trackers".equals(args[i])) {
+        trackers = Integer.parseInt(args[++i]);
+      } else if ("-maps".equals(args[i])) {
+        maps = Integer.parseInt(args[++i]);
+      } else if ("-reduces".equals(args[i])) {
+        reduces = Integer.parseInt(args[++i]);
+      } else if ("-jobs".equals(args[i])) {
+        jobs = Integer.parseInt(args[++i]);
+      } else if ("-clients".equals(args[i])) {
+        clients = Integer.parseInt(args[++i]);
+      } else if ("-poll".equals(args[i])) {
+        pollInterval = Long.parseLong(args[++i]);
+      } else if ("-slots".equals(args[i])) {
+        slots = Integer.parseInt(args[++i]);
+      } else if ("-tasktime".equals(args[i])) {
+        taskTime = Long.parseLong(args[++i]);
+      } else if ("-duration".equals(args[i])) {
+        duration = Long.parseLong(args[++i]);
+      } else {
+        return printUsage();
+      }
+    }
+
+    JobConf conf = new JobConf(getConf());
+    conf.set("mapred.job.tracker", "localhost:0");
+    conf.set("mapred.job.tracker.http.address", "0.0.0.0:0");
+    conf.set("fs.default.name", "file:///");
+    conf.set("mapred.system.dir", new Path(BASE_DIR, "system").toString());
+    conf.set("mapred.local.dir", new Path(BASE_DIR, "local").toString());
+    conf.set("hadoop.job.history.location",
+             new Path(BASE_DIR, "history").toString());
+    // the simulated hosts don't resolve
+    conf.setClass("topology.node.switch.mapping.impl", 
+                  StaticMapping.class, DNSToSwitchMapping.class);
+    JobTracker jobTracker = JobTracker.startTracker(conf);
+    final JobTracker tracker = jobTracker;
+    Thread service = new Thread("JobTracker") {
+      public void run() {
+        try {
+          tracker.offerService();
+        } catch (Exception e) {
+          LOG.info("JobTracker stopped", e);
+        }
+      }
+    };
+    service.setDaemon(true);
+    service.start();
+
+    JobConf clientConf = new JobConf(conf);
+    clientConf.set("mapred.job.tracker",
+                   "localhost:" + jobTracker.getTrackerPort());
+    JobClient jobClient = new JobClient(clientConf);
+    List<RunningJob> submitted = new ArrayList<RunningJob>();
+    for (int j = 0; j < jobs; j++) {
+      JobConf job = new JobConf(clientConf);
+      job.setJobName("jtbench-" + j);
+      job.setInt("jtbench.hosts", trackers);
+      job.setInputFormat(SimulatedInputFormat.class);
+      job.setOutputFormat(NullOutputFormat.class);
+      job.setMapperClass(IdentityMapper.class);
+      job.setReducerClass(IdentityReducer.class);
+      job.setOutputKeyClass(BytesWritable.class);
+      job.setOutputValueClass(BytesWritable.class);
+      job.setNumMapTasks(maps);
+      job.setNumReduceTasks(reduces);
+      submitted.add(jobClient.submitJob(job));
+    }
+
+    long start = System.currentTimeMillis();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < trackers; i++) {
+      threads.add(new SimulatedTracker(jobTracker, i, slots,
+                                       Math.max(1, slots / 2), taskTime));
+    }
+    for (int i = 0; i < clients; i++) {
+      threads.add(new Client(jobTracker, i, pollInterval));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    int complete = 0;
+    long deadline = start + duration * 1000;
+    while (complete < submitted.size() &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+      complete = 0;
+      for (RunningJob job : submitted) {
+        if (job.isComplete()) {
+          complete++;
+        }
+      }
+    }
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    running = false;
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    jobTracker.stopTracker();
+
+    System.out.println("Trackers: " + trackers + ", clients: " + clients +
+                       ", jobs: " + complete + "/" + jobs + " complete");
+    System.out.println("Elapsed: " + elapsed + " ms, tasks launched: " +
+                       launched.get());
+    System.out.println("Heartbeats/sec: " +
+                       (heartbeats.get() * 1000 / elapsed));
+    System.out.println("Mean heartbeat latency: " +
+                       (heartbeatNanos.get() / 1000 /
+                        Math.max(1, heartbeats.get())) + " us");
+    System.out.println("Client queries/sec: " + (queries.get() * 1000 / elapsed));
+    System.out.println("Mean client query latency: " +
+                       (queryNanos.get() / 1000 / Math.max(1, queries.get())) +
+                       " us");
+    return complete == jobs ? 0 : 1;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new Configuration(),
+                             new JobTrackerLoadBenchmark(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.buffer.impl.JOutputBuffer;
+import org.apache.hadoop.util.IndexedSorter;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.RadixSort;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Measures the time to sort the records of a map output buffer: with the
+ * plain comparator, which compares the serialized keys of every pair, and
+ * with the normalized key prefixes, both by quick sort and by radix sort.
+ * The same shuffles of the same records are sorted in each case.
+ */
+public class MapSortBenchmark extends Configured implements Tool {
+
+  private static final Path BASE_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "mapsortbench");
+
+  /** A comparator of text keys that does not expose normalized keys. */
+  public static class PlainComparator extends Text.Comparator {
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+      return super.compare(b1, s1, l1, b2, s2, l2);
+    }
+  }
+
+  private JobConf conf;
+  private int records;
+  private int keyLength;
+  private int sorts;
+
+  private JOutputBuffer<Text, NullWritable> fill(int attempt, boolean plain)
+    throws Exception {
+    JobConf job = new JobConf(conf);
+    if (plain) {
+      job.setOutputKeyComparatorClass(PlainComparator.class);
+    }
+    TaskAttemptID taskId = new TaskAttemptID(
+        new TaskID(new JobID("mapsortbench", 1), true, 0), attempt);
+    MapTask task = new MapTask(new Path(BASE_DIR, "job.xml").toString(),
+                               taskId, 0, null, new BytesWritable());
+    JOutputBuffer<Text, NullWritable> buffer =
+      new JOutputBuffer<Text, NullWritable>(null, task, job, Reporter.NULL,
+                                            new Progress(), false, Text.class,
+                                            NullWritable.class, null);
+    Random random = new Random(1);
+    Text key = new Text();
+    byte[] bytes = new byte[keyLength];
+    for (int i = 0; i < records; i++) {
+      for (int j = 0; j < bytes.length; j++) {
+        bytes[j] = (byte) ('a' + random.nextInt(26));
+      }
+      key.set(bytes);
+      buffer.collect(key, NullWritable.get());
+    }
+    return buffer;
+  }
+
+  private void measure(int attempt, String name, boolean plain,
+                       IndexedSorter sorter) throws Exception {
+    JOutputBuffer<Text, NullWritable> buffer = fill(attempt, plain);
+    try {
+      Random random = new Random(2);
+      long elapsed = 0;
+      // the first sort warms up the sorter and is not counted
+      for (int s = -1; s < sorts; s++) {
+        for (int i = records - 1; i > 0; i--) {
+          buffer.swap(i, random.nextInt(i + 1));
+        }
+        long start = System.currentTimeMillis();
+        sorter.sort(buffer, 0, records);
+        if (s >= 0) {
+          elapsed += System.currentTimeMillis() - start;
+        }
+      }
+      elapsed = Math.max(elapsed, 1);
+      System.out.println(name + ": " + sorts + " sorts of " + records +
+                         " records in " + elapsed + " ms, " +
+                         ((long) records * sorts * 1000 / elapsed) +
+                         " records/sec");
+    } finally {
+      // spills the records, to the attempt's own files
+      buffer.free();
+    }
+  }
+
+  static int printUsage() {
+    System.out.println("mapsortbench [-records <n>] [-keylen <bytes>]" +
+                       " [-reduces <n>] [-sorts <n>]");
+    ToolRunner.printGenericCommandUsage(System.out);
+    return -1;
+  }
+
+  public int run(String[] args) throws Exception {
+    records = 200000;
+    keyLength = 16;
+    sorts = 10;
+    int reduces = 1;
+    for (int i = 0; i < args.length; i++) {
+      if ("-records".equals(args[i])) {
+        records = Integer.parseInt(args[++i]);
+      } else if ("-keylen".equals(args[i])) {
+        keyLength = Integer.parseInt(args[++i]);
+      } else if ("-reduces".equals(args[i])) {
+        reduces = Integer.parseInt(args[++i]);
+      } else if ("-sorts".equals(args[i])) {
+        sorts = Integer.parseInt(args[++i]);
+      } else {
+        return printUsage();
+      }
+    }
+
+    // a buffer large enough that none of the records are spilled
+    conf = new JobConf(getConf());
+    conf.set("mapred.local.dir", new Path(BASE_DIR, "local").toString());
+    conf.setNumReduceTasks(reduces);
+    conf.setMapOutputKeyClass(Text.class);
+    conf.setMapOutputValueClass(NullWritable.class);
+    conf.setInt("io.sort.mb", 100);
+    conf.setFloat("io.sort.spill.percent", 1.0f);
+    conf.setFloat("io.sort.record.percent", 0.3f);
+
+    FileUtil.fullyDelete(new File(BASE_DIR.toUri().getPath()));
+    try {
+      measure(0, "quick sort, plain keys", true, new QuickSort());
+      measure(1, "quick sort, key prefixes", false, new QuickSort());
+      measure(2, "radix sort, key prefixes", false, new RadixSort());
+    } finally {
+      FileUtil.fullyDelete(new File(BASE_DIR.toUri().getPath()));
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new MapSortBenchmark(), args));
+  }
+}
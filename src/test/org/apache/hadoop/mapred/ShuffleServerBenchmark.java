@@ -0,0 +1,363 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Shuffle throughput benchmark.
+ * <p>
+ * Writes map outputs to the local directory the way the maps do, and then
+ * fetches every partition of every map once over the {@link ShuffleServer}
+ * and once over HTTP from a servlet that serves the map outputs the way
+ * {@link TaskTracker.MapOutputServlet} does: a request per segment, copied
+ * through a 64 KB buffer. Following are the parameters that can be
+ * specified
+ * <li>Number of maps and reduces, and the size of a segment.
+ * <li>Number of fetching threads, each fetching for its share of reduces.
+ * <li>Number of segments asked for in one shuffle server request.
+ * <p>
+ * Reports the MB/sec and segments/sec fetched with each.
+ */
+public class ShuffleServerBenchmark extends Configured implements Tool {
+
+  private static final Path BASE_DIR =
+    new Path(System.getProperty("test.build.data",
+                                File.separator + "benchmarks" + File.separator
+                                + "ShuffleServerBenchmark"));
+
+  private static final String JOB_ID = "job_200901010000_0001";
+
+  private static String mapId(int map) {
+    return "attempt_200901010000_0001_m_" +
+           String.format("%06d", map) + "_0";
+  }
+
+  /**
+   * Serves a map output segment per request, as the tracker's
+   * MapOutputServlet does, with the index cache and local directories of
+   * the benchmark.
+   */
+  public static class MapOutputCopyServlet extends HttpServlet {
+    private static final int MAX_BYTES_TO_READ = 64 * 1024;
+
+    @Override
+    public void doGet(HttpServletRequest request,
+                      HttpServletResponse response
+                      ) throws ServletException, IOException {
+      String mapId = request.getParameter("map");
+      int reduce = Integer.parseInt(request.getParameter("reduce"));
+      String jobId = request.getParameter("job");
+      ServletContext context = getServletContext();
+      JobConf conf = (JobConf) context.getAttribute("conf");
+      IndexCache indexCache = (IndexCache) context.getAttribute("indexCache");
+      LocalDirAllocator lDirAlloc = new LocalDirAllocator("mapred.local.dir");
+      FileSystem rfs = FileSystem.getLocal(conf).getRaw();
+
+      String dir = TaskTracker.getIntermediateOutputDir(jobId, mapId);
+      Path indexFileName =
+        lDirAlloc.getLocalPathToRead(dir + "/file.out.index", conf);
+      Path mapOutputFileName =
+        lDirAlloc.getLocalPathToRead(dir + "/file.out", conf);
+      IndexRecord info =
+        indexCache.getIndexInformation(mapId, reduce, indexFileName);
+      response.setHeader(TaskTracker.RAW_MAP_OUTPUT_LENGTH,
+                         Long.toString(info.rawLength));
+      response.setHeader(TaskTracker.MAP_OUTPUT_LENGTH,
+                         Long.toString(info.partLength));
+      response.setBufferSize(MAX_BYTES_TO_READ);
+
+      byte[] buffer = new byte[MAX_BYTES_TO_READ];
+      OutputStream outStream = response.getOutputStream();
+      FSDataInputStream mapOutputIn = rfs.open(mapOutputFileName);
+      IFileInputStream checksumIn = null;
+      try {
+        mapOutputIn.seek(info.startOffset);
+        checksumIn = new IFileInputStream(mapOutputIn, info.partLength);
+        long totalRead = 0;
+        while (totalRead < info.partLength) {
+          int len = checksumIn.readWithChecksum(buffer, 0,
+              (int) Math.min(info.partLength - totalRead, MAX_BYTES_TO_READ));
+          if (len <= 0) {
+            break;
+          }
+          outStream.write(buffer, 0, len);
+          outStream.flush();
+          totalRead += len;
+        }
+      } finally {
+        if (checksumIn != null) {
+          checksumIn.close();
+        } else {
+          mapOutputIn.close();
+        }
+      }
+      outStream.close();
+    }
+  }
+
+  /* Write the output and index files of the maps. */
+  private void writeMapOutputs(JobConf conf, int maps, int reduces,
+                               int segmentSize) throws IOException {
+    Random random = new Random(0);
+    byte[] data = new byte[segmentSize];
+    for (int m = 0; m < maps; m++) {
+      File dir = new File(new Path(BASE_DIR, "local").toUri().getPath(),
+                          TaskTracker.getIntermediateOutputDir(JOB_ID,
+                                                               mapId(m)));
+      if (!dir.mkdirs()) {
+        throw new IOException("Failed to create " + dir);
+      }
+      FileOutputStream dataOut =
+        new FileOutputStream(new File(dir, "file.out"));
+      DataOutputStream indexOut = new DataOutputStream(
+          new FileOutputStream(new File(dir, "file.out.index")));
+      long offset = 0;
+      for (int r = 0; r < reduces; r++) {
+        random.nextBytes(data);
+        IFileOutputStream out = new IFileOutputStream(dataOut);
+        out.write(data);
+        out.finish();
+        long end = dataOut.getChannel().position();
+        indexOut.writeLong(offset);
+        indexOut.writeLong(data.length);
+        indexOut.writeLong(end - offset);
+        offset = end;
+      }
+      dataOut.close();
+      indexOut.close();
+    }
+  }
+
+  private static abstract class Fetcher extends Thread {
+    final int thread;
+    final int threads;
+    final AtomicLong bytes;
+    IOException failure = null;
+
+    Fetcher(int thread, int threads, AtomicLong bytes) {
+      this.thread = thread;
+      this.threads = threads;
+      this.bytes = bytes;
+    }
+
+    public void run() {
+      try {
+        fetch();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+
+    abstract void fetch() throws IOException;
+  }
+
+  private static void skipFully(InputStream in, byte[] buffer, long length)
+    throws IOException {
+    while (length > 0) {
+      int n = in.read(buffer, 0, (int) Math.min(length, buffer.length));
+      if (n < 0) {
+        throw new IOException("Segment ends " + length + " bytes short");
+      }
+      length -= n;
+    }
+  }
+
+  private static void report(String name, long bytes, long segments,
+                             long elapsed) {
+    elapsed = Math.max(elapsed, 1);
+    System.out.println(name + ": " + segments + " segments, " + bytes +
+                       " bytes in " + elapsed + " ms, " +
+                       (bytes * 1000 / elapsed / (1024 * 1024)) + " MB/sec, " +
+                       (segments * 1000 / elapsed) + " segments/sec");
+  }
+
+  private static long runFetchers(Fetcher[] fetchers) throws IOException {
+    long start = System.currentTimeMillis();
+    for (Fetcher fetcher : fetchers) {
+      fetcher.start();
+    }
+    for (Fetcher fetcher : fetchers) {
+      try {
+        fetcher.join();
+      } catch (InterruptedException e) {
+        throw new IOException("Interrupted waiting for the fetchers");
+      }
+      if (fetcher.failure != null) {
+        throw fetcher.failure;
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  static int printUsage() {
+    System.out.println("shufflebench [-maps <n>] [-reduces <n>]" +
+                       " [-segment <bytes>] [-threads <n>]" +
+                       " [-batch <segments per request>]");
+    ToolRunner.printGenericCommandUsage(System.out);
+    return -1;
+  }
+
+  public int run(String[] args) throws Exception {
+    int maps = 50;
+    int reduces = 20;
+    int segmentSize = 64 * 1024;
+    int threads = 4;
+    int batch = 0;
+    for (int i = 0; i < args.length; i++) {
+      if ("-maps".equals(args[i])) {
+        maps = Integer.parseInt(args[++i]);
+      } else if ("-reduces".equals(args[i])) {
+        reduces = Integer.parseInt(args[++i]);
+      } else if ("-segment".equals(args[i])) {
+        segmentSize = Integer.parseInt(args[++i]);
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-batch".equals(args[i])) {
+        batch = Integer.parseInt(args[++i]);
+      } else {
+        return printUsage();
+      }
+    }
+    final int numMaps = maps;
+    final int numReduces = reduces;
+    final int batchSize = batch > 0 ? batch : maps;
+
+    JobConf conf = new JobConf(getConf());
+    conf.set("mapred.local.dir", new Path(BASE_DIR, "local").toString());
+    FileUtil.fullyDelete(new File(BASE_DIR.toUri().getPath()));
+    writeMapOutputs(conf, maps, reduces, segmentSize);
+    long segments = (long) maps * reduces;
+
+    // the shuffle server
+    final ShuffleServer shuffleServer =
+      new ShuffleServer(conf, new InetSocketAddress("localhost", 0),
+                        new IndexCache(conf), null, null);
+    shuffleServer.start();
+    AtomicLong bytes = new AtomicLong();
+    Fetcher[] fetchers = new Fetcher[threads];
+    for (int t = 0; t < threads; t++) {
+      fetchers[t] = new Fetcher(t, threads, bytes) {
+        void fetch() throws IOException {
+          byte[] buffer = new byte[64 * 1024];
+          ShuffleServer.Client client = new ShuffleServer.Client(
+              new InetSocketAddress("localhost", shuffleServer.getPort()));
+          try {
+            for (int r = thread; r < numReduces; r += threads) {
+              for (int m = 0; m < numMaps; m += batchSize) {
+                int n = Math.min(batchSize, numMaps - m);
+                String[] mapIds = new String[n];
+                int[] partitions = new int[n];
+                for (int i = 0; i < n; i++) {
+                  mapIds[i] = mapId(m + i);
+                  partitions[i] = r;
+                }
+                client.request(JOB_ID, mapIds, partitions);
+                for (int i = 0; i < n; i++) {
+                  IndexRecord segment = client.nextSegment();
+                  skipFully(client.getInputStream(), buffer,
+                            segment.partLength);
+                  bytes.addAndGet(segment.partLength);
+                }
+              }
+            }
+          } finally {
+            client.close();
+          }
+        }
+      };
+    }
+    long elapsed = runFetchers(fetchers);
+    shuffleServer.stop();
+    report("ShuffleServer", bytes.get(), segments, elapsed);
+
+    // the servlet
+    StatusHttpServer httpServer =
+      new StatusHttpServer("task", "localhost", 0, true, conf);
+    httpServer.setAttribute("conf", conf);
+    httpServer.setAttribute("indexCache", new IndexCache(conf));
+    httpServer.addInternalServlet("mapOutput", "/mapOutput",
+                                  MapOutputCopyServlet.class);
+    httpServer.start();
+    final int httpPort = httpServer.getPort();
+    bytes.set(0);
+    for (int t = 0; t < threads; t++) {
+      fetchers[t] = new Fetcher(t, threads, bytes) {
+        void fetch() throws IOException {
+          byte[] buffer = new byte[64 * 1024];
+          for (int r = thread; r < numReduces; r += threads) {
+            for (int m = 0; m < numMaps; m++) {
+              URL url = new URL("http://localhost:" + httpPort +
+                                "/mapOutput?job=" + JOB_ID + "&map=" +
+                                mapId(m) + "&reduce=" + r);
+              HttpURLConnection connection =
+                (HttpURLConnection) url.openConnection();
+              long length = Long.parseLong(
+                  connection.getHeaderField(TaskTracker.MAP_OUTPUT_LENGTH));
+              InputStream in = new DataInputStream(connection.getInputStream());
+              try {
+                skipFully(in, buffer, length);
+              } finally {
+                in.close();
+              }
+              bytes.addAndGet(length);
+            }
+          }
+        }
+      };
+    }
+    elapsed = runFetchers(fetchers);
+    httpServer.stop();
+    report("MapOutputServlet", bytes.get(), segments, elapsed);
+
+    FileUtil.fullyDelete(new File(BASE_DIR.toUri().getPath()));
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new ShuffleServerBenchmark(), args);
+    System.exit(res);
+  }
+}
@@ -21,6 +21,9 @@ import junit.framework.TestCase;
 import java.io.IOException;
 import java.text.ParseException;
 
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
 /**
  * TestCounters checks the sanity and recoverability of {@code Counters}
  */
@@ -90,6 +93,124 @@ public class TestCounters extends TestCase {
     }
   }
   
+  public void testIncrAllCounters() {
+    Counters a = new Counters();
+    a.incrCounter(myCounters.TEST1, 1);
+    a.incrCounter("group1", "counter1", 2);
+    Counters b = new Counters();
+    b.incrCounter(myCounters.TEST2, 10);
+    b.incrCounter("group1", "counter1", 20);
+    b.incrCounter("group2", "counter1", 30);
+    b.findCounter("group2", "counter1").setDisplayName("renamed");
+
+    // new counters are merged in, existing ones added to
+    a.incrAllCounters(b);
+    assertEquals(4, a.size());
+    assertEquals(1, a.getCounter(myCounters.TEST1));
+    assertEquals(10, a.getCounter(myCounters.TEST2));
+    assertEquals(22, a.findCounter("group1", "counter1").getCounter());
+    assertEquals(30, a.findCounter("group2", "counter1").getCounter());
+    assertEquals("renamed",
+                 a.findCounter("group2", "counter1").getDisplayName());
+
+    // a counter found before the merge still sees the values
+    Counters.Counter counter = a.findCounter(myCounters.TEST2);
+    a.incrAllCounters(b);
+    assertEquals(20, counter.getCounter());
+    counter.increment(5);
+    assertEquals(25, a.getCounter(myCounters.TEST2));
+  }
+
+  public void testChanges() throws IOException {
+    Counters counters = new Counters();
+    Counters reported = new Counters();
+    counters.incrCounter(myCounters.TEST1, 1);
+    counters.incrCounter(myCounters.TEST2, 2);
+
+    // at first everything changed
+    Counters changes = counters.getChanges(reported);
+    assertEquals(2, changes.size());
+    assertTrue(counters.contentEquals(reported));
+
+    // then only what was incremented or added
+    counters.incrCounter(myCounters.TEST2, 3);
+    counters.incrCounter("group1", "counter1", 4);
+    changes = counters.getChanges(reported);
+    assertEquals(2, changes.size());
+    assertEquals(5, changes.getCounter(myCounters.TEST2));
+    assertEquals(4, changes.findCounter("group1", "counter1").getCounter());
+    assertTrue(counters.contentEquals(reported));
+    assertEquals(0, counters.getChanges(reported).size());
+
+    // the changes set the values of the receiver's copy
+    Counters received = new Counters();
+    received.incrCounter(myCounters.TEST1, 1);
+    received.incrCounter(myCounters.TEST2, 2);
+    DataOutputBuffer out = new DataOutputBuffer();
+    changes.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Counters read = new Counters();
+    read.readFields(in);
+    received.setAllCounters(read);
+    assertTrue(counters.contentEquals(received));
+  }
+
+  /* Adds one set of counters to another, over and over. */
+  private static class Adder extends Thread {
+    private final Counters to;
+    private final Counters from;
+
+    Adder(Counters to, Counters from) {
+      this.to = to;
+      this.from = from;
+    }
+
+    public void run() {
+      for (int i = 0; i < 100000; i++) {
+        to.incrAllCounters(from);
+        to.getChanges(from);
+        to.contentEquals(from);
+      }
+    }
+  }
+
+  public void testCrossedMerges() throws InterruptedException {
+    Counters a = new Counters();
+    a.incrCounter(myCounters.TEST1, 1);
+    Counters b = new Counters();
+    b.incrCounter(myCounters.TEST2, 1);
+    // each thread locks the same pair from the other side
+    Adder ab = new Adder(a, b);
+    Adder ba = new Adder(b, a);
+    ab.start();
+    ba.start();
+    ab.join(60000);
+    ba.join(60000);
+    assertFalse("deadlocked", ab.isAlive() || ba.isAlive());
+  }
+
+  public void testDroppedNames() {
+    Counters kept = new Counters();
+    kept.incrCounter("kept", "counter", 1);
+    int before = Counters.getInternedNames();
+    for (int i = 0; i < 10000; i++) {
+      new Counters().incrCounter("dropped", "counter" + i, 1);
+    }
+    for (int i = 0; i < 10 && Counters.getInternedNames() > before; i++) {
+      System.gc();
+    }
+    // the names of the dropped counters are released
+    assertTrue(Counters.getInternedNames() < before + 10000);
+
+    // and a name in use is the same for every set
+    Counters other = new Counters();
+    other.incrCounter("kept", "counter", 2);
+    kept.incrAllCounters(other);
+    assertEquals(1, kept.size());
+    assertEquals(3, kept.findCounter("kept", "counter").getCounter());
+  }
+
   public static void main(String[] args) throws IOException {
     new TestCounters().testCounters();
   }
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+
+public class TestIFile extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "testifile");
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new Configuration();
+    // a small buffer, so that records span blocks and some outgrow it
+    conf.setInt("io.file.buffer.size", 512);
+    fs = FileSystem.getLocal(conf).getRaw();
+    fs.delete(TEST_DIR, true);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  /* Keys and values of random lengths, a few longer than the buffer. */
+  private static byte[][] records(int n) {
+    Random random = new Random(n);
+    byte[][] records = new byte[2 * n][];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = new byte[random.nextInt(10) == 0
+                            ? random.nextInt(2000) : random.nextInt(50)];
+      random.nextBytes(records[i]);
+    }
+    return records;
+  }
+
+  private Path write(byte[][] records, CompressionCodec codec)
+    throws IOException {
+    Path file = new Path(TEST_DIR, "data");
+    FSDataOutputStream out = fs.create(file);
+    IFile.Writer<Text, Text> writer =
+      new IFile.Writer<Text, Text>(conf, out, Text.class, Text.class, codec,
+                                   null);
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    for (int i = 0; i < records.length; i += 2) {
+      key.reset(records[i], records[i].length);
+      value.reset(records[i + 1], records[i + 1].length);
+      writer.append(key, value);
+    }
+    writer.close();
+    out.close();
+    return file;
+  }
+
+  private static byte[] bytes(byte[] data, int start, int length) {
+    byte[] bytes = new byte[length];
+    System.arraycopy(data, start, bytes, 0, length);
+    return bytes;
+  }
+
+  private static void checkBatches(IFile.Reader<Object, Object> reader,
+                                   byte[][] records, int capacity)
+    throws IOException {
+    IFile.RecordBatch batch = new IFile.RecordBatch(capacity);
+    DataInputBuffer key = new DataInputBuffer();
+    int i = 0;
+    while (reader.nextBatch(batch)) {
+      assertTrue(batch.size() > 0);
+      assertTrue(batch.size() <= capacity);
+      for (int r = 0; r < batch.size(); r++, i += 2) {
+        assertTrue("more records than written", i < records.length);
+        assertTrue("record " + i / 2, Arrays.equals(records[i],
+            bytes(batch.getData(), batch.getKeyStart(r),
+                  batch.getKeyLength(r))));
+        assertTrue("record " + i / 2, Arrays.equals(records[i + 1],
+            bytes(batch.getData(), batch.getValueStart(r),
+                  batch.getValueLength(r))));
+        batch.getKey(r, key);
+        assertEquals(records[i].length,
+                     key.getLength() - key.getPosition());
+      }
+    }
+    assertEquals(records.length, i);
+    reader.close();
+  }
+
+  private void checkFile(CompressionCodec codec) throws IOException {
+    byte[][] records = records(1000);
+    Path file = write(records, codec);
+    for (int capacity : new int[] { 1, 7, 1000 }) {
+      checkBatches(new IFile.Reader<Object, Object>(conf, fs, file, codec,
+                                                    null),
+                   records, capacity);
+    }
+
+    // batches and single records read from the same reader
+    IFile.Reader<Object, Object> reader =
+      new IFile.Reader<Object, Object>(conf, fs, file, codec, null);
+    IFile.RecordBatch batch = new IFile.RecordBatch(5);
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    int i = 0;
+    while (true) {
+      if (i % 4 == 0) {
+        if (!reader.next(key, value)) {
+          break;
+        }
+        assertTrue(Arrays.equals(records[i], bytes(key.getData(),
+            key.getPosition(), key.getLength() - key.getPosition())));
+        i += 2;
+      } else {
+        if (!reader.nextBatch(batch)) {
+          break;
+        }
+        for (int r = 0; r < batch.size(); r++, i += 2) {
+          assertTrue(Arrays.equals(records[i + 1],
+              bytes(batch.getData(), batch.getValueStart(r),
+                    batch.getValueLength(r))));
+        }
+      }
+    }
+    assertEquals(records.length, i);
+    reader.close();
+  }
+
+  public void testBatches() throws IOException {
+    checkFile(null);
+  }
+
+  public void testCompressedBatches() throws IOException {
+    DefaultCodec codec = new DefaultCodec();
+    codec.setConf(conf);
+    checkFile(codec);
+  }
+
+  public void testMappedReader() throws IOException {
+    byte[][] records = records(500);
+    Path file = write(records, null);
+    assertTrue(IFile.MappedReader.canMap(fs, null, 100));
+    assertFalse(IFile.MappedReader.canMap(fs, new DefaultCodec(), 100));
+    long length = fs.getFileStatus(file).getLen();
+    checkBatches(new IFile.MappedReader<Object, Object>(conf, fs, file, 0,
+                                                        length, null),
+                 records, 10);
+
+    // a segment in the middle of a file, read a record at a time
+    byte[] bytes = new byte[(int) length];
+    FSDataInputStream in = fs.open(file);
+    in.readFully(bytes);
+    in.close();
+    Path spill = new Path(TEST_DIR, "spill");
+    FSDataOutputStream out = fs.create(spill);
+    out.write(new byte[100]);
+    out.write(bytes);
+    out.write(new byte[100]);
+    out.close();
+    IFile.Reader<Object, Object> reader =
+      new IFile.MappedReader<Object, Object>(conf, fs, spill, 100, length,
+                                             null);
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    int i = 0;
+    while (reader.next(key, value)) {
+      assertTrue(Arrays.equals(records[i + 1], bytes(value.getData(),
+          value.getPosition(), value.getLength() - value.getPosition())));
+      i += 2;
+    }
+    assertEquals(records.length, i);
+    assertEquals(reader.getLength(), reader.getPosition());
+    reader.close();
+  }
+
+  public void testInMemoryBatches() throws IOException {
+    byte[][] records = records(300);
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    IFile.Writer<Text, Text> writer =
+      new IFile.Writer<Text, Text>(conf, new FSDataOutputStream(buffer, null),
+                                   Text.class, Text.class, null, null);
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    for (int i = 0; i < records.length; i += 2) {
+      key.reset(records[i], records[i].length);
+      value.reset(records[i + 1], records[i + 1].length);
+      writer.append(key, value);
+    }
+    writer.close();
+
+    RamManager ramManager = new RamManager() {
+      public boolean reserve(int requestedSize) {
+        return true;
+      }
+      public void unreserve(int requestedSize) { }
+    };
+    checkBatches(new IFile.InMemoryReader<Object, Object>(ramManager, null,
+                     buffer.getData(), 0, buffer.getLength()),
+                 records, 16);
+  }
+}
@@ -101,6 +101,57 @@ public class TestIndexCache extends TestCase {
     checkRecord(rec, totalsize);
   }
 
+  public void testLRUPolicy() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf).getRaw();
+    Path p = new Path(System.getProperty("test.build.data", "/tmp"),
+        "cachelru").makeQualified(fs);
+    fs.delete(p, true);
+    conf.setInt("mapred.tasktracker.indexcache.mb", 1);
+    final int partsPerMap = 10000;
+    final int bytesPerMap = partsPerMap * 24;
+    IndexCache cache = new IndexCache(conf);
+
+    // four maps fit, a fifth pushes out the least recently used
+    for (int i = 1; i <= 5; i++) {
+      writeFile(fs, new Path(p, "map" + i), i, partsPerMap);
+    }
+    for (int i = 1; i <= 4; i++) {
+      checkRecord(cache.getIndexInformation("map" + i, i,
+                                            new Path(p, "map" + i)), i);
+    }
+    assertEquals(4 * bytesPerMap, cache.getMemoryUsed());
+    checkRecord(cache.getIndexInformation("map1", 0, new Path(p, "map1")), 1);
+    checkRecord(cache.getIndexInformation("map5", 0, new Path(p, "map5")), 5);
+    assertEquals(1, cache.getEvictions());
+    assertEquals(4 * bytesPerMap, cache.getMemoryUsed());
+
+    // map2 is read again from its file, map1 is still cached
+    fs.delete(new Path(p, "map1"), false);
+    fs.delete(new Path(p, "map2"), false);
+    checkRecord(cache.getIndexInformation("map1", 0, new Path(p, "map1")), 1);
+    try {
+      cache.getIndexInformation("map2", 0, new Path(p, "map2"));
+      fail("map2 was not evicted");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof FileNotFoundException);
+    }
+    assertEquals(6, cache.getMisses());
+    assertEquals(2, cache.getHits());
+
+    // removed maps free their memory, a map that failed to read takes none
+    cache.removeMap("map1");
+    cache.removeMap("map2");
+    assertEquals(3 * bytesPerMap, cache.getMemoryUsed());
+
+    try {
+      cache.getIndexInformation("map3", partsPerMap, new Path(p, "map3"));
+      fail("Served a partition the map does not have");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
   private static void checkRecord(IndexRecord rec, long fill) {
     assertEquals(fill, rec.startOffset);
     assertEquals(fill, rec.rawLength);
@@ -23,6 +23,8 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Map;
 
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobHistory.*;
@@ -100,4 +102,51 @@ public class TestJobHistoryParsing  extends TestCase {
     assertEquals(value4, job.get(Keys.JOBCONF));
     assertEquals(value5, job.get(Keys.USER));
   }
+
+  public void testBinaryHistoryParsing() throws IOException {
+    Path historyDir = new Path(System.getProperty("test.build.data", "."), 
+                                "history");
+    FileSystem fs = FileSystem.getLocal(new JobConf());
+    if (!fs.mkdirs(historyDir)) {
+      fail("Failed to create history directory");
+    }
+    Path historyLog = new Path(historyDir, "testbinarylog");
+    FSDataOutputStream out = fs.create(historyLog);
+    JobHistoryWriter writer = new JobHistoryWriter(true);
+    writer.addStream(out);
+    String value1 = "Value has equal=to, \"quotes\" and spaces in it";
+    String value2 = "Value has \n new line \n and " + 
+                    "dot followed by new line .\n in it ";
+    JobHistory.MetaInfoManager.logMetaInfo(writer);
+    JobHistory.log(writer, RecordTypes.Job, 
+                   new JobHistory.Keys[] {Keys.JOBTRACKERID, Keys.JOBNAME},
+                   new String[] {value1, value2});
+    JobHistory.log(writer, RecordTypes.Job, 
+                   new JobHistory.Keys[] {Keys.USER},
+                   new String[] {"user"});
+    writer.close();
+
+    JobHistory.JobInfo job = new JobHistory.JobInfo("job_200809171136_0001");
+    JobHistory.parseHistoryFromFS(historyLog.toString(), 
+                 new TestListener(job), fs);
+    assertEquals(value1, job.get(Keys.JOBTRACKERID));
+    assertEquals(value2, job.get(Keys.JOBNAME));
+    assertEquals("user", job.get(Keys.USER));
+
+    // a history cut short in its last record is read up to that record
+    long length = fs.getFileStatus(historyLog).getLen();
+    Path truncatedLog = new Path(historyDir, "testtruncatedlog");
+    byte[] bytes = new byte[(int) length - 2];
+    FSDataInputStream in = fs.open(historyLog);
+    in.readFully(bytes);
+    in.close();
+    out = fs.create(truncatedLog);
+    out.write(bytes);
+    out.close();
+    job = new JobHistory.JobInfo("job_200809171136_0001");
+    JobHistory.parseHistoryFromFS(truncatedLog.toString(), 
+                 new TestListener(job), fs);
+    assertEquals(value1, job.get(Keys.JOBTRACKERID));
+    assertEquals("", job.get(Keys.USER));
+  }
 }
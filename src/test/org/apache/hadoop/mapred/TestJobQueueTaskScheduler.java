@@ -247,6 +247,45 @@ public class TestJobQueueTaskScheduler extends TestCase {
     checkAssignment("tt2", "attempt_test_0001_r_000008_0 on tt2");
   }
 
+  public void testPipelinedJobLaunchesReducesFirst() throws IOException {
+    jobConf.setNumReduceTasks(4);
+    jobConf.setBoolean("mapred.map.pipeline", true);
+    submitJobs(1, JobStatus.RUNNING);
+    jobConf.setBoolean("mapred.map.pipeline", false);
+    submitJobs(1, JobStatus.RUNNING);
+
+    checkAssignment("tt1", "attempt_test_0001_r_000001_0 on tt1");
+    checkAssignment("tt1", "attempt_test_0001_r_000002_0 on tt1");
+    // the maps of job 1 wait for its other reduces
+    checkAssignment("tt1", "attempt_test_0002_m_000003_0 on tt1");
+    checkAssignment("tt2", "attempt_test_0001_r_000004_0 on tt2");
+    checkAssignment("tt2", "attempt_test_0001_r_000005_0 on tt2");
+    checkAssignment("tt2", "attempt_test_0001_m_000006_0 on tt2");
+  }
+
+  public void testPipelinedJobWithMoreReducesThanSlots() throws IOException {
+    jobConf.setNumReduceTasks(5);
+    jobConf.setBoolean("mapred.map.pipeline", true);
+    submitJobs(1, JobStatus.RUNNING);
+
+    // the reduces can't all run at once, so the maps don't wait for them
+    checkAssignment("tt1", "attempt_test_0001_m_000001_0 on tt1");
+  }
+
+  public void testPipelinedJobsSharingReduceSlots() throws IOException {
+    jobConf.setNumReduceTasks(3);
+    jobConf.setBoolean("mapred.map.pipeline", true);
+    submitJobs(2, JobStatus.RUNNING);
+
+    checkAssignment("tt1", "attempt_test_0001_r_000001_0 on tt1");
+    checkAssignment("tt1", "attempt_test_0001_r_000002_0 on tt1");
+    // the reduces of job 2 don't fit next to those of job 1, so its maps
+    // don't wait for them
+    checkAssignment("tt1", "attempt_test_0002_m_000003_0 on tt1");
+    checkAssignment("tt2", "attempt_test_0001_r_000004_0 on tt2");
+    checkAssignment("tt2", "attempt_test_0001_m_000005_0 on tt2");
+  }
+
   protected TaskTrackerStatus tracker(String taskTrackerName) {
     return taskTrackerManager.getTaskTracker(taskTrackerName);
   }
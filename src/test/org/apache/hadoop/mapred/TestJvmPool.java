@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Runs a task in a pooled JVM bound to its job and in a JVM of its own,
+ * and reports the launch latency of both.
+ */
+public class TestJvmPool extends TestCase {
+
+  private static final Log LOG =
+    LogFactory.getLog(TestJvmPool.class.getName());
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "jvmpool");
+
+  /** Writes the directories the task runs with. */
+  public static class DirectoryMapper extends MapReduceBase
+    implements Mapper<LongWritable, Text, Text, Text> {
+
+    private boolean written = false;
+
+    public void map(LongWritable key, Text value,
+                    OutputCollector<Text, Text> output, Reporter reporter)
+      throws IOException {
+      if (written) {
+        return;
+      }
+      written = true;
+      output.collect(new Text("cwd"),
+                     new Text(new File(".").getCanonicalPath()));
+      output.collect(new Text("tmpdir"), new Text(new File(
+          System.getProperty("java.io.tmpdir")).getCanonicalPath()));
+      output.collect(new Text("library.path"),
+                     new Text(System.getProperty("java.library.path")));
+      output.collect(new Text("ld.library.path"),
+                     new Text(System.getenv("LD_LIBRARY_PATH")));
+    }
+  }
+
+  public void testPooledLaunch() throws Exception {
+    JobConf conf = new JobConf();
+    // a pooled JVM for each of the setup, map and cleanup tasks
+    conf.setInt("mapred.tasktracker.jvm.pool.size", 3);
+    conf.setInt("mapred.tasktracker.map.tasks.maximum", 1);
+    conf.setInt("mapred.tasktracker.reduce.tasks.maximum", 1);
+    MiniMRCluster mr = null;
+    try {
+      mr = new MiniMRCluster(1, "file:///", 1, null, null, conf);
+      JvmManager jvmManager =
+        mr.getTaskTrackerRunner(0).getTaskTracker().jvmManager;
+      // let the pooled map JVMs start and ask for a task
+      for (int i = 0; i < 600 && jvmManager.getWaitingPoolSize(true) < 3;
+           i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(3, jvmManager.getWaitingPoolSize(true));
+
+      Map<String, String> pooled = runJob(mr, mr.createJobConf(), "pooled");
+      String cwd = pooled.get("cwd");
+      assertTrue(cwd, cwd.contains(JvmManager.POOL_IDENTIFIER));
+      // the work directory of the pooled JVM is set up like a task's own
+      assertEquals(new File(cwd, "tmp").getCanonicalPath(),
+                   pooled.get("tmpdir"));
+      assertTrue(pooled.get("library.path").endsWith(cwd));
+      assertTrue(pooled.get("ld.library.path").startsWith(cwd));
+
+      // other child options keep the task out of the pool
+      JobConf own = mr.createJobConf();
+      own.set("mapred.child.java.opts", "-Xmx201m");
+      Map<String, String> spawned = runJob(mr, own, "spawned");
+      assertFalse(spawned.get("cwd").contains(JvmManager.POOL_IDENTIFIER));
+
+      long pooledLatency = jvmManager.getLaunchLatency(true, true);
+      long spawnedLatency = jvmManager.getLaunchLatency(true, false);
+      LOG.info("Launch latency: pooled " + pooledLatency +
+               " ms, spawned " + spawnedLatency + " ms");
+      assertTrue(pooledLatency >= 0);
+      assertTrue(pooledLatency < spawnedLatency);
+    } finally {
+      if (mr != null) {
+        mr.shutdown();
+      }
+      FileUtil.fullyDelete(new File(TEST_DIR.toString()));
+    }
+  }
+
+  /* Run a map only job of one map and read what its task wrote. */
+  private Map<String, String> runJob(MiniMRCluster mr, JobConf job,
+                                     String name) throws IOException {
+    FileSystem fs = FileSystem.getLocal(job);
+    Path inDir = new Path(TEST_DIR, name + "/in");
+    Path outDir = new Path(TEST_DIR, name + "/out");
+    DataOutputStream file = fs.create(new Path(inDir, "part-0"));
+    file.writeBytes("line\n");
+    file.close();
+
+    job.setJobName(name);
+    job.setInputFormat(TextInputFormat.class);
+    job.setMapperClass(DirectoryMapper.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(Text.class);
+    FileInputFormat.setInputPaths(job, inDir);
+    FileOutputFormat.setOutputPath(job, outDir);
+    job.setNumMapTasks(1);
+    job.setNumReduceTasks(0);
+    RunningJob rJob = JobClient.runJob(job);
+    assertTrue(rJob.isSuccessful());
+
+    Map<String, String> result = new HashMap<String, String>();
+    for (Path part : FileUtil.stat2Paths(
+             fs.listStatus(outDir, new OutputLogFilter()))) {
+      BufferedReader reader =
+        new BufferedReader(new InputStreamReader(fs.open(part)));
+      for (String line = reader.readLine(); line != null;
+           line = reader.readLine()) {
+        String[] fields = line.split("\t", 2);
+        result.put(fields[0], fields[1]);
+      }
+      reader.close();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.Progressable;
+
+public class TestMerger extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "testmerger");
+
+  private static final Progressable NULL_PROGRESS = new Progressable() {
+    public void progress() { }
+  };
+
+  private Configuration conf;
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf).getRaw();
+    fs.delete(TEST_DIR, true);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  /*
+   * Write the given number of sorted segments of random keys, some of them
+   * empty, with the segment as the value, and return the keys written.
+   */
+  private List<Integer> writeSegments(Path[] files, Random random)
+    throws IOException {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < files.length; i++) {
+      files[i] = new Path(TEST_DIR, "segment" + i);
+      IFile.Writer<IntWritable, IntWritable> writer =
+        new IFile.Writer<IntWritable, IntWritable>(conf, fs, files[i],
+            IntWritable.class, IntWritable.class, null, null);
+      int n = i % 5 == 0 ? 0 : random.nextInt(1000);
+      int[] segment = new int[n];
+      for (int j = 0; j < n; j++) {
+        segment[j] = random.nextInt(500);
+        keys.add(segment[j]);
+      }
+      Arrays.sort(segment);
+      for (int key : segment) {
+        writer.append(new IntWritable(key), new IntWritable(i));
+      }
+      writer.close();
+    }
+    Collections.sort(keys);
+    return keys;
+  }
+
+  private void checkMerge(int segments, int factor) throws IOException {
+    Random random = new Random(segments * 31 + factor);
+    Path[] files = new Path[segments];
+    List<Integer> expected = writeSegments(files, random);
+
+    @SuppressWarnings("unchecked")
+    RawKeyValueIterator records =
+      Merger.merge(conf, fs, IntWritable.class, IntWritable.class, null,
+                   files, true, factor, new Path(TEST_DIR, "tmp"),
+                   WritableComparator.get(IntWritable.class), NULL_PROGRESS,
+                   null, null);
+    IntWritable key = new IntWritable();
+    IntWritable value = new IntWritable();
+    int i = 0;
+    while (records.next()) {
+      DataInputBuffer in = records.getKey();
+      key.readFields(in);
+      in = records.getValue();
+      value.readFields(in);
+      assertTrue("more records than written", i < expected.size());
+      assertEquals("record " + i, expected.get(i).intValue(), key.get());
+      i++;
+    }
+    assertEquals(expected.size(), i);
+    assertFalse(records.next());
+    assertEquals(1.0f, records.getProgress().get(), 0.001f);
+    records.close();
+    for (Path file : files) {
+      assertFalse(file + " not deleted", fs.exists(file));
+    }
+  }
+
+  public void testSinglePass() throws IOException {
+    checkMerge(1, 10);
+    checkMerge(7, 10);
+    checkMerge(10, 10);
+    checkMerge(33, 100);
+  }
+
+  public void testMultiplePasses() throws IOException {
+    checkMerge(11, 10);
+    checkMerge(33, 4);
+    checkMerge(50, 2);
+  }
+
+  public void testEmpty() throws IOException {
+    checkMerge(0, 10);
+    checkMerge(5, 3);
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+
+public class TestPendingTaskIndex extends TestCase {
+  private final JobID jobId = new JobID("test", 1);
+  private final JobConf conf = new JobConf();
+  private final NetworkTopology topology = new NetworkTopology();
+  private Node host1, host2, host3, rack1, rack2;
+  private TaskInProgress[] tips;
+
+  protected void setUp() {
+    host1 = new NodeBase("host1", "/rack1");
+    host2 = new NodeBase("host2", "/rack1");
+    host3 = new NodeBase("host3", "/rack2");
+    topology.add(host1);
+    topology.add(host2);
+    topology.add(host3);
+    rack1 = host1.getParent();
+    rack2 = host3.getParent();
+    tips = new TaskInProgress[5];
+    for (int i = 0; i < tips.length; i++) {
+      tips[i] = new TaskInProgress(jobId, "job.xml", tips.length, i,
+                                   null, conf, null);
+    }
+  }
+
+  private List<TaskInProgress> list(PendingTaskIndex.TipQueue queue) {
+    return queue == null ? new ArrayList<TaskInProgress>()
+                         : new ArrayList<TaskInProgress>(queue);
+  }
+
+  private List<TaskInProgress> list(TaskInProgress... tips) {
+    List<TaskInProgress> list = new ArrayList<TaskInProgress>();
+    for (TaskInProgress tip : tips) {
+      list.add(tip);
+    }
+    return list;
+  }
+
+  public void testIndexing() {
+    PendingTaskIndex index = new PendingTaskIndex(2);
+    assertTrue(index.isEmpty());
+    // tip 0 is on two hosts of one rack, tip 1 on two racks
+    index.add(tips[0], host1, false);
+    index.add(tips[0], host2, false);
+    index.add(tips[1], host2, false);
+    index.add(tips[1], host3, false);
+    index.add(tips[2], host3, false);
+    index.addNonLocal(tips[3], false);
+
+    assertEquals(list(tips[0]), list(index.get(host1)));
+    assertEquals(list(tips[0], tips[1]), list(index.get(host2)));
+    assertEquals(list(tips[1], tips[2]), list(index.get(host3)));
+    assertEquals(list(tips[0], tips[1]), list(index.get(rack1)));
+    assertEquals(list(tips[1], tips[2]), list(index.get(rack2)));
+    assertEquals(list(tips[3]), list(index.getNonLocal()));
+
+    // scheduling a tip removes it everywhere
+    assertTrue(index.remove(tips[1]));
+    assertFalse(index.remove(tips[1]));
+    assertFalse(index.contains(tips[1]));
+    assertEquals(list(tips[0]), list(index.get(host2)));
+    assertEquals(list(tips[2]), list(index.get(host3)));
+    assertEquals(list(tips[0]), list(index.get(rack1)));
+    assertEquals(list(tips[2]), list(index.get(rack2)));
+
+    // empty queues are dropped
+    index.remove(tips[0]);
+    assertNull(index.get(host1));
+    assertNull(index.get(host2));
+    assertNull(index.get(rack1));
+    index.remove(tips[2]);
+    index.remove(tips[3]);
+    assertTrue(index.isEmpty());
+    assertTrue(index.getNonLocal().isEmpty());
+  }
+
+  public void testFailedTipsFirst() {
+    PendingTaskIndex index = new PendingTaskIndex(2);
+    index.add(tips[0], host1, false);
+    index.add(tips[1], host1, false);
+    index.add(tips[2], host2, false);
+    index.remove(tips[2]);
+    // a failed tip goes to the front of all its queues
+    index.add(tips[2], host2, true);
+    index.add(tips[1], host1, true);
+    assertEquals(list(tips[1], tips[0]), list(index.get(host1)));
+    assertEquals(list(tips[2]), list(index.get(host2)));
+    assertEquals(list(tips[1], tips[2], tips[0]), list(index.get(rack1)));
+    assertEquals(3, index.get(rack1).size());
+  }
+
+  public void testIteratorRemove() {
+    PendingTaskIndex index = new PendingTaskIndex(2);
+    index.add(tips[0], host1, false);
+    index.add(tips[1], host1, false);
+    index.add(tips[2], host1, false);
+
+    // removing from one queue leaves the tip pending in the others
+    Iterator<TaskInProgress> it = index.get(host1).iterator();
+    assertSame(tips[0], it.next());
+    it.remove();
+    assertTrue(index.contains(tips[0]));
+    assertEquals(list(tips[1], tips[2]), list(index.get(host1)));
+    assertEquals(list(tips[0], tips[1], tips[2]), list(index.get(rack1)));
+
+    // the iterator skips tips removed while it is in use
+    it = index.get(rack1).iterator();
+    assertSame(tips[0], it.next());
+    index.remove(tips[1]);
+    assertTrue(it.hasNext());
+    assertSame(tips[2], it.next());
+    assertFalse(it.hasNext());
+
+    // a tip removed from its last queue is no longer pending
+    it = index.get(rack1).iterator();
+    assertSame(tips[0], it.next());
+    it.remove();
+    assertFalse(index.contains(tips[0]));
+    assertTrue(index.contains(tips[2]));
+    index.remove(tips[2]);
+    assertTrue(index.isEmpty());
+  }
+}
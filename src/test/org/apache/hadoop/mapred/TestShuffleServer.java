@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileUtil;
+
+public class TestShuffleServer extends TestCase {
+
+  private static final File TEST_DIR =
+    new File(System.getProperty("test.build.data", "/tmp"), "shuffleserver");
+  private static final String JOB_ID = "job_200901010000_0001";
+  private static final int REDUCES = 3;
+
+  private JobConf conf;
+  private ShuffleServer server;
+
+  private static String mapId(int map) {
+    return "attempt_200901010000_0001_m_00000" + map + "_0";
+  }
+
+  /* The bytes of a partition of a map, as many as map + partition. */
+  private static byte[] segment(int map, int partition) {
+    byte[] data = new byte[1000 * (map + partition)];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (map * 31 + partition * 7 + i);
+    }
+    return data;
+  }
+
+  private void writeMapOutput(int map) throws IOException {
+    File dir = new File(TEST_DIR,
+                        TaskTracker.getIntermediateOutputDir(JOB_ID,
+                                                             mapId(map)));
+    assertTrue(dir.mkdirs());
+    FileOutputStream dataOut = new FileOutputStream(new File(dir, "file.out"));
+    DataOutputStream indexOut = new DataOutputStream(
+        new FileOutputStream(new File(dir, "file.out.index")));
+    long offset = 0;
+    for (int r = 0; r < REDUCES; r++) {
+      byte[] data = segment(map, r);
+      dataOut.write(data);
+      indexOut.writeLong(offset);
+      indexOut.writeLong(data.length + 1);
+      indexOut.writeLong(data.length);
+      offset += data.length;
+    }
+    dataOut.close();
+    indexOut.close();
+  }
+
+  protected void setUp() throws IOException {
+    FileUtil.fullyDelete(TEST_DIR);
+    conf = new JobConf();
+    conf.set("mapred.local.dir", TEST_DIR.getPath());
+    for (int m = 0; m < 3; m++) {
+      writeMapOutput(m);
+    }
+    server = new ShuffleServer(conf, new InetSocketAddress("localhost", 0),
+                               new IndexCache(conf), null, null);
+    server.start();
+  }
+
+  protected void tearDown() throws IOException {
+    server.stop();
+    FileUtil.fullyDelete(TEST_DIR);
+  }
+
+  private void assertSegment(ShuffleServer.Client client, int map,
+                             int partition) throws IOException {
+    byte[] expected = segment(map, partition);
+    IndexRecord header = client.nextSegment();
+    assertEquals(expected.length + 1, header.rawLength);
+    assertEquals(expected.length, header.partLength);
+    byte[] data = new byte[(int) header.partLength];
+    client.getInputStream().readFully(data);
+    assertTrue(Arrays.equals(expected, data));
+  }
+
+  public void testBatchedRequests() throws IOException {
+    ShuffleServer.Client client = new ShuffleServer.Client(
+        new InetSocketAddress("localhost", server.getPort()));
+    try {
+      // a partition of every map
+      client.request(JOB_ID, new String[] { mapId(0), mapId(1), mapId(2) },
+                     new int[] { 1, 1, 1 });
+      for (int m = 0; m < 3; m++) {
+        assertSegment(client, m, 1);
+      }
+      // the connection is kept for more requests, which may be pipelined
+      client.request(JOB_ID, new String[] { mapId(2), mapId(2) },
+                     new int[] { 0, 2 });
+      client.request(JOB_ID, new String[] { mapId(1) }, new int[] { 2 });
+      assertSegment(client, 2, 0);
+      assertSegment(client, 2, 2);
+      assertSegment(client, 1, 2);
+    } finally {
+      client.close();
+    }
+  }
+
+  public void testMissingMapOutput() throws IOException {
+    ShuffleServer.Client client = new ShuffleServer.Client(
+        new InetSocketAddress("localhost", server.getPort()));
+    try {
+      client.request(JOB_ID, new String[] { mapId(7), mapId(0) },
+                     new int[] { 0, 2 });
+      try {
+        client.nextSegment();
+        fail("Served a map output that does not exist");
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains(mapId(7)));
+      }
+      // the other segments of the request are still served
+      assertSegment(client, 0, 2);
+    } finally {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Tests publishing snapshots as deltas and applying them on the client.
+ */
+public class TestSnapshotDelta extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "snapshot-delta");
+
+  /* Rebuilds the result of a job from its deltas. */
+  private static class Result implements SnapshotSubscription.Listener {
+    Map<String, Integer> values = new HashMap<String, Integer>();
+    int updates = 0;
+    int removes = 0;
+    float progress = 0f;
+
+    public void reset(int partition) {
+      values.clear();
+    }
+    public void update(int partition, Object key, Object value) {
+      values.put(key.toString(), ((IntWritable) value).get());
+      updates++;
+    }
+    public void remove(int partition, Object key) {
+      values.remove(key.toString());
+      removes++;
+    }
+    public void snapshot(int partition, float progress) {
+      this.progress = progress;
+    }
+  }
+
+  private JobConf createJob() throws IOException {
+    JobConf job = new JobConf();
+    FileSystem fs = FileSystem.getLocal(job);
+    fs.delete(TEST_DIR, true);
+    FileOutputFormat.setOutputPath(job, fs.makeQualified(TEST_DIR));
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(IntWritable.class);
+    return job;
+  }
+
+  private static void snapshot(SnapshotPublisher publisher, float progress,
+                               String[] keys, int[] values) throws IOException {
+    publisher.open(progress);
+    for (int i = 0; i < keys.length; i++) {
+      publisher.collect(new Text(keys[i]), new IntWritable(values[i]));
+    }
+    publisher.publish();
+  }
+
+  public void testDeltas() throws IOException {
+    JobConf job = createJob();
+    TaskAttemptID attempt = new TaskAttemptID("test", 1, false, 0, 0);
+    SnapshotPublisher publisher = new SnapshotPublisher(job, attempt, Reporter.NULL);
+    SnapshotSubscription subscription = new JobClient(job).subscribeSnapshots(job);
+    Result result = new Result();
+
+    assertEquals(0, subscription.poll(result));
+
+    snapshot(publisher, 0.25f, new String[] { "a", "b", "c" }, new int[] { 1, 2, 3 });
+    assertEquals(1, subscription.poll(result));
+    assertEquals(3, result.updates);
+    assertEquals(3, result.values.size());
+    assertEquals(0.25f, subscription.getProgress(0));
+
+    // only the changed and removed keys are published
+    snapshot(publisher, 0.5f, new String[] { "a", "b", "d" }, new int[] { 1, 5, 4 });
+    snapshot(publisher, 0.75f, new String[] { "a", "b", "d" }, new int[] { 1, 5, 4 });
+    assertEquals(2, subscription.poll(result));
+    assertEquals(5, result.updates);
+    assertEquals(1, result.removes);
+    assertEquals(0.75f, result.progress);
+    assertEquals(Integer.valueOf(5), result.values.get("b"));
+    assertEquals(Integer.valueOf(4), result.values.get("d"));
+    assertNull(result.values.get("c"));
+    assertEquals(0, subscription.poll(result));
+
+    // a new attempt replaces the partition
+    TaskAttemptID retry = new TaskAttemptID("test", 1, false, 0, 1);
+    publisher = new SnapshotPublisher(job, retry, Reporter.NULL);
+    snapshot(publisher, 0.5f, new String[] { "e" }, new int[] { 6 });
+    assertEquals(1, subscription.poll(result));
+    assertEquals(1, result.values.size());
+    assertEquals(Integer.valueOf(6), result.values.get("e"));
+
+    // the deltas are deleted with the job
+    SnapshotPublisher.deleteDeltas(job);
+    assertFalse(FileSystem.getLocal(job).exists(
+        SnapshotPublisher.getSnapshotDir(job)));
+    assertEquals(0, subscription.poll(result));
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+public class TestStratifiedMapOrder extends TestCase {
+
+  private static final int[] FILE_SPLITS = { 10, 20, 70 };
+
+  private JobClient.RawSplit[] createSplits() throws IOException {
+    int total = 0;
+    for (int n : FILE_SPLITS) {
+      total += n;
+    }
+    JobClient.RawSplit[] splits = new JobClient.RawSplit[total];
+    DataOutputBuffer out = new DataOutputBuffer();
+    int i = 0;
+    for (int file = 0; file < FILE_SPLITS.length; file++) {
+      for (int n = 0; n < FILE_SPLITS[file]; n++) {
+        FileSplit split = new FileSplit(new Path("/in/part-" + file),
+                                        n * 100, 100, new String[0]);
+        out.reset();
+        split.write(out);
+        splits[i] = new JobClient.RawSplit();
+        splits[i].setClassName(FileSplit.class.getName());
+        splits[i].setBytes(out.getData(), 0, out.getLength());
+        i++;
+      }
+    }
+    return splits;
+  }
+
+  /* The file of a split index, the splits are created file by file. */
+  private int file(int split) {
+    for (int file = 0; file < FILE_SPLITS.length; file++) {
+      if (split < FILE_SPLITS[file]) {
+        return file;
+      }
+      split -= FILE_SPLITS[file];
+    }
+    throw new IllegalArgumentException();
+  }
+
+  public void testEveryPrefixIsProportional() throws IOException {
+    JobClient.RawSplit[] splits = createSplits();
+    int[] order = StratifiedMapOrder.order(new JobConf(), splits, 42);
+
+    // a permutation of the maps
+    int[] sorted = order.clone();
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      assertEquals(i, sorted[i]);
+    }
+
+    // each file holds its share of every prefix, give or take a map per file
+    int[] count = new int[FILE_SPLITS.length];
+    for (int prefix = 1; prefix <= order.length; prefix++) {
+      count[file(order[prefix - 1])]++;
+      for (int file = 0; file < FILE_SPLITS.length; file++) {
+        double share = (double) prefix * FILE_SPLITS[file] / order.length;
+        assertTrue("file " + file + " has " + count[file] + " of the first " +
+                   prefix + " maps",
+                   Math.abs(count[file] - share) <= FILE_SPLITS.length);
+      }
+    }
+  }
+
+  public void testSeed() throws IOException {
+    JobClient.RawSplit[] splits = createSplits();
+    JobConf conf = new JobConf();
+    assertTrue(Arrays.equals(StratifiedMapOrder.order(conf, splits, 1),
+                             StratifiedMapOrder.order(conf, splits, 1)));
+    assertFalse(Arrays.equals(StratifiedMapOrder.order(conf, splits, 1),
+                              StratifiedMapOrder.order(conf, splits, 2)));
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+import org.apache.hadoop.mapred.lib.TokenCountMapper;
+import org.apache.hadoop.util.ReflectionUtils;
+
+public class TestUberTask extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "ubertask");
+
+  private JobConf conf;
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new JobConf();
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    conf.set("mapred.local.dir", new Path(TEST_DIR, "local").toString());
+    conf.setInt("io.sort.mb", 10);
+    conf.setBoolean("mapred.job.ubertask.enable", true);
+    conf.setInputFormat(TextInputFormat.class);
+    FileInputFormat.setInputPaths(conf, new Path(TEST_DIR, "in"));
+    FileOutputFormat.setOutputPath(conf, new Path(TEST_DIR, "out"));
+    conf.setMapperClass(TokenCountMapper.class);
+    conf.setCombinerClass(LongSumReducer.class);
+    conf.setReducerClass(LongSumReducer.class);
+    conf.setOutputKeyClass(Text.class);
+    conf.setOutputValueClass(LongWritable.class);
+    conf.setNumReduceTasks(1);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  public void testUberize() throws IOException {
+    InputSplit[] splits = new InputSplit[3];
+    for (int i = 0; i < splits.length; i++) {
+      splits[i] = new FileSplit(new Path("/in/" + i), 0, 100 - i,
+                                new String[] { "host" + i, "host0" });
+    }
+
+    JobConf big = new JobConf(conf);
+    big.setInt("mapred.job.ubertask.maxmaps", 2);
+    assertSame(splits, UberTask.uberize(big, splits));
+    big = new JobConf(conf);
+    big.setLong("mapred.job.ubertask.maxbytes", 100);
+    assertSame(splits, UberTask.uberize(big, splits));
+    JobConf pipelined = new JobConf(conf);
+    pipelined.setBoolean("mapred.map.pipeline", true);
+    assertSame(splits, UberTask.uberize(pipelined, splits));
+
+    JobConf job = new JobConf(conf);
+    InputSplit[] uber = UberTask.uberize(job, splits);
+    assertEquals(1, uber.length);
+    assertEquals(0, job.getNumReduceTasks());
+    assertEquals(1, job.getInt("mapred.job.ubertask.reduces", 0));
+    assertFalse(job.getMapSpeculativeExecution());
+    String[] hosts = uber[0].getLocations();
+    assertEquals(3, hosts.length);
+    assertEquals("host0", hosts[0]);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    uber[0].write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    UberTask.Split split =
+      ReflectionUtils.newInstance(UberTask.Split.class, job);
+    split.readFields(in);
+    assertEquals(297, split.getLength());
+    assertEquals(3, split.getSplits().length);
+    assertEquals(new Path("/in/2"),
+                 ((FileSplit) split.getSplits()[2]).getPath());
+  }
+
+  public void testRun() throws Exception {
+    Map<String, Long> expected = new HashMap<String, Long>();
+    for (int i = 0; i < 3; i++) {
+      Writer writer = new OutputStreamWriter(
+          fs.create(new Path(TEST_DIR, "in/part" + i)));
+      for (int j = 0; j < 100; j++) {
+        String word = "word" + ((i * j) % 7);
+        writer.write(word + " common\n");
+        Long count = expected.get(word);
+        expected.put(word, count == null ? 1 : count + 1);
+      }
+      writer.close();
+    }
+    expected.put("common", 300L);
+
+    JobConf job = new JobConf(conf);
+    InputSplit[] splits = UberTask.uberize(job,
+        job.getInputFormat().getSplits(job, 1));
+    assertEquals(1, splits.length);
+    job.getOutputCommitter().setupJob(new JobContext(job));
+
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    splits[0].write(buffer);
+    BytesWritable split = new BytesWritable();
+    split.set(buffer.getData(), 0, buffer.getLength());
+    TaskAttemptID taskId = new TaskAttemptID(
+        new TaskID(new JobID("uber", 1), true, 0), 0);
+    Path jobFile = new Path(TEST_DIR, "job.xml");
+    MapTask task = new MapTask(jobFile.toString(), taskId, 0,
+                               UberTask.Split.class.getName(), split);
+    task.localizeConfiguration(job);
+    task.setConf(job);
+    Umbilical umbilical = new Umbilical();
+    task.run(job, umbilical, null);
+
+    assertTrue(umbilical.done);
+    assertEquals(300, task.getCounters().findCounter(
+        Task.Counter.MAP_INPUT_RECORDS).getCounter());
+    assertEquals(expected.size(), task.getCounters().findCounter(
+        Task.Counter.REDUCE_OUTPUT_RECORDS).getCounter());
+
+    Map<String, Long> actual = new HashMap<String, Long>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        fs.open(new Path(TEST_DIR, "out/part-00000"))));
+    for (String line = reader.readLine(); line != null;
+         line = reader.readLine()) {
+      String[] fields = line.split("\t");
+      actual.put(fields[0], Long.parseLong(fields[1]));
+    }
+    reader.close();
+    assertEquals(expected, actual);
+  }
+
+  /* The umbilical of the uber task itself. */
+  private static class Umbilical implements TaskUmbilicalProtocol {
+    boolean done = false;
+
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return versionID;
+    }
+    public JvmTask getTask(JVMId jvmId) {
+      return null;
+    }
+    public boolean statusUpdate(TaskAttemptID taskId, TaskStatus status) {
+      return true;
+    }
+    public void reportDiagnosticInfo(TaskAttemptID taskid, String trace) {
+      fail(trace);
+    }
+    public void reportNextRecordRange(TaskAttemptID taskid,
+                                      SortedRanges.Range range) { }
+    public boolean ping(TaskAttemptID taskid) {
+      return true;
+    }
+    public void done(TaskAttemptID taskid) {
+      done = true;
+    }
+    public void commitPending(TaskAttemptID taskId, TaskStatus status) { }
+    public boolean canCommit(TaskAttemptID taskid) {
+      return true;
+    }
+    public void shuffleError(TaskAttemptID taskId, String message) {
+      fail(message);
+    }
+    public void fsError(TaskAttemptID taskId, String message) {
+      fail(message);
+    }
+    public MapTaskCompletionEventsUpdate getMapCompletionEvents(JobID jobId,
+        int fromEventId, int maxLocs, TaskAttemptID id) {
+      return null;
+    }
+    public ReduceTaskCompletionEventsUpdate getReduceCompletionEvents(
+        JobID reduceJobId, int fromIndex, int maxLocs) {
+      return null;
+    }
+  }
+}
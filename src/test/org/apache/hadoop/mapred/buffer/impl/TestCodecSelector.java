@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.buffer.impl;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.JobConf;
+
+public class TestCodecSelector extends TestCase {
+
+  public void testFixedCodec() throws Exception {
+    JobConf conf = new JobConf();
+    CodecSelector none = new CodecSelector(conf, null);
+    assertNull(none.select(1 << 30, true));
+    assertNull(none.codec(CodecSelector.NONE));
+
+    CompressionCodec gzip = new GzipCodec();
+    CodecSelector fixed = new CodecSelector(conf, gzip);
+    assertSame(gzip, fixed.select(1, false));
+    assertSame(gzip, fixed.codec(CodecSelector.name(gzip)));
+  }
+
+  public void testAdaptiveCodec() throws Exception {
+    JobConf conf = new JobConf();
+    conf.setBoolean("mapred.map.output.compression.adaptive", true);
+    conf.setLong("mapred.map.output.compression.min.bytes", 1024);
+    conf.setLong("mapred.map.output.compression.strong.bytes", 1024 * 1024);
+    conf.setClass("mapred.map.output.compression.fast.codec",
+                  DefaultCodec.class, CompressionCodec.class);
+    // never consider the test machine cpu bound
+    conf.setFloat("mapred.map.output.compression.load.threshold", Float.MAX_VALUE);
+    CompressionCodec gzip = new GzipCodec();
+    CodecSelector selector = new CodecSelector(conf, gzip);
+
+    assertNull(selector.select(100, false));
+    assertTrue(selector.select(64 * 1024, false) instanceof DefaultCodec);
+    assertFalse(selector.select(64 * 1024, false) instanceof GzipCodec);
+    assertSame(gzip, selector.select(64 * 1024, true));
+    assertSame(gzip, selector.select(2 * 1024 * 1024, false));
+
+    // stalled receivers trade cpu for network bytes
+    selector.stallFraction(1f);
+    assertSame(gzip, selector.select(64 * 1024, false));
+    assertNotNull(selector.select(100, false));
+
+    // segments name their codec in the header
+    CompressionCodec decoded = selector.codec(DefaultCodec.class.getName());
+    assertTrue(decoded instanceof DefaultCodec);
+    assertSame(decoded, selector.codec(DefaultCodec.class.getName()));
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.jobcontrol;
+
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobStatus;
+import org.apache.hadoop.mapred.MiniMRCluster;
+import org.apache.hadoop.mapred.RunningJob;
+
+/**
+ * Tests the construction and the submission of a pipelined job graph.
+ */
+public class TestPipelineJobControl extends TestCase {
+
+  private Job createJob(String name) throws Exception {
+    JobConf conf = new JobConf();
+    conf.setJobName(name);
+    Job job = new Job(conf);
+    job.setJobName(name);
+    return job;
+  }
+
+  public void testPipelinedEdges() throws Exception {
+    Job extract = createJob("extract");
+    Job transform = createJob("transform");
+    Job lookup = createJob("lookup");
+    Job load = createJob("load");
+
+    PipelineJobControl control = new PipelineJobControl("etl");
+    control.addJob(extract);
+    control.addJob(transform);
+    control.addJob(lookup);
+    control.addJob(load);
+
+    assertTrue(control.addPipelinedJob(extract, transform));
+    assertTrue(control.addPipelinedJob(transform, load));
+    // a job pipelines into at most one downstream job
+    assertFalse(control.addPipelinedJob(extract, lookup));
+    // and is fed by at most one upstream job
+    assertFalse(control.addPipelinedJob(lookup, load));
+    assertFalse(control.addPipelinedJob(lookup, lookup));
+    assertTrue(load.addDependingJob(lookup));
+
+    List<Job> depending = transform.getDependingJobs();
+    assertEquals(1, depending.size());
+    assertSame(extract, depending.get(0));
+    assertEquals(2, load.getDependingJobs().size());
+
+    List<PipelineJobControl.Edge> edges = control.getEdges();
+    assertEquals(2, edges.size());
+    for (PipelineJobControl.Edge edge : edges) {
+      assertFalse(edge.isPipelined());
+      assertEquals(0f, edge.getThroughput());
+      assertEquals(0, edge.getRecordsConsumed());
+    }
+  }
+
+  private JobConf createCopyJob(MiniMRCluster mr, Path indir, Path outdir)
+  throws Exception {
+    JobConf job = JobControlTestUtils.createCopyJob(
+        Collections.singletonList(indir), outdir);
+    job.set("mapred.job.tracker", "localhost:" + mr.getJobTrackerPort());
+    return job;
+  }
+
+  public void testFailedChainSubmission() throws Exception {
+    MiniMRCluster mr = null;
+    try {
+      mr = new MiniMRCluster(1, "file:///", 1);
+      JobConf conf = mr.createJobConf();
+      FileSystem fs = FileSystem.getLocal(conf);
+      Path rootDataDir = new Path(System.getProperty("test.build.data", "."),
+          "TestPipelineJobControlData");
+      Path indir = new Path(rootDataDir, "indir");
+      Path outdir_1 = new Path(rootDataDir, "outdir_1");
+      Path outdir_2 = new Path(rootDataDir, "outdir_2");
+      JobControlTestUtils.cleanData(fs, rootDataDir);
+      JobControlTestUtils.generateData(fs, indir);
+      // the downstream job fails its output check
+      fs.mkdirs(outdir_2);
+
+      Job upstream = new Job(createCopyJob(mr, indir, outdir_1));
+      Job downstream = new Job(createCopyJob(mr, outdir_1, outdir_2));
+      PipelineJobControl control = new PipelineJobControl("chain");
+      control.addJob(upstream);
+      control.addJob(downstream);
+      assertTrue(control.addPipelinedJob(upstream, downstream));
+
+      Thread controller = new Thread(control);
+      controller.start();
+      while (!control.allFinished()) {
+        Thread.sleep(100);
+      }
+      control.stop();
+
+      assertEquals(2, control.getFailedJobs().size());
+      assertFalse(control.getEdges().get(0).isPipelined());
+
+      // the upstream job was submitted, and killed with the chain
+      JobClient client = new JobClient(conf);
+      JobStatus[] jobs = client.getAllJobs();
+      assertEquals(1, jobs.length);
+      RunningJob running = client.getJob(jobs[0].getJobID());
+      for (int i = 0; i < 600 && !running.isComplete(); i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(JobStatus.KILLED, running.getJobState());
+    } finally {
+      if (mr != null) {
+        mr.shutdown();
+      }
+    }
+  }
+}
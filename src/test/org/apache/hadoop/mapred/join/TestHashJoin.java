@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+
+public class TestHashJoin extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "hashjoin");
+
+  private JobConf conf;
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new JobConf();
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    conf.set("mapred.job.id", "job_hashjoin_" + getName());
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  /* Write the records of the given keys, with a value naming each. */
+  private void write(String name, int[] keys) throws IOException {
+    write(name, name, keys);
+  }
+
+  /* Write the records to the given file, with values labelled so. */
+  private void write(String file, String name, int[] keys)
+    throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf,
+        new Path(TEST_DIR, file), IntWritable.class, Text.class);
+    IntWritable key = new IntWritable();
+    for (int i = 0; i < keys.length; i++) {
+      key.set(keys[i]);
+      writer.append(key, new Text(name + i));
+    }
+    writer.close();
+  }
+
+  /* The keys of the given partition of keys. */
+  private static int[] partition(int[] keys, int partition, int partitions) {
+    List<Integer> part = new ArrayList<Integer>();
+    for (int key : keys) {
+      if (key % partitions == partition) {
+        part.add(key);
+      }
+    }
+    int[] ret = new int[part.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = part.get(i);
+    }
+    return ret;
+  }
+
+  /* The stream: keys 0 to 199, with every third key twice. */
+  private int[] streamKeys() {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < 200; i++) {
+      keys.add(i);
+      if (i % 3 == 0) {
+        keys.add(i);
+      }
+    }
+    Collections.shuffle(keys, new java.util.Random(1));
+    int[] ret = new int[keys.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = keys.get(i);
+    }
+    return ret;
+  }
+
+  /* The table: the even keys below 100, with every tenth key twice. */
+  private int[] tableKeys() {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 98; i >= 0; i -= 2) {
+      keys.add(i);
+      if (i % 10 == 0) {
+        keys.add(i);
+      }
+    }
+    int[] ret = new int[keys.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = keys.get(i);
+    }
+    return ret;
+  }
+
+  /* The joined tuples of the given keys, in order. */
+  private static List<String> expected(int[] stream, int[] table,
+                                       boolean outer) {
+    List<String> ret = new ArrayList<String>();
+    for (int i = 0; i < stream.length; i++) {
+      boolean joined = false;
+      for (int j = 0; j < table.length; j++) {
+        if (stream[i] == table[j]) {
+          ret.add(stream[i] + " [stream" + i + ",table" + j + "]");
+          joined = true;
+        }
+      }
+      if (outer && !joined) {
+        ret.add(stream[i] + " [stream" + i + ",]");
+      }
+    }
+    Collections.sort(ret);
+    return ret;
+  }
+
+  private List<String> read(HashJoinInputFormat<IntWritable> format)
+    throws IOException {
+    return read(format, 1);
+  }
+
+  private List<String> read(HashJoinInputFormat<IntWritable> format,
+                            int numSplits) throws IOException {
+    List<String> ret = new ArrayList<String>();
+    for (InputSplit split : format.getSplits(conf, numSplits)) {
+      RecordReader<IntWritable,TupleWritable> reader =
+        format.getRecordReader(split, conf, Reporter.NULL);
+      IntWritable key = reader.createKey();
+      TupleWritable value = reader.createValue();
+      while (reader.next(key, value)) {
+        ret.add(key + " " + value);
+      }
+      reader.close();
+    }
+    Collections.sort(ret);
+    return ret;
+  }
+
+  public void testTable() throws IOException {
+    HashJoinTable table = new HashJoinTable();
+    IntWritable key = new IntWritable();
+    Text value = new Text();
+    for (int i = 0; i < 100000; i++) {
+      key.set(i % 30000);
+      value.set("value" + i);
+      table.add(key, value);
+    }
+    assertEquals(100000, table.size());
+    assertTrue(table.getMemory() > 100000 * 16);
+
+    key.set(123);
+    List<String> values = new ArrayList<String>();
+    for (int entry = table.find(key); entry >= 0; entry = table.next(entry)) {
+      table.getValue(entry, value);
+      values.add(value.toString());
+    }
+    assertEquals(4, values.size());
+    // the last added first
+    assertEquals("value90123", values.get(0));
+    assertEquals("value123", values.get(3));
+    key.set(30000);
+    assertEquals(-1, table.find(key));
+
+    table.clear();
+    assertEquals(0, table.size());
+    key.set(123);
+    assertEquals(-1, table.find(key));
+  }
+
+  public void testBroadcastJoin() throws IOException {
+    int[] stream = streamKeys();
+    int[] table = tableKeys();
+    write("stream", stream);
+    write("table", table);
+    HashJoinInputFormat.setStreamInput(conf, SequenceFileInputFormat.class,
+        new Path(TEST_DIR, "stream").toString());
+    HashJoinInputFormat.setBroadcastInput(conf,
+        SequenceFileInputFormat.class, new Path(TEST_DIR, "table").toString());
+
+    HashJoinInputFormat<IntWritable> format =
+      new HashJoinInputFormat<IntWritable>();
+    assertEquals(expected(stream, table, false), read(format));
+    conf.setBoolean("mapred.join.hash.outer", true);
+    assertEquals(expected(stream, table, true), read(format));
+  }
+
+  public void testSymmetricJoin() throws IOException {
+    int[] stream = streamKeys();
+    int[] table = tableKeys();
+    write("stream", stream);
+    write("table", table);
+    HashJoinInputFormat.setStreamInput(conf, SequenceFileInputFormat.class,
+        new Path(TEST_DIR, "stream").toString());
+    HashJoinInputFormat.setPipelinedInput(conf,
+        SequenceFileInputFormat.class, new Path(TEST_DIR, "table").toString());
+
+    HashJoinInputFormat<IntWritable> format =
+      new HashJoinInputFormat<IntWritable>();
+    InputSplit[] splits = format.getSplits(conf, 1);
+    assertEquals(1, splits.length);
+    assertTrue(splits[0] instanceof CompositeInputSplit);
+    assertEquals(expected(stream, table, false), read(format));
+
+    // the join does not depend on which stream ends first
+    write("table", new int[] { 4, 4 });
+    assertEquals(expected(stream, new int[] { 4, 4 }, false), read(format));
+  }
+
+  public void testPartitionedSymmetricJoin() throws IOException {
+    int[] stream = streamKeys();
+    int[] table = tableKeys();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 3; i++) {
+      int[] streamPart = partition(stream, i, 3);
+      int[] tablePart = partition(table, i, 3);
+      write("streams/part-0000" + i, "stream", streamPart);
+      write("tables/part-0000" + i, "table", tablePart);
+      expected.addAll(expected(streamPart, tablePart, false));
+    }
+    Collections.sort(expected);
+    HashJoinInputFormat.setStreamInput(conf, SequenceFileInputFormat.class,
+        new Path(TEST_DIR, "streams").toString());
+    HashJoinInputFormat.setPipelinedInput(conf,
+        SequenceFileInputFormat.class,
+        new Path(TEST_DIR, "tables").toString());
+
+    // however many splits are asked for, each file is one
+    HashJoinInputFormat<IntWritable> format =
+      new HashJoinInputFormat<IntWritable>();
+    assertEquals(3, format.getSplits(conf, 100).length);
+    assertEquals(expected, read(format, 100));
+  }
+
+  public void testConcurrentProbes() throws Exception {
+    final HashJoinTable table = new HashJoinTable();
+    IntWritable key = new IntWritable();
+    Text value = new Text();
+    for (int i = 0; i < 10000; i++) {
+      key.set(i);
+      value.set("value" + i);
+      table.add(key, value);
+    }
+    final String[] failure = new String[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        public void run() {
+          HashJoinTable.Probe probe = table.newProbe();
+          IntWritable key = new IntWritable();
+          Text value = new Text();
+          try {
+            for (int n = 0; n < 5; n++) {
+              for (int i = 0; i < 10000; i++) {
+                key.set(i);
+                probe.getValue(probe.find(key), value);
+                if (!value.toString().equals("value" + i)) {
+                  failure[0] = value + " for key " + i;
+                  return;
+                }
+              }
+            }
+          } catch (Exception e) {
+            failure[0] = e.toString();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure[0], failure[0]);
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+
+public class TestSpillableIterator extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "spillable");
+
+  private JobConf conf;
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new JobConf();
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    conf.set("mapred.local.dir", new Path(TEST_DIR, "local").toString());
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  private void check(SpillableIterator<Text> it, int n) throws IOException {
+    Text value = new Text();
+    it.reset();
+    for (int i = 0; i < n; i++) {
+      assertTrue(it.hasNext());
+      assertTrue(it.next(value));
+      assertEquals("value" + i, value.toString());
+      value.clear();
+      assertTrue(it.replay(value));
+      assertEquals("value" + i, value.toString());
+    }
+    assertFalse(it.hasNext());
+    assertFalse(it.next(value));
+  }
+
+  public void testInMemory() throws IOException {
+    SpillableIterator<Text> it = new SpillableIterator<Text>(conf);
+    assertFalse(it.replay(new Text()));
+    for (int i = 0; i < 100; i++) {
+      it.add(new Text("value" + i));
+    }
+    check(it, 100);
+    check(it, 100);
+    assertEquals(0, it.getSpilled());
+    it.add(new Text("value100"));
+    check(it, 101);
+    it.clear();
+    check(it, 0);
+  }
+
+  public void testSpill() throws IOException {
+    SpillableIterator<Text> it = new SpillableIterator<Text>(conf, 1000);
+    for (int i = 0; i < 1000; i++) {
+      it.add(new Text("value" + i));
+    }
+    assertTrue(it.getSpilled() > 0);
+    assertTrue(it.getSpilled() < 1000);
+    check(it, 1000);
+    check(it, 1000);
+    try {
+      it.add(new Text("value1000"));
+      fail("Added to a spilled group once read");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Path local = new Path(TEST_DIR, "local");
+    assertTrue(fs.listStatus(local).length > 0);
+    it.clear();
+    check(it, 0);
+    for (int i = 0; i < 10; i++) {
+      it.add(new Text("value" + i));
+    }
+    check(it, 10);
+    it.close();
+    assertEquals(0, fs.listStatus(new Path(local, "join")).length);
+  }
+}
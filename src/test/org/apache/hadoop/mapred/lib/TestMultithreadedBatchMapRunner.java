@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.lib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+public class TestMultithreadedBatchMapRunner extends TestCase {
+
+  private static final int RECORDS = 10000;
+
+  /* Reads the numbers up to RECORDS. */
+  private static class CountingReader
+    implements RecordReader<LongWritable, LongWritable> {
+    private long next = 0;
+
+    public boolean next(LongWritable key, LongWritable value) {
+      if (next == RECORDS) {
+        return false;
+      }
+      key.set(next);
+      value.set(next++);
+      return true;
+    }
+    public LongWritable createKey() {
+      return new LongWritable();
+    }
+    public LongWritable createValue() {
+      return new LongWritable();
+    }
+    public long getPos() {
+      return next;
+    }
+    public void close() { }
+    public float getProgress() {
+      return next / (float) RECORDS;
+    }
+  }
+
+  /* Emits each number and its text, reusing the output instances. */
+  public static class IDMap extends MapReduceBase
+    implements Mapper<LongWritable, LongWritable, LongWritable, Text> {
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+      protected Random initialValue() {
+        return new Random();
+      }
+    };
+    private final ThreadLocal<Text> text = new ThreadLocal<Text>() {
+      protected Text initialValue() {
+        return new Text();
+      }
+    };
+    private long fail;
+
+    public void configure(JobConf job) {
+      fail = job.getLong("test.fail.record", -1);
+    }
+
+    public void map(LongWritable key, LongWritable value,
+                    OutputCollector<LongWritable, Text> output,
+                    Reporter reporter) throws IOException {
+      if (value.get() == fail) {
+        throw new IOException("Failed on " + fail);
+      }
+      if (random.get().nextInt(100) == 0) {
+        Thread.yield();
+      }
+      text.get().set("v" + value.get());
+      output.collect(key, text.get());
+      if (value.get() % 2 == 0) {
+        output.collect(key, text.get());
+      }
+    }
+  }
+
+  /* Collects the output, one record at a time. */
+  private static class Collector
+    implements OutputCollector<LongWritable, Text> {
+    final List<Long> keys = new ArrayList<Long>();
+    Thread thread = null;
+    boolean concurrent = false;
+
+    public void collect(LongWritable key, Text value) {
+      synchronized (this) {
+        if (thread != null) {
+          concurrent = true;
+        }
+        thread = Thread.currentThread();
+      }
+      assertEquals("v" + key.get(), value.toString());
+      keys.add(key.get());
+      synchronized (this) {
+        thread = null;
+      }
+    }
+  }
+
+  private JobConf createJobConf(boolean ordered) {
+    JobConf job = new JobConf();
+    job.setMapperClass(IDMap.class);
+    job.setMapOutputKeyClass(LongWritable.class);
+    job.setMapOutputValueClass(Text.class);
+    job.setInt("mapred.map.multithreadedrunner.threads", 4);
+    job.setInt("mapred.map.multithreadedrunner.batch", 64);
+    job.setBoolean("mapred.map.multithreadedrunner.ordered", ordered);
+    return job;
+  }
+
+  private List<Long> run(JobConf job) throws IOException {
+    MultithreadedBatchMapRunner<LongWritable, LongWritable, LongWritable, Text>
+      runner = new MultithreadedBatchMapRunner<LongWritable, LongWritable,
+                                               LongWritable, Text>();
+    runner.configure(job);
+    Collector collector = new Collector();
+    runner.run(new CountingReader(), collector, Reporter.NULL);
+    assertFalse(collector.concurrent);
+    return collector.keys;
+  }
+
+  private List<Long> expected() {
+    List<Long> keys = new ArrayList<Long>();
+    for (long i = 0; i < RECORDS; i++) {
+      keys.add(i);
+      if (i % 2 == 0) {
+        keys.add(i);
+      }
+    }
+    return keys;
+  }
+
+  public void testOrdered() throws IOException {
+    assertEquals(expected(), run(createJobConf(true)));
+  }
+
+  public void testUnordered() throws IOException {
+    List<Long> keys = run(createJobConf(false));
+    Collections.sort(keys);
+    assertEquals(expected(), keys);
+  }
+
+  public void testIOException() throws IOException {
+    for (boolean ordered : new boolean[] { true, false }) {
+      JobConf job = createJobConf(ordered);
+      job.setLong("test.fail.record", RECORDS / 2);
+      try {
+        run(job);
+        fail("Map failure not reported");
+      } catch (IOException e) {
+        assertEquals("Failed on " + RECORDS / 2, e.getMessage());
+      }
+    }
+  }
+}
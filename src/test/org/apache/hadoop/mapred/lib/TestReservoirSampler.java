@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.lib;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+
+public class TestReservoirSampler extends TestCase {
+
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"), "reservoir");
+
+  private static final int MAPS = 3;
+  private static final int RECORDS = 5000;
+
+  private JobConf conf;
+  private FileSystem fs;
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new JobConf();
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    conf.setInputFormat(KeyValueTextInputFormat.class);
+    conf.setMapOutputKeyClass(Text.class);
+    conf.setMapOutputValueClass(Text.class);
+    conf.setNumMapTasks(MAPS);
+    conf.setNumReduceTasks(8);
+    conf.setInt("total.order.partitioner.adaptive.maps", MAPS);
+    conf.setInt("total.order.partitioner.adaptive.samples", 500);
+    FileOutputFormat.setOutputPath(conf, new Path(TEST_DIR, "out"));
+    ReservoirSampler.setAdaptive(conf, true);
+    Random random = new Random(1);
+    for (int i = 0; i < MAPS; i++) {
+      Writer writer = new OutputStreamWriter(
+          fs.create(new Path(TEST_DIR, "in/part" + i)));
+      for (int j = 0; j < RECORDS; j++) {
+        writer.write(String.format("%06d\tvalue\n", random.nextInt(1000000)));
+      }
+      writer.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  /* The configuration of the given map. */
+  private JobConf getMapConf(int map) throws IOException {
+    JobConf job = new JobConf(conf);
+    Path file = new Path(TEST_DIR, "in/part" + map);
+    job.set("mapred.task.id", "attempt_reservoir_0001_m_00000" + map + "_0");
+    job.set("map.input.file", file.toString());
+    job.setLong("map.input.start", 0);
+    job.setLong("map.input.length", fs.getFileStatus(file).getLen());
+    return job;
+  }
+
+  public void testSplitPoints() throws Exception {
+    final Text[][] splitPoints = new Text[MAPS][];
+    final Exception[] failure = new Exception[1];
+    Thread[] maps = new Thread[MAPS];
+    for (int i = 0; i < MAPS; i++) {
+      final JobConf job = getMapConf(i);
+      final int map = i;
+      maps[i] = new Thread() {
+        public void run() {
+          try {
+            splitPoints[map] = ReservoirSampler.<Text>getSplitPoints(job);
+          } catch (Exception e) {
+            failure[0] = e;
+          }
+        }
+      };
+      maps[i].start();
+    }
+    for (Thread map : maps) {
+      map.join();
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+
+    // all the maps partition by the split points of all their samples
+    List<Text> samples = new ArrayList<Text>();
+    for (int i = 0; i < MAPS; i++) {
+      samples.addAll(ReservoirSampler.<Text>sample(getMapConf(i)));
+    }
+    Text[] expected = ReservoirSampler.getSplitPoints(conf,
+        samples.toArray(new Text[samples.size()]));
+    assertEquals(7, expected.length);
+    for (int i = 0; i < MAPS; i++) {
+      assertTrue(Arrays.equals(expected, splitPoints[i]));
+    }
+
+    // a map started late takes the split points already written
+    TotalOrderPartitioner<Text, Text> partitioner =
+      new TotalOrderPartitioner<Text, Text>();
+    partitioner.configure(getMapConf(0));
+    assertEquals(0, partitioner.getPartition(new Text("000000"), null, 8));
+    assertEquals(7, partitioner.getPartition(new Text("999999"), null, 8));
+    assertEquals(4, partitioner.getPartition(splitPoints[0][3], null, 8));
+  }
+
+  public void testElection() throws Exception {
+    final JobConf job = new JobConf(conf);
+    final FileSystem fs = FileSystem.getLocal(job);
+    final Path dir = ReservoirSampler.getSampleDir(job);
+    final Text[][] elected = new Text[8][];
+    final Exception[] failure = new Exception[1];
+    Thread[] maps = new Thread[elected.length];
+    for (int i = 0; i < maps.length; i++) {
+      final int map = i;
+      maps[i] = new Thread() {
+        public void run() {
+          try {
+            Text[] proposal = { new Text("proposal" + map) };
+            elected[map] = ReservoirSampler.elect(job, fs, dir,
+                "attempt_reservoir_0001_m_00000" + map + "_0", proposal);
+          } catch (Exception e) {
+            failure[0] = e;
+          }
+        }
+      };
+    }
+    for (Thread map : maps) {
+      map.start();
+    }
+    for (Thread map : maps) {
+      map.join();
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    // every map takes the one proposal elected
+    assertEquals(1, elected[0].length);
+    for (int i = 1; i < elected.length; i++) {
+      assertTrue(Arrays.equals(elected[0], elected[i]));
+    }
+  }
+
+  public void testFewDistinctKeys() {
+    JobConf job = new JobConf(conf);
+    Text[] samples = new Text[100];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = new Text(i < 90 ? "a" : "b");
+    }
+    Text[] splitPoints = ReservoirSampler.getSplitPoints(job, samples);
+    assertEquals(2, splitPoints.length);
+    assertEquals(new Text("a"), splitPoints[0]);
+    assertEquals(new Text("b"), splitPoints[1]);
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+
+public class TestApproxUniqValueCount extends TestCase {
+
+  private static void assertClose(long expected, long actual, double error) {
+    assertTrue("estimate " + actual + " of " + expected,
+               Math.abs(actual - expected) <= error * expected);
+  }
+
+  public void testEstimate() {
+    ApproxUniqValueCount count = new ApproxUniqValueCount();
+    assertEquals(0, count.getEstimate());
+    for (int i = 0; i < 100; i++) {
+      count.addNextValue("value" + (i % 10));
+    }
+    assertEquals(10, count.getEstimate());
+
+    // four standard errors of 1.6%
+    for (int i = 0; i < 100000; i++) {
+      count.addNextValue(new Text("value" + i));
+      count.addNextValue(new Text("value" + i));
+    }
+    assertClose(100000, count.getEstimate(), 0.065);
+    assertEquals(count.getEstimate() + "\t" + count.getStandardError(),
+                 count.getReport());
+    assertClose(1600, count.getStandardError(), 0.065);
+
+    count.reset();
+    assertEquals(0, count.getEstimate());
+  }
+
+  public void testMerge() {
+    ApproxUniqValueCount all = new ApproxUniqValueCount();
+    ApproxUniqValueCount[] parts = new ApproxUniqValueCount[4];
+    for (int p = 0; p < parts.length; p++) {
+      parts[p] = new ApproxUniqValueCount();
+    }
+    for (int i = 0; i < 50000; i++) {
+      Text value = new Text("value" + i);
+      all.addNextValue(value);
+      parts[i % parts.length].addNextValue(value);
+      // the parts overlap
+      parts[(i + 1) % parts.length].addNextValue(value);
+    }
+
+    ApproxUniqValueCount merged = new ApproxUniqValueCount();
+    for (ApproxUniqValueCount part : parts) {
+      ArrayList<Text> output = part.getCombinerOutput();
+      assertEquals(1, output.size());
+      merged.addNextValue(output.get(0));
+    }
+    // merging is exact: the registers are those of a single sketch
+    assertEquals(all.getEstimate(), merged.getEstimate());
+    assertEquals(all.getCombinerOutput(), merged.getCombinerOutput());
+  }
+
+  public void testMergePrecisions() {
+    ApproxUniqValueCount coarse = new ApproxUniqValueCount(8);
+    ApproxUniqValueCount fine = new ApproxUniqValueCount(14);
+    ApproxUniqValueCount expected = new ApproxUniqValueCount(8);
+    for (int i = 0; i < 20000; i++) {
+      Text value = new Text("value" + i);
+      (i % 2 == 0 ? coarse : fine).addNextValue(value);
+      expected.addNextValue(value);
+    }
+
+    // a finer sketch folds into a coarser one
+    ApproxUniqValueCount merged = new ApproxUniqValueCount(8);
+    merged.addNextValue(coarse.getCombinerOutput().get(0));
+    merged.addNextValue(fine.getCombinerOutput().get(0));
+    assertEquals(expected.getCombinerOutput(), merged.getCombinerOutput());
+
+    // and a coarser one lowers the precision of a finer one
+    merged = new ApproxUniqValueCount(14);
+    merged.addNextValue(fine.getCombinerOutput().get(0));
+    merged.addNextValue(coarse.getCombinerOutput().get(0));
+    assertEquals(expected.getCombinerOutput(), merged.getCombinerOutput());
+    assertClose(20000, merged.getEstimate(), 0.26);
+  }
+
+  public void testWritable() throws IOException {
+    ApproxUniqValueCount count = new ApproxUniqValueCount(10);
+    for (int i = 0; i < 5000; i++) {
+      count.addNextValue("value" + i);
+    }
+    DataOutputBuffer out = new DataOutputBuffer();
+    count.write(out);
+    assertEquals(1 + 1024, out.getLength());
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    ApproxUniqValueCount read = new ApproxUniqValueCount();
+    read.readFields(in);
+    assertEquals(count.getReport(), read.getReport());
+  }
+
+  public void testGenerate() {
+    ValueAggregator aggregator = ValueAggregatorBaseDescriptor
+      .generateValueAggregator(
+          ValueAggregatorBaseDescriptor.APPROX_UNIQ_VALUE_COUNT);
+    assertTrue(aggregator instanceof ApproxUniqValueCount);
+    try {
+      new ApproxUniqValueCount(17);
+      fail("Precision out of range");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
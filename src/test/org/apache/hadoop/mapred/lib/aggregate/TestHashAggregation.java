@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+public class TestHashAggregation extends TestCase {
+
+  /** The aggregations of the tests, and an approximate unique count. */
+  public static class Descriptor extends AggregatorTests {
+    public ArrayList<Entry<Text, Text>> generateKeyValPairs(Object key,
+                                                            Object val) {
+      ArrayList<Entry<Text, Text>> retv = super.generateKeyValPairs(key, val);
+      for (String word : val.toString().split(" ")) {
+        retv.add(generateEntry(APPROX_UNIQ_VALUE_COUNT, "approx_uniq_count",
+                               new Text(word)));
+      }
+      return retv;
+    }
+  }
+
+  /* Groups the collected pairs by key, the way the shuffle does. */
+  private static class Grouper implements OutputCollector<Text, Text> {
+    Map<Text, List<Text>> groups = new TreeMap<Text, List<Text>>();
+    int records = 0;
+
+    public void collect(Text key, Text value) {
+      List<Text> values = groups.get(key);
+      if (values == null) {
+        values = new ArrayList<Text>();
+        groups.put(new Text(key), values);
+      }
+      values.add(new Text(value));
+      records++;
+    }
+  }
+
+  /* Map the lines, then reduce the map output to the reports. */
+  private static Grouper run(JobConf job, Grouper mapOutput)
+    throws IOException {
+    ValueAggregatorMapper<LongWritable, Text> mapper =
+      new ValueAggregatorMapper<LongWritable, Text>();
+    mapper.configure(job);
+    for (int i = 1; i <= 40; i++) {
+      StringBuilder line = new StringBuilder();
+      for (int j = 0; j < i; j++) {
+        line.append(j == 0 ? "" : " ").append(i % 13);
+      }
+      mapper.map(new LongWritable(i), new Text(line.toString()), mapOutput,
+                 Reporter.NULL);
+    }
+    mapper.close();
+
+    ValueAggregatorReducer<LongWritable, Text> reducer =
+      new ValueAggregatorReducer<LongWritable, Text>();
+    reducer.configure(job);
+    Grouper reports = new Grouper();
+    for (Map.Entry<Text, List<Text>> group : mapOutput.groups.entrySet()) {
+      reducer.reduce(group.getKey(), group.getValue().iterator(), reports,
+                     Reporter.NULL);
+    }
+    reducer.close();
+    return reports;
+  }
+
+  public void testMapAggregation() throws IOException {
+    JobConf job = new JobConf();
+    job.setInt("aggregator.descriptor.num", 1);
+    job.set("aggregator.descriptor.0",
+            "UserDefined," + Descriptor.class.getName());
+
+    Grouper plain = new Grouper();
+    Map<Text, List<Text>> expected = run(job, plain).groups;
+    assertEquals("13", expected.get(new Text("uniq_count")).get(0).toString());
+    assertEquals("13\t0",
+        expected.get(new Text("approx_uniq_count")).get(0).toString());
+
+    job.setBoolean("aggregate.map.hash.enable", true);
+    Grouper hashed = new Grouper();
+    assertEquals(expected, run(job, hashed).groups);
+    // one record per aggregation id, or per value of those that keep them
+    assertTrue(hashed.records < plain.records / 10);
+
+    // with no memory to spare, the table is emptied after every record
+    job.setLong("aggregate.map.hash.memory.mb", 0);
+    Grouper flushed = new Grouper();
+    assertEquals(expected, run(job, flushed).groups);
+    assertTrue(flushed.records > hashed.records);
+    assertTrue(flushed.records < plain.records);
+  }
+
+  public void testSketchMemory() {
+    HashAggregationTable table = new HashAggregationTable();
+    long empty = table.getMemory();
+    for (int i = 0; i < 100; i++) {
+      table.add(new Text(ValueAggregatorBaseDescriptor.APPROX_UNIQ_VALUE_COUNT
+                         + ValueAggregatorDescriptor.TYPE_SEPARATOR + i),
+                new Text("value"));
+    }
+    // each sketch is charged its registers
+    assertTrue(table.getMemory() - empty >=
+               100L * (1 << ApproxUniqValueCount.DEFAULT_PRECISION));
+
+    // and a sketch that grows, as it grows
+    table = new HashAggregationTable();
+    Text id = new Text(ValueAggregatorBaseDescriptor.APPROX_TOP_VALUES +
+                       ValueAggregatorDescriptor.TYPE_SEPARATOR + "top");
+    table.add(id, new Text("value0"));
+    long one = table.getMemory();
+    for (int i = 1; i < 50; i++) {
+      table.add(id, new Text("value" + i));
+    }
+    assertEquals(1, table.size());
+    assertTrue(table.getMemory() >= one + 49 * 100);
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred.lib.aggregate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Text;
+
+public class TestSketchAggregators extends TestCase {
+
+  private static final int VALUES = 1000;
+
+  /* Value i occurs 10000 / (i + 1) times, in a random order. */
+  private static List<Text> zipf() {
+    List<Text> values = new ArrayList<Text>();
+    for (int i = 0; i < VALUES; i++) {
+      for (int j = 0; j < occurrences(i); j++) {
+        values.add(new Text("v" + i));
+      }
+    }
+    Collections.shuffle(values, new Random(1));
+    return values;
+  }
+
+  private static int occurrences(int i) {
+    return 10000 / (i + 1);
+  }
+
+  private static int occurrences(String value) {
+    return occurrences(Integer.parseInt(value.substring(1)));
+  }
+
+  /* Aggregate the values in parts, and merge the combiner output. */
+  private static void mergeParts(List<Text> values, ValueAggregator[] parts,
+                                 ValueAggregator merged) {
+    for (int i = 0; i < values.size(); i++) {
+      parts[i % parts.length].addNextValue(values.get(i));
+    }
+    for (ValueAggregator part : parts) {
+      for (Object sketch : part.getCombinerOutput()) {
+        merged.addNextValue(sketch);
+      }
+    }
+  }
+
+  private static void checkHeavyHitters(ApproxHeavyHitters hitters,
+                                        long total) {
+    String[] report = hitters.getReport().split("\t");
+    assertEquals(total, Long.parseLong(report[0]));
+    long bound = hitters.getErrorBound();
+    assertEquals(bound, Long.parseLong(report[1]));
+    assertTrue(bound <= Math.ceil(total * ApproxHeavyHitters.DEFAULT_ERROR));
+
+    List<Map.Entry<String, Long>> heavy = hitters.getHeavyHitters();
+    assertEquals(2 * heavy.size(), report.length - 2);
+    int found = 0;
+    for (Map.Entry<String, Long> hitter : heavy) {
+      int count = occurrences(hitter.getKey());
+      assertTrue(hitter.getValue() >= count);
+      assertTrue(hitter.getValue() <= count + bound);
+      assertTrue(hitter.getValue() >=
+                 ApproxHeavyHitters.DEFAULT_FRACTION * total);
+      if (count >= ApproxHeavyHitters.DEFAULT_FRACTION * total) {
+        found++;
+      }
+    }
+    // every value above the fraction is found
+    int expected = 0;
+    for (int i = 0; i < VALUES; i++) {
+      if (occurrences(i) >= ApproxHeavyHitters.DEFAULT_FRACTION * total) {
+        expected++;
+      }
+    }
+    assertEquals(expected, found);
+    assertEquals("v0", heavy.get(0).getKey());
+  }
+
+  public void testHeavyHitters() {
+    List<Text> values = zipf();
+    ApproxHeavyHitters hitters = new ApproxHeavyHitters();
+    for (Text value : values) {
+      hitters.addNextValue(value);
+    }
+    checkHeavyHitters(hitters, values.size());
+    // a value can be added with its count
+    hitters.addNextValue("v0\t" + values.size());
+    long estimate = hitters.getEstimate("v0");
+    assertTrue(estimate >= occurrences(0) + values.size());
+    assertTrue(estimate <=
+               occurrences(0) + values.size() + hitters.getErrorBound());
+
+    ApproxHeavyHitters[] parts = new ApproxHeavyHitters[3];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = new ApproxHeavyHitters();
+    }
+    ApproxHeavyHitters merged = new ApproxHeavyHitters();
+    mergeParts(values, parts, merged);
+    checkHeavyHitters(merged, values.size());
+
+    merged.reset();
+    assertEquals("0\t0", merged.getReport());
+  }
+
+  private static void checkTopValues(ApproxTopValues top, long total) {
+    String[] report = top.getReport().split("\t");
+    assertEquals(total, Long.parseLong(report[0]));
+    long bound = top.getErrorBound();
+    assertEquals(bound, Long.parseLong(report[1]));
+    assertTrue(bound <= total / ApproxTopValues.DEFAULT_CAPACITY);
+
+    List<ApproxTopValues.Counter> counters = top.getTopValues();
+    assertEquals(ApproxTopValues.DEFAULT_TOP, counters.size());
+    assertEquals(3 * counters.size(), report.length - 2);
+    for (ApproxTopValues.Counter counter : counters) {
+      int count = occurrences(counter.getValue());
+      assertTrue(counter.getError() <= bound);
+      assertTrue(counter.getCount() >= count);
+      assertTrue(counter.getCount() - counter.getError() <= count);
+    }
+    // the most frequent values are far enough apart to be in order
+    for (int i = 0; i < 3; i++) {
+      assertEquals("v" + i, counters.get(i).getValue());
+    }
+  }
+
+  public void testTopValues() {
+    List<Text> values = zipf();
+    ApproxTopValues top = new ApproxTopValues();
+    for (Text value : values) {
+      top.addNextValue(value);
+    }
+    checkTopValues(top, values.size());
+
+    ApproxTopValues[] parts = new ApproxTopValues[4];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = new ApproxTopValues();
+    }
+    ApproxTopValues merged = new ApproxTopValues();
+    mergeParts(values, parts, merged);
+    checkTopValues(merged, values.size());
+
+    // a sketch that is not full counts exactly
+    ApproxTopValues exact = new ApproxTopValues(10, 2);
+    exact.addNextValue("a");
+    exact.addNextValue("b\t3");
+    exact.addNextValue("a");
+    exact.addNextValue("c");
+    assertEquals("6\t0\tb\t3\t0\ta\t2\t0", exact.getReport());
+  }
+
+  private static void checkQuantiles(ApproxValueQuantiles quantiles, int n) {
+    assertEquals(n, quantiles.getCount());
+    assertEquals(0.0, quantiles.getQuantile(0));
+    assertEquals(n - 1.0, quantiles.getQuantile(1));
+    for (double q : new double[] { 0.001, 0.01, 0.25, 0.5, 0.9, 0.999 }) {
+      double error = quantiles.getRankError(q);
+      assertTrue("rank error " + error + " of " + q, error < 0.05);
+      assertEquals("quantile " + q, q * n, quantiles.getQuantile(q),
+                   error * n + 1);
+    }
+    // the extreme quantiles are the most accurate
+    assertTrue(quantiles.getRankError(0.001) < quantiles.getRankError(0.5));
+
+    String[] report = quantiles.getReport().split("\t");
+    assertEquals(3 + 2 * ApproxValueQuantiles.DEFAULT_QUANTILES.length,
+                 report.length);
+    assertEquals(n, Long.parseLong(report[0]));
+    assertEquals(quantiles.getQuantile(0.5), Double.parseDouble(report[5]));
+    assertEquals(quantiles.getRankError(0.5), Double.parseDouble(report[6]));
+  }
+
+  public void testQuantiles() {
+    int n = 100000;
+    List<Text> values = new ArrayList<Text>(n);
+    for (int i = 0; i < n; i++) {
+      values.add(new Text("" + i));
+    }
+    Collections.shuffle(values, new Random(2));
+
+    ApproxValueQuantiles quantiles = new ApproxValueQuantiles();
+    assertEquals("0", quantiles.getReport());
+    for (Text value : values) {
+      quantiles.addNextValue(value);
+    }
+    checkQuantiles(quantiles, n);
+
+    ApproxValueQuantiles[] parts = new ApproxValueQuantiles[5];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = new ApproxValueQuantiles();
+    }
+    ApproxValueQuantiles merged = new ApproxValueQuantiles();
+    mergeParts(values, parts, merged);
+    checkQuantiles(merged, n);
+
+    // the combiner output of a digest is a digest with the same report
+    ApproxValueQuantiles copy = new ApproxValueQuantiles();
+    copy.addNextValue(merged.getCombinerOutput().get(0));
+    assertEquals(merged.getReport(), copy.getReport());
+  }
+
+  public void testGenerate() {
+    assertTrue(ValueAggregatorBaseDescriptor.generateValueAggregator(
+        ValueAggregatorBaseDescriptor.APPROX_HEAVY_HITTERS)
+        instanceof ApproxHeavyHitters);
+    assertTrue(ValueAggregatorBaseDescriptor.generateValueAggregator(
+        ValueAggregatorBaseDescriptor.APPROX_TOP_VALUES)
+        instanceof ApproxTopValues);
+    assertTrue(ValueAggregatorBaseDescriptor.generateValueAggregator(
+        ValueAggregatorBaseDescriptor.APPROX_VALUE_QUANTILES)
+        instanceof ApproxValueQuantiles);
+  }
+}
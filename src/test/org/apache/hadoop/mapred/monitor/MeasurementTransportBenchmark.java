@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.sql.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.mapred.monitor.impl.SystemMeasurement;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Benchmark of the monitor measurement transport.
+ * <p>
+ * A number of client threads offer measurements to their own
+ * {@link MeasurementTransport}, all connected to one
+ * {@link MeasurementReceiver}. Reports the measurements received per
+ * second, and per second of CPU time used by the process, which is the
+ * measurements per second a single core sustains.
+ */
+public class MeasurementTransportBenchmark extends Configured implements Tool {
+
+  static int printUsage() {
+    System.out.println("transportbench [-clients <n>] [-measurements <n per client>]" +
+                       " [-batch <n>] [-buffer <n>] [-interval <ms>]");
+    ToolRunner.printGenericCommandUsage(System.out);
+    return -1;
+  }
+
+  public int run(String[] args) throws Exception {
+    int clients = 4;
+    int measurements = 250000;
+    Configuration conf = new Configuration(getConf());
+    for (int i = 0; i < args.length; i++) {
+      if ("-clients".equals(args[i])) {
+        clients = Integer.parseInt(args[++i]);
+      } else if ("-measurements".equals(args[i])) {
+        measurements = Integer.parseInt(args[++i]);
+      } else if ("-batch".equals(args[i])) {
+        conf.setInt("mapred.monitor.batch.size", Integer.parseInt(args[++i]));
+      } else if ("-buffer".equals(args[i])) {
+        conf.setInt("mapred.monitor.buffer.size", Integer.parseInt(args[++i]));
+      } else if ("-interval".equals(args[i])) {
+        conf.setLong("mapred.monitor.flush.interval", Long.parseLong(args[++i]));
+      } else {
+        return printUsage();
+      }
+    }
+
+    final AtomicLong received = new AtomicLong();
+    MeasurementReceiver receiver = new MeasurementReceiver(
+        new InetSocketAddress("localhost", 0), new MeasurementReceiver.Handler() {
+          public void receive(Measurement.Type type, List<Measurement> batch) {
+            received.addAndGet(batch.size());
+          }
+        });
+    receiver.open();
+
+    long cpuStart = cpuTime();
+    long start = System.currentTimeMillis();
+
+    MeasurementTransport[] transports = new MeasurementTransport[clients];
+    Thread[] producers = new Thread[clients];
+    for (int c = 0; c < clients; c++) {
+      final MeasurementTransport transport =
+        new MeasurementTransport(conf, receiver.address(), Measurement.Type.SYSTEM);
+      final int count = measurements;
+      transports[c] = transport;
+      producers[c] = new Thread() {
+        public void run() {
+          Date date = new Date(System.currentTimeMillis());
+          for (int i = 0; i < count; i++) {
+            transport.offer(new SystemMeasurement("host USER", "host", "USER",
+                                                  date, (float) i));
+          }
+        }
+      };
+      producers[c].start();
+    }
+
+    long sent = 0;
+    long dropped = 0;
+    for (int c = 0; c < clients; c++) {
+      producers[c].join();
+      transports[c].close();
+      sent += transports[c].sent();
+      dropped += transports[c].dropped();
+    }
+    while (received.get() < sent) {
+      Thread.sleep(10);
+    }
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    long cpu = Math.max(1, (cpuTime() - cpuStart) / 1000000);
+    receiver.close();
+
+    System.out.println("Clients: " + clients + ", offered: " +
+                       ((long) clients * measurements) + ", received: " +
+                       received.get() + ", dropped: " + dropped);
+    System.out.println("Elapsed: " + elapsed + " ms, CPU: " + cpu + " ms");
+    System.out.println("Measurements/sec: " + (received.get() * 1000 / elapsed));
+    System.out.println("Measurements/sec/core: " + (received.get() * 1000 / cpu));
+    return 0;
+  }
+
+  /* CPU time of the process in nanoseconds, or wall time if unsupported. */
+  private static long cpuTime() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return System.nanoTime();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new Configuration(),
+                             new MeasurementTransportBenchmark(), args);
+    System.exit(res);
+  }
+}
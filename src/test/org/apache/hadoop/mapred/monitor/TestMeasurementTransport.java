@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.monitor;
+
+import java.net.InetSocketAddress;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.monitor.impl.SystemMeasurement;
+
+/**
+ * Tests sending measurement batches to a measurement receiver.
+ */
+public class TestMeasurementTransport extends TestCase {
+
+  public void testBatches() throws Exception {
+    final List<Measurement> received = new ArrayList<Measurement>();
+    MeasurementReceiver receiver = new MeasurementReceiver(
+        new InetSocketAddress("localhost", 0), new MeasurementReceiver.Handler() {
+          public void receive(Measurement.Type type, List<Measurement> batch) {
+            assertEquals(Measurement.Type.SYSTEM, type);
+            assertTrue(batch.size() <= 100);
+            synchronized (received) {
+              received.addAll(batch);
+              received.notifyAll();
+            }
+          }
+        });
+    receiver.open();
+
+    Configuration conf = new Configuration();
+    conf.setInt("mapred.monitor.batch.size", 100);
+    conf.setInt("mapred.monitor.buffer.size", 10000);
+    conf.setLong("mapred.monitor.flush.interval", 50);
+    Date date = new Date(System.currentTimeMillis());
+    int count = 1234;
+    try {
+      MeasurementTransport transport =
+        new MeasurementTransport(conf, receiver.address(), Measurement.Type.SYSTEM);
+      for (int i = 0; i < count; i++) {
+        assertTrue(transport.offer(
+            new SystemMeasurement("host USER", "host", "USER", date, (float) i)));
+      }
+      transport.close();
+      assertFalse(transport.offer(
+          new SystemMeasurement("host USER", "host", "USER", date, 0f)));
+      assertEquals(count, transport.sent());
+      assertEquals(0, transport.dropped());
+
+      synchronized (received) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+          received.wait(100);
+        }
+      }
+      assertEquals(count, received.size());
+      for (int i = 0; i < count; i++) {
+        List attributes = received.get(i).attributes();
+        assertEquals("USER", attributes.get(1));
+        assertEquals((float) i, attributes.get(3));
+      }
+    } finally {
+      receiver.close();
+    }
+  }
+}
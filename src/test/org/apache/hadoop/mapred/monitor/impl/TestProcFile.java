@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.monitor.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests parsing numbers from a reread proc file.
+ */
+public class TestProcFile extends TestCase {
+
+  private static final File TEST_DIR =
+    new File(System.getProperty("test.build.data", "/tmp"), "procfile");
+
+  private File write(String name, String contents) throws IOException {
+    TEST_DIR.mkdirs();
+    File file = new File(TEST_DIR, name);
+    FileWriter out = new FileWriter(file);
+    out.write(contents);
+    out.close();
+    return file;
+  }
+
+  public void testParse() throws IOException {
+    File file = write("netdev",
+        "Inter-|   Receive\n" +
+        "  lo: 100 2 0 0 0 0 0 0 100 2 0 0 0 0 0 0\n" +
+        "  eth0:12345 67 1 0 0 0 0 0 890 12 3 0 0 0 0 0\n");
+    ProcFile netdev = new ProcFile(file.getPath());
+    try {
+      netdev.read();
+      assertTrue(netdev.line("eth0:".getBytes()));
+      assertEquals(12345, netdev.nextLong());
+      assertEquals(67, netdev.nextLong());
+      assertEquals(1, netdev.nextLong());
+      assertFalse(netdev.line("eth1:".getBytes()));
+
+      // the file is reread from the start
+      write("netdev", "  eth0: 5 6 7 0 0 0 0 0 8 9 10\n");
+      netdev.read();
+      assertTrue(netdev.line("eth0:".getBytes()));
+      for (int i = 0; i < 8; i++) netdev.nextLong();
+      assertEquals(8, netdev.nextLong());
+      try {
+        for (int i = 0; i < 3; i++) netdev.nextLong();
+        fail("Expected the line to end");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      netdev.close();
+    }
+
+    ProcFile loadavg = new ProcFile(write("loadavg", "0.52 1.05 12.5 1/123 4567\n").getPath());
+    try {
+      loadavg.read();
+      assertTrue(loadavg.line(new byte[0]));
+      assertEquals(0.52, loadavg.nextDecimal(), 1e-9);
+      assertEquals(1.05, loadavg.nextDecimal(), 1e-9);
+      assertEquals(12.5, loadavg.nextDecimal(), 1e-9);
+    } finally {
+      loadavg.close();
+    }
+  }
+}
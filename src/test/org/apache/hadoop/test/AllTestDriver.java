@@ -39,6 +39,10 @@ import org.apache.hadoop.io.TestSetFile;
 import org.apache.hadoop.ipc.TestIPC;
 import org.apache.hadoop.ipc.TestRPC;
 import org.apache.hadoop.mapred.ThreadedMapBenchmark;
+import org.apache.hadoop.mapred.JobTrackerLoadBenchmark;
+import org.apache.hadoop.mapred.ShuffleServerBenchmark;
+import org.apache.hadoop.mapred.MapSortBenchmark;
+import org.apache.hadoop.mapred.monitor.MeasurementTransportBenchmark;
 
 public class AllTestDriver {
   
@@ -74,6 +78,14 @@ public class AllTestDriver {
       pgd.addClass("filebench", FileBench.class, "Benchmark SequenceFile(Input|Output)Format (block,record compressed and uncompressed), Text(Input|Output)Format (compressed and uncompressed)");
       pgd.addClass("dfsthroughput", BenchmarkThroughput.class, 
                    "measure hdfs throughput");
+      pgd.addClass("transportbench", MeasurementTransportBenchmark.class, 
+                   "measure monitor measurements per second per core");
+      pgd.addClass("jtbench", JobTrackerLoadBenchmark.class, 
+                   "drive a JobTracker with simulated task trackers and clients");
+      pgd.addClass("shufflebench", ShuffleServerBenchmark.class, 
+                   "measure map output fetches from the shuffle server and the servlet");
+      pgd.addClass("mapsortbench", MapSortBenchmark.class, 
+                   "measure map output sorts with and without normalized key prefixes");
       pgd.driver(argv);
     } catch(Throwable e) {
       e.printStackTrace();
@@ -26,6 +26,7 @@ import junit.framework.TestCase;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NormalizedKeyComparator;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparator;
 
@@ -159,6 +160,30 @@ public class TestIndexedSort extends TestCase {
     assertTrue(Arrays.equals(values, check));
   }
 
+  public void testRadixSort() throws Exception {
+    RadixSort sorter = new RadixSort();
+    sortRandom(sorter);
+    sortSingleRecord(sorter);
+    sortSequential(sorter);
+    sortSorted(sorter);
+    sortAllEqual(sorter);
+    sortWritable(sorter);
+
+    // items that are not radix sortable are quick sorted
+    SampleSortable s = new SampleSortable(1000);
+    int[] values = s.getValues();
+    sorter.sort(new MeasuredSortable(s), 0, values.length);
+    Arrays.sort(values);
+    assertTrue(Arrays.equals(values, s.getSorted()));
+
+    // equal exact normalized keys need no comparisons
+    values = new int[1000];
+    Arrays.fill(values, 10);
+    s = new SampleSortable(values);
+    sorter.sort(new MeasuredRadixSortable(s, 1), 0, values.length);
+    assertTrue(Arrays.equals(values, s.getSorted()));
+  }
+
   public void testHeapSort() throws Exception {
     HeapSort sorter = new HeapSort();
     sortRandom(sorter);
@@ -171,7 +196,7 @@ public class TestIndexedSort extends TestCase {
 
   // Sortables //
 
-  private static class SampleSortable implements IndexedSortable {
+  private static class SampleSortable implements RadixSortable {
     private int[] valindex;
     private int[] valindirect;
     private int[] values;
@@ -220,6 +245,14 @@ public class TestIndexedSort extends TestCase {
       valindex[j] = tmp;
     }
 
+    public long getNormalizedKey(int i) {
+      return values[valindirect[valindex[i]]];
+    }
+
+    public boolean isNormalizedKeyExact() {
+      return true;
+    }
+
     public int[] getSorted() {
       int[] ret = new int[values.length];
       for (int i = 0; i < ret.length; ++i) {
@@ -275,7 +308,27 @@ public class TestIndexedSort extends TestCase {
 
   }
 
-  private static class WritableSortable implements IndexedSortable {
+  public static class MeasuredRadixSortable extends MeasuredSortable
+    implements RadixSortable {
+
+    private RadixSortable s;
+
+    public MeasuredRadixSortable(RadixSortable s, int maxcmp) {
+      super(s, maxcmp);
+      this.s = s;
+    }
+
+    public long getNormalizedKey(int i) {
+      return s.getNormalizedKey(i);
+    }
+
+    public boolean isNormalizedKeyExact() {
+      return s.isNormalizedKeyExact();
+    }
+
+  }
+
+  private static class WritableSortable implements RadixSortable {
 
     private static Random r = new Random();
     private final int eob;
@@ -332,6 +385,17 @@ public class TestIndexedSort extends TestCase {
         ((ij + 1 == indices.length) ? eob : offsets[ij + 1]) - offsets[ij]);
     }
 
+    public long getNormalizedKey(int i) {
+      final int ii = indices[i];
+      return ((NormalizedKeyComparator) comparator).normalizedKey(bytes,
+        offsets[ii],
+        ((ii + 1 == indices.length) ? eob : offsets[ii + 1]) - offsets[ii]);
+    }
+
+    public boolean isNormalizedKeyExact() {
+      return false;
+    }
+
     public void swap(int i, int j) {
       int tmp = indices[i];
       indices[i] = indices[j];
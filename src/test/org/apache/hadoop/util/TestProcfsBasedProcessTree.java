@@ -146,4 +146,30 @@ public class TestProcfsBasedProcessTree extends TestCase {
       LOG.info("Interrupted while joining RogueTaskThread.");
     }
   }
+
+  public void testCpuTime() {
+    if (!ProcfsBasedProcessTree.isAvailable()) {
+      System.out.println("ProcfsBasedProcessTree is not available on this system. Not testing");
+      return;
+    }
+    // the tree of this JVM
+    String name = java.lang.management.ManagementFactory.getRuntimeMXBean().getName();
+    String pid = name.substring(0, name.indexOf('@'));
+    ProcfsBasedProcessTree p = new ProcfsBasedProcessTree(pid);
+    p.getProcessTree();
+
+    long start = p.getCumulativeCpuTime();
+    long sum = 0;
+    long deadline = System.currentTimeMillis() + 500;
+    while (System.currentTimeMillis() < deadline) {
+      sum += new Random().nextInt();
+    }
+    p.refresh();
+    long end = p.getCumulativeCpuTime();
+    LOG.info("Cpu time " + start + " -> " + end + " (" + sum + ")");
+    assertTrue(start > 0);
+    assertTrue(end > start);
+    assertTrue(p.getCumulativeReadBytes() >= 0);
+    assertTrue(p.getCumulativeWriteBytes() >= 0);
+  }
 }